@@ -36,6 +36,9 @@ import org.apache.hadoop.fs.s3a.sdk.RestoreObject;
 import org.apache.hadoop.fs.s3a.sdk.SessionKeys;
 import org.apache.hadoop.fs.s3a.sdk.Undelete;
 import org.apache.hadoop.fs.shell.CommandFormat;
+import org.apache.hadoop.fs.store.audit.AuditJobs;
+import org.apache.hadoop.fs.store.audit.AuditQuery;
+import org.apache.hadoop.fs.store.audit.AuditStats;
 import org.apache.hadoop.fs.store.audit.AuditTool;
 import org.apache.hadoop.fs.store.commands.Bandwidth;
 import org.apache.hadoop.fs.store.commands.BucketState;
@@ -50,7 +53,9 @@ import org.apache.hadoop.fs.store.commands.LocateFiles;
 import org.apache.hadoop.fs.store.commands.PathCapability;
 import org.apache.hadoop.fs.store.commands.PrintStatus;
 import org.apache.hadoop.fs.store.commands.Put;
+import org.apache.hadoop.fs.store.commands.ReadPatterns;
 import org.apache.hadoop.fs.store.commands.TLSInfo;
+import org.apache.hadoop.fs.store.commands.UploadBuffers;
 import org.apache.hadoop.fs.store.diag.StoreDiag;
 import org.apache.hadoop.fs.tools.cloudup.Cloudup;
 import org.apache.hadoop.fs.tools.csv.MkCSV;
@@ -112,6 +117,9 @@ public final class Cloudstore {
   static {
     Map<String, EntryPoint> m = new LinkedHashMap<>();
     m.put("auditlogs", ep(AuditTool.class, "Audit log processings"));
+    m.put("auditjobs", ep(AuditJobs.class, "rank jobs by their time in S3 from server logs"));
+    m.put("auditquery", ep(AuditQuery.class, "query audit avro files, using their index"));
+    m.put("auditstats", ep(AuditStats.class, "report statistics of S3 server logs"));
     m.put("bandwidth", ep(Bandwidth.class, "measure network bandwidth"));
     m.put("bucketmetadata", ep(BucketMetadata.class, "retrieve bucket metadata"));
     m.put("bucketstate", ep(BucketState.class, "prints the AWS bucket state"));
@@ -137,12 +145,14 @@ public final class Cloudstore {
     m.put("mkcsv", ep(MkCSV.class, "generate CSV file"));
     m.put("pathcapability", ep(PathCapability.class, "probe for path capabilities"));
     m.put("put", ep(Put.class, "file upload/copy"));
+    m.put("readpatterns", ep(ReadPatterns.class, "benchmark random and columnar read patterns"));
     m.put("regions", ep(Regions.class, "Emulate region lookup of AWS SDK"));
     m.put("restore", ep(RestoreObject.class, "Restore a versioned S3 object"));
     m.put("sessionkeys", ep(SessionKeys.class, "request STS session credentials"));
     m.put("storediag", ep(StoreDiag.class, "store diagnostics"));
     m.put("tlsinfo", ep(TLSInfo.class, "Print TLS information"));
     m.put("undelete", ep(Undelete.class, "undelete s3 objects by removing tombstones"));
+    m.put("uploadbuffers", ep(UploadBuffers.class, "benchmark s3a upload buffering options"));
     COMMANDS = Collections.unmodifiableMap(m);
   }
 
@@ -83,6 +83,9 @@ public final class CommonParameters {
 
   public static final String IGNORE = "ignore";
 
+  /** File to save aggregate IOStatistics to as JSON: {@value}. */
+  public static final String IOSTATISTICS = "iostatistics";
+
   public static final String LARGEST = "largest";
 
   public static final String OVERWRITE = "overwrite";
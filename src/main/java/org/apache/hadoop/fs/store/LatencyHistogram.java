@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets.
+ * <p>
+ * Values are recorded in nanoseconds. Every power of two is split into {@link #SUB_BUCKETS}
+ * linear buckets, so the relative error of a percentile is under 1/{@value #SUB_BUCKETS}, whatever
+ * the magnitude of the value. The counters are {@link LongAdder}s, which stripe updates across
+ * cells, so many threads can record without contending; buckets are created on first use.
+ * <p>
+ * Reads are not atomic with respect to concurrent updates: percentiles are only exact once all
+ * recording threads have finished. Histograms can be merged, for example to aggregate the blocks
+ * of many streams.
+ */
+public final class LatencyHistogram {
+
+  /**
+   * Number of bits of a value which select the linear bucket within a power of two.
+   */
+  private static final int SUB_BUCKET_BITS = 5;
+
+  /**
+   * Number of linear buckets within each power of two: {@value}.
+   */
+  public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /**
+   * Number of buckets needed for all non-negative long values.
+   */
+  private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+  private final String name;
+
+  private final AtomicReferenceArray<LongAdder> buckets =
+      new AtomicReferenceArray<>(BUCKET_COUNT);
+
+  private final LongAdder count = new LongAdder();
+
+  private final LongAdder sum = new LongAdder();
+
+  private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+
+  private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+  public LatencyHistogram(final String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Record a latency.
+   *
+   * @param nanos latency in nanoseconds; negative values are recorded as 0.
+   */
+  public void record(final long nanos) {
+    final long value = Math.max(nanos, 0);
+    bucket(indexOf(value)).increment();
+    count.increment();
+    sum.add(value);
+    min.accumulate(value);
+    max.accumulate(value);
+  }
+
+  /**
+   * Record a latency measured in milliseconds, such as that of a {@link StoreDurationInfo}.
+   *
+   * @param millis latency in milliseconds.
+   */
+  public void recordMillis(final long millis) {
+    record(millis * 1_000_000L);
+  }
+
+  /**
+   * Add all the values of another histogram to this one.
+   *
+   * @param other source histogram
+   * @return this histogram
+   */
+  public LatencyHistogram merge(final LatencyHistogram other) {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      final LongAdder source = other.buckets.get(i);
+      if (source != null) {
+        final long c = source.sum();
+        if (c > 0) {
+          bucket(i).add(c);
+        }
+      }
+    }
+    final long c = other.count.sum();
+    if (c > 0) {
+      count.add(c);
+      sum.add(other.sum.sum());
+      min.accumulate(other.min.get());
+      max.accumulate(other.max.get());
+    }
+    return this;
+  }
+
+  public long samples() {
+    return count.sum();
+  }
+
+  /**
+   * Sum of all values.
+   *
+   * @return the sum in nanoseconds
+   */
+  public long sum() {
+    return sum.sum();
+  }
+
+  /**
+   * Minimum value.
+   *
+   * @return the minimum in nanoseconds, or 0 if the histogram is empty
+   */
+  public long min() {
+    return samples() > 0 ? min.get() : 0;
+  }
+
+  /**
+   * Maximum value.
+   *
+   * @return the maximum in nanoseconds, or 0 if the histogram is empty
+   */
+  public long max() {
+    return samples() > 0 ? max.get() : 0;
+  }
+
+  /**
+   * Mean value.
+   *
+   * @return the mean in nanoseconds, or 0 if the histogram is empty
+   */
+  public double mean() {
+    final long c = samples();
+    return c > 0 ? ((double) sum()) / c : 0;
+  }
+
+  /**
+   * Get a percentile by nearest rank. The value is the midpoint of the bucket holding the rank,
+   * bounded by the minimum and maximum recorded values.
+   *
+   * @param percentile percentile, 0-100
+   * @return the value in nanoseconds, or 0 if the histogram is empty
+   */
+  public long percentile(final double percentile) {
+    final long c = samples();
+    if (c == 0) {
+      return 0;
+    }
+    final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * c));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      final LongAdder bucket = buckets.get(i);
+      if (bucket != null) {
+        seen += bucket.sum();
+        if (seen >= rank) {
+          final long low = lowerBound(i);
+          final long mid = low + (upperBound(i) - low) / 2;
+          return Math.min(Math.max(mid, min()), max());
+        }
+      }
+    }
+    return max();
+  }
+
+  /**
+   * Percentile in milliseconds.
+   *
+   * @param percentile percentile, 0-100
+   * @return the value in milliseconds
+   */
+  public double percentileMillis(final double percentile) {
+    return percentile(percentile) / NANOS_PER_MILLI;
+  }
+
+  /**
+   * Summary of the histogram in milliseconds: count, min, mean, percentiles and max.
+   *
+   * @return a string for reports
+   */
+  public String summary() {
+    return String.format("%,d samples: min %.3f ms, mean %.3f ms, p50 %.3f ms, p90 %.3f ms,"
+        + " p99 %.3f ms, p99.9 %.3f ms, max %.3f ms", samples(), min() / NANOS_PER_MILLI,
+        mean() / NANOS_PER_MILLI, percentileMillis(50), percentileMillis(90),
+        percentileMillis(99), percentileMillis(99.9), max() / NANOS_PER_MILLI);
+  }
+
+  @Override
+  public String toString() {
+    return name + ": " + summary();
+  }
+
+  /**
+   * Get or create a bucket.
+   *
+   * @param index bucket index
+   * @return the bucket
+   */
+  private LongAdder bucket(final int index) {
+    LongAdder bucket = buckets.get(index);
+    if (bucket == null) {
+      buckets.compareAndSet(index, null, new LongAdder());
+      bucket = buckets.get(index);
+    }
+    return bucket;
+  }
+
+  /**
+   * Index of the bucket holding a value. Values under {@link #SUB_BUCKETS} have a bucket each;
+   * above that the top {@link #SUB_BUCKET_BITS} bits after the leading one select the bucket
+   * within the power of two.
+   *
+   * @param value non-negative value
+   * @return the index
+   */
+  static int indexOf(final long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int shift = exponent - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  /**
+   * Lowest value held in a bucket.
+   *
+   * @param index bucket index
+   * @return the value
+   */
+  static long lowerBound(final int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    final int shift = index / SUB_BUCKETS - 1;
+    return ((long) (SUB_BUCKETS + index % SUB_BUCKETS)) << shift;
+  }
+
+  /**
+   * Highest value held in a bucket.
+   *
+   * @param index bucket index
+   * @return the value
+   */
+  static long upperBound(final int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    final int shift = index / SUB_BUCKETS - 1;
+    return lowerBound(index) + (1L << shift) - 1;
+  }
+}
@@ -475,7 +475,8 @@ public class StoreEntryPoint extends Configured implements Tool, Closeable, Prin
    * @return the value or the default.
    */
   protected final String getOption(String opt, String defval) {
-    return hasOption(opt) ? getCommandFormat().getOptValue(opt) : defval;
+    final String value = getCommandFormat().getOptValue(opt);
+    return value != null ? value : defval;
   }
 
   /**
@@ -724,14 +725,17 @@ public class StoreEntryPoint extends Configured implements Tool, Closeable, Prin
   }
 
   /**
-   * @param operation
-   * @param tracker
-   * @param sizeBytes
-   * @param blockName
-   * @param blockSummary
+   * Print the summary of an operation: its duration, bandwidth and, if supplied, the latency
+   * distribution of its blocks.
+   *
+   * @param operation operation name
+   * @param tracker operation duration
+   * @param sizeBytes bytes processed
+   * @param blockName name of the blocks in the output
+   * @param blockSummary nullable block latencies
    */
   protected void summarize(String operation, StoreDurationInfo tracker, long sizeBytes,
-      final String blockName, final MinMeanMax blockSummary) {
+      final String blockName, final LatencyHistogram blockSummary) {
     heading("%s Summary", operation);
     println("Data size %,d bytes", sizeBytes);
     println("%s duration %s", operation, tracker.getDurationString());
@@ -749,9 +753,7 @@ public class StoreEntryPoint extends Configured implements Tool, Closeable, Prin
     println("%s bandwidth in Megabits/second %,.3f Mbit/s", operation, megabitsPerSecond);
     println("%s bandwidth in Megabytes/second %,.3f MB/s", operation, megabytesPerSecond);
     if (blockSummary != null) {
-      println("%s %d: min %.3f seconds, max %.3f seconds, mean %.3f seconds,", blockName,
-          blockSummary.samples(), blockSummary.min() / 1000.0, blockSummary.max() / 1000.0,
-          blockSummary.mean() / 1000.0);
+      println("%s %s", blockName, blockSummary.summary());
     }
     println();
   }
@@ -177,6 +177,23 @@ public final class StoreUtils {
     return Duration.of(duration, ChronoUnit.SECONDS);
   }
 
+  /**
+   * Parse a duration argument to millisecond resolution, such as "500ms".
+   *
+   * @param argument arg value
+   * @param defaultValue default value if none is provided
+   * @param defaultUnit default unit if no value is given
+   * @return the duration
+   */
+  public static Duration parseDurationArgumentMillis(String argument, long defaultValue,
+      TimeUnit defaultUnit) {
+    final Configuration conf = new Configuration(false);
+    conf.set("key", argument);
+    final long duration =
+        conf.getTimeDuration("key", defaultValue, defaultUnit, TimeUnit.MILLISECONDS);
+    return Duration.of(duration, ChronoUnit.MILLIS);
+  }
+
   /**
    * Create a list of star characters.
    * 
@@ -0,0 +1,435 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import static org.apache.hadoop.fs.audit.AuditConstants.PARAM_PRINCIPAL;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.Nullable;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Sparse index of an Avro file of audit records: for every block of the file, its position, the
+ * number of records, the first and last event time, and the verbs, buckets and principals
+ * ({@code pr} of the audit information) of its records. A query reads only the blocks which may
+ * have matching records; see {@link AuditRecordFilter}.
+ *
+ * <p>
+ * The index is saved as a tab separated file beside the Avro file, with the name of the file
+ * prefixed by an underscore, so Spark and Hive do not read it as data, and suffixed by
+ * {@link #INDEX_SUFFIX}. It records the length of the Avro file and is ignored if the file has
+ * changed. A block with more than {@link #MAX_VALUES} verbs, buckets or principals is indexed as
+ * having any.
+ */
+public final class AuditBlockIndex {
+
+  /**
+   * Suffix of the name of an index: {@value}.
+   */
+  public static final String INDEX_SUFFIX = ".index";
+
+  /**
+   * Largest number of values of a field kept for a block: {@value}.
+   */
+  public static final int MAX_VALUES = 32;
+
+  /**
+   * Value of a field with more than {@link #MAX_VALUES} values in a block.
+   */
+  private static final String ANY = "*";
+
+  private static final String LENGTH = "length";
+
+  private static final String HEADER =
+      "# position\trecords\tfirst\tlast\tverbs\tbuckets\tprincipals";
+
+  private final long fileLength;
+
+  private final List<Block> blocks;
+
+  private AuditBlockIndex(final long fileLength, final List<Block> blocks) {
+    this.fileLength = fileLength;
+    this.blocks = Collections.unmodifiableList(blocks);
+  }
+
+  /**
+   * Length of the Avro file which was indexed.
+   *
+   * @return bytes
+   */
+  public long getFileLength() {
+    return fileLength;
+  }
+
+  /**
+   * The blocks of the file, in order.
+   *
+   * @return the blocks
+   */
+  public List<Block> getBlocks() {
+    return blocks;
+  }
+
+  /**
+   * Path of the index of an Avro file.
+   *
+   * @param avroFile Avro file
+   * @return the path of its index
+   */
+  public static Path indexPath(final Path avroFile) {
+    return new Path(avroFile.getParent(), "_" + avroFile.getName() + INDEX_SUFFIX);
+  }
+
+  /**
+   * Load the index of an Avro file.
+   *
+   * @param fs filesystem
+   * @param avroFile Avro file
+   * @return the index, or null if there is none
+   * @throws IOException failure to read the index, or a malformed entry
+   */
+  @Nullable
+  public static AuditBlockIndex load(final FileSystem fs, final Path avroFile)
+      throws IOException {
+    final Path path = indexPath(avroFile);
+    final FSDataInputStream in;
+    try {
+      in = fs.open(path);
+    } catch (FileNotFoundException e) {
+      return null;
+    }
+    long length = -1;
+    final List<Block> blocks = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      String line;
+      int lineNumber = 0;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        final String[] fields = line.split("\t", -1);
+        try {
+          if (fields.length == 2 && LENGTH.equals(fields[0])) {
+            length = Long.parseLong(fields[1]);
+          } else if (fields.length == 7) {
+            blocks.add(new Block(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                Instant.parse(fields[2]), Instant.parse(fields[3]), decode(fields[4]),
+                decode(fields[5]), decode(fields[6])));
+          } else {
+            throw new IOException(String.format("%s: malformed entry at line %d: %s", path,
+                lineNumber, line));
+          }
+        } catch (NumberFormatException | DateTimeParseException e) {
+          throw new IOException(String.format("%s: malformed entry at line %d: %s", path,
+              lineNumber, line), e);
+        }
+      }
+    }
+    if (length < 0) {
+      throw new IOException(path + ": no file length");
+    }
+    return new AuditBlockIndex(length, blocks);
+  }
+
+  /**
+   * Save the index of an Avro file, overwriting any saved before.
+   * A failure to close the file, which is when an object store uploads it, is raised.
+   *
+   * @param fs filesystem
+   * @param avroFile Avro file
+   * @throws IOException failure to write
+   */
+  public void save(final FileSystem fs, final Path avroFile) throws IOException {
+    final Path path = indexPath(avroFile);
+    try (Writer out = new BufferedWriter(new OutputStreamWriter(
+        fs.createFile(path).overwrite(true).recursive().build(), StandardCharsets.UTF_8))) {
+      out.write(LENGTH + "\t" + fileLength + "\n");
+      out.write(HEADER + "\n");
+      for (Block block : blocks) {
+        out.write(block.position + "\t" + block.records + "\t" + block.first + "\t" + block.last
+            + "\t" + encode(block.verbs) + "\t" + encode(block.buckets) + "\t"
+            + encode(block.principals) + "\n");
+      }
+    }
+  }
+
+  /**
+   * Encode a set of values as a comma separated list, or {@link #ANY}.
+   */
+  private static String encode(@Nullable final Set<String> values) {
+    if (values == null) {
+      return ANY;
+    }
+    final StringBuilder sb = new StringBuilder();
+    for (String value : values) {
+      if (sb.length() > 0) {
+        sb.append(',');
+      }
+      for (int i = 0; i < value.length(); i++) {
+        final char c = value.charAt(i);
+        if (c == '%' || c == ',' || c == '*' || c < ' ') {
+          sb.append(String.format("%%%02X", (int) c));
+        } else {
+          sb.append(c);
+        }
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Decode a set of values encoded by {@link #encode(Set)}.
+   */
+  @Nullable
+  private static Set<String> decode(final String field) {
+    if (ANY.equals(field)) {
+      return null;
+    }
+    final Set<String> values = new TreeSet<>();
+    if (field.isEmpty()) {
+      return values;
+    }
+    for (String value : field.split(",", -1)) {
+      final StringBuilder sb = new StringBuilder(value.length());
+      for (int i = 0; i < value.length(); i++) {
+        final char c = value.charAt(i);
+        if (c == '%' && i + 2 < value.length()) {
+          sb.append((char) Integer.parseInt(value.substring(i + 1, i + 3), 16));
+          i += 2;
+        } else {
+          sb.append(c);
+        }
+      }
+      values.add(sb.toString());
+    }
+    return values;
+  }
+
+  /**
+   * A block of an Avro file.
+   */
+  public static final class Block {
+
+    private final long position;
+
+    private final long records;
+
+    private final Instant first;
+
+    private final Instant last;
+
+    @Nullable
+    private final Set<String> verbs;
+
+    @Nullable
+    private final Set<String> buckets;
+
+    @Nullable
+    private final Set<String> principals;
+
+    private Block(final long position, final long records, final Instant first,
+        final Instant last, @Nullable final Set<String> verbs,
+        @Nullable final Set<String> buckets, @Nullable final Set<String> principals) {
+      this.position = position;
+      this.records = records;
+      this.first = first;
+      this.last = last;
+      this.verbs = verbs;
+      this.buckets = buckets;
+      this.principals = principals;
+    }
+
+    /**
+     * Position of the block, to pass to {@code DataFileReader.seek()}.
+     *
+     * @return the position of the sync marker before the block
+     */
+    public long getPosition() {
+      return position;
+    }
+
+    public long getRecords() {
+      return records;
+    }
+
+    /**
+     * Earliest event time of the records.
+     *
+     * @return the time
+     */
+    public Instant getFirst() {
+      return first;
+    }
+
+    /**
+     * Latest event time of the records.
+     *
+     * @return the time
+     */
+    public Instant getLast() {
+      return last;
+    }
+
+    /**
+     * Verbs of the records.
+     *
+     * @return the verbs, or null if there were more than {@link #MAX_VALUES}
+     */
+    @Nullable
+    public Set<String> getVerbs() {
+      return verbs;
+    }
+
+    /**
+     * Buckets of the records.
+     *
+     * @return the buckets, or null if there were more than {@link #MAX_VALUES}
+     */
+    @Nullable
+    public Set<String> getBuckets() {
+      return buckets;
+    }
+
+    /**
+     * Principals of the records with audit information.
+     *
+     * @return the principals, or null if there were more than {@link #MAX_VALUES}
+     */
+    @Nullable
+    public Set<String> getPrincipals() {
+      return principals;
+    }
+  }
+
+  /**
+   * Builds the index of an Avro file as it is written: records are added as they are appended,
+   * and the end of every block written is marked with the position of the output stream. Not
+   * thread safe.
+   */
+  public static final class Builder {
+
+    private final List<Block> blocks = new ArrayList<>();
+
+    /**
+     * Position of the start of the pending block.
+     */
+    private long position;
+
+    private long records;
+
+    private Instant first;
+
+    private Instant last;
+
+    @Nullable
+    private Set<String> verbs = new TreeSet<>();
+
+    @Nullable
+    private Set<String> buckets = new TreeSet<>();
+
+    @Nullable
+    private Set<String> principals = new TreeSet<>();
+
+    /**
+     * Constructor.
+     *
+     * @param start position of the first block: the end of the header of the file
+     */
+    public Builder(final long start) {
+      this.position = start;
+    }
+
+    /**
+     * Add a record appended to the pending block.
+     *
+     * @param record record
+     */
+    public void add(final AvroS3LogEntryRecord record) {
+      final Instant event = record.getEvent();
+      if (records == 0 || event.isBefore(first)) {
+        first = event;
+      }
+      if (records == 0 || event.isAfter(last)) {
+        last = event;
+      }
+      records++;
+      verbs = addValue(verbs, record.getVerb());
+      buckets = addValue(buckets, record.getBucket());
+      principals = addValue(principals, AuditRecordFilter.auditParam(record, PARAM_PRINCIPAL));
+    }
+
+    @Nullable
+    private static Set<String> addValue(@Nullable final Set<String> values,
+        @Nullable final CharSequence value) {
+      if (values == null || value == null || value.length() == 0) {
+        return values;
+      }
+      values.add(value.toString());
+      return values.size() > MAX_VALUES ? null : values;
+    }
+
+    /**
+     * Mark the end of the pending block, if the position of the output has moved past it; the
+     * records added since the last block are in the block.
+     *
+     * @param end position of the output stream
+     */
+    public void blockEnded(final long end) {
+      if (end == position) {
+        return;
+      }
+      if (records > 0) {
+        blocks.add(new Block(position, records, first, last, verbs, buckets, principals));
+      }
+      position = end;
+      records = 0;
+      verbs = new TreeSet<>();
+      buckets = new TreeSet<>();
+      principals = new TreeSet<>();
+    }
+
+    /**
+     * Build the index once the file has been written.
+     *
+     * @param fileLength length of the file
+     * @return the index
+     */
+    public AuditBlockIndex build(final long fileLength) {
+      blockEnded(fileLength);
+      return new AuditBlockIndex(fileLength, new ArrayList<>(blocks));
+    }
+  }
+}
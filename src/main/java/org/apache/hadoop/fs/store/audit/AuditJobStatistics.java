@@ -0,0 +1,634 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import static org.apache.hadoop.fs.audit.AuditConstants.PARAM_ID;
+import static org.apache.hadoop.fs.audit.AuditConstants.PARAM_JOB_ID;
+import static org.apache.hadoop.fs.audit.AuditConstants.PARAM_OP;
+import static org.apache.hadoop.fs.audit.AuditConstants.PARAM_PATH;
+import static org.apache.hadoop.fs.audit.AuditConstants.PARAM_PRINCIPAL;
+import static org.apache.hadoop.fs.audit.AuditConstants.PARAM_PROCESS;
+import static org.apache.hadoop.fs.audit.AuditConstants.PARAM_TASK_ATTEMPT_ID;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+import javax.annotation.Nullable;
+import org.apache.hadoop.fs.tools.csv.SimpleCsvWriter;
+
+/**
+ * Rebuilds the store activity of jobs and their tasks from the S3A audit information in the
+ * referrer header of S3 log records, ranking the jobs which spent the most time in the store.
+ *
+ * <p>
+ * Records are grouped by job ID ({@code ji}) or, for processes which are not jobs, by process ID
+ * ({@code ps}); within a job by task attempt ID ({@code ta}) and by span ID ({@code id}), the
+ * S3A operation such as an open or rename which issued the requests. For every job this counts
+ * requests by S3 verb and S3A operation, errors and throttled requests, and two measures of time
+ * in the store:
+ * <ul>
+ *   <li>store time: the sum of the total time of its requests;</li>
+ *   <li>critical path: the store time of its slowest task attempt plus that of the requests made
+ *   outside any task, such as by the job committer; the least time the job can have waited for
+ *   the store if its tasks ran in parallel.</li>
+ * </ul>
+ * The slowest spans of every job are kept as its timeline.
+ *
+ * <p>
+ * Memory use is bounded as in {@link AuditStatistics}: at most {@code 2 * maxKeys} jobs, and as
+ * many spans and task attempts per job, are kept; the others are folded into an
+ * {@value AuditStatistics#OTHER} job, or dropped, keeping those with the most store time.
+ * A span or task attempt which was dropped and has more requests later is counted again.
+ * Not thread safe.
+ */
+public final class AuditJobStatistics implements AuditLogProcessor.Processed {
+
+  /**
+   * Prefix of the key of a process which is not a job: {@value}.
+   */
+  public static final String PROCESS_PREFIX = "process ";
+
+  /**
+   * AWS error code of throttled requests: {@value}.
+   */
+  public static final String SLOW_DOWN = "SlowDown";
+
+  /**
+   * Header of the CSV file.
+   */
+  private static final String[] CSV_COLUMNS = {"job", "principal", "requests", "errors",
+      "throttled", "tasks", "spans", "store_ms", "critical_path_ms", "first", "last"};
+
+  private final int top;
+
+  private final int maxKeys;
+
+  private final Map<String, Job> jobs = new HashMap<>();
+
+  /**
+   * Number of jobs folded into {@link AuditStatistics#OTHER}.
+   */
+  private long jobsPruned;
+
+  /**
+   * Number of records without audit information.
+   */
+  private long unattributed;
+
+  /**
+   * Create with the default sizes.
+   */
+  public AuditJobStatistics() {
+    this(AuditStatistics.DEFAULT_TOP, AuditStatistics.DEFAULT_MAX_KEYS);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param top number of jobs in the ranking, and of spans in the timeline of each
+   * @param maxKeys number of jobs, and of spans and task attempts per job, to keep
+   */
+  public AuditJobStatistics(final int top, final int maxKeys) {
+    this.top = Math.max(top, 1);
+    this.maxKeys = Math.max(maxKeys, this.top);
+  }
+
+  /**
+   * Add a record to its job.
+   *
+   * @param record record
+   * @return true, always: all records are processed
+   */
+  @Override
+  public boolean processed(final AvroS3LogEntryRecord record) {
+    final Map<CharSequence, CharSequence> audit = record.getAudit();
+    final String jobId = get(audit, PARAM_JOB_ID);
+    final String process = get(audit, PARAM_PROCESS);
+    if (jobId == null && process == null) {
+      unattributed++;
+      return true;
+    }
+    final String key = jobId != null ? jobId : PROCESS_PREFIX + process;
+    Job job = jobs.get(key);
+    if (job == null) {
+      if (jobs.size() >= maxKeys * 2) {
+        prune();
+      }
+      job = new Job(key, get(audit, PARAM_PRINCIPAL));
+      jobs.put(key, job);
+    }
+    job.add(record, audit, maxKeys);
+    return true;
+  }
+
+  /**
+   * Keep the jobs with the most store time and fold the others into
+   * {@link AuditStatistics#OTHER}.
+   */
+  private void prune() {
+    final Job other = jobs.containsKey(AuditStatistics.OTHER)
+        ? jobs.remove(AuditStatistics.OTHER)
+        : new Job(AuditStatistics.OTHER, null);
+    final List<Job> sorted = sorted();
+    jobs.clear();
+    for (int i = 0; i < sorted.size(); i++) {
+      if (i < maxKeys) {
+        jobs.put(sorted.get(i).key, sorted.get(i));
+      } else {
+        other.merge(sorted.get(i));
+        jobsPruned++;
+      }
+    }
+    jobs.put(AuditStatistics.OTHER, other);
+  }
+
+  private List<Job> sorted() {
+    final List<Job> list = new ArrayList<>(jobs.values());
+    list.sort(Comparator.comparingLong((Job j) -> j.storeTime).reversed());
+    return list;
+  }
+
+  /**
+   * The jobs which spent the most time in the store.
+   *
+   * @return up to {@code top} jobs, highest store time first
+   */
+  public List<Job> ranking() {
+    final List<Job> list = sorted();
+    return list.subList(0, Math.min(top, list.size()));
+  }
+
+  /**
+   * Get a job.
+   *
+   * @param key job ID, or process ID with the prefix {@link #PROCESS_PREFIX}
+   * @return the job or null
+   */
+  @Nullable
+  public Job getJob(final String key) {
+    return jobs.get(key);
+  }
+
+  /**
+   * Number of records without audit information.
+   *
+   * @return a count
+   */
+  public long getUnattributed() {
+    return unattributed;
+  }
+
+  /**
+   * Print the report: the ranking of jobs, then the details and timeline of each.
+   *
+   * @param out output
+   */
+  public void report(final PrintStream out) {
+    out.printf("Jobs and processes: %,d; requests without audit information: %,d%n",
+        jobs.size(), unattributed);
+    out.printf("%nTop jobs by store time%n");
+    out.printf("%10s %8s %9s %7s %12s %12s  %s%n", "requests", "errors", "throttled", "tasks",
+        "store ms", "critical ms", "job");
+    final List<Job> ranking = ranking();
+    for (Job job : ranking) {
+      out.printf("%,10d %,8d %,9d %,7d %,12d %,12d  %s%n", job.requests, job.errors,
+          job.throttled, job.taskCount, job.storeTime, job.criticalPath(), job.key);
+    }
+    if (jobsPruned > 0) {
+      out.printf("(%,d jobs were folded into %s; their statistics are approximate)%n",
+          jobsPruned, AuditStatistics.OTHER);
+    }
+    for (Job job : ranking) {
+      out.printf("%nJob %s", job.key);
+      if (job.principal != null) {
+        out.printf(" principal %s", job.principal);
+      }
+      out.printf("%n  %s to %s; %,d spans%n", job.first, job.last, job.spanCount);
+      out.printf("  by operation: %s%n", summary(job.operations));
+      out.printf("  by verb: %s%n", summary(job.verbs));
+      final Map.Entry<String, Long> slowestTask = job.slowestTask();
+      if (slowestTask != null) {
+        out.printf("  slowest task %s: %,d ms; outside tasks: %,d ms%n", slowestTask.getKey(),
+            slowestTask.getValue(), job.jobTime);
+      }
+      out.printf("  %-24s %10s %8s %10s  %s%n", "span start", "duration", "requests",
+          "store ms", "operation");
+      for (Span span : job.timeline(top)) {
+        out.printf("  %-24s %,10d %,8d %,10d  %s %s%s%n", span.first,
+            Duration.between(span.first, span.last).toMillis(), span.requests, span.time,
+            span.operation, span.path, span.errors > 0 ? " errors " + span.errors : "");
+      }
+    }
+  }
+
+  /**
+   * Summarize requests and time by key, most time first.
+   */
+  private static String summary(final Map<String, long[]> counts) {
+    final List<Map.Entry<String, long[]>> entries = new ArrayList<>(counts.entrySet());
+    entries.sort(Comparator.comparingLong((Map.Entry<String, long[]> e) -> e.getValue()[1])
+        .reversed());
+    final StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, long[]> entry : entries) {
+      if (sb.length() > 0) {
+        sb.append(", ");
+      }
+      sb.append(String.format("%s %,d (%,d ms)", entry.getKey(), entry.getValue()[0],
+          entry.getValue()[1]));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Write a CSV row for every job, highest store time first.
+   *
+   * @param csv CSV writer
+   * @throws IOException failure to write
+   */
+  public void writeCsv(final SimpleCsvWriter csv) throws IOException {
+    csv.columns((Object[]) CSV_COLUMNS);
+    csv.newline();
+    for (Job job : sorted()) {
+      csv.column(job.key).column(job.principal != null ? job.principal : "")
+          .columnL(job.requests).columnL(job.errors).columnL(job.throttled)
+          .columnL(job.taskCount).columnL(job.spanCount).columnL(job.storeTime)
+          .columnL(job.criticalPath())
+          .column(job.first != null ? job.first.toString() : "")
+          .column(job.last != null ? job.last.toString() : "");
+      csv.newline();
+    }
+  }
+
+  @Nullable
+  private static String get(@Nullable final Map<CharSequence, CharSequence> audit,
+      final String param) {
+    if (audit == null) {
+      return null;
+    }
+    final CharSequence value = audit.get(param);
+    return value != null && value.length() > 0 ? value.toString() : null;
+  }
+
+  private static String text(@Nullable final CharSequence value) {
+    return value != null ? value.toString() : "-";
+  }
+
+  /**
+   * Add a request to a count of requests and time.
+   */
+  private static void count(final Map<String, long[]> counts, final String key, final long time) {
+    final long[] c = counts.computeIfAbsent(key, k -> new long[2]);
+    c[0]++;
+    c[1] += time;
+  }
+
+  /**
+   * Add counts of requests and time to others.
+   */
+  private static void addCounts(final Map<String, long[]> counts,
+      final Map<String, long[]> other) {
+    other.forEach((k, v) -> {
+      final long[] c = counts.computeIfAbsent(k, x -> new long[2]);
+      c[0] += v[0];
+      c[1] += v[1];
+    });
+  }
+
+  /**
+   * Keep the entries of a map with the most store time.
+   *
+   * @param map map to prune
+   * @param count number of entries to keep
+   * @param time store time of an entry
+   * @param <V> type of the values
+   */
+  private static <V> void keepSlowest(final Map<String, V> map, final int count,
+      final ToLongFunction<V> time) {
+    final List<Map.Entry<String, V>> entries = new ArrayList<>(map.entrySet());
+    entries.sort(Comparator.comparingLong((Map.Entry<String, V> e) -> time.applyAsLong(
+        e.getValue())).reversed());
+    map.clear();
+    for (Map.Entry<String, V> entry : entries.subList(0, Math.min(count, entries.size()))) {
+      map.put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * The store activity of a job or process.
+   */
+  public static final class Job {
+
+    private final String key;
+
+    @Nullable
+    private final String principal;
+
+    private long requests;
+
+    private long errors;
+
+    private long throttled;
+
+    /**
+     * Sum of the total time of the requests, in milliseconds.
+     */
+    private long storeTime;
+
+    /**
+     * Store time of requests outside any task attempt.
+     */
+    private long jobTime;
+
+    @Nullable
+    private Instant first;
+
+    @Nullable
+    private Instant last;
+
+    /**
+     * Requests and time by S3A operation.
+     */
+    private final Map<String, long[]> operations = new HashMap<>();
+
+    /**
+     * Requests and time by S3 verb.
+     */
+    private final Map<String, long[]> verbs = new HashMap<>();
+
+    /**
+     * Store time by task attempt; the slowest are kept, as are the spans.
+     */
+    private final Map<String, Long> taskTime = new HashMap<>();
+
+    private long taskCount;
+
+    private final Map<String, Span> spans = new HashMap<>();
+
+    private long spanCount;
+
+    private Job(final String key, @Nullable final String principal) {
+      this.key = key;
+      this.principal = principal;
+    }
+
+    private void add(final AvroS3LogEntryRecord record,
+        final Map<CharSequence, CharSequence> audit, final int maxKeys) {
+      final long time = record.getTotaltime() != null ? Math.max(record.getTotaltime(), 0) : 0;
+      final String status = text(record.getHttp());
+      final boolean error = !status.startsWith("2") && !status.startsWith("3");
+      requests++;
+      storeTime += time;
+      if (error) {
+        errors++;
+      }
+      if ("503".equals(status) || SLOW_DOWN.equals(text(record.getAwserrorcode()))) {
+        throttled++;
+      }
+      final Instant start = record.getEvent();
+      final Instant end = start.plusMillis(time);
+      if (first == null || start.isBefore(first)) {
+        first = start;
+      }
+      if (last == null || end.isAfter(last)) {
+        last = end;
+      }
+      final String operation = get(audit, PARAM_OP);
+      count(operations, operation != null ? operation : "-", time);
+      count(verbs, text(record.getVerb()), time);
+      final String task = get(audit, PARAM_TASK_ATTEMPT_ID);
+      if (task != null) {
+        if (!taskTime.containsKey(task)) {
+          if (taskTime.size() >= maxKeys * 2) {
+            keepSlowest(taskTime, maxKeys, Long::longValue);
+          }
+          taskCount++;
+        }
+        taskTime.merge(task, time, Long::sum);
+      } else {
+        jobTime += time;
+      }
+      final String spanId = get(audit, PARAM_ID);
+      if (spanId != null) {
+        Span span = spans.get(spanId);
+        if (span == null) {
+          if (spans.size() >= maxKeys * 2) {
+            keepSlowest(spans, maxKeys, s -> s.time);
+          }
+          span = new Span(operation != null ? operation : "-",
+              text(get(audit, PARAM_PATH)), start);
+          spans.put(spanId, span);
+          spanCount++;
+        }
+        span.add(start, end, time, error);
+      }
+    }
+
+    /**
+     * Fold the counts of another job into this one; its tasks and spans are not kept, so all
+     * its time counts as outside tasks.
+     */
+    private void merge(final Job other) {
+      requests += other.requests;
+      errors += other.errors;
+      throttled += other.throttled;
+      storeTime += other.storeTime;
+      jobTime += other.storeTime;
+      taskCount += other.taskCount;
+      spanCount += other.spanCount;
+      if (other.first != null && (first == null || other.first.isBefore(first))) {
+        first = other.first;
+      }
+      if (other.last != null && (last == null || other.last.isAfter(last))) {
+        last = other.last;
+      }
+      addCounts(operations, other.operations);
+      addCounts(verbs, other.verbs);
+    }
+
+    @Nullable
+    private Map.Entry<String, Long> slowestTask() {
+      return taskTime.entrySet().stream().max(Map.Entry.comparingByValue()).orElse(null);
+    }
+
+    /**
+     * The critical path: the store time of the slowest task attempt plus that outside tasks.
+     *
+     * @return milliseconds
+     */
+    public long criticalPath() {
+      final Map.Entry<String, Long> slowest = slowestTask();
+      return (slowest != null ? slowest.getValue() : 0) + jobTime;
+    }
+
+    /**
+     * The slowest spans, in the order in which they started.
+     *
+     * @param count number of spans
+     * @return the spans
+     */
+    public List<Span> timeline(final int count) {
+      final List<Span> list = new ArrayList<>(spans.values());
+      list.sort(Comparator.comparingLong((Span s) -> s.time).reversed());
+      final List<Span> slowest = new ArrayList<>(list.subList(0, Math.min(count, list.size())));
+      slowest.sort(Comparator.comparing((Span s) -> s.first));
+      return slowest;
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    public long getRequests() {
+      return requests;
+    }
+
+    public long getErrors() {
+      return errors;
+    }
+
+    public long getThrottled() {
+      return throttled;
+    }
+
+    /**
+     * Sum of the total time of the requests.
+     *
+     * @return milliseconds
+     */
+    public long getStoreTime() {
+      return storeTime;
+    }
+
+    /**
+     * Number of task attempts.
+     *
+     * @return a count
+     */
+    public long getTasks() {
+      return taskCount;
+    }
+
+    public long getSpans() {
+      return spanCount;
+    }
+
+    /**
+     * Requests and time of an S3A operation.
+     *
+     * @param operation operation, such as {@code op_open}
+     * @return the number of requests and their time in milliseconds; zeros if there were none
+     */
+    public long[] getOperation(final String operation) {
+      return operations.getOrDefault(operation, new long[2]).clone();
+    }
+
+    /**
+     * Requests and time of an S3 verb.
+     *
+     * @param verb verb, such as {@code REST.GET.OBJECT}
+     * @return the number of requests and their time in milliseconds; zeros if there were none
+     */
+    public long[] getVerb(final String verb) {
+      return verbs.getOrDefault(verb, new long[2]).clone();
+    }
+  }
+
+  /**
+   * The requests of a span: one S3A operation.
+   */
+  public static final class Span {
+
+    private final String operation;
+
+    private final String path;
+
+    private Instant first;
+
+    private Instant last;
+
+    private long requests;
+
+    private long time;
+
+    private long errors;
+
+    private Span(final String operation, final String path, final Instant first) {
+      this.operation = operation;
+      this.path = path;
+      this.first = first;
+      this.last = first;
+    }
+
+    private void add(final Instant start, final Instant end, final long t,
+        final boolean error) {
+      requests++;
+      time += t;
+      if (error) {
+        errors++;
+      }
+      if (start.isBefore(first)) {
+        first = start;
+      }
+      if (end.isAfter(last)) {
+        last = end;
+      }
+    }
+
+    public String getOperation() {
+      return operation;
+    }
+
+    public long getRequests() {
+      return requests;
+    }
+
+    /**
+     * Start of the earliest request, whatever the order in which the records were read.
+     *
+     * @return the time
+     */
+    public Instant getFirst() {
+      return first;
+    }
+
+    /**
+     * End of the latest request.
+     *
+     * @return the time
+     */
+    public Instant getLast() {
+      return last;
+    }
+
+    /**
+     * Sum of the total time of the requests.
+     *
+     * @return milliseconds
+     */
+    public long getTime() {
+      return time;
+    }
+  }
+}
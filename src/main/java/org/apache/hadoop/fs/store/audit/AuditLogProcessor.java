@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.fs.store.audit;
 
+import static org.apache.hadoop.fs.Options.OpenFileOptions.FS_OPTION_OPENFILE_BUFFER_SIZE;
 import static org.apache.hadoop.fs.Options.OpenFileOptions.FS_OPTION_OPENFILE_READ_POLICY;
 import static org.apache.hadoop.fs.Options.OpenFileOptions.FS_OPTION_OPENFILE_READ_POLICY_WHOLE_FILE;
 import static org.apache.hadoop.fs.s3a.audit.S3LogParser.AWS_LOG_REGEXP_GROUPS;
@@ -28,32 +29,72 @@ import static org.apache.hadoop.fs.s3a.audit.S3LogParser.TURNAROUNDTIME_GROUP;
 import static org.apache.hadoop.fs.store.StoreUtils.isNullOrEmpty;
 import static org.apache.hadoop.util.functional.FutureIO.awaitFuture;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
+import javax.annotation.Nullable;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileReader;
 import org.apache.avro.file.DataFileWriter;
-import org.apache.avro.io.DatumWriter;
+import org.apache.avro.file.SeekableByteArrayInput;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
 import org.apache.avro.specific.SpecificDatumWriter;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
-import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FSDataOutputStreamBuilder;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
 import org.apache.hadoop.mapred.LineRecordReader;
 import org.apache.hadoop.util.DurationInfo;
 import org.slf4j.Logger;
@@ -109,12 +150,73 @@ public class AuditLogProcessor {
 
   public static final Instant EPOCH_START = Instant.ofEpochMilli(0);
 
+  /**
+   * Default number of files parsed in parallel: {@value}.
+   */
+  public static final int DEFAULT_THREADS = 4;
+
+  /**
+   * Source files longer than this are parsed into a local temporary file rather than into memory:
+   * {@value}.
+   */
+  public static final long SPILL_THRESHOLD = 16 * 1024 * 1024;
+
+  /**
+   * Size of the buffer for reading source files: {@value}.
+   */
+  public static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+  /**
+   * Number of buffers of decompressed text read ahead of the parsing of a compressed file:
+   * {@value}.
+   */
+  public static final int READ_AHEAD_BUFFERS = 4;
+
+  /**
+   * Number of records in a batch passed from a worker to the merging thread: {@value}.
+   */
+  public static final int RECORD_BATCH_SIZE = 1024;
+
+  /**
+   * Number of batches of records of a file queued for the merging thread; a worker waits while
+   * its queue is full: {@value}.
+   */
+  public static final int RECORD_BATCHES = 4;
+
+  /**
+   * Interval at which a worker waiting for the merging thread checks whether processing has
+   * stopped: {@value} milliseconds.
+   */
+  private static final long QUEUE_POLL_MILLIS = 100;
+
+  /**
+   * Estimated ratio of the length of the text of a compressed log file to its own: {@value}.
+   */
+  private static final int COMPRESSION_RATIO_ESTIMATE = 8;
+
   private final Configuration conf;
 
   /**
-   * Number of records to process before giving a status update.
+   * Codecs of compressed source files, by file name extension.
+   */
+  private final CompressionCodecFactory codecs;
+
+  /**
+   * Sampling of the source logs.
+   */
+  private AuditSampling sampling;
+
+  /**
+   * Range of event times to process; null for all.
    */
-  private final int sample;
+  @Nullable
+  private AuditTimeRange timeRange;
+
+  /**
+   * Filter of duplicate records; null if duplicates are kept.
+   */
+  @Nullable
+  private DuplicateRecordFilter duplicateFilter;
 
   // Basic parsing counters.
 
@@ -134,14 +236,231 @@ public class AuditLogProcessor {
   private long referrerHeadersParsed = 0;
 
   /**
-   * How many records were skipped due to lack of referrer or other reason.
+   * How many entries were skipped because they could not be parsed.
    */
   private long recordsSkipped = 0;
 
+  /**
+   * Number of files parsed in parallel.
+   */
+  private final int threads;
+
+  /**
+   * Partition the output by date and hour?
+   */
+  private boolean partitioned;
+
+  /**
+   * Partition the output by bucket within each hour?
+   */
+  private boolean partitionByBucket;
+
+  /**
+   * Compression codec of the output.
+   */
+  private CodecFactory codec = CodecFactory.nullCodec();
+
+  /**
+   * Approximate size of the blocks of the output.
+   */
+  private int syncInterval = DataFileConstants.DEFAULT_SYNC_INTERVAL;
+
+  /**
+   * Save an index of the blocks of a single output file?
+   */
+  private boolean indexed;
+
+  /**
+   * Number of files written by the last merge.
+   */
+  private int filesWritten;
+
+  /**
+   * Only source files which this accepts are processed.
+   */
+  private Predicate<FileStatus> fileFilter = status -> true;
+
+  /**
+   * Name of the segment to add to the destination directory; null if the destination is to be
+   * written as a whole.
+   */
+  @Nullable
+  private String segment;
+
+  /**
+   * Number of source files rejected by the filter in the last merge.
+   */
+  private long logFilesFiltered;
+
+  /**
+   * Source files fully merged by the last merge, in listing order.
+   */
+  private final List<FileStatus> filesMerged = new ArrayList<>();
+
+  /**
+   * Number of source files skipped in the last merge as their names show that they have no
+   * records in the time range.
+   */
+  private long logFilesOutOfRange;
+
+  /**
+   * Number of records of the files read in the last merge which were outside the time range.
+   */
+  private long recordsOutOfRange;
+
+  /**
+   * Number of duplicate records dropped in the last merge.
+   */
+  private long duplicateRecords;
+
+  /**
+   * Total length of the source files which the filter accepted in the last merge.
+   */
+  private long bytesListed;
+
+  /**
+   * Total length of the source files sampled in the last merge.
+   */
+  private long bytesSampled;
+
+  /**
+   * Number of lines read from the source files sampled in the last merge.
+   */
+  private long linesRead;
+
+  /**
+   * Number of those lines in the sample.
+   */
+  private long linesSampled;
+
+  /**
+   * Rank above which a line cannot enter the reservoir, as it is full of lines of lower rank;
+   * read by the workers to discard lines early.
+   */
+  private final AtomicLong reservoirBound = new AtomicLong(Long.MAX_VALUE);
+
   public AuditLogProcessor(final Configuration conf, final int sample) {
+    this(conf, sample, DEFAULT_THREADS);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param conf configuration
+   * @param sample parse one line in this many; 1 or less to parse every line
+   * @param threads number of files parsed in parallel
+   */
+  public AuditLogProcessor(final Configuration conf, final int sample, final int threads) {
     this.conf = conf;
 
-    this.sample = sample;
+    this.sampling = AuditSampling.lines(sample);
+    this.threads = Math.max(threads, 1);
+    this.codecs = new CompressionCodecFactory(conf);
+  }
+
+  /**
+   * Write a directory of Avro files partitioned by the date and hour of the events, rather than a
+   * single file.
+   *
+   * @param partitioned partition the output?
+   * @param byBucket also partition by bucket within each hour?
+   */
+  public void setPartitioned(final boolean partitioned, final boolean byBucket) {
+    this.partitioned = partitioned;
+    this.partitionByBucket = partitioned && byBucket;
+  }
+
+  /**
+   * Set the compression codec of the output.
+   *
+   * @param codec codec
+   */
+  public void setCodec(final CodecFactory codec) {
+    this.codec = codec;
+  }
+
+  /**
+   * Set the approximate size of the blocks of the output; larger blocks compress better.
+   *
+   * @param syncInterval block size in bytes
+   */
+  public void setSyncInterval(final int syncInterval) {
+    this.syncInterval = syncInterval;
+  }
+
+  /**
+   * Process only the source files which a filter accepts, such as those not yet in a
+   * {@link ProcessedFileLedger}. The filter is invoked on the thread which lists the files.
+   *
+   * @param fileFilter filter
+   */
+  public void setFileFilter(final Predicate<FileStatus> fileFilter) {
+    this.fileFilter = fileFilter;
+  }
+
+  /**
+   * Sample the source logs rather than parse all of them; see {@link #getSampleScale()}.
+   *
+   * @param sampling sampling
+   */
+  public void setSampling(final AuditSampling sampling) {
+    this.sampling = sampling;
+  }
+
+  /**
+   * Save an index of the blocks of the output file beside it, for queries to read only the
+   * blocks with matching records; see {@link AuditBlockIndex}. Partitioned output is not
+   * indexed. Indexing reads every record, so the blocks of the source files are not copied.
+   *
+   * @param indexed index the output?
+   */
+  public void setIndexed(final boolean indexed) {
+    this.indexed = indexed;
+  }
+
+  /**
+   * Only process records in a time range. Source files whose names show that they have no
+   * records in the range are skipped without being opened, and the date directories of the
+   * partitioned format which cannot have any are not listed; see {@link AuditTimeRange}.
+   *
+   * @param timeRange time range; null for all records
+   */
+  public void setTimeRange(@Nullable final AuditTimeRange timeRange) {
+    this.timeRange = timeRange;
+  }
+
+  /**
+   * Drop records which are duplicates of earlier ones, by request ID and host ID. The filter is
+   * kept across merges, so one processor, or a filter saved and loaded between runs, drops the
+   * duplicates of records merged before.
+   *
+   * @param duplicateFilter filter; null to keep duplicates
+   */
+  public void setDuplicateFilter(@Nullable final DuplicateRecordFilter duplicateFilter) {
+    this.duplicateFilter = duplicateFilter;
+  }
+
+  /**
+   * Add the output as a new segment of the destination directory rather than write the
+   * destination as a whole: a file {@code <segment>.avro} in the directory, or in each partition
+   * of a partitioned output. An existing destination is then not an error, and a segment without
+   * any records is not saved.
+   *
+   * @param segment segment name, unique within the destination; null for the whole destination
+   */
+  public void setSegment(@Nullable final String segment) {
+    this.segment = segment;
+  }
+
+  /**
+   * Create a writer with the codec and block size of the output.
+   *
+   * @return a new writer
+   */
+  private DataFileWriter<AvroS3LogEntryRecord> newDataFileWriter() {
+    return new DataFileWriter<>(new SpecificDatumWriter<>(AvroS3LogEntryRecord.class))
+        .setCodec(codec)
+        .setSyncInterval(syncInterval);
   }
 
   /**
@@ -228,10 +547,39 @@ public class AuditLogProcessor {
 
   /**
    * Merge and parse all the audit log files and convert data into avro file.
-   * 
+   *
+   * <p>
+   * Files are parsed in parallel by a pool of worker threads, while this thread merges their
+   * results into the output in the order in which the files were listed, so the output is still a
+   * concatenation of the source data. At most two files per worker are parsed ahead of the merge,
+   * which bounds the memory used.
+   *
+   * <p>
+   * With {@link #PROCESS_ALL}, each worker serializes the records of a file, one partition at a
+   * time. Records of less than a block are kept encoded in memory and appended to the block being
+   * written to the output, so the output has full blocks however small the source files; larger
+   * ones are written to Avro containers of their own, held in memory or, for source files larger
+   * than {@link #SPILL_THRESHOLD}, in local temporary files, and merged by copying their blocks.
+   * Neither is deserialized again. Any other callback is invoked on this thread for every record
+   * in order, and may stop processing; the records are then passed to this thread in batches of
+   * {@link #RECORD_BATCH_SIZE}, with at most {@link #RECORD_BATCHES} batches queued per file, and
+   * serialized by this thread, as they are when duplicates are dropped or the output indexed. A
+   * file is never held in memory as a whole, however large it is.
+   *
+   * <p>
+   * If the output is partitioned, the destination is a directory; see
+   * {@link PartitionedAvroOutput}. If a segment has been set, the output is added to the
+   * destination directory as a new segment; see {@link #setSegment(String)}.
+   *
+   * <p>
+   * If sampling has been set, only the sampled files or lines are parsed; see
+   * {@link AuditSampling}. A reservoir sample is merged once all files have been parsed.
+   * If a time range has been set, files outside it are skipped; see
+   * {@link #setTimeRange(AuditTimeRange)}.
+   *
    * @param logsPath source path of logs
-   * @param destFile destination path of merged log file
-   * @param overwrite overwrite the dest
+   * @param destFile destination path of merged log file, or directory of partitions
+   * @param overwrite overwrite the dest; a directory of partitions is replaced as a whole
    * @param processed processing callback.
    * @return number of records parsed.
    * @throws IOException on any failure
@@ -239,71 +587,526 @@ public class AuditLogProcessor {
   public long mergeAndParseAuditLogFiles(final Path logsPath, final Path destFile,
       boolean overwrite, Processed processed) throws IOException {
 
-    logRecordsProcessed = 0;
-    logFilesParsed = 0;
     // List source log files
     final FileSystem sourceFS = logsPath.getFileSystem(conf);
-    RemoteIterator<LocatedFileStatus> listOfLogFiles = sourceFS.listFiles(logsPath, true);
+    RemoteIterator<LocatedFileStatus> listOfLogFiles = listLogFiles(sourceFS, logsPath);
 
     final FileSystem destFS = destFile.getFileSystem(conf);
-    final FSDataOutputStreamBuilder builder =
-        destFS.createFile(destFile).recursive().overwrite(overwrite);
+    final AuditOutput output;
+    final Path segmentFile = segment != null ? new Path(destFile, segment + ".avro") : null;
+    if (partitioned) {
+      if (segment == null && !overwrite && destFS.exists(destFile)) {
+        throw new FileAlreadyExistsException(destFile.toString());
+      }
+      // a segment is added to the directory, never replaces it
+      output = new PartitionedAvroOutput(destFS, destFile, overwrite && segment == null,
+          this::newDataFileWriter, threads,
+          segment != null ? segment + ".avro" : PartitionedAvroOutput.PART_FILE);
+    } else {
+      final FSDataOutputStreamBuilder builder =
+          destFS.createFile(segmentFile != null ? segmentFile : destFile).recursive()
+              .overwrite(overwrite);
+      final Path file = segmentFile != null ? segmentFile : destFile;
+      output = indexed
+          ? new SingleAvroOutput(newDataFileWriter(), builder.build(), destFS, file)
+          : new SingleAvroOutput(newDataFileWriter(), builder.build());
+    }
+    process(sourceFS, listOfLogFiles, output, processed);
+    filesWritten = output.getFilesWritten();
+    if (segmentFile != null && logRecordsProcessed == 0) {
+      // nothing new: do not leave an empty segment
+      destFS.delete(segmentFile, false);
+      if (indexed) {
+        destFS.delete(AuditBlockIndex.indexPath(segmentFile), false);
+      }
+      filesWritten = 0;
+    }
 
-    FSDataOutputStream fsDataOutputStream = builder.build();
+    LOG.info("Successfully parsed: {} records with {} referrer headers " + "in the logs",
+        logRecordsProcessed, referrerHeadersParsed);
+    return logRecordsProcessed;
+  }
 
-    // Instantiate DatumWriter class
-    DatumWriter<AvroS3LogEntryRecord> datumWriter =
-        new SpecificDatumWriter<>(AvroS3LogEntryRecord.class);
+  /**
+   * Parse all the audit log files and pass their records to a callback, without writing any
+   * output; this is {@link #mergeAndParseAuditLogFiles(Path, Path, boolean, Processed)} without
+   * the Avro file. The files are parsed in parallel; the callback is invoked on this thread for
+   * every record, in order, and may stop processing.
+   *
+   * @param logsPath source path of logs
+   * @param processed processing callback
+   * @return number of records parsed
+   * @throws IOException on any failure
+   */
+  public long parseAuditLogFiles(final Path logsPath, final Processed processed)
+      throws IOException {
+    final FileSystem sourceFS = logsPath.getFileSystem(conf);
+    process(sourceFS, listLogFiles(sourceFS, logsPath), null, processed);
+    LOG.info("Successfully parsed: {} records with {} referrer headers " + "in the logs",
+        logRecordsProcessed, referrerHeadersParsed);
+    return logRecordsProcessed;
+  }
+
+  /**
+   * List the log files; with a time range, only the date directories of the partitioned format
+   * which it may have records in.
+   *
+   * @param sourceFS source filesystem
+   * @param logsPath source path of logs
+   * @return the listing
+   * @throws IOException failure to list
+   */
+  private RemoteIterator<LocatedFileStatus> listLogFiles(final FileSystem sourceFS,
+      final Path logsPath) throws IOException {
+    final AuditTimeRange range = timeRange;
+    return range != null
+        ? range.listLogFiles(sourceFS, logsPath)
+        : sourceFS.listFiles(logsPath, true);
+  }
+
+  /**
+   * Parse the listed files in parallel and merge them into the output in order, invoking the
+   * callback. The output is closed, or aborted on a failure.
+   *
+   * @param sourceFS source filesystem
+   * @param listOfLogFiles listing of the source files
+   * @param output output; null if the records are only passed to the callback
+   * @param processed processing callback
+   * @throws IOException on any failure
+   */
+  private void process(final FileSystem sourceFS,
+      final RemoteIterator<LocatedFileStatus> listOfLogFiles, @Nullable final AuditOutput output,
+      final Processed processed) throws IOException {
+    logRecordsProcessed = 0;
+    logFilesParsed = 0;
+    referrerHeadersParsed = 0;
+    recordsSkipped = 0;
+    filesWritten = 0;
+    logFilesFiltered = 0;
+    logFilesOutOfRange = 0;
+    recordsOutOfRange = 0;
+    duplicateRecords = 0;
+    filesMerged.clear();
+    bytesListed = 0;
+    bytesSampled = 0;
+    linesRead = 0;
+    linesSampled = 0;
+    reservoirBound.set(Long.MAX_VALUE);
     boolean continueProcessing = true;
+    boolean succeeded = false;
+
+    final AuditSampling sampler = sampling;
+    final AuditTimeRange range = timeRange;
+    final boolean reservoirSampling = sampler.getMode() == AuditSampling.Mode.RESERVOIR;
+    // the lines of highest rank in the reservoir sample are at the head
+    final PriorityQueue<SampledLine> reservoir = reservoirSampling
+        ? new PriorityQueue<>(Comparator.comparingLong((SampledLine l) -> l.rank).reversed())
+        : null;
+    // a sample is only known once all files are parsed, duplicates once their records are
+    // read, and an index needs every record, so their serialized records cannot be copied
+    final boolean copyBlocks = output != null && processed == PROCESS_ALL && !reservoirSampling
+        && duplicateFilter == null && !(indexed && !partitioned);
+    // otherwise the records are passed to this thread as they are parsed
+    final boolean stream = !copyBlocks && !reservoirSampling;
+    final AtomicBoolean stop = new AtomicBoolean(false);
+    final ExecutorService workers = new ThreadPoolExecutor(threads, threads, 0L,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+          Thread t = new Thread(r, "audit-log-parser");
+          t.setDaemon(true);
+          return t;
+        });
+    // files being parsed, in listing order
+    final Deque<ParsedFile> pending = new ArrayDeque<>();
+    // file being merged
+    ParsedFile current = null;
+    final int window = threads * 2;
+    int submitted = 0;
+    // partitions of records which the callback sees
+    final PartitionedAvroOutput.Partitioner partitioner =
+        new PartitionedAvroOutput.Partitioner(partitionByBucket);
 
-    try (DataFileWriter<AvroS3LogEntryRecord> dataFileWriter = new DataFileWriter<>(datumWriter);
-        DataFileWriter<AvroS3LogEntryRecord> avroWriter =
-            dataFileWriter.create(AvroS3LogEntryRecord.getClassSchema(), fsDataOutputStream);) {
-
-      // Iterating over the list of files to merge and parse
-      while (continueProcessing && listOfLogFiles.hasNext()) {
-        FileStatus fileStatus = listOfLogFiles.next();
-        int fileLength = (int) fileStatus.getLen();
-
-        try (
-            DurationInfo duration = new DurationInfo(LOG, "[%05d] Processing %s",
-                getLogFilesParsed() + 1, fileStatus.getPath());
-            FSDataInputStream fsDataInputStream =
-                awaitFuture(sourceFS.openFile(fileStatus.getPath()).withFileStatus(fileStatus)
-                    .opt(FS_OPTION_OPENFILE_READ_POLICY, FS_OPTION_OPENFILE_READ_POLICY_WHOLE_FILE)
-                    .build())) {
-          logFilesParsed++;
-
-          // Reading the file data using LineRecordReader
-          LineRecordReader lineRecordReader =
-              new LineRecordReader(fsDataInputStream, 0L, fileLength, MAX_LINE_LENGTH);
-          LongWritable longWritable = new LongWritable();
-          Text singleAuditLog = new Text();
-
-          // Parse each and every audit log from list of logs
-          while (continueProcessing && lineRecordReader.next(longWritable, singleAuditLog)) {
-            // Parse audit log
-            HashMap<String, String> auditLogMap = parseAuditLog(singleAuditLog.toString());
-            logRecordsProcessed++;
-
-            // Insert data according to schema
-
-            // Instantiating generated AvroDataRecord class
-            AvroS3LogEntryRecord avroDataRecord = buildLogRecord(auditLogMap);
-            if (!avroDataRecord.getAudit().isEmpty()) {
-              referrerHeadersParsed++;
+    try {
+      while (continueProcessing) {
+        // keep the workers busy, but no more than the window of files ahead of the merge
+        while (pending.size() < window && listOfLogFiles.hasNext()) {
+          final FileStatus fileStatus = listOfLogFiles.next();
+          if (!fileFilter.test(fileStatus)) {
+            logFilesFiltered++;
+            continue;
+          }
+          final Instant delivered = range != null
+              ? AuditTimeRange.timestampOfLogFile(fileStatus.getPath())
+              : null;
+          if (range != null && !range.mayContain(delivered)) {
+            logFilesOutOfRange++;
+            continue;
+          }
+          // only files which may have records outside the range have their records filtered
+          final AuditTimeRange recordRange =
+              range != null && !range.containsAll(delivered) ? range : null;
+          bytesListed += fileStatus.getLen();
+          final long seed = sampler.seedOf(fileStatus.getPath());
+          if (!sampler.acceptsFile(seed)) {
+            continue;
+          }
+          bytesSampled += fileStatus.getLen();
+          final int index = ++submitted;
+          final ParsedFile parsedFile = new ParsedFile(fileStatus, stream);
+          parsedFile.future = workers.submit(
+              () -> parseFile(sourceFS, parsedFile, index, seed, sampler, recordRange, copyBlocks,
+                  stop));
+          pending.add(parsedFile);
+        }
+        if (pending.isEmpty()) {
+          break;
+        }
+        current = pending.remove();
+        if (stream) {
+          continueProcessing = mergeBatches(current, output, partitioner, processed);
+          if (!continueProcessing) {
+            // the worker may be waiting to queue more records
+            stop.set(true);
+          }
+        }
+        try (ParsedFile parsedFile = awaitFuture(current.future)) {
+          current = null;
+          linesRead += parsedFile.linesRead;
+          if (reservoir != null) {
+            addToReservoir(parsedFile, reservoir, sampler.getSize());
+          } else {
+            linesSampled += parsedFile.linesSampled;
+            merge(parsedFile, output);
+          }
+          if (continueProcessing) {
+            filesMerged.add(parsedFile.source);
+          }
+        }
+      }
+      if (reservoir != null) {
+        linesSampled = reservoir.size();
+        mergeReservoir(reservoir, output, partitioner, processed);
+      }
+      if (output != null) {
+        output.close();
+      }
+      succeeded = true;
+    } finally {
+      // stop the workers and discard the files parsed ahead of the merge
+      stop.set(true);
+      workers.shutdown();
+      if (current != null) {
+        pending.addFirst(current);
+      }
+      for (ParsedFile parsedFile : pending) {
+        try {
+          awaitFuture(parsedFile.future).close();
+        } catch (IOException | RuntimeException e) {
+          LOG.debug("Discarding failure of a file not merged", e);
+        }
+      }
+      if (!succeeded && output != null) {
+        output.abort();
+      }
+    }
+  }
+
+  /**
+   * Parse a log file; invoked in a worker thread.
+   *
+   * @param sourceFS source filesystem
+   * @param parsedFile the file to parse, which receives the results
+   * @param index index of the file in the listing
+   * @param seed sampling seed of the file
+   * @param sampler sampling
+   * @param recordRange time range of the records to keep; null for all
+   * @param serialize serialize the records, to be copied to the output, rather than keep them?
+   * @param stop flag set when processing is to stop
+   * @return the parsed file, empty if processing stopped before it was parsed.
+   * @throws IOException failure to read the file or write a temporary file
+   */
+  private ParsedFile parseFile(final FileSystem sourceFS, final ParsedFile parsedFile,
+      final int index, final long seed, final AuditSampling sampler,
+      @Nullable final AuditTimeRange recordRange, final boolean serialize,
+      final AtomicBoolean stop) throws IOException {
+    try {
+      return parseFile(sourceFS, parsedFile.source, parsedFile, index, seed, sampler,
+          recordRange, serialize, stop);
+    } finally {
+      // even on a failure, so that the merging thread stops waiting for records
+      parsedFile.endOfRecords(stop);
+    }
+  }
+
+  /**
+   * Parse a log file into a parsed file; see
+   * {@link #parseFile(FileSystem, ParsedFile, int, long, AuditSampling, AuditTimeRange, boolean,
+   * AtomicBoolean)}.
+   */
+  private ParsedFile parseFile(final FileSystem sourceFS, final FileStatus fileStatus,
+      final ParsedFile parsedFile, final int index, final long seed, final AuditSampling sampler,
+      @Nullable final AuditTimeRange recordRange, final boolean serialize,
+      final AtomicBoolean stop) throws IOException {
+    if (stop.get()) {
+      return parsedFile;
+    }
+    final CompressionCodec codec = codecs.getCodec(fileStatus.getPath());
+    // estimated length of the text, to size the containers of the records
+    final long textLength = codec != null
+        ? fileStatus.getLen() * COMPRESSION_RATIO_ESTIMATE
+        : fileStatus.getLen();
+    final boolean spill = textLength > SPILL_THRESHOLD;
+    final int bufferSize = (int) Math.min(textLength, SPILL_THRESHOLD);
+    final PartitionedAvroOutput.Partitioner partitioner =
+        new PartitionedAvroOutput.Partitioner(partitionByBucket);
+
+    final Decompressor decompressor = codec != null ? CodecPool.getDecompressor(codec) : null;
+    try (
+        DurationInfo duration = new DurationInfo(LOG, "[%05d] Processing %s", index,
+            fileStatus.getPath());
+        FSDataInputStream fsDataInputStream =
+            awaitFuture(sourceFS.openFile(fileStatus.getPath()).withFileStatus(fileStatus)
+                .opt(FS_OPTION_OPENFILE_READ_POLICY, FS_OPTION_OPENFILE_READ_POLICY_WHOLE_FILE)
+                .opt(FS_OPTION_OPENFILE_BUFFER_SIZE, READ_BUFFER_SIZE)
+                .build());
+        InputStream text = codec != null
+            ? decompress(fsDataInputStream, codec, decompressor)
+            : fsDataInputStream) {
+
+      // Reading the file data using LineRecordReader; the length of decompressed text is unknown
+      LineRecordReader lineRecordReader = new LineRecordReader(text, 0L,
+          codec != null ? Long.MAX_VALUE : fileStatus.getLen(), MAX_LINE_LENGTH);
+      LongWritable longWritable = new LongWritable();
+      Text singleAuditLog = new Text();
+
+      // Parse each and every audit log from list of logs
+      final S3LogTokenizer tokenizer = new S3LogTokenizer();
+      AvroS3LogEntryRecord avroDataRecord = new AvroS3LogEntryRecord();
+      // lines of the file which may be in a reservoir sample, the highest ranked at the head
+      final PriorityQueue<SampledLine> candidates =
+          sampler.getMode() == AuditSampling.Mode.RESERVOIR
+              ? new PriorityQueue<>(
+                  Comparator.comparingLong((SampledLine l) -> l.rank).reversed())
+              : null;
+      long line = -1;
+      while (!stop.get() && lineRecordReader.next(longWritable, singleAuditLog)) {
+        line++;
+        if (candidates != null) {
+          final long rank = sampler.rankOf(seed, line);
+          if (rank < reservoirBound.get() && (candidates.size() < sampler.getSize()
+              || rank < candidates.peek().rank)) {
+            if (candidates.size() == sampler.getSize()) {
+              candidates.poll();
             }
-            avroWriter.append(avroDataRecord);
-            continueProcessing = processed.processed(avroDataRecord);
+            candidates.add(new SampledLine(rank, index, line, new Text(singleAuditLog)));
           }
-          dataFileWriter.flush();
+          continue;
+        }
+        if (!sampler.acceptsLine(seed, line)) {
+          continue;
+        }
+        parsedFile.linesSampled++;
+        if (!serialize) {
+          // the records are passed to the merging thread, so cannot be reused
+          avroDataRecord = new AvroS3LogEntryRecord();
+        }
+        // Parse audit log
+        if (!tokenizer.parse(singleAuditLog, avroDataRecord)) {
+          LOG.debug("Skipping entry which is not an S3 log entry: {}", singleAuditLog);
+          parsedFile.skipped++;
+          continue;
+        }
+        if (recordRange != null && !recordRange.contains(avroDataRecord.getEvent())) {
+          parsedFile.outOfRange++;
+          continue;
+        }
+        parsedFile.recordCount++;
+        if (serialize) {
+          final String partition = partitioned ? partitioner.partitionOf(avroDataRecord) : "";
+          parsedFile.part(partition, spill, bufferSize).append(avroDataRecord);
+        } else if (parsedFile.batches != null) {
+          parsedFile.add(avroDataRecord, stop);
         }
       }
+      parsedFile.linesRead = line + 1;
+      if (candidates != null) {
+        // only the lines which may be in the sample are parsed
+        for (SampledLine candidate : candidates) {
+          final AvroS3LogEntryRecord record = new AvroS3LogEntryRecord();
+          if (tokenizer.parse(candidate.text, record)) {
+            if (recordRange == null || recordRange.contains(record.getEvent())) {
+              candidate.record = record;
+            } else {
+              parsedFile.outOfRange++;
+            }
+          } else {
+            LOG.debug("Skipping entry which is not an S3 log entry: {}", candidate.text);
+            parsedFile.skipped++;
+          }
+          candidate.text = null;
+          parsedFile.sampled.add(candidate);
+        }
+      }
+      parsedFile.finish();
+    } catch (IOException | RuntimeException e) {
+      parsedFile.close();
+      throw e;
+    } finally {
+      if (decompressor != null) {
+        CodecPool.returnDecompressor(decompressor);
+      }
     }
+    return parsedFile;
+  }
 
-    LOG.info("Successfully parsed: {} records with {} referrer headers " + "in the logs",
-        logRecordsProcessed, referrerHeadersParsed);
-    return logRecordsProcessed;
+  /**
+   * Decompress a source file. The file is read through a large buffer and decompressed in a
+   * thread of its own, ahead of the parsing; see {@link ReadAheadInputStream}.
+   *
+   * @param in source stream
+   * @param codec compression codec of the file
+   * @param decompressor decompressor from the pool; null if the codec has none
+   * @return the stream of text
+   * @throws IOException failure to read the header of the file
+   */
+  private static InputStream decompress(final InputStream in, final CompressionCodec codec,
+      @Nullable final Decompressor decompressor) throws IOException {
+    final InputStream buffered = new BufferedInputStream(in, READ_BUFFER_SIZE);
+    final InputStream decompressed = decompressor != null
+        ? codec.createInputStream(buffered, decompressor)
+        : codec.createInputStream(buffered);
+    return new ReadAheadInputStream(decompressed, READ_BUFFER_SIZE, READ_AHEAD_BUFFERS);
+  }
+
+  /**
+   * Merge the batches of records of a file into the output as they are parsed, invoking the
+   * callback on every record, until the end of the records of the file.
+   *
+   * @param parsedFile file being parsed
+   * @param output output; null if there is none
+   * @param partitioner partitioner for records which the callback sees
+   * @param processed processing callback
+   * @return true if processing is to continue
+   * @throws IOException failure to write
+   */
+  private boolean mergeBatches(final ParsedFile parsedFile, @Nullable final AuditOutput output,
+      final PartitionedAvroOutput.Partitioner partitioner, final Processed processed)
+      throws IOException {
+    List<AvroS3LogEntryRecord> batch;
+    while ((batch = parsedFile.takeBatch()) != END_OF_RECORDS) {
+      for (AvroS3LogEntryRecord avroDataRecord : batch) {
+        if (!mergeRecord(avroDataRecord, output, partitioner, processed)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Merge a parsed file into the output: copy its serialized records, and count its records.
+   *
+   * @param parsedFile parsed file
+   * @param output output; null if there is none
+   * @throws IOException failure to read or write
+   */
+  private void merge(final ParsedFile parsedFile, @Nullable final AuditOutput output)
+      throws IOException {
+    logFilesParsed++;
+    recordsSkipped += parsedFile.skipped;
+    recordsOutOfRange += parsedFile.outOfRange;
+    if (output != null) {
+      for (Map.Entry<String, Part> entry : parsedFile.parts.entrySet()) {
+        final Part part = entry.getValue();
+        if (part.isContainer()) {
+          // block copy; the records are not deserialized
+          try (DataFileReader<AvroS3LogEntryRecord> reader = part.open()) {
+            output.writer(entry.getKey()).appendAllFrom(reader, false);
+          }
+        } else {
+          // less than a block: append to the block being written, without deserializing
+          part.appendEncodedTo(output.writer(entry.getKey()));
+        }
+        logRecordsProcessed += part.records;
+        referrerHeadersParsed += part.referrerHeaders;
+      }
+    }
+  }
+
+  /**
+   * Merge a record into the output and invoke the callback, unless it is a duplicate.
+   *
+   * @param avroDataRecord record
+   * @param output output; null if there is none
+   * @param partitioner partitioner for records which the callback sees
+   * @param processed processing callback
+   * @return true if processing is to continue
+   * @throws IOException failure to write
+   */
+  private boolean mergeRecord(final AvroS3LogEntryRecord avroDataRecord,
+      @Nullable final AuditOutput output, final PartitionedAvroOutput.Partitioner partitioner,
+      final Processed processed) throws IOException {
+    if (duplicateFilter != null && duplicateFilter.isDuplicate(avroDataRecord)) {
+      duplicateRecords++;
+      return true;
+    }
+    logRecordsProcessed++;
+    if (!avroDataRecord.getAudit().isEmpty()) {
+      referrerHeadersParsed++;
+    }
+    if (output != null) {
+      output.append(partitioned ? partitioner.partitionOf(avroDataRecord) : "", avroDataRecord);
+    }
+    return processed.processed(avroDataRecord);
+  }
+
+  /**
+   * Add the candidate lines of a parsed file to a reservoir sample, keeping the lines of lowest
+   * rank.
+   *
+   * @param parsedFile parsed file
+   * @param reservoir reservoir, the highest ranked line at the head
+   * @param size size of the reservoir
+   */
+  private void addToReservoir(final ParsedFile parsedFile,
+      final PriorityQueue<SampledLine> reservoir, final int size) {
+    logFilesParsed++;
+    recordsSkipped += parsedFile.skipped;
+    recordsOutOfRange += parsedFile.outOfRange;
+    for (SampledLine candidate : parsedFile.sampled) {
+      if (reservoir.size() < size) {
+        reservoir.add(candidate);
+      } else if (candidate.rank < reservoir.peek().rank) {
+        reservoir.poll();
+        reservoir.add(candidate);
+      }
+    }
+    if (reservoir.size() == size) {
+      // the workers can discard lines of a higher rank without copying them
+      reservoirBound.set(reservoir.peek().rank);
+    }
+  }
+
+  /**
+   * Merge the records of a reservoir sample into the output in the order of the source files,
+   * invoking the callback.
+   *
+   * @param reservoir reservoir
+   * @param output output; null if there is none
+   * @param partitioner partitioner for records which the callback sees
+   * @param processed processing callback
+   * @throws IOException failure to write
+   */
+  private void mergeReservoir(final PriorityQueue<SampledLine> reservoir,
+      @Nullable final AuditOutput output, final PartitionedAvroOutput.Partitioner partitioner,
+      final Processed processed) throws IOException {
+    final List<SampledLine> sample = new ArrayList<>(reservoir);
+    sample.sort(Comparator.comparingInt((SampledLine l) -> l.file).thenComparingLong(l -> l.line));
+    for (SampledLine sampled : sample) {
+      if (sampled.record != null
+          && !mergeRecord(sampled.record, output, partitioner, processed)) {
+        return;
+      }
+    }
   }
 
   public long getLogRecordsProcessed() {
@@ -318,6 +1121,99 @@ public class AuditLogProcessor {
     return referrerHeadersParsed;
   }
 
+  public long getRecordsSkipped() {
+    return recordsSkipped;
+  }
+
+  /**
+   * Number of source files which the filter rejected in the last merge.
+   *
+   * @return a count
+   */
+  public long getLogFilesFiltered() {
+    return logFilesFiltered;
+  }
+
+  /**
+   * Source files which the last merge fully merged into the output, in listing order; these are
+   * the files to add to a {@link ProcessedFileLedger}.
+   *
+   * @return the status of each file
+   */
+  public List<FileStatus> getFilesMerged() {
+    return new ArrayList<>(filesMerged);
+  }
+
+  /**
+   * Number of source files which the last merge skipped as their names show that they have no
+   * records in the time range.
+   *
+   * @return a count
+   */
+  public long getLogFilesOutOfRange() {
+    return logFilesOutOfRange;
+  }
+
+  /**
+   * Number of records of the files read by the last merge which were outside the time range.
+   *
+   * @return a count
+   */
+  public long getRecordsOutOfRange() {
+    return recordsOutOfRange;
+  }
+
+  /**
+   * Number of duplicate records which the last merge dropped.
+   *
+   * @return a count
+   */
+  public long getDuplicateRecords() {
+    return duplicateRecords;
+  }
+
+  /**
+   * Number of lines read from the source files sampled by the last merge.
+   *
+   * @return a count
+   */
+  public long getLinesRead() {
+    return linesRead;
+  }
+
+  /**
+   * Number of lines of the sample of the last merge, including any which could not be parsed;
+   * the lines read if the logs were not sampled.
+   *
+   * @return a count
+   */
+  public long getLinesSampled() {
+    return linesSampled;
+  }
+
+  /**
+   * Factor by which to scale the statistics of the sample of the last merge to estimate those of
+   * all the logs: the ratio of the length of all the source files to that of the files sampled,
+   * times the ratio of the lines read to the lines sampled.
+   *
+   * @return the scale; 1 if the logs were not sampled or the sample is empty
+   */
+  public double getSampleScale() {
+    if (linesSampled == 0 || bytesSampled == 0) {
+      return 1;
+    }
+    return (double) bytesListed / bytesSampled * linesRead / linesSampled;
+  }
+
+  /**
+   * Number of files written by the last merge: the number of partitions of a partitioned output.
+   *
+   * @return a count
+   */
+  public int getFilesWritten() {
+    return filesWritten;
+  }
+
   /**
    * Build log record from a parsed audit log entry.
    * 
@@ -431,4 +1327,385 @@ public class AuditLogProcessor {
   }
 
   public static final Processed PROCESS_ALL = record -> true;
+
+  /**
+   * The records of one partition of a parsed file. Until they reach the sync interval, the
+   * records are encoded one after another in memory, to be appended to the block being written
+   * to the output; beyond it, they are written to an Avro container in memory or, for large
+   * source files, in a temporary file, whose blocks can be copied to the output.
+   */
+  private final class Part {
+
+    private final boolean spill;
+
+    private final int size;
+
+    private final SpecificDatumWriter<AvroS3LogEntryRecord> datumWriter =
+        new SpecificDatumWriter<>(AvroS3LogEntryRecord.class);
+
+    /**
+     * Encoded records; null once they are in a container.
+     */
+    @Nullable
+    private ByteArrayOutputStream encoded;
+
+    @Nullable
+    private BinaryEncoder encoder;
+
+    /**
+     * End of each encoded record.
+     */
+    private int[] ends = new int[64];
+
+    /**
+     * Writer of the container; null until the records reach the sync interval.
+     */
+    @Nullable
+    private DataFileWriter<AvroS3LogEntryRecord> writer;
+
+    @Nullable
+    private ByteArrayOutputStream buffer;
+
+    /**
+     * The encoded records or the container, once finished.
+     */
+    @Nullable
+    private byte[] data;
+
+    @Nullable
+    private File spillFile;
+
+    private int records;
+
+    private long referrerHeaders;
+
+    /**
+     * Create the records of a partition.
+     *
+     * @param spill write a container to a temporary file?
+     * @param size initial size of a buffer in memory
+     */
+    private Part(final boolean spill, final int size) {
+      this.spill = spill;
+      this.size = size;
+      encoded = new ByteArrayOutputStream(Math.min(size, syncInterval));
+      encoder = EncoderFactory.get().directBinaryEncoder(encoded, null);
+    }
+
+    /**
+     * Add a record.
+     *
+     * @param record record
+     * @throws IOException failure to write
+     */
+    private void append(final AvroS3LogEntryRecord record) throws IOException {
+      records++;
+      if (!record.getAudit().isEmpty()) {
+        referrerHeaders++;
+      }
+      if (writer != null) {
+        writer.append(record);
+        return;
+      }
+      datumWriter.write(record, encoder);
+      if (records > ends.length) {
+        ends = Arrays.copyOf(ends, ends.length * 2);
+      }
+      ends[records - 1] = encoded.size();
+      if (encoded.size() < syncInterval) {
+        return;
+      }
+      // a block: write the records to a container
+      final OutputStream out;
+      if (spill) {
+        spillFile = File.createTempFile("auditlogs-", ".avro");
+        out = new BufferedOutputStream(new FileOutputStream(spillFile));
+      } else {
+        buffer = new ByteArrayOutputStream(size);
+        out = buffer;
+      }
+      writer = newDataFileWriter().create(AvroS3LogEntryRecord.getClassSchema(), out);
+      appendEncodedTo(writer);
+      encoded = null;
+      encoder = null;
+    }
+
+    /**
+     * Are the records in a container?
+     *
+     * @return true if the blocks of the container can be copied
+     */
+    private boolean isContainer() {
+      return writer != null;
+    }
+
+    /**
+     * All records have been added: close the container.
+     *
+     * @throws IOException failure to write
+     */
+    private void finish() throws IOException {
+      if (writer == null) {
+        data = encoded.toByteArray();
+        encoded = null;
+        encoder = null;
+        return;
+      }
+      writer.close();
+      if (buffer != null) {
+        data = buffer.toByteArray();
+        buffer = null;
+      }
+    }
+
+    /**
+     * Append the encoded records to a writer, without deserializing them.
+     *
+     * @param dest writer
+     * @throws IOException failure to write
+     */
+    private void appendEncodedTo(final DataFileWriter<AvroS3LogEntryRecord> dest)
+        throws IOException {
+      final byte[] bytes = data != null ? data : encoded.toByteArray();
+      int start = 0;
+      for (int i = 0; i < records; i++) {
+        dest.appendEncoded(ByteBuffer.wrap(bytes, start, ends[i] - start));
+        start = ends[i];
+      }
+    }
+
+    /**
+     * Open the Avro container.
+     *
+     * @return a reader
+     * @throws IOException failure to open
+     */
+    private DataFileReader<AvroS3LogEntryRecord> open() throws IOException {
+      final DatumReader<AvroS3LogEntryRecord> datumReader =
+          new SpecificDatumReader<>(AvroS3LogEntryRecord.class);
+      if (spillFile != null) {
+        return new DataFileReader<>(spillFile, datumReader);
+      }
+      return new DataFileReader<>(new SeekableByteArrayInput(data), datumReader);
+    }
+
+    /**
+     * Release the data and delete any temporary file.
+     */
+    private void discard() {
+      IOUtils.cleanupWithLogger(LOG, writer);
+      encoded = null;
+      buffer = null;
+      data = null;
+      if (spillFile != null && !spillFile.delete()) {
+        LOG.warn("Failed to delete temporary file {}", spillFile);
+      }
+      spillFile = null;
+    }
+  }
+
+  /**
+   * Marker of the end of the batches of records of a file.
+   */
+  private static final List<AvroS3LogEntryRecord> END_OF_RECORDS = Collections.emptyList();
+
+  /**
+   * The result of parsing a log file: either Avro containers of its records, one per partition,
+   * or a queue of batches of the records, which the merging thread takes as they are parsed.
+   */
+  private final class ParsedFile implements Closeable {
+
+    private final FileStatus source;
+
+    /**
+     * The parsing of the file.
+     */
+    private Future<ParsedFile> future;
+
+    /**
+     * Batches of records for the merging thread; null if the records are serialized.
+     */
+    @Nullable
+    private final BlockingQueue<List<AvroS3LogEntryRecord>> batches;
+
+    /**
+     * Batch being filled by the worker.
+     */
+    private List<AvroS3LogEntryRecord> batch = new ArrayList<>(RECORD_BATCH_SIZE);
+
+    private long recordCount;
+
+    private long skipped;
+
+    private long outOfRange;
+
+    private long linesRead;
+
+    private long linesSampled;
+
+    /**
+     * Lines which may be in a reservoir sample.
+     */
+    private final List<SampledLine> sampled = new ArrayList<>();
+
+    /**
+     * Containers by partition, in the order in which the partitions were first seen.
+     */
+    private final Map<String, Part> parts = new LinkedHashMap<>();
+
+    /**
+     * Create a parsed file.
+     *
+     * @param source status of the file
+     * @param stream pass the records to the merging thread as they are parsed?
+     */
+    private ParsedFile(final FileStatus source, final boolean stream) {
+      this.source = source;
+      this.batches = stream ? new ArrayBlockingQueue<>(RECORD_BATCHES) : null;
+    }
+
+    /**
+     * Add a record for the merging thread; invoked by the worker.
+     *
+     * @param record record
+     * @param stop flag set when processing is to stop
+     * @throws IOException interrupted
+     */
+    private void add(final AvroS3LogEntryRecord record, final AtomicBoolean stop)
+        throws IOException {
+      batch.add(record);
+      if (batch.size() == RECORD_BATCH_SIZE) {
+        queue(batch, stop);
+        batch = new ArrayList<>(RECORD_BATCH_SIZE);
+      }
+    }
+
+    /**
+     * Queue the last batch and the end of the records; invoked by the worker.
+     *
+     * @param stop flag set when processing is to stop
+     * @throws IOException interrupted
+     */
+    private void endOfRecords(final AtomicBoolean stop) throws IOException {
+      if (batches == null) {
+        return;
+      }
+      if (!batch.isEmpty()) {
+        queue(batch, stop);
+      }
+      batch = null;
+      queue(END_OF_RECORDS, stop);
+    }
+
+    /**
+     * Queue a batch, waiting while the queue is full, unless processing stops.
+     *
+     * @param records batch
+     * @param stop flag set when processing is to stop
+     * @throws IOException interrupted
+     */
+    private void queue(final List<AvroS3LogEntryRecord> records, final AtomicBoolean stop)
+        throws IOException {
+      try {
+        while (!batches.offer(records, QUEUE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+          if (stop.get()) {
+            return;
+          }
+        }
+      } catch (InterruptedException e) {
+        throw (IOException) new InterruptedIOException("Interrupted queueing records of "
+            + source.getPath()).initCause(e);
+      }
+    }
+
+    /**
+     * Take the next batch of records; invoked by the merging thread.
+     *
+     * @return the batch, or {@link #END_OF_RECORDS}
+     * @throws IOException interrupted
+     */
+    private List<AvroS3LogEntryRecord> takeBatch() throws IOException {
+      try {
+        return batches.take();
+      } catch (InterruptedException e) {
+        throw (IOException) new InterruptedIOException("Interrupted merging records of "
+            + source.getPath()).initCause(e);
+      }
+    }
+
+    /**
+     * Get the container of a partition, creating it if needed.
+     *
+     * @param partition partition
+     * @param spill write to a temporary file?
+     * @param size initial size of a buffer in memory
+     * @return the container
+     * @throws IOException failure to create it
+     */
+    private Part part(final String partition, final boolean spill, final int size)
+        throws IOException {
+      Part part = parts.get(partition);
+      if (part == null) {
+        part = new Part(spill, parts.isEmpty() ? size : size / 8);
+        parts.put(partition, part);
+      }
+      return part;
+    }
+
+    /**
+     * All records have been added: close the containers.
+     *
+     * @throws IOException failure to write
+     */
+    private void finish() throws IOException {
+      for (Part part : parts.values()) {
+        part.finish();
+      }
+    }
+
+    /**
+     * Release the data and delete any temporary files.
+     */
+    @Override
+    public void close() {
+      if (batches != null) {
+        batches.clear();
+      }
+      for (Part part : parts.values()) {
+        part.discard();
+      }
+      parts.clear();
+    }
+
+    @Override
+    public String toString() {
+      return "ParsedFile{" + source.getPath() + ", records=" + recordCount + ", partitions="
+          + parts.size() + '}';
+    }
+  }
+
+  /**
+   * A line of a reservoir sample: its rank, position and, once parsed, its record.
+   */
+  private static final class SampledLine {
+
+    private final long rank;
+
+    private final int file;
+
+    private final long line;
+
+    @Nullable
+    private Text text;
+
+    @Nullable
+    private AvroS3LogEntryRecord record;
+
+    private SampledLine(final long rank, final int file, final long line, final Text text) {
+      this.rank = rank;
+      this.file = file;
+      this.line = line;
+      this.text = text;
+    }
+  }
 }
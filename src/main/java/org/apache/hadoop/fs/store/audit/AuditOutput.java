@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import org.apache.avro.file.DataFileWriter;
+
+/**
+ * Destination of the records merged by {@link AuditLogProcessor}: a single Avro file, or a
+ * directory of partitions.
+ */
+interface AuditOutput extends Closeable {
+
+  /**
+   * Get the writer of a partition.
+   *
+   * @param partition relative path of the partition; "" if the output is not partitioned
+   * @return the writer
+   * @throws IOException failure to create or open the partition
+   */
+  DataFileWriter<AvroS3LogEntryRecord> writer(String partition) throws IOException;
+
+  /**
+   * Append a record to a partition.
+   *
+   * @param partition relative path of the partition; "" if the output is not partitioned
+   * @param record record
+   * @throws IOException failure to write
+   */
+  default void append(String partition, AvroS3LogEntryRecord record) throws IOException {
+    writer(partition).append(record);
+  }
+
+  /**
+   * Number of files written, or to be written on close.
+   *
+   * @return a count
+   */
+  int getFilesWritten();
+
+  /**
+   * Processing failed: release all resources. The output may be incomplete or absent.
+   */
+  void abort();
+
+  /**
+   * Complete the output.
+   *
+   * @throws IOException failure to write
+   */
+  @Override
+  void close() throws IOException;
+}
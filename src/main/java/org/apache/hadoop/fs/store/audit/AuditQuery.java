@@ -0,0 +1,351 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import static org.apache.hadoop.fs.Options.OpenFileOptions.FS_OPTION_OPENFILE_READ_POLICY;
+import static org.apache.hadoop.fs.Options.OpenFileOptions.FS_OPTION_OPENFILE_READ_POLICY_RANDOM;
+import static org.apache.hadoop.fs.Options.OpenFileOptions.FS_OPTION_OPENFILE_READ_POLICY_WHOLE_FILE;
+import static org.apache.hadoop.fs.audit.AuditConstants.PARAM_JOB_ID;
+import static org.apache.hadoop.fs.audit.AuditConstants.PARAM_PRINCIPAL;
+import static org.apache.hadoop.fs.store.CommonParameters.CSVFILE;
+import static org.apache.hadoop.fs.store.CommonParameters.STANDARD_OPTS;
+import static org.apache.hadoop.fs.store.audit.AuditTool.FROM;
+import static org.apache.hadoop.fs.store.audit.AuditTool.TO;
+import static org.apache.hadoop.service.launcher.LauncherExitCodes.EXIT_COMMAND_ARGUMENT_ERROR;
+import static org.apache.hadoop.service.launcher.LauncherExitCodes.EXIT_FAIL;
+import static org.apache.hadoop.service.launcher.LauncherExitCodes.EXIT_SUCCESS;
+import static org.apache.hadoop.util.functional.FutureIO.awaitFuture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.SeekableInput;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.fs.store.StoreEntryPoint;
+import org.apache.hadoop.fs.tools.csv.SimpleCsvWriter;
+import org.apache.hadoop.util.DurationInfo;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Query the Avro files written by {@link AuditTool}: print the records which match a filter, and
+ * optionally save them to a CSV file. Files with an {@link AuditBlockIndex} only have the blocks
+ * which may have matching records read; other files are read in full.
+ */
+public class AuditQuery extends StoreEntryPoint {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AuditQuery.class);
+
+  /**
+   * Name of this tool: {@value}.
+   */
+  public static final String NAME = "auditquery";
+
+  /**
+   * Verbs to match: {@value}.
+   */
+  public static final String VERB = "verb";
+
+  /**
+   * Bucket to match: {@value}.
+   */
+  public static final String BUCKET = "bucket";
+
+  /**
+   * Key prefix to match: {@value}.
+   */
+  public static final String PREFIX = "prefix";
+
+  /**
+   * Principal to match: {@value}.
+   */
+  public static final String PRINCIPAL = "principal";
+
+  /**
+   * HTTP status to match: {@value}.
+   */
+  public static final String STATUS = "status";
+
+  /**
+   * Number of records to print: {@value}.
+   */
+  public static final String LIMIT = "limit";
+
+  /**
+   * Default number of records to print.
+   */
+  public static final int DEFAULT_LIMIT = 100;
+
+  private static final String[] CSV_COLUMNS = {"event", "bucket", "key", "verb", "http",
+      "awserrorcode", "bytessent", "totaltime", "requestid", "principal", "job"};
+
+  public static final String USAGE =
+      "Usage: auditquery\n" + STANDARD_OPTS + " <path of avro file or directory>"
+          + optusage(FROM, "time", "only records from this time, e.g. 2026-01-02T14:00")
+          + optusage(TO, "time", "only records before this time")
+          + optusage(VERB, "verbs", "comma separated verbs, e.g. REST.GET.OBJECT")
+          + optusage(BUCKET, "bucket", "only records of this bucket")
+          + optusage(PREFIX, "prefix", "only records whose keys start with this prefix")
+          + optusage(PRINCIPAL, "principal", "only records with this audit principal")
+          + optusage(STATUS, "status", "HTTP status or its start, e.g. 503 or 5")
+          + optusage(LIMIT, "count", "number of records to print, default 100")
+          + optusage(CSVFILE, "file", "CSV file to save all the matching records to");
+
+  /**
+   * Number of files read.
+   */
+  private int files;
+
+  /**
+   * Number of files read with an index.
+   */
+  private int filesIndexed;
+
+  /**
+   * Number of blocks in the indexes.
+   */
+  private long blocks;
+
+  /**
+   * Number of indexed blocks read.
+   */
+  private long blocksRead;
+
+  private long recordsRead;
+
+  private long recordsMatched;
+
+  public AuditQuery() {
+    createCommandFormat(1, 1);
+    addValueOptions(FROM, TO, VERB, BUCKET, PREFIX, PRINCIPAL, STATUS, LIMIT, CSVFILE);
+  }
+
+  @Override
+  public int run(final String[] args) throws Exception {
+    List<String> paths = processArgs(args, 1, 1, USAGE);
+
+    final Path source = new Path(paths.get(0));
+    final AuditRecordFilter filter;
+    try {
+      filter = new AuditRecordFilter()
+          .withRange(AuditTimeRange.fromOptions(getOption(FROM), getOption(TO), null))
+          .withVerbs(getOption(VERB))
+          .withBucket(getOption(BUCKET))
+          .withKeyPrefix(getOption(PREFIX))
+          .withPrincipal(getOption(PRINCIPAL))
+          .withStatus(getOption(STATUS));
+    } catch (IllegalArgumentException e) {
+      error("%s", e.getMessage());
+      return EXIT_COMMAND_ARGUMENT_ERROR;
+    }
+    final int limit = getIntOption(LIMIT, DEFAULT_LIMIT);
+    println("Querying %s for %s", source, filter);
+
+    final FileSystem fs = source.getFileSystem(getConf());
+    final List<FileStatus> avroFiles = new ArrayList<>();
+    final FileStatus sourceStatus = fs.getFileStatus(source);
+    if (sourceStatus.isFile()) {
+      avroFiles.add(sourceStatus);
+    } else {
+      // the segments and partitions of a directory
+      final RemoteIterator<LocatedFileStatus> listing = fs.listFiles(source, true);
+      while (listing.hasNext()) {
+        final FileStatus status = listing.next();
+        final String name = status.getPath().getName();
+        if (name.endsWith(".avro") && !name.startsWith("_") && !name.startsWith(".")) {
+          avroFiles.add(status);
+        }
+      }
+    }
+    final String csvFile = getOption(CSVFILE);
+    final Path csvPath = csvFile != null ? new Path(csvFile) : null;
+    final DurationInfo duration = new DurationInfo(LOG, "Query of %s", source);
+    try (SimpleCsvWriter csv = csvPath != null
+        ? new SimpleCsvWriter(
+            csvPath.getFileSystem(getConf()).createFile(csvPath).recursive().overwrite(true)
+                .build(), ",", "\n", true, true)
+        : null) {
+      if (csv != null) {
+        csv.columns((Object[]) CSV_COLUMNS);
+        csv.newline();
+      }
+      for (FileStatus status : avroFiles) {
+        query(fs, status, filter, limit, csv);
+      }
+    }
+    duration.finished();
+
+    println();
+    if (recordsMatched > limit) {
+      println("(printed the first %d matching records)", limit);
+    }
+    println("Matched %,d of %,d records read from %d files", recordsMatched, recordsRead, files);
+    if (filesIndexed > 0) {
+      println("Read %,d of %,d blocks of the %d indexed files", blocksRead, blocks,
+          filesIndexed);
+    }
+    if (csvPath != null) {
+      println("Saved matching records to %s", csvPath);
+    }
+    println("Total query time: %s", duration.getDurationString());
+    return recordsMatched > 0 ? EXIT_SUCCESS : EXIT_FAIL;
+  }
+
+  /**
+   * Query a file, using its index if it has an up to date one.
+   *
+   * @param fs filesystem
+   * @param status status of the file
+   * @param filter filter
+   * @param limit number of records to print
+   * @param csv CSV writer; null if none
+   * @throws IOException failure to read or write
+   */
+  private void query(final FileSystem fs, final FileStatus status,
+      final AuditRecordFilter filter, final int limit, @Nullable final SimpleCsvWriter csv)
+      throws IOException {
+    final Path path = status.getPath();
+    AuditBlockIndex index = AuditBlockIndex.load(fs, path);
+    if (index != null && index.getFileLength() != status.getLen()) {
+      warn("Ignoring index of %s as the file has changed", path);
+      index = null;
+    }
+    files++;
+    // an index is used to seek to the blocks which may match; without one, all is read
+    // the stream is closed by the reader, and also if the reader cannot be created
+    try (FSDataInputStream in = awaitFuture(fs.openFile(path)
+            .withFileStatus(status)
+            .opt(FS_OPTION_OPENFILE_READ_POLICY, index != null
+                ? FS_OPTION_OPENFILE_READ_POLICY_RANDOM
+                : FS_OPTION_OPENFILE_READ_POLICY_WHOLE_FILE)
+            .build());
+        DataFileReader<AvroS3LogEntryRecord> reader = new DataFileReader<>(
+            new FsInput(in, status.getLen()),
+            new SpecificDatumReader<>(AvroS3LogEntryRecord.class))) {
+      AvroS3LogEntryRecord record = null;
+      if (index == null) {
+        LOG.debug("Reading all of {}", path);
+        while (reader.hasNext()) {
+          record = reader.next(record);
+          matched(record, filter, limit, csv);
+        }
+        return;
+      }
+      filesIndexed++;
+      for (AuditBlockIndex.Block block : index.getBlocks()) {
+        blocks++;
+        if (!filter.mayMatch(block)) {
+          continue;
+        }
+        blocksRead++;
+        reader.seek(block.getPosition());
+        for (long i = 0; i < block.getRecords() && reader.hasNext(); i++) {
+          record = reader.next(record);
+          matched(record, filter, limit, csv);
+        }
+      }
+    }
+  }
+
+  /**
+   * Print and save a record if it matches.
+   */
+  private void matched(final AvroS3LogEntryRecord record, final AuditRecordFilter filter,
+      final int limit, @Nullable final SimpleCsvWriter csv) throws IOException {
+    recordsRead++;
+    if (!filter.matches(record)) {
+      return;
+    }
+    recordsMatched++;
+    final CharSequence principal = AuditRecordFilter.auditParam(record, PARAM_PRINCIPAL);
+    if (recordsMatched <= limit) {
+      println("%s %s %-24s %6s ms  %s/%s  %s %s", record.getEvent(), record.getHttp(),
+          record.getVerb(), record.getTotaltime() != null ? record.getTotaltime() : "-",
+          record.getBucket(), record.getKey(), record.getRequestid(),
+          principal != null ? principal : "");
+    }
+    if (csv != null) {
+      csv.column(record.getEvent()).column(record.getBucket()).column(record.getKey())
+          .column(record.getVerb()).column(record.getHttp()).column(record.getAwserrorcode())
+          .column(record.getBytessent()).column(record.getTotaltime())
+          .column(record.getRequestid()).column(principal)
+          .column(AuditRecordFilter.auditParam(record, PARAM_JOB_ID));
+      csv.newline();
+    }
+  }
+
+  /**
+   * Avro input of a Hadoop stream.
+   */
+  private static final class FsInput implements SeekableInput {
+
+    private final FSDataInputStream in;
+
+    private final long length;
+
+    private FsInput(final FSDataInputStream in, final long length) {
+      this.in = in;
+      this.length = length;
+    }
+
+    @Override
+    public void seek(final long p) throws IOException {
+      in.seek(p);
+    }
+
+    @Override
+    public long tell() throws IOException {
+      return in.getPos();
+    }
+
+    @Override
+    public long length() {
+      return length;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      return in.read(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * Execute the command, return the result or throw an exception, as appropriate.
+   *
+   * @param args argument varags.
+   * @return return code
+   * @throws Exception failure
+   */
+  public static int exec(String... args) throws Exception {
+    return ToolRunner.run(new AuditQuery(), args);
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import static org.apache.hadoop.fs.audit.AuditConstants.PARAM_PRINCIPAL;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.Nullable;
+import org.apache.avro.util.Utf8;
+
+/**
+ * Filter of audit records by time range, verb, bucket, key prefix, principal and HTTP status;
+ * a record matches if it matches every condition which is set. The conditions on the time, verb,
+ * bucket and principal can also be evaluated on a block of an {@link AuditBlockIndex}, to skip
+ * blocks with no matching records.
+ */
+public final class AuditRecordFilter {
+
+  @Nullable
+  private AuditTimeRange range;
+
+  @Nullable
+  private Set<String> verbs;
+
+  @Nullable
+  private String bucket;
+
+  @Nullable
+  private String keyPrefix;
+
+  @Nullable
+  private String principal;
+
+  @Nullable
+  private String status;
+
+  /**
+   * Only match records in a time range.
+   *
+   * @param range range; null for any time
+   * @return this
+   */
+  public AuditRecordFilter withRange(@Nullable final AuditTimeRange range) {
+    this.range = range;
+    return this;
+  }
+
+  /**
+   * Only match records of some verbs.
+   *
+   * @param verbs comma separated list of verbs, such as {@code REST.GET.OBJECT}; null for any
+   * @return this
+   */
+  public AuditRecordFilter withVerbs(@Nullable final String verbs) {
+    this.verbs = verbs != null
+        ? Collections.unmodifiableSet(new TreeSet<>(Arrays.asList(verbs.split(","))))
+        : null;
+    return this;
+  }
+
+  /**
+   * Only match records of a bucket.
+   *
+   * @param bucket bucket; null for any
+   * @return this
+   */
+  public AuditRecordFilter withBucket(@Nullable final String bucket) {
+    this.bucket = bucket;
+    return this;
+  }
+
+  /**
+   * Only match records whose keys start with a prefix.
+   *
+   * @param keyPrefix prefix; null for any key
+   * @return this
+   */
+  public AuditRecordFilter withKeyPrefix(@Nullable final String keyPrefix) {
+    this.keyPrefix = keyPrefix;
+    return this;
+  }
+
+  /**
+   * Only match records with a principal ({@code pr}) in their audit information.
+   *
+   * @param principal principal; null for any record
+   * @return this
+   */
+  public AuditRecordFilter withPrincipal(@Nullable final String principal) {
+    this.principal = principal;
+    return this;
+  }
+
+  /**
+   * Only match records with an HTTP status.
+   *
+   * @param status status, or its start such as {@code 5} for all server errors; null for any
+   * @return this
+   */
+  public AuditRecordFilter withStatus(@Nullable final String status) {
+    this.status = status;
+    return this;
+  }
+
+  /**
+   * Does a record match?
+   *
+   * @param record record
+   * @return true if it matches every condition
+   */
+  public boolean matches(final AvroS3LogEntryRecord record) {
+    if (range != null && !range.contains(record.getEvent())) {
+      return false;
+    }
+    if (verbs != null && !contains(verbs, record.getVerb())) {
+      return false;
+    }
+    if (bucket != null && !bucket.contentEquals(text(record.getBucket()))) {
+      return false;
+    }
+    if (keyPrefix != null && !text(record.getKey()).startsWith(keyPrefix)) {
+      return false;
+    }
+    if (principal != null
+        && !principal.contentEquals(text(auditParam(record, PARAM_PRINCIPAL)))) {
+      return false;
+    }
+    return status == null || text(record.getHttp()).startsWith(status);
+  }
+
+  /**
+   * May a block have matching records?
+   *
+   * @param block block of an index
+   * @return false if no record of the block can match
+   */
+  public boolean mayMatch(final AuditBlockIndex.Block block) {
+    if (range != null && !range.overlaps(block.getFirst(), block.getLast())) {
+      return false;
+    }
+    if (verbs != null && block.getVerbs() != null
+        && Collections.disjoint(verbs, block.getVerbs())) {
+      return false;
+    }
+    if (bucket != null && block.getBuckets() != null && !block.getBuckets().contains(bucket)) {
+      return false;
+    }
+    return principal == null || block.getPrincipals() == null
+        || block.getPrincipals().contains(principal);
+  }
+
+  /**
+   * Get a parameter of the audit information of a record. The keys of records parsed from logs
+   * are strings, those of records read from Avro files {@link Utf8}.
+   *
+   * @param record record
+   * @param param parameter, such as {@code pr}
+   * @return the value or null
+   */
+  @Nullable
+  static CharSequence auditParam(final AvroS3LogEntryRecord record, final String param) {
+    final Map<CharSequence, CharSequence> audit = record.getAudit();
+    if (audit == null || audit.isEmpty()) {
+      return null;
+    }
+    final CharSequence value = audit.get(param);
+    return value != null ? value : audit.get(new Utf8(param));
+  }
+
+  private static boolean contains(final Set<String> values, @Nullable final CharSequence value) {
+    return value != null && values.contains(value.toString());
+  }
+
+  private static String text(@Nullable final CharSequence value) {
+    return value != null ? value.toString() : "";
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder();
+    if (range != null) {
+      sb.append(" time ").append(range);
+    }
+    if (verbs != null) {
+      sb.append(" verb ").append(String.join(",", verbs));
+    }
+    if (bucket != null) {
+      sb.append(" bucket ").append(bucket);
+    }
+    if (keyPrefix != null) {
+      sb.append(" key prefix ").append(keyPrefix);
+    }
+    if (principal != null) {
+      sb.append(" principal ").append(principal);
+    }
+    if (status != null) {
+      sb.append(" status ").append(status);
+    }
+    return sb.length() > 0 ? sb.substring(1) : "all records";
+  }
+}
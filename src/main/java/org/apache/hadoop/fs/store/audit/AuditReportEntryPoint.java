@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import static org.apache.hadoop.fs.store.CommonParameters.CSVFILE;
+import static org.apache.hadoop.fs.store.CommonParameters.STANDARD_OPTS;
+import static org.apache.hadoop.fs.store.CommonParameters.THREADS;
+import static org.apache.hadoop.fs.store.audit.AuditTool.DEDUP;
+import static org.apache.hadoop.fs.store.audit.AuditTool.DEDUP_MEMORY;
+import static org.apache.hadoop.fs.store.audit.AuditTool.FROM;
+import static org.apache.hadoop.fs.store.audit.AuditTool.LAG;
+import static org.apache.hadoop.fs.store.audit.AuditTool.SAMPLE;
+import static org.apache.hadoop.fs.store.audit.AuditTool.TO;
+
+import java.io.IOException;
+import javax.annotation.Nullable;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.store.StoreEntryPoint;
+import org.apache.hadoop.fs.tools.csv.SimpleCsvWriter;
+import org.apache.hadoop.util.DurationInfo;
+import org.apache.hadoop.util.functional.ConsumerRaisingIOE;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base of the commands which parse S3 server logs into a report, in one pass and without writing
+ * any Avro file: the options which select the logs and records to process, the processing itself
+ * and the CSV file of the results.
+ */
+public class AuditReportEntryPoint extends StoreEntryPoint {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AuditReportEntryPoint.class);
+
+  /**
+   * Does the command support the sampling option?
+   */
+  private final boolean sampling;
+
+  /**
+   * Constructor.
+   *
+   * @param sampling does the command support {@link AuditTool#SAMPLE}?
+   * @param valueOptions value options of the command
+   */
+  protected AuditReportEntryPoint(final boolean sampling, final String... valueOptions) {
+    this.sampling = sampling;
+    createCommandFormat(1, 1, DEDUP);
+    addValueOptions(THREADS, CSVFILE, FROM, TO, LAG, DEDUP_MEMORY);
+    if (sampling) {
+      addValueOptions(SAMPLE);
+    }
+    addValueOptions(valueOptions);
+  }
+
+  /**
+   * Build the usage of a command.
+   *
+   * @param name name of the command
+   * @param options usage of the options of the command
+   * @param csv description of the CSV file
+   * @param sampling does the command support {@link AuditTool#SAMPLE}?
+   * @return the usage
+   */
+  protected static String usage(final String name, final String options, final String csv,
+      final boolean sampling) {
+    return "Usage: " + name + "\n" + STANDARD_OPTS + " <path of source files>"
+        + optusage(THREADS, "threads", "number of files to parse in parallel")
+        + options
+        + optusage(CSVFILE, "file", csv)
+        + (sampling
+            ? optusage(SAMPLE, "sampling", "sample the logs: lines:N, files:N or reservoir:N")
+            : "")
+        + optusage(FROM, "time", "only process records from this time, e.g. 2026-01-02T14:00")
+        + optusage(TO, "time", "only process records before this time")
+        + optusage(LAG, "duration", "longest delivery delay of log files, default 1h")
+        + optusage(DEDUP, "drop duplicate records")
+        + optusage(DEDUP_MEMORY, "size", "memory of the duplicate filter, default 64M");
+  }
+
+  /**
+   * Create the processor of the logs from the options, printing the selection.
+   *
+   * @param logsPath source path of the logs
+   * @return the processor, or null if an option is invalid; the error has been printed
+   */
+  @Nullable
+  protected AuditLogProcessor createProcessor(final Path logsPath) {
+    final int threads = getIntOption(THREADS, AuditLogProcessor.DEFAULT_THREADS);
+    println("Processing logs in source directory %s", logsPath);
+    println("Parsing up to %d files in parallel", threads);
+    final String sampleOption = sampling ? getOption(SAMPLE) : null;
+    final AuditSampling sampler;
+    final AuditTimeRange timeRange;
+    final DuplicateRecordFilter duplicateFilter;
+    try {
+      sampler = sampleOption != null ? AuditSampling.parse(sampleOption) : AuditSampling.ALL;
+      timeRange = AuditTimeRange.fromOptions(getOption(FROM), getOption(TO), getOption(LAG));
+      duplicateFilter = hasOption(DEDUP) ? AuditTool.newDuplicateFilter(getOption(DEDUP_MEMORY))
+          : null;
+    } catch (IllegalArgumentException e) {
+      error("%s", e.getMessage());
+      return null;
+    }
+    if (sampler.isSampling()) {
+      println("Sampling %s", sampler);
+    }
+    if (timeRange != null) {
+      println("Processing records in the time range %s", timeRange);
+    }
+    if (duplicateFilter != null) {
+      println("Dropping duplicate records with a %s", duplicateFilter);
+    }
+    final AuditLogProcessor processor = new AuditLogProcessor(getConf(), 1, threads);
+    processor.setSampling(sampler);
+    processor.setTimeRange(timeRange);
+    processor.setDuplicateFilter(duplicateFilter);
+    return processor;
+  }
+
+  /**
+   * Process the logs and print what was read.
+   *
+   * @param processor processor
+   * @param logsPath source path of the logs
+   * @param processed callback which builds the report
+   * @throws IOException failure to read the logs
+   */
+  protected void process(final AuditLogProcessor processor, final Path logsPath,
+      final AuditLogProcessor.Processed processed) throws IOException {
+    final DurationInfo duration = new DurationInfo(LOG, "Log Source %s", logsPath);
+    processor.parseAuditLogFiles(logsPath, processed);
+    duration.finished();
+
+    println("Read %d source files", processor.getLogFilesParsed());
+    println("Processed %d records of which %d had audit information",
+        processor.getLogRecordsProcessed(), processor.getReferrerHeadersParsed());
+    if (processor.getRecordsSkipped() > 0) {
+      warn("Skipped %d entries which could not be parsed", processor.getRecordsSkipped());
+    }
+    AuditTool.printSelection(this, processor);
+    println("Total processing time: %s", duration.getDurationString());
+    println();
+    flush();
+  }
+
+  /**
+   * Save the report to the CSV file, if one was given.
+   *
+   * @param what description of the report
+   * @param writer writer of the report
+   * @throws IOException failure to write
+   */
+  protected void maybeSaveCsv(final String what,
+      final ConsumerRaisingIOE<SimpleCsvWriter> writer) throws IOException {
+    final String csvFile = getOption(CSVFILE);
+    if (csvFile == null) {
+      return;
+    }
+    final Path csvPath = new Path(csvFile);
+    try (SimpleCsvWriter csv = new SimpleCsvWriter(
+        csvPath.getFileSystem(getConf()).createFile(csvPath).recursive().overwrite(true).build(),
+        ",", "\n", true, true)) {
+      writer.accept(csv);
+    }
+    println();
+    println("Saved %s to %s", what, csvPath);
+  }
+}
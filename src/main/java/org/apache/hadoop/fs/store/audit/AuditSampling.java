@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import java.util.Locale;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * How {@link AuditLogProcessor} samples the source logs.
+ *
+ * <p>
+ * Sampling is deterministic: the same logs always give the same sample. Every decision is made
+ * from a hash of the path of a source file and, for lines, the line number within it, so files
+ * are still parsed in parallel.
+ * <ul>
+ *   <li>{@link Mode#LINES}: one line in {@code n} of every file is parsed; the others are read
+ *   but not parsed.</li>
+ *   <li>{@link Mode#FILES}: one file in {@code n} is read; the others are not opened at all,
+ *   which is the fastest way to look at a large set of logs.</li>
+ *   <li>{@link Mode#RESERVOIR}: a fixed number of lines of all the files, chosen uniformly at
+ *   random: the lines with the lowest hashes. Every file is read, but only the lines of the
+ *   sample are parsed.</li>
+ * </ul>
+ */
+public final class AuditSampling {
+
+  /**
+   * Sampling mode.
+   */
+  public enum Mode {
+    /** Every line of every file. */
+    ALL,
+    /** One line in n. */
+    LINES,
+    /** One file in n. */
+    FILES,
+    /** A fixed number of lines. */
+    RESERVOIR
+  }
+
+  /**
+   * No sampling.
+   */
+  public static final AuditSampling ALL = new AuditSampling(Mode.ALL, 1);
+
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  private final Mode mode;
+
+  /**
+   * Sampling rate, or the size of a reservoir.
+   */
+  private final int size;
+
+  private AuditSampling(final Mode mode, final int size) {
+    this.mode = mode;
+    this.size = size;
+  }
+
+  /**
+   * Sample one line in {@code n}.
+   *
+   * @param n sampling rate; 1 or less for all lines
+   * @return the sampling
+   */
+  public static AuditSampling lines(final int n) {
+    return n > 1 ? new AuditSampling(Mode.LINES, n) : ALL;
+  }
+
+  /**
+   * Sample one file in {@code n}.
+   *
+   * @param n sampling rate; 1 or less for all files
+   * @return the sampling
+   */
+  public static AuditSampling files(final int n) {
+    return n > 1 ? new AuditSampling(Mode.FILES, n) : ALL;
+  }
+
+  /**
+   * Sample a fixed number of lines.
+   *
+   * @param lines number of lines
+   * @return the sampling
+   * @throws IllegalArgumentException if the number is not positive
+   */
+  public static AuditSampling reservoir(final int lines) {
+    if (lines < 1) {
+      throw new IllegalArgumentException("Invalid reservoir size " + lines);
+    }
+    return new AuditSampling(Mode.RESERVOIR, lines);
+  }
+
+  /**
+   * Parse a sampling option: {@code n} or {@code lines:n} for one line in n, {@code files:n}
+   * for one file in n, {@code reservoir:n} for n lines.
+   *
+   * @param option option value
+   * @return the sampling
+   * @throws IllegalArgumentException if the option is invalid
+   */
+  public static AuditSampling parse(final String option) {
+    final int colon = option.indexOf(':');
+    final String mode = colon >= 0
+        ? option.substring(0, colon).trim().toLowerCase(Locale.ENGLISH)
+        : "lines";
+    final int n;
+    try {
+      n = Integer.parseInt(option.substring(colon + 1).trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid sampling " + option, e);
+    }
+    switch (mode) {
+      case "lines":
+        return lines(n);
+      case "files":
+        return files(n);
+      case "reservoir":
+        return reservoir(n);
+      default:
+        throw new IllegalArgumentException("Invalid sampling " + option);
+    }
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * The sampling rate, or the number of lines of a reservoir.
+   *
+   * @return the size
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Is this a sample rather than all the logs?
+   *
+   * @return true if sampling
+   */
+  public boolean isSampling() {
+    return mode != Mode.ALL;
+  }
+
+  /**
+   * The seed of a source file, from which the decisions on the file and its lines are made.
+   *
+   * @param path path of the file
+   * @return the seed
+   */
+  long seedOf(final Path path) {
+    return mix(path.toString().hashCode());
+  }
+
+  /**
+   * Is a source file to be read?
+   *
+   * @param seed seed of the file
+   * @return true unless one file in n is sampled and this is not one of them
+   */
+  boolean acceptsFile(final long seed) {
+    return mode != Mode.FILES || Long.remainderUnsigned(mix(seed), size) == 0;
+  }
+
+  /**
+   * Is a line of a source file to be parsed?
+   *
+   * @param seed seed of the file
+   * @param line line number within the file
+   * @return true unless one line in n is sampled and this is not one of them
+   */
+  boolean acceptsLine(final long seed, final long line) {
+    // the seed offsets the lines sampled, so the first line of every file is not always in
+    return mode != Mode.LINES || Math.floorMod(seed + line, (long) size) == 0;
+  }
+
+  /**
+   * The rank of a line in a reservoir sample: the lines with the lowest ranks are kept.
+   *
+   * @param seed seed of the file
+   * @param line line number within the file
+   * @return a uniformly distributed rank
+   */
+  long rankOf(final long seed, final long line) {
+    return mix(seed + line * GOLDEN_GAMMA);
+  }
+
+  /**
+   * The SplitMix64 finalizer: a well distributed 64 bit hash of a value.
+   *
+   * @param value value
+   * @return the hash
+   */
+  private static long mix(final long value) {
+    long z = value;
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  @Override
+  public String toString() {
+    switch (mode) {
+      case LINES:
+        return "1 in " + size + " lines";
+      case FILES:
+        return "1 in " + size + " files";
+      case RESERVOIR:
+        return "reservoir of " + size + " lines";
+      default:
+        return "all lines";
+    }
+  }
+}
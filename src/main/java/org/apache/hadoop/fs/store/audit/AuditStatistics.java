@@ -0,0 +1,574 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import static org.apache.hadoop.fs.audit.AuditConstants.PARAM_JOB_ID;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import javax.annotation.Nullable;
+import org.apache.hadoop.fs.store.LatencyHistogram;
+import org.apache.hadoop.fs.tools.csv.SimpleCsvWriter;
+
+/**
+ * Aggregates S3 log records in one pass and in bounded memory, for reports without an
+ * intermediate Avro file.
+ *
+ * <p>
+ * Requests, errors, bytes sent and the total time of requests are counted by verb, HTTP status,
+ * requester, key prefix and, from the referrer audit map, job ID. Every group keeps at most
+ * {@code 2 * maxKeys} keys: when it has more, all but the {@code maxKeys} highest ranked are
+ * folded into an {@value #OTHER} entry, so the statistics of a key which is dropped and then seen
+ * again are undercounted. The latency percentiles of {@code totaltime} and {@code turnaroundtime}
+ * come from {@link LatencyHistogram}s, overall and by verb. The slowest requests are kept in a
+ * heap of size {@code top}.
+ *
+ * <p>
+ * If the records are a sample of the logs, {@link #setScale(double)} scales the counts of
+ * requests, errors and bytes and the sums of time in the report and CSV file to estimate those of
+ * all the logs; times per request, percentiles and the slowest requests are those of the sample.
+ *
+ * <p>
+ * Not thread safe; {@link AuditLogProcessor} invokes the callback on a single thread.
+ */
+public final class AuditStatistics implements AuditLogProcessor.Processed {
+
+  /**
+   * Default number of entries in each ranking: {@value}.
+   */
+  public static final int DEFAULT_TOP = 20;
+
+  /**
+   * Default number of keys kept by each group: {@value}.
+   */
+  public static final int DEFAULT_MAX_KEYS = 10_000;
+
+  /**
+   * Key of the entry into which pruned keys are folded: {@value}.
+   */
+  public static final String OTHER = "(other)";
+
+  /**
+   * Header of the CSV file.
+   */
+  private static final String[] CSV_COLUMNS = {"group", "key", "requests", "errors", "bytes",
+      "total_ms", "mean_ms", "max_ms", "p50_ms", "p99_ms", "detail"};
+
+  private final int top;
+
+  private final Group verbs;
+
+  private final Group statuses;
+
+  private final Group requesters;
+
+  private final Group prefixes;
+
+  private final Group jobs;
+
+  private final LatencyHistogram totalTime = new LatencyHistogram("totaltime");
+
+  private final LatencyHistogram turnaroundTime = new LatencyHistogram("turnaroundtime");
+
+  /**
+   * The slowest requests; the fastest of them is at the head.
+   */
+  private final PriorityQueue<SlowRequest> slowest =
+      new PriorityQueue<>(Comparator.comparingLong(r -> r.totalTime));
+
+  private long requests;
+
+  private long errors;
+
+  private long bytes;
+
+  /**
+   * Factor by which the counts are scaled in reports.
+   */
+  private double scale = 1;
+
+  /**
+   * Create with the default sizes.
+   */
+  public AuditStatistics() {
+    this(DEFAULT_TOP, DEFAULT_MAX_KEYS);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param top number of entries in each ranking
+   * @param maxKeys number of keys kept by each group
+   */
+  public AuditStatistics(final int top, final int maxKeys) {
+    this.top = Math.max(top, 1);
+    final int keys = Math.max(maxKeys, this.top);
+    final Comparator<Stats> byRequests = Comparator.comparingLong(s -> s.requests);
+    final Comparator<Stats> byTime = Comparator.comparingLong(s -> s.totalTime);
+    verbs = new Group("verb", keys, "requests", byRequests, true);
+    statuses = new Group("status", keys, "requests", byRequests, false);
+    requesters = new Group("requester", keys, "requests", byRequests, false);
+    prefixes = new Group("prefix", keys, "total time", byTime, false);
+    jobs = new Group("job", keys, "total time", byTime, false);
+  }
+
+  /**
+   * Add a record to the statistics.
+   *
+   * @param record record
+   * @return true, always: all records are processed
+   */
+  @Override
+  public boolean processed(final AvroS3LogEntryRecord record) {
+    final long sent = positive(record.getBytessent());
+    // -1 if the total time is unknown
+    final long time = record.getTotaltime() != null ? Math.max(record.getTotaltime(), -1) : -1;
+    final String status = toString(record.getHttp());
+    final boolean error = !status.startsWith("2") && !status.startsWith("3");
+    requests++;
+    bytes += sent;
+    if (error) {
+      errors++;
+    }
+    if (time >= 0) {
+      totalTime.recordMillis(time);
+    }
+    if (record.getTurnaroundtime() != null && record.getTurnaroundtime() >= 0) {
+      turnaroundTime.recordMillis(record.getTurnaroundtime());
+    }
+    verbs.add(toString(record.getVerb()), sent, time, error);
+    statuses.add(status, sent, time, error);
+    requesters.add(toString(record.getRequester()), sent, time, error);
+    final String prefix = prefixOf(record.getKey());
+    if (prefix != null) {
+      prefixes.add(prefix, sent, time, error);
+    }
+    final CharSequence job = record.getAudit() != null ? record.getAudit().get(PARAM_JOB_ID) : null;
+    if (job != null) {
+      jobs.add(job.toString(), sent, time, error);
+    }
+    if (slowest.size() < top) {
+      slowest.add(new SlowRequest(record, time));
+    } else if (time > slowest.peek().totalTime) {
+      slowest.poll();
+      slowest.add(new SlowRequest(record, time));
+    }
+    return true;
+  }
+
+  public long getRequests() {
+    return requests;
+  }
+
+  public long getErrors() {
+    return errors;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  public LatencyHistogram getTotalTime() {
+    return totalTime;
+  }
+
+  public LatencyHistogram getTurnaroundTime() {
+    return turnaroundTime;
+  }
+
+  /**
+   * Set the factor by which to scale the counts in reports, such as
+   * {@link AuditLogProcessor#getSampleScale()} after parsing a sample of the logs.
+   *
+   * @param scale scale; 1 for the statistics of the records themselves
+   */
+  public void setScale(final double scale) {
+    this.scale = scale;
+  }
+
+  public double getScale() {
+    return scale;
+  }
+
+  /**
+   * The highest ranked keys of a group: verbs, statuses and requesters by requests, prefixes and
+   * jobs by total time.
+   *
+   * @param group group name: verb, status, requester, prefix or job
+   * @return up to {@code top} keys and their statistics, highest first
+   */
+  public List<Map.Entry<String, Stats>> ranking(final String group) {
+    for (Group g : groups()) {
+      if (g.name.equals(group)) {
+        return g.ranking(top);
+      }
+    }
+    throw new IllegalArgumentException("Unknown group " + group);
+  }
+
+  /**
+   * The slowest requests.
+   *
+   * @return up to {@code top} requests, slowest first
+   */
+  public List<SlowRequest> slowest() {
+    final List<SlowRequest> list = new ArrayList<>(slowest);
+    list.sort(Comparator.comparingLong((SlowRequest r) -> r.totalTime).reversed());
+    return list;
+  }
+
+  /**
+   * Print the report.
+   *
+   * @param out output
+   */
+  public void report(final PrintStream out) {
+    if (scale != 1) {
+      out.printf("Estimated from a sample of %,d requests: counts and total times scaled by %.2f%n",
+          requests, scale);
+    }
+    out.printf("Requests: %,d; errors: %,d; bytes sent: %,d%n", scaled(requests),
+        scaled(errors), scaled(bytes));
+    out.printf("Total time: %s%n", totalTime.summary());
+    out.printf("Turnaround time: %s%n", turnaroundTime.summary());
+    for (Group group : groups()) {
+      out.printf("%nTop %s by %s%n", group.name, group.rankedBy);
+      out.printf("%12s %8s %16s %12s %10s  %s%n", "requests", "errors", "bytes", "total ms",
+          "max ms", group.name);
+      for (Map.Entry<String, Stats> entry : group.ranking(top)) {
+        final Stats s = entry.getValue();
+        out.printf("%,12d %,8d %,16d %,12d %,10d  %s%n", scaled(s.requests), scaled(s.errors),
+            scaled(s.bytes), scaled(s.totalTime), s.maxTime, entry.getKey());
+      }
+      if (group.pruned > 0) {
+        out.printf("(%,d keys were folded into %s; their statistics are approximate)%n",
+            group.pruned, OTHER);
+      }
+    }
+    out.printf("%nSlowest requests%n");
+    for (SlowRequest r : slowest()) {
+      out.printf("%,10d ms  %s%n", r.totalTime, r.detail());
+    }
+  }
+
+  /**
+   * Write the statistics as CSV: a row for the totals, one per key of every group, including the
+   * keys outside the rankings, and one per slow request.
+   *
+   * @param csv CSV writer
+   * @throws IOException failure to write
+   */
+  public void writeCsv(final SimpleCsvWriter csv) throws IOException {
+    csv.columns((Object[]) CSV_COLUMNS);
+    csv.newline();
+    final Stats all = new Stats();
+    all.requests = requests;
+    all.errors = errors;
+    all.bytes = bytes;
+    all.timed = totalTime.samples();
+    all.totalTime = totalTime.sum() / 1_000_000;
+    all.maxTime = totalTime.max() / 1_000_000;
+    all.histogram = totalTime;
+    row(csv, "all", "", all, scale != 1 ? String.format("scaled by %.3f", scale) : "", scale);
+    for (Group group : groups()) {
+      for (Map.Entry<String, Stats> entry : group.ranking(Integer.MAX_VALUE)) {
+        row(csv, group.name, entry.getKey(), entry.getValue(), "", scale);
+      }
+    }
+    for (SlowRequest r : slowest()) {
+      final Stats s = new Stats();
+      s.add(0, r.totalTime, r.error);
+      row(csv, "slowest", r.requestId, s, r.detail(), 1);
+    }
+  }
+
+  /**
+   * Write a CSV row, with the counts and total time scaled.
+   */
+  private static void row(final SimpleCsvWriter csv, final String group, final String key,
+      final Stats s, final String detail, final double factor) throws IOException {
+    csv.column(group).column(key).columnL(scale(s.requests, factor))
+        .columnL(scale(s.errors, factor)).columnL(scale(s.bytes, factor))
+        .columnL(scale(s.totalTime, factor))
+        .column(String.format("%.3f", s.timed > 0 ? (double) s.totalTime / s.timed : 0))
+        .columnL(s.maxTime);
+    if (s.histogram != null) {
+      csv.column(String.format("%.3f", s.histogram.percentileMillis(50)))
+          .column(String.format("%.3f", s.histogram.percentileMillis(99)));
+    } else {
+      csv.column("").column("");
+    }
+    csv.column(detail);
+    csv.newline();
+  }
+
+  private long scaled(final long value) {
+    return scale(value, scale);
+  }
+
+  private static long scale(final long value, final double factor) {
+    return Math.round(value * factor);
+  }
+
+  private Group[] groups() {
+    return new Group[]{verbs, statuses, requesters, prefixes, jobs};
+  }
+
+  /**
+   * Get the prefix of a key: its parent "directory".
+   *
+   * @param key object key
+   * @return the prefix, "/" for a key without one, or null if the request has no key
+   */
+  @Nullable
+  static String prefixOf(@Nullable final CharSequence key) {
+    if (key == null || key.length() == 0 || "-".contentEquals(key)) {
+      return null;
+    }
+    final String k = key.toString();
+    final int slash = k.lastIndexOf('/', k.length() - 2);
+    return slash > 0 ? k.substring(0, slash + 1) : "/";
+  }
+
+  private static long positive(@Nullable final Long value) {
+    return value != null && value > 0 ? value : 0;
+  }
+
+  private static String toString(@Nullable final CharSequence value) {
+    return value != null ? value.toString() : "-";
+  }
+
+  /**
+   * Statistics of a key.
+   */
+  public static final class Stats {
+
+    private long requests;
+
+    private long errors;
+
+    private long bytes;
+
+    /**
+     * Number of requests whose total time is known.
+     */
+    private long timed;
+
+    private long totalTime;
+
+    private long maxTime;
+
+    @Nullable
+    private LatencyHistogram histogram;
+
+    /**
+     * Add a request.
+     *
+     * @param sent bytes sent
+     * @param time total time in milliseconds; -1 if unknown
+     * @param error did the request fail?
+     */
+    private void add(final long sent, final long time, final boolean error) {
+      requests++;
+      if (error) {
+        errors++;
+      }
+      bytes += sent;
+      if (time >= 0) {
+        timed++;
+        totalTime += time;
+        maxTime = Math.max(maxTime, time);
+      }
+    }
+
+    private void merge(final Stats other) {
+      requests += other.requests;
+      errors += other.errors;
+      bytes += other.bytes;
+      timed += other.timed;
+      totalTime += other.totalTime;
+      maxTime = Math.max(maxTime, other.maxTime);
+    }
+
+    public long getRequests() {
+      return requests;
+    }
+
+    public long getErrors() {
+      return errors;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+
+    /**
+     * Sum of the total time of the requests.
+     *
+     * @return milliseconds
+     */
+    public long getTotalTime() {
+      return totalTime;
+    }
+
+    public long getMaxTime() {
+      return maxTime;
+    }
+  }
+
+  /**
+   * Statistics by key, with a bounded number of keys.
+   */
+  private static final class Group {
+
+    private final String name;
+
+    private final int maxKeys;
+
+    private final String rankedBy;
+
+    private final Comparator<Stats> ranking;
+
+    private final boolean histograms;
+
+    private final Map<String, Stats> stats = new HashMap<>();
+
+    /**
+     * Number of keys folded into {@link #OTHER}.
+     */
+    private long pruned;
+
+    private Group(final String name, final int maxKeys, final String rankedBy,
+        final Comparator<Stats> ranking, final boolean histograms) {
+      this.name = name;
+      this.maxKeys = maxKeys;
+      this.rankedBy = rankedBy;
+      this.ranking = ranking;
+      this.histograms = histograms;
+    }
+
+    private void add(final String key, final long sent, final long time, final boolean error) {
+      Stats s = stats.get(key);
+      if (s == null) {
+        if (stats.size() >= maxKeys * 2) {
+          prune();
+        }
+        s = new Stats();
+        if (histograms) {
+          s.histogram = new LatencyHistogram(key);
+        }
+        stats.put(key, s);
+      }
+      s.add(sent, time, error);
+      if (s.histogram != null && time >= 0) {
+        s.histogram.recordMillis(time);
+      }
+    }
+
+    /**
+     * Keep the highest ranked keys and fold the others into {@link #OTHER}.
+     */
+    private void prune() {
+      final Stats other = stats.containsKey(OTHER) ? stats.remove(OTHER) : new Stats();
+      final List<Map.Entry<String, Stats>> entries = sorted();
+      stats.clear();
+      for (int i = 0; i < entries.size(); i++) {
+        final Map.Entry<String, Stats> entry = entries.get(i);
+        if (i < maxKeys) {
+          stats.put(entry.getKey(), entry.getValue());
+        } else {
+          other.merge(entry.getValue());
+          pruned++;
+        }
+      }
+      other.histogram = null;
+      stats.put(OTHER, other);
+    }
+
+    private List<Map.Entry<String, Stats>> sorted() {
+      final List<Map.Entry<String, Stats>> entries = new ArrayList<>(stats.entrySet());
+      entries.sort(Map.Entry.<String, Stats>comparingByValue(ranking).reversed());
+      return entries;
+    }
+
+    private List<Map.Entry<String, Stats>> ranking(final int count) {
+      final List<Map.Entry<String, Stats>> entries = sorted();
+      return entries.subList(0, Math.min(count, entries.size()));
+    }
+  }
+
+  /**
+   * A slow request.
+   */
+  public static final class SlowRequest {
+
+    private final long totalTime;
+
+    private final String time;
+
+    private final String verb;
+
+    private final String path;
+
+    private final String status;
+
+    private final String requestId;
+
+    private final String job;
+
+    private final boolean error;
+
+    private SlowRequest(final AvroS3LogEntryRecord record, final long totalTime) {
+      this.totalTime = totalTime;
+      time = AuditStatistics.toString(record.getTstamp());
+      verb = AuditStatistics.toString(record.getVerb());
+      path = AuditStatistics.toString(record.getBucket()) + "/"
+          + AuditStatistics.toString(record.getKey());
+      status = AuditStatistics.toString(record.getHttp());
+      requestId = AuditStatistics.toString(record.getRequestid());
+      final CharSequence j = record.getAudit() != null ? record.getAudit().get(PARAM_JOB_ID)
+          : null;
+      job = j != null ? j.toString() : "";
+      error = !status.startsWith("2") && !status.startsWith("3");
+    }
+
+    public long getTotalTime() {
+      return totalTime;
+    }
+
+    public String getRequestId() {
+      return requestId;
+    }
+
+    /**
+     * Description of the request for reports.
+     *
+     * @return time, verb, path, status, request ID and job ID
+     */
+    public String detail() {
+      return String.format("%s %s %s %s %s%s", time, verb, path, status, requestId,
+          job.isEmpty() ? "" : " job " + job);
+    }
+  }
+}
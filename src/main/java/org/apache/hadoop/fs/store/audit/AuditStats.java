@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import static org.apache.hadoop.service.launcher.LauncherExitCodes.EXIT_COMMAND_ARGUMENT_ERROR;
+import static org.apache.hadoop.service.launcher.LauncherExitCodes.EXIT_FAIL;
+import static org.apache.hadoop.service.launcher.LauncherExitCodes.EXIT_SUCCESS;
+
+import java.util.List;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Parse S3 server logs and report statistics on the requests, in one pass over the logs and
+ * without writing any Avro file; see {@link AuditStatistics}.
+ */
+public class AuditStats extends AuditReportEntryPoint {
+
+  /**
+   * Name of this tool: {@value}.
+   */
+  public static final String NAME = "auditstats";
+
+  /**
+   * Number of entries in each ranking: {@value}.
+   */
+  public static final String TOP = "top";
+
+  /**
+   * Number of keys kept per group: {@value}.
+   */
+  public static final String MAX_KEYS = "maxkeys";
+
+  public static final String USAGE = usage(NAME,
+      optusage(TOP, "count", "number of entries in each ranking")
+          + optusage(MAX_KEYS, "count", "number of keys to keep per statistic"),
+      "CSV file to save the statistics to", true);
+
+  public AuditStats() {
+    super(true, TOP, MAX_KEYS);
+  }
+
+  @Override
+  public int run(final String[] args) throws Exception {
+    List<String> paths = processArgs(args, 1, 1, USAGE);
+
+    final Path logsPath = new Path(paths.get(0));
+    final AuditLogProcessor processor = createProcessor(logsPath);
+    if (processor == null) {
+      return EXIT_COMMAND_ARGUMENT_ERROR;
+    }
+    final AuditStatistics statistics = new AuditStatistics(
+        getIntOption(TOP, AuditStatistics.DEFAULT_TOP),
+        getIntOption(MAX_KEYS, AuditStatistics.DEFAULT_MAX_KEYS));
+    process(processor, logsPath, statistics);
+    statistics.setScale(processor.getSampleScale());
+    statistics.report(getOut());
+    maybeSaveCsv("statistics", statistics::writeCsv);
+    return statistics.getRequests() > 0 ? EXIT_SUCCESS : EXIT_FAIL;
+  }
+
+  /**
+   * Execute the command, return the result or throw an exception, as appropriate.
+   *
+   * @param args argument varags.
+   * @return return code
+   * @throws Exception failure
+   */
+  public static int exec(String... args) throws Exception {
+    return ToolRunner.run(new AuditStats(), args);
+  }
+}
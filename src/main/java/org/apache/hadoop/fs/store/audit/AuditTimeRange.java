@@ -0,0 +1,375 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import static org.apache.hadoop.fs.store.StoreUtils.parseDurationArgument;
+
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A range of event times, used to skip S3 log files outside it before they are opened.
+ *
+ * <p>
+ * The name of an S3 server log file ends with the time at which it was delivered, in both the
+ * simple format {@code TargetPrefixYYYY-mm-DD-HH-MM-SS-UniqueString} and the partitioned format
+ * {@code TargetPrefix/Account/Region/Bucket/YYYY/MM/DD/YYYY-MM-DD-HH-MM-SS-UniqueString}. Its
+ * records were logged before that time, and at most a delivery lag earlier. A file is skipped if
+ * that period does not overlap the range; only the records of files which overlap either end of
+ * the range, or whose names have no timestamp, are filtered by their own event time.
+ * In the partitioned format, the date directories of the days on which no such file can have
+ * been delivered are not even listed; see {@link #listLogFiles(FileSystem, Path)}.
+ */
+public final class AuditTimeRange {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AuditTimeRange.class);
+
+  /**
+   * Default delivery lag: the longest time between logging a record and delivering the file.
+   */
+  public static final Duration DEFAULT_DELIVERY_LAG = Duration.ofHours(1);
+
+  /**
+   * Timestamp in the name of a log file.
+   */
+  private static final Pattern LOG_FILE_TIMESTAMP =
+      Pattern.compile("(\\d{4})-(\\d{2})-(\\d{2})-(\\d{2})-(\\d{2})-(\\d{2})-[^-]+$");
+
+  /**
+   * Name of a year, month or day directory of the partitioned format.
+   */
+  private static final Pattern DATE_DIRECTORY = Pattern.compile("\\d+");
+
+  private final Instant from;
+
+  private final Instant to;
+
+  private final Duration deliveryLag;
+
+  /**
+   * Constructor.
+   *
+   * @param from start of the range, inclusive; null for no start
+   * @param to end of the range, exclusive; null for no end
+   * @param deliveryLag longest time between logging a record and delivering its file
+   */
+  public AuditTimeRange(@Nullable final Instant from, @Nullable final Instant to,
+      final Duration deliveryLag) {
+    this.from = from != null ? from : Instant.MIN;
+    this.to = to != null ? to : Instant.MAX;
+    this.deliveryLag = deliveryLag;
+  }
+
+  /**
+   * Is an event in the range?
+   *
+   * @param event event time
+   * @return true if the event is in the range
+   */
+  public boolean contains(final Instant event) {
+    return !event.isBefore(from) && event.isBefore(to);
+  }
+
+  /**
+   * Does a period of events overlap the range?
+   *
+   * @param first first event, inclusive
+   * @param last last event, inclusive
+   * @return true if some event in the period is in the range
+   */
+  public boolean overlaps(final Instant first, final Instant last) {
+    return !last.isBefore(from) && first.isBefore(to);
+  }
+
+  /**
+   * May a log file delivered at a time have records in the range?
+   *
+   * @param delivered delivery time from the name of the file; null if unknown
+   * @return true if the file is to be read
+   */
+  public boolean mayContain(@Nullable final Instant delivered) {
+    return delivered == null
+        || !delivered.isBefore(from) && earliest(delivered).isBefore(to);
+  }
+
+  /**
+   * May log files delivered in a period have records in the range? This is used to list only
+   * the date directories of the partitioned format which can hold such files.
+   *
+   * @param start start of the period, inclusive
+   * @param end end of the period, exclusive
+   * @return true if a file delivered in the period may have records in the range
+   */
+  public boolean mayContainDelivered(final Instant start, final Instant end) {
+    return end.isAfter(from) && earliest(start).isBefore(to);
+  }
+
+  /**
+   * Are all the records of a log file delivered at a time in the range?
+   *
+   * @param delivered delivery time from the name of the file; null if unknown
+   * @return true if its records need not be filtered
+   */
+  public boolean containsAll(@Nullable final Instant delivered) {
+    return delivered != null
+        && !earliest(delivered).isBefore(from) && delivered.isBefore(to);
+  }
+
+  /**
+   * The earliest time of a record in a file delivered at a time.
+   */
+  private Instant earliest(final Instant delivered) {
+    return delivered.isBefore(Instant.MIN.plus(deliveryLag))
+        ? Instant.MIN
+        : delivered.minus(deliveryLag);
+  }
+
+  /**
+   * Get the delivery time of a log file from its name.
+   *
+   * @param path path of the file
+   * @return the time, or null if the name has no timestamp
+   */
+  @Nullable
+  public static Instant timestampOfLogFile(final Path path) {
+    final Matcher matcher = LOG_FILE_TIMESTAMP.matcher(path.getName());
+    if (!matcher.find()) {
+      return null;
+    }
+    try {
+      return LocalDateTime.of(Integer.parseInt(matcher.group(1)),
+          Integer.parseInt(matcher.group(2)), Integer.parseInt(matcher.group(3)),
+          Integer.parseInt(matcher.group(4)), Integer.parseInt(matcher.group(5)),
+          Integer.parseInt(matcher.group(6))).toInstant(ZoneOffset.UTC);
+    } catch (DateTimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * List the log files under a path which may have records in the range. In the partitioned
+   * format, where the children of the path are year directories, only the year, month and day
+   * directories of the days on which such files may have been delivered are listed; anything
+   * else under those directories is listed in full. Files in the simple format are only
+   * distinguished by their names, so all of the path is listed.
+   *
+   * @param fs filesystem
+   * @param logsPath path of the log files
+   * @return the listing
+   * @throws IOException failure to list
+   */
+  public RemoteIterator<LocatedFileStatus> listLogFiles(final FileSystem fs, final Path logsPath)
+      throws IOException {
+    final List<Path> days = dateDirectories(fs, logsPath);
+    if (days == null) {
+      return fs.listFiles(logsPath, true);
+    }
+    LOG.info("Listing {} date directories of {} in the time range {}", days.size(), logsPath,
+        this);
+    return new RemoteIterator<LocatedFileStatus>() {
+
+      private int next;
+
+      private RemoteIterator<LocatedFileStatus> current;
+
+      @Override
+      public boolean hasNext() throws IOException {
+        while ((current == null || !current.hasNext()) && next < days.size()) {
+          current = fs.listFiles(days.get(next++), true);
+        }
+        return current != null && current.hasNext();
+      }
+
+      @Override
+      public LocatedFileStatus next() throws IOException {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return current.next();
+      }
+    };
+  }
+
+  /**
+   * Find the date directories of the partitioned format which may hold log files with records
+   * in the range.
+   *
+   * @param fs filesystem
+   * @param logsPath path of the log files
+   * @return the paths to list in full, in order; null if the children of the path are not all
+   * year directories
+   * @throws IOException failure to list
+   */
+  @Nullable
+  List<Path> dateDirectories(final FileSystem fs, final Path logsPath) throws IOException {
+    final FileStatus[] years = fs.listStatus(logsPath);
+    if (years.length == 0) {
+      return null;
+    }
+    for (FileStatus year : years) {
+      if (dateOf(year, 0, null) == null) {
+        return null;
+      }
+    }
+    final List<Path> selected = new ArrayList<>();
+    addDateDirectories(fs, years, 0, null, selected);
+    return selected;
+  }
+
+  /**
+   * Add the directories of a level of the partitioned format which may hold log files with
+   * records in the range, descending into the year and month directories.
+   *
+   * @param fs filesystem
+   * @param children children of the parent directory
+   * @param level 0 for years, 1 for months, 2 for days
+   * @param parent start of the period of the parent directory; null for the years
+   * @param selected paths to list in full
+   * @throws IOException failure to list
+   */
+  private void addDateDirectories(final FileSystem fs, final FileStatus[] children,
+      final int level, @Nullable final LocalDate parent, final List<Path> selected)
+      throws IOException {
+    Arrays.sort(children);
+    for (FileStatus child : children) {
+      final LocalDate start = dateOf(child, level, parent);
+      if (start == null) {
+        // not part of the layout: keep it
+        selected.add(child.getPath());
+        continue;
+      }
+      final LocalDate end = level == 0 ? start.plusYears(1)
+          : level == 1 ? start.plusMonths(1)
+          : start.plusDays(1);
+      if (!mayContainDelivered(start.atStartOfDay(ZoneOffset.UTC).toInstant(),
+          end.atStartOfDay(ZoneOffset.UTC).toInstant())) {
+        LOG.debug("Skipping {}", child.getPath());
+      } else if (level == 2) {
+        selected.add(child.getPath());
+      } else {
+        addDateDirectories(fs, fs.listStatus(child.getPath()), level + 1, start, selected);
+      }
+    }
+  }
+
+  /**
+   * Get the start of the period of a year, month or day directory.
+   *
+   * @param status status of the entry
+   * @param level 0 for a year, 1 for a month, 2 for a day
+   * @param parent start of the period of the parent directory; null for a year
+   * @return the date, or null if the entry is not such a directory
+   */
+  @Nullable
+  private static LocalDate dateOf(final FileStatus status, final int level,
+      @Nullable final LocalDate parent) {
+    final String name = status.getPath().getName();
+    if (!status.isDirectory() || !DATE_DIRECTORY.matcher(name).matches()
+        || name.length() != (level == 0 ? 4 : 2)) {
+      return null;
+    }
+    final int value = Integer.parseInt(name);
+    try {
+      return level == 0 ? LocalDate.of(value, 1, 1)
+          : level == 1 ? LocalDate.of(parent.getYear(), value, 1)
+          : LocalDate.of(parent.getYear(), parent.getMonth(), value);
+    } catch (DateTimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Create a time range from the options of a command.
+   *
+   * @param from start of the range; see {@link #parseTime(String)}; null for no start
+   * @param to end of the range; null for no end
+   * @param lag delivery lag, such as {@code 2h}; null for {@link #DEFAULT_DELIVERY_LAG}
+   * @return the range, or null if there is neither a start nor an end
+   * @throws IllegalArgumentException if an option cannot be parsed or the range is empty
+   */
+  @Nullable
+  public static AuditTimeRange fromOptions(@Nullable final String from, @Nullable final String to,
+      @Nullable final String lag) {
+    if (from == null && to == null) {
+      return null;
+    }
+    final AuditTimeRange range = new AuditTimeRange(
+        from != null ? parseTime(from) : null,
+        to != null ? parseTime(to) : null,
+        lag != null
+            ? parseDurationArgument(lag, DEFAULT_DELIVERY_LAG.getSeconds(), TimeUnit.SECONDS)
+            : DEFAULT_DELIVERY_LAG);
+    if (!range.from.isBefore(range.to)) {
+      throw new IllegalArgumentException("Empty time range " + range);
+    }
+    return range;
+  }
+
+  /**
+   * Parse a time option: an ISO instant such as {@code 2026-01-02T14:30:00Z}, or a date and time
+   * such as {@code 2026-01-02T14:30} or date {@code 2026-01-02} in UTC.
+   *
+   * @param time time
+   * @return the instant
+   * @throws IllegalArgumentException if the time cannot be parsed
+   */
+  public static Instant parseTime(final String time) {
+    final String t = time.trim().toUpperCase(Locale.ROOT);
+    try {
+      if (t.endsWith("Z")) {
+        return Instant.parse(t);
+      }
+      if (t.indexOf('T') > 0) {
+        return LocalDateTime.parse(t).toInstant(ZoneOffset.UTC);
+      }
+      return LocalDate.parse(t).atStartOfDay().toInstant(ZoneOffset.UTC);
+    } catch (DateTimeParseException e) {
+      throw new IllegalArgumentException("Invalid time \"" + time
+          + "\": expected a UTC time such as 2026-01-02T14:30:00Z, 2026-01-02T14:30 or 2026-01-02",
+          e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "[" + (from == Instant.MIN ? "" : from) + ", " + (to == Instant.MAX ? "" : to)
+        + ")";
+  }
+}
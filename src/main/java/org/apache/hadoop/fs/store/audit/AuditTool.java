@@ -18,11 +18,28 @@
 package org.apache.hadoop.fs.store.audit;
 
 import static org.apache.hadoop.fs.store.CommonParameters.STANDARD_OPTS;
+import static org.apache.hadoop.fs.store.CommonParameters.THREADS;
+import static org.apache.hadoop.fs.store.StoreUtils.getDataSize;
+import static org.apache.hadoop.fs.store.StoreUtils.parseDurationArgument;
 import static org.apache.hadoop.service.launcher.LauncherExitCodes.EXIT_COMMAND_ARGUMENT_ERROR;
 import static org.apache.hadoop.service.launcher.LauncherExitCodes.EXIT_FAIL;
 import static org.apache.hadoop.service.launcher.LauncherExitCodes.EXIT_SUCCESS;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.hadoop.conf.StorageUnit;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.store.StoreEntryPoint;
 import org.apache.hadoop.util.DurationInfo;
@@ -63,16 +80,102 @@ public class AuditTool extends StoreEntryPoint {
 
   private static final int INVALID_ARGUMENT = EXIT_COMMAND_ARGUMENT_ERROR;
 
-  private static final int SAMPLE = 500;
-
   public static final String OVERWRITE = "overwrite";
 
+  /**
+   * Partition the output by date and hour: {@value}.
+   */
+  public static final String PARTITION = "partition";
+
+  /**
+   * Also partition the output by bucket: {@value}.
+   */
+  public static final String BY_BUCKET = "bybucket";
+
+  /**
+   * Avro compression codec: {@value}.
+   */
+  public static final String CODEC = "codec";
+
+  /**
+   * Avro block size: {@value}.
+   */
+  public static final String BLOCK_SIZE = "blocksize";
+
+  /**
+   * Only process files which are not in the ledger of the output directory: {@value}.
+   */
+  public static final String INCREMENTAL = "incremental";
+
+  /**
+   * Process new files incrementally at an interval until stopped: {@value}.
+   */
+  public static final String FOLLOW = "follow";
+
+  /**
+   * Sample the logs: {@value}; see {@link AuditSampling#parse(String)}.
+   */
+  public static final String SAMPLE = "sample";
+
+  /**
+   * Start of the time range of the records to process: {@value}.
+   */
+  public static final String FROM = "from";
+
+  /**
+   * End of the time range of the records to process: {@value}.
+   */
+  public static final String TO = "to";
+
+  /**
+   * Longest delay between logging a record and delivering its log file: {@value}.
+   */
+  public static final String LAG = "lag";
+
+  /**
+   * Drop duplicate records: {@value}; see {@link DuplicateRecordFilter}.
+   */
+  public static final String DEDUP = "dedup";
+
+  /**
+   * Memory of the duplicate record filter: {@value}.
+   */
+  public static final String DEDUP_MEMORY = "dedupmemory";
+
+  /**
+   * Save an index of the blocks of the output for {@link AuditQuery}: {@value}.
+   */
+  public static final String INDEX = "index";
+
+  /**
+   * Format of the timestamps in the names of incremental segments.
+   */
+  private static final DateTimeFormatter SEGMENT_TIMESTAMP =
+      DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS", Locale.ENGLISH)
+          .withZone(ZoneOffset.UTC);
+
   public static final String USAGE =
       "Usage: auditlogs\n" + STANDARD_OPTS + " <path of source files>" + " <path of output file>"
-          + optusage(OVERWRITE, "overwrite the output file");
+          + optusage(OVERWRITE, "overwrite the output file")
+          + optusage(THREADS, "threads", "number of files to parse in parallel")
+          + optusage(PARTITION, "write a directory partitioned by date and hour")
+          + optusage(BY_BUCKET, "also partition by bucket")
+          + optusage(CODEC, "codec",
+              "avro codec: null, deflate, snappy, bzip2, xz, zstandard; level e.g. deflate:9")
+          + optusage(BLOCK_SIZE, "size", "approximate size of avro blocks, e.g. 1M")
+          + optusage(INCREMENTAL, "only process files not yet in the output directory")
+          + optusage(FOLLOW, "interval", "process new files every interval, e.g. 5m")
+          + optusage(SAMPLE, "sampling", "sample the logs: lines:N, files:N or reservoir:N")
+          + optusage(FROM, "time", "only process records from this time, e.g. 2026-01-02T14:00")
+          + optusage(TO, "time", "only process records before this time")
+          + optusage(LAG, "duration", "longest delivery delay of log files, default 1h")
+          + optusage(DEDUP, "drop duplicate records, across incremental runs")
+          + optusage(DEDUP_MEMORY, "size", "memory of the duplicate filter, default 64M")
+          + optusage(INDEX, "save an index of the output for auditquery");
 
   public AuditTool() {
-    createCommandFormat(2, 2, OVERWRITE);
+    createCommandFormat(2, 2, OVERWRITE, PARTITION, BY_BUCKET, INCREMENTAL, DEDUP, INDEX);
+    addValueOptions(THREADS, CODEC, BLOCK_SIZE, FOLLOW, SAMPLE, FROM, TO, LAG, DEDUP_MEMORY);
   }
 
   /**
@@ -108,13 +211,172 @@ public class AuditTool extends StoreEntryPoint {
     Path destPath = new Path(paths.get(1));
     println("Processing logs in source directory %s", logsPath);
     println("Writing output to file %s", destPath);
+    final int threads = getIntOption(THREADS, AuditLogProcessor.DEFAULT_THREADS);
+    println("Parsing up to %d files in parallel", threads);
 
-    final AuditLogProcessor auditProcessor;
-    DurationInfo duration = new DurationInfo(LOG, "Log Source %s", logsPath);
-    auditProcessor = new AuditLogProcessor(getConf(), SAMPLE);
+    final String codecName = getOption(CODEC);
+    final CodecFactory codec;
+    try {
+      codec = newCodec(codecName);
+    } catch (IllegalArgumentException e) {
+      error("%s", e.getMessage());
+      return INVALID_ARGUMENT;
+    }
+    final String blockSize = getOption(BLOCK_SIZE);
+    final int syncInterval = blockSize != null
+        ? (int) Math.min(Integer.MAX_VALUE, getDataSize(blockSize, StorageUnit.BYTES))
+        : DataFileConstants.DEFAULT_SYNC_INTERVAL;
+    if (syncInterval < 32 || syncInterval > (1 << 30)) {
+      error("Block size %s is out of range", blockSize);
+      return INVALID_ARGUMENT;
+    }
+    final boolean partitioned = hasOption(PARTITION);
+    if (partitioned) {
+      println("Partitioning by date and hour%s", hasOption(BY_BUCKET) ? " and bucket" : "");
+    }
+    println("Codec %s; block size %,d bytes", codecName != null ? codecName : "null",
+        syncInterval);
+    final boolean indexed = hasOption(INDEX);
+    if (indexed && partitioned) {
+      // partitions are already pruned by date, hour and bucket
+      error("Partitioned output cannot be indexed");
+      return INVALID_ARGUMENT;
+    }
+    final String followOption = getOption(FOLLOW);
+    final Duration interval = followOption != null
+        ? parseDurationArgument(followOption, 60, TimeUnit.SECONDS)
+        : Duration.ZERO;
+    if (followOption != null && interval.isZero()) {
+      error("Follow interval %s is less than one second", followOption);
+      return INVALID_ARGUMENT;
+    }
+    final boolean incremental = followOption != null || hasOption(INCREMENTAL);
+    final String sampleOption = getOption(SAMPLE);
+    final AuditSampling sampling;
+    try {
+      sampling = sampleOption != null ? AuditSampling.parse(sampleOption) : AuditSampling.ALL;
+    } catch (IllegalArgumentException e) {
+      error("%s", e.getMessage());
+      return INVALID_ARGUMENT;
+    }
+    if (incremental && sampling.isSampling()) {
+      // the ledger would list files of which only a sample had been processed
+      error("Sampling cannot be combined with incremental processing");
+      return INVALID_ARGUMENT;
+    }
+    final AuditTimeRange timeRange;
+    try {
+      timeRange = AuditTimeRange.fromOptions(getOption(FROM), getOption(TO), getOption(LAG));
+    } catch (IllegalArgumentException e) {
+      error("%s", e.getMessage());
+      return INVALID_ARGUMENT;
+    }
+    if (incremental && timeRange != null) {
+      // the ledger would list files of which only the records in the range had been processed
+      error("A time range cannot be combined with incremental processing");
+      return INVALID_ARGUMENT;
+    }
+
+    final DuplicateRecordFilter newFilter;
+    try {
+      newFilter = hasOption(DEDUP) ? newDuplicateFilter(getOption(DEDUP_MEMORY)) : null;
+    } catch (IllegalArgumentException e) {
+      error("%s", e.getMessage());
+      return INVALID_ARGUMENT;
+    }
 
-    // Calls AuditLogProcessor for implementing merging, passing of
-    // audit log files and converting into avro file
+    final AuditLogProcessor auditProcessor = new AuditLogProcessor(getConf(), 1, threads);
+    auditProcessor.setPartitioned(partitioned, hasOption(BY_BUCKET));
+    auditProcessor.setCodec(codec);
+    auditProcessor.setSyncInterval(syncInterval);
+    auditProcessor.setSampling(sampling);
+    auditProcessor.setTimeRange(timeRange);
+    auditProcessor.setIndexed(indexed);
+    if (indexed) {
+      println("Indexing the output");
+    }
+    if (sampling.isSampling()) {
+      println("Sampling %s", sampling);
+    }
+    if (timeRange != null) {
+      println("Processing records in the time range %s", timeRange);
+    }
+
+    if (!incremental) {
+      if (newFilter != null) {
+        println("Dropping duplicate records with a %s", newFilter);
+        auditProcessor.setDuplicateFilter(newFilter);
+      }
+      // Calls AuditLogProcessor for implementing merging, passing of
+      // audit log files and converting into avro file
+      processLogs(auditProcessor, logsPath, destPath);
+      if (partitioned) {
+        println("Saved %d partitions under %s", auditProcessor.getFilesWritten(), destPath);
+      } else {
+        println("Saved output to %s", destPath);
+      }
+      if (!(auditProcessor.getLogRecordsProcessed() > 0)) {
+        return FAILURE;
+      }
+      return SUCCESS;
+    }
+
+    // each run adds a segment of the new files to the output directory and its ledger
+    final FileSystem destFS = destPath.getFileSystem(getConf());
+    final ProcessedFileLedger ledger = ProcessedFileLedger.load(destFS, destPath);
+    println("Ledger %s lists %d processed files", ledger.getPath(), ledger.size());
+    auditProcessor.setFileFilter(status -> !ledger.isProcessed(status));
+    // the request IDs of earlier runs are kept beside the ledger
+    DuplicateRecordFilter duplicateFilter = null;
+    if (newFilter != null) {
+      duplicateFilter = DuplicateRecordFilter.load(destFS, destPath);
+      if (duplicateFilter == null) {
+        duplicateFilter = newFilter;
+      }
+      println("Dropping duplicate records with a %s", duplicateFilter);
+      auditProcessor.setDuplicateFilter(duplicateFilter);
+    }
+    while (true) {
+      final String segment = "part-" + SEGMENT_TIMESTAMP.format(Instant.now());
+      auditProcessor.setSegment(segment);
+      processLogs(auditProcessor, logsPath, destPath);
+      println("Skipped %d files already processed", auditProcessor.getLogFilesFiltered());
+      final List<FileStatus> merged = auditProcessor.getFilesMerged();
+      if (auditProcessor.getLogRecordsProcessed() > 0) {
+        println("Saved segment %s to %d %s under %s", segment, auditProcessor.getFilesWritten(),
+            partitioned ? "partitions" : "file", destPath);
+      } else {
+        println("No new log entries");
+      }
+      if (!merged.isEmpty()) {
+        ledger.addAll(merged);
+        ledger.save(destFS);
+        println("Ledger %s lists %d processed files", ledger.getPath(), ledger.size());
+        if (duplicateFilter != null) {
+          // after the ledger, so that a failure cannot drop the records of unlisted files
+          println("Saved %s to %s", duplicateFilter,
+              duplicateFilter.save(destFS, destPath));
+        }
+      }
+      if (followOption == null) {
+        return SUCCESS;
+      }
+      println("Waiting %s for new log files", followOption);
+      Thread.sleep(interval.toMillis());
+    }
+  }
+
+  /**
+   * Process the log files and print the statistics.
+   *
+   * @param auditProcessor processor
+   * @param logsPath source path of logs
+   * @param destPath destination path
+   * @throws IOException failure
+   */
+  private void processLogs(final AuditLogProcessor auditProcessor, final Path logsPath,
+      final Path destPath) throws IOException {
+    DurationInfo duration = new DurationInfo(LOG, "Log Source %s", logsPath);
     auditProcessor.mergeAndParseAuditLogFiles(logsPath, destPath, hasOption(OVERWRITE),
         AuditLogProcessor.PROCESS_ALL);
 
@@ -123,13 +385,111 @@ public class AuditTool extends StoreEntryPoint {
     println("Read %d source files", auditProcessor.getLogFilesParsed());
     println("Processed %d records of which %d had audit information",
         auditProcessor.getLogRecordsProcessed(), auditProcessor.getReferrerHeadersParsed());
+    if (auditProcessor.getRecordsSkipped() > 0) {
+      warn("Skipped %d entries which could not be parsed", auditProcessor.getRecordsSkipped());
+    }
+    printSelection(this, auditProcessor);
     println("Total processing time: %s", duration.getDurationString());
-    println("Saved output to %s", destPath);
-    if (!(auditProcessor.getLogRecordsProcessed() > 0)) {
-      return FAILURE;
+  }
+
+  /**
+   * Print how many files and records were outside the time range and, if the logs were sampled,
+   * the size of the sample and the estimated number of records.
+   *
+   * @param command command to print with
+   * @param processor processor
+   */
+  static void printSelection(final StoreEntryPoint command, final AuditLogProcessor processor) {
+    if (processor.getLogFilesOutOfRange() > 0 || processor.getRecordsOutOfRange() > 0) {
+      command.println("Skipped %d files and %d records outside the time range",
+          processor.getLogFilesOutOfRange(), processor.getRecordsOutOfRange());
+    }
+    if (processor.getDuplicateRecords() > 0) {
+      command.println("Dropped %d duplicate records", processor.getDuplicateRecords());
+    }
+    if (processor.getSampleScale() != 1) {
+      command.println("Sampled %d of %d lines read; estimated total %d records (scale %.2f)",
+          processor.getLinesSampled(), processor.getLinesRead(),
+          Math.round(processor.getLogRecordsProcessed() * processor.getSampleScale()),
+          processor.getSampleScale());
+    }
+  }
+
+  /**
+   * Create the factory of an Avro codec: {@code null}, {@code deflate}, {@code snappy},
+   * {@code bzip2}, {@code xz} or {@code zstandard}, also {@code zstd}. Deflate, xz and zstandard
+   * take a compression level after a colon, such as {@code deflate:9}.
+   *
+   * @param option codec option; null for no compression
+   * @return the codec factory
+   * @throws IllegalArgumentException if the codec is unknown or the level is out of range
+   */
+  static CodecFactory newCodec(@Nullable final String option) {
+    if (option == null) {
+      return CodecFactory.nullCodec();
     }
+    final String[] parts = option.trim().toLowerCase(Locale.ROOT).split(":", 2);
+    final String name = "zstd".equals(parts[0]) ? DataFileConstants.ZSTANDARD_CODEC : parts[0];
+    if (parts.length == 1) {
+      try {
+        return CodecFactory.fromString(name);
+      } catch (AvroRuntimeException e) {
+        throw new IllegalArgumentException("Unknown codec " + option, e);
+      }
+    }
+    final int level;
+    try {
+      level = Integer.parseInt(parts[1]);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid compression level in codec " + option, e);
+    }
+    switch (name) {
+      case DataFileConstants.DEFLATE_CODEC:
+        checkLevel(option, level, 1, 9);
+        return CodecFactory.deflateCodec(level);
+      case DataFileConstants.XZ_CODEC:
+        checkLevel(option, level, 0, 9);
+        return CodecFactory.xzCodec(level);
+      case DataFileConstants.ZSTANDARD_CODEC:
+        checkLevel(option, level, 1, 22);
+        return CodecFactory.zstandardCodec(level);
+      default:
+        throw new IllegalArgumentException("Codec " + parts[0] + " has no compression level: "
+            + option);
+    }
+  }
 
-    return SUCCESS;
+  private static void checkLevel(final String option, final int level, final int min,
+      final int max) {
+    if (level < min || level > max) {
+      throw new IllegalArgumentException(String.format(
+          "Compression level of codec %s is out of range: it must be from %d to %d", option, min,
+          max));
+    }
+  }
+
+  /**
+   * Create a duplicate record filter.
+   *
+   * @param memory memory option such as {@code 64M}; null for the default
+   * @return a new filter with the default false positive rate
+   * @throws IllegalArgumentException if the memory cannot be parsed or is out of range
+   */
+  static DuplicateRecordFilter newDuplicateFilter(@Nullable final String memory) {
+    final double bytes;
+    try {
+      bytes = memory != null
+          ? getDataSize(memory, StorageUnit.BYTES)
+          : DuplicateRecordFilter.DEFAULT_MEMORY;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid duplicate filter memory " + memory, e);
+    }
+    if (bytes < 1024 * 1024 || bytes > 16L * 1024 * 1024 * 1024) {
+      throw new IllegalArgumentException("Duplicate filter memory " + memory
+          + " is out of range: it must be from 1M to 16G");
+    }
+    return new DuplicateRecordFilter((long) bytes,
+        DuplicateRecordFilter.DEFAULT_FALSE_POSITIVE_RATE);
   }
 
   /**
@@ -0,0 +1,347 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Filter of duplicate S3 log records: a record is a duplicate of an earlier one with the same
+ * request ID and host ID. S3 server logging is best effort and may deliver a record more than
+ * once.
+ *
+ * <p>
+ * The request IDs seen are kept in a Bloom filter of fixed memory and bounded false positive
+ * rate: a ring of {@link #GENERATIONS} Bloom filters of equal size, each holding a fixed number
+ * of records at a false positive rate of {@code rate / GENERATIONS}. When the newest is full, the
+ * oldest is cleared and becomes the newest; so a record is detected as a duplicate if the
+ * original was among at least the last {@code (GENERATIONS - 1) * capacity} records, and a
+ * record is wrongly reported as a duplicate with a probability of at most {@code rate}.
+ * Duplicates of a log file are delivered soon after it, so this window, millions of records with
+ * the default memory, is ample. Generations are only allocated when used.
+ *
+ * <p>
+ * The filter can be saved to and loaded from {@link #FILTER_FILE} in an output directory, so
+ * that incremental runs detect duplicates of the records of earlier runs. It is saved after the
+ * {@link ProcessedFileLedger}: a failure in between only loses the request IDs of the last run,
+ * whereas saving it first could discard all the records of files processed again.
+ * Not thread safe.
+ */
+public final class DuplicateRecordFilter {
+
+  /**
+   * Name of the filter in the output directory: {@value}.
+   */
+  public static final String FILTER_FILE = "_request_ids.bloom";
+
+  /**
+   * Default memory of the filter: {@value} bytes.
+   */
+  public static final long DEFAULT_MEMORY = 64L * 1024 * 1024;
+
+  /**
+   * Default false positive rate: {@value}.
+   */
+  public static final double DEFAULT_FALSE_POSITIVE_RATE = 1e-4;
+
+  /**
+   * Number of generations in the ring: {@value}.
+   */
+  public static final int GENERATIONS = 4;
+
+  /**
+   * Magic number at the start of a saved filter.
+   */
+  private static final int MAGIC = 0x52514944;
+
+  private static final int VERSION = 1;
+
+  private final double falsePositiveRate;
+
+  /**
+   * Number of longs in the bitset of each generation.
+   */
+  private final int words;
+
+  /**
+   * Number of hash functions.
+   */
+  private final int hashes;
+
+  /**
+   * Number of records each generation holds.
+   */
+  private final long capacity;
+
+  /**
+   * Bitsets of the generations; null until used.
+   */
+  private final long[][] generations = new long[GENERATIONS][];
+
+  /**
+   * Number of records added to each generation.
+   */
+  private final long[] counts = new long[GENERATIONS];
+
+  /**
+   * Generation to which records are added.
+   */
+  private int current;
+
+  /**
+   * Constructor.
+   *
+   * @param memory memory of the filter in bytes; at least 1KB per generation is used
+   * @param falsePositiveRate highest probability of reporting a record as a duplicate wrongly
+   * @throws IllegalArgumentException if the rate is not between 0 and 1
+   */
+  public DuplicateRecordFilter(final long memory, final double falsePositiveRate) {
+    if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+      throw new IllegalArgumentException("Invalid false positive rate " + falsePositiveRate);
+    }
+    this.falsePositiveRate = falsePositiveRate;
+    this.words = (int) Math.min(Integer.MAX_VALUE - 8,
+        Math.max(128, memory / GENERATIONS / Long.BYTES));
+    final double rate = falsePositiveRate / GENERATIONS;
+    // optimal number of hashes, and the records a generation of this size holds at that rate
+    this.hashes = Math.max(1, (int) Math.round(-Math.log(rate) / Math.log(2)));
+    this.capacity = Math.max(1, (long) (bits() * Math.log(2) * Math.log(2) / -Math.log(rate)));
+  }
+
+  private DuplicateRecordFilter(final double falsePositiveRate, final int words,
+      final int hashes, final long capacity) {
+    this.falsePositiveRate = falsePositiveRate;
+    this.words = words;
+    this.hashes = hashes;
+    this.capacity = capacity;
+  }
+
+  private long bits() {
+    return (long) words * Long.SIZE;
+  }
+
+  /**
+   * Is a record a duplicate of one seen before? If not, it is added to the filter.
+   * Records without a request ID are never duplicates.
+   *
+   * @param record record
+   * @return true if a record with the same request ID and host ID has been seen
+   */
+  public boolean isDuplicate(final AvroS3LogEntryRecord record) {
+    return isDuplicate(record.getRequestid(), record.getHostid());
+  }
+
+  /**
+   * Has a request ID and host ID been seen before? If not, it is added to the filter.
+   *
+   * @param requestId request ID
+   * @param hostId host ID
+   * @return true if it has been seen; false if it is new, or the request ID is empty or "-"
+   */
+  public boolean isDuplicate(@Nullable final CharSequence requestId,
+      @Nullable final CharSequence hostId) {
+    if (requestId == null || requestId.length() == 0
+        || requestId.length() == 1 && requestId.charAt(0) == '-') {
+      return false;
+    }
+    long h1 = 0xcbf29ce484222325L;
+    long h2 = 0;
+    for (CharSequence s : new CharSequence[]{requestId, hostId}) {
+      if (s == null) {
+        continue;
+      }
+      for (int i = 0; i < s.length(); i++) {
+        h1 = (h1 ^ s.charAt(i)) * 0x100000001b3L;
+        h2 = h2 * 31 + s.charAt(i);
+      }
+      // separator, so that "ab" + "c" differs from "a" + "bc"
+      h1 = (h1 ^ 0xff) * 0x100000001b3L;
+      h2 = h2 * 31 + 0xffff;
+    }
+    h1 = mix(h1);
+    h2 = mix(h2) | 1;
+    for (long[] bitset : generations) {
+      if (bitset != null && contains(bitset, h1, h2)) {
+        return true;
+      }
+    }
+    if (counts[current] >= capacity) {
+      current = (current + 1) % GENERATIONS;
+      counts[current] = 0;
+      if (generations[current] != null) {
+        Arrays.fill(generations[current], 0);
+      }
+    }
+    if (generations[current] == null) {
+      generations[current] = new long[words];
+    }
+    final long[] bitset = generations[current];
+    final long bits = bits();
+    for (int i = 0; i < hashes; i++) {
+      final long bit = Long.remainderUnsigned(h1 + i * h2, bits);
+      bitset[(int) (bit >>> 6)] |= 1L << bit;
+    }
+    counts[current]++;
+    return false;
+  }
+
+  private boolean contains(final long[] bitset, final long h1, final long h2) {
+    final long bits = bits();
+    for (int i = 0; i < hashes; i++) {
+      final long bit = Long.remainderUnsigned(h1 + i * h2, bits);
+      if ((bitset[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * SplitMix64 finalizer, as in {@link AuditSampling}.
+   */
+  private static long mix(final long value) {
+    long z = value;
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Number of records a generation holds; duplicates are detected across at least
+   * {@code GENERATIONS - 1} times this many records.
+   *
+   * @return a count
+   */
+  public long getCapacity() {
+    return capacity;
+  }
+
+  public double getFalsePositiveRate() {
+    return falsePositiveRate;
+  }
+
+  /**
+   * Memory of the filter once all generations are used.
+   *
+   * @return bytes
+   */
+  public long getMemory() {
+    return (long) words * Long.BYTES * GENERATIONS;
+  }
+
+  /**
+   * Number of records held: those added to the generations which have not been cleared.
+   *
+   * @return a count
+   */
+  public long size() {
+    long size = 0;
+    for (long count : counts) {
+      size += count;
+    }
+    return size;
+  }
+
+  /**
+   * Load the filter saved in an output directory.
+   *
+   * @param fs filesystem of the output
+   * @param dest output directory
+   * @return the filter or null if none has been saved
+   * @throws IOException failure to read, or the file is not a saved filter
+   */
+  @Nullable
+  public static DuplicateRecordFilter load(final FileSystem fs, final Path dest)
+      throws IOException {
+    final Path path = new Path(dest, FILTER_FILE);
+    final DataInputStream in;
+    try {
+      in = new DataInputStream(new BufferedInputStream(fs.open(path)));
+    } catch (FileNotFoundException e) {
+      return null;
+    }
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException(path + ": not a saved duplicate record filter");
+      }
+      final DuplicateRecordFilter filter = new DuplicateRecordFilter(in.readDouble(),
+          in.readInt(), in.readInt(), in.readLong());
+      filter.current = in.readInt();
+      for (int g = 0; g < GENERATIONS; g++) {
+        filter.counts[g] = in.readLong();
+        if (in.readBoolean()) {
+          final long[] bitset = new long[filter.words];
+          for (int i = 0; i < bitset.length; i++) {
+            bitset[i] = in.readLong();
+          }
+          filter.generations[g] = bitset;
+        }
+      }
+      return filter;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Save the filter to an output directory, overwriting any saved before.
+   *
+   * @param fs filesystem of the output
+   * @param dest output directory
+   * @return the path of the saved filter
+   * @throws IOException failure to write
+   */
+  public Path save(final FileSystem fs, final Path dest) throws IOException {
+    final Path path = new Path(dest, FILTER_FILE);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        fs.createFile(path).overwrite(true).recursive().build()))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeDouble(falsePositiveRate);
+      out.writeInt(words);
+      out.writeInt(hashes);
+      out.writeLong(capacity);
+      out.writeInt(current);
+      for (int g = 0; g < GENERATIONS; g++) {
+        out.writeLong(counts[g]);
+        out.writeBoolean(generations[g] != null);
+        if (generations[g] != null) {
+          for (long word : generations[g]) {
+            out.writeLong(word);
+          }
+        }
+      }
+    }
+    return path;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("duplicate filter of %,d bytes holding %,d of %,d request IDs,"
+        + " false positive rate %s", getMemory(), size(), capacity * GENERATIONS,
+        falsePositiveRate);
+  }
+}
@@ -0,0 +1,336 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import static org.apache.hadoop.util.functional.FutureIO.awaitFuture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.DurationInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Output to a directory of Avro files partitioned by the date and hour of the events, and
+ * optionally by bucket, in the layout which Spark and Hive use for partition pruning:
+ * {@code date=2021-05-13/hour=11/bucket=example/part-00000.avro}. Incremental runs add files
+ * with other names to the partitions.
+ *
+ * <p>
+ * The records of each partition are written to a local staging file. When the output is closed,
+ * these are uploaded to the destination in parallel; when overwriting, the destination directory
+ * is deleted first, so that no partitions of an earlier output remain.
+ * Only {@link #MAX_OPEN_PARTITIONS} staging files are open at a time; the least recently used is
+ * closed, and any later records of its partition are written to another staging file. Appending
+ * to the closed file is not an option: Avro would compress the appended blocks with the default
+ * level of the codec, not that of the output. The staging files of a partition are concatenated
+ * by copying their blocks before the upload.
+ */
+final class PartitionedAvroOutput implements AuditOutput {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PartitionedAvroOutput.class);
+
+  /**
+   * Default name of the file in each partition: {@value}.
+   */
+  static final String PART_FILE = "part-00000.avro";
+
+  /**
+   * Maximum number of staging files open at a time: {@value}.
+   */
+  static final int MAX_OPEN_PARTITIONS = 64;
+
+  /**
+   * Format of the date and hour partitions.
+   */
+  private static final DateTimeFormatter TIME_PARTITION =
+      DateTimeFormatter.ofPattern("'date='yyyy-MM-dd'/hour='HH", Locale.ENGLISH)
+          .withZone(ZoneOffset.UTC);
+
+  private final FileSystem destFS;
+
+  private final Path dest;
+
+  private final boolean overwrite;
+
+  private final Supplier<DataFileWriter<AvroS3LogEntryRecord>> writers;
+
+  private final int threads;
+
+  private final String partFile;
+
+  private final File staging;
+
+  /**
+   * Staging files of every partition, in the order written.
+   */
+  private final Map<String, List<File>> files = new TreeMap<>();
+
+  /**
+   * Open writers, least recently used first.
+   */
+  private final LinkedHashMap<String, DataFileWriter<AvroS3LogEntryRecord>> open =
+      new LinkedHashMap<String, DataFileWriter<AvroS3LogEntryRecord>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(
+            final Map.Entry<String, DataFileWriter<AvroS3LogEntryRecord>> eldest) {
+          if (size() <= MAX_OPEN_PARTITIONS) {
+            return false;
+          }
+          try {
+            eldest.getValue().close();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          return true;
+        }
+      };
+
+  /**
+   * Create the output.
+   *
+   * @param destFS destination filesystem
+   * @param dest destination directory
+   * @param overwrite replace the destination directory and any partitions in it?
+   * @param writers factory of writers with the codec and sync interval of the output
+   * @param threads number of partitions to upload in parallel
+   * @param partFile name of the file to write in each partition
+   * @throws IOException failure to create the staging directory
+   */
+  PartitionedAvroOutput(final FileSystem destFS, final Path dest, final boolean overwrite,
+      final Supplier<DataFileWriter<AvroS3LogEntryRecord>> writers, final int threads,
+      final String partFile) throws IOException {
+    this.destFS = destFS;
+    this.dest = dest;
+    this.overwrite = overwrite;
+    this.writers = writers;
+    this.threads = threads;
+    this.partFile = partFile;
+    staging = Files.createTempDirectory("auditlogs-").toFile();
+  }
+
+  /**
+   * Get the writer of a partition, creating a staging file if it has none open.
+   *
+   * @param partition relative path of the partition
+   * @return the writer
+   * @throws IOException failure to create the file
+   */
+  @Override
+  public DataFileWriter<AvroS3LogEntryRecord> writer(final String partition)
+      throws IOException {
+    DataFileWriter<AvroS3LogEntryRecord> writer = open.get(partition);
+    if (writer == null) {
+      final File dir = new File(staging, partition);
+      List<File> partitionFiles = files.get(partition);
+      if (partitionFiles == null) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+          throw new IOException("Failed to create directory " + dir);
+        }
+        partitionFiles = new ArrayList<>(1);
+        files.put(partition, partitionFiles);
+      }
+      final File file = new File(dir,
+          partitionFiles.isEmpty() ? partFile : partFile + "." + partitionFiles.size());
+      writer = writers.get().create(AvroS3LogEntryRecord.getClassSchema(), file);
+      partitionFiles.add(file);
+      try {
+        open.put(partition, writer);
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+    }
+    return writer;
+  }
+
+  @Override
+  public int getFilesWritten() {
+    return files.size();
+  }
+
+  /**
+   * Close the staging files and upload them in parallel, after deleting the destination
+   * directory if overwriting.
+   *
+   * @throws IOException failure to close, delete or upload a file
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      closeWriters();
+      if (overwrite && destFS.delete(dest, true)) {
+        // the partitions of the earlier output which this one has no records for would remain
+        LOG.debug("Deleted {}", dest);
+      }
+      try (DurationInfo ignored = new DurationInfo(LOG, "Uploading %d partitions to %s",
+          files.size(), dest)) {
+        final ExecutorService uploaders = new ThreadPoolExecutor(threads, threads, 0L,
+            TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+              Thread t = new Thread(r, "audit-partition-upload");
+              t.setDaemon(true);
+              return t;
+            });
+        try {
+          final List<Future<Void>> uploads = new ArrayList<>(files.size());
+          for (Map.Entry<String, List<File>> entry : files.entrySet()) {
+            final List<File> partitionFiles = entry.getValue();
+            final Path target = new Path(new Path(dest, entry.getKey()), partFile);
+            uploads.add(uploaders.submit(() -> {
+              final Path source = new Path(concatenate(partitionFiles).toURI());
+              destFS.copyFromLocalFile(true, overwrite, source, target);
+              return null;
+            }));
+          }
+          for (Future<Void> upload : uploads) {
+            awaitFuture(upload);
+          }
+        } finally {
+          uploaders.shutdownNow();
+        }
+      }
+    } finally {
+      FileUtil.fullyDelete(staging);
+    }
+  }
+
+  /**
+   * Concatenate the staging files of a partition by copying their blocks. Avro only decompresses
+   * and recompresses them with the codec of the output when that depends on its level, as xz
+   * does; the codec name in the files does not record the level.
+   *
+   * @param partitionFiles staging files of the partition
+   * @return the file to upload
+   * @throws IOException failure to read or write
+   */
+  private File concatenate(final List<File> partitionFiles) throws IOException {
+    final File first = partitionFiles.get(0);
+    if (partitionFiles.size() == 1) {
+      return first;
+    }
+    final File concatenated = new File(first.getParentFile(), partFile + ".all");
+    try (DataFileWriter<AvroS3LogEntryRecord> writer =
+        writers.get().create(AvroS3LogEntryRecord.getClassSchema(), concatenated)) {
+      for (File file : partitionFiles) {
+        try (DataFileReader<AvroS3LogEntryRecord> reader = new DataFileReader<>(file,
+            new SpecificDatumReader<>(AvroS3LogEntryRecord.class))) {
+          writer.appendAllFrom(reader, false);
+        }
+      }
+    }
+    return concatenated;
+  }
+
+  /**
+   * Close the open writers.
+   *
+   * @throws IOException failure to close a writer
+   */
+  private void closeWriters() throws IOException {
+    try {
+      for (DataFileWriter<AvroS3LogEntryRecord> writer : open.values()) {
+        writer.close();
+      }
+    } finally {
+      open.clear();
+    }
+  }
+
+  /**
+   * Delete the staging files; nothing is uploaded.
+   */
+  @Override
+  public void abort() {
+    IOUtils.cleanupWithLogger(LOG, open.values().toArray(new DataFileWriter<?>[0]));
+    open.clear();
+    FileUtil.fullyDelete(staging);
+  }
+
+  /**
+   * Maps records to the relative paths of their partitions. The path of the last record is
+   * reused, as consecutive records are usually in the same hour. Instances are not thread safe.
+   */
+  static final class Partitioner {
+
+    private final boolean byBucket;
+
+    private long lastHour = Long.MIN_VALUE;
+
+    private String lastTimePartition = "";
+
+    private String lastBucket;
+
+    private String lastPartition = "";
+
+    /**
+     * Constructor.
+     *
+     * @param byBucket partition by bucket within each hour?
+     */
+    Partitioner(final boolean byBucket) {
+      this.byBucket = byBucket;
+    }
+
+    /**
+     * Get the partition of a record.
+     *
+     * @param record record
+     * @return the relative path of its partition
+     */
+    String partitionOf(final AvroS3LogEntryRecord record) {
+      final long hour = Math.floorDiv(record.getEvent().getEpochSecond(), 3600);
+      final boolean sameHour = hour == lastHour;
+      if (!sameHour) {
+        lastHour = hour;
+        lastTimePartition = TIME_PARTITION.format(Instant.ofEpochSecond(hour * 3600));
+      }
+      if (!byBucket) {
+        return lastTimePartition;
+      }
+      final String bucket = record.getBucket().toString();
+      if (!sameHour || !bucket.equals(lastBucket)) {
+        lastBucket = bucket;
+        lastPartition = lastTimePartition + "/bucket=" + bucket;
+      }
+      return lastPartition;
+    }
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.hadoop.fs.EtagSource;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Ledger of the source log files which have been processed into an output directory: the path,
+ * length and etag of each. Incremental runs only process the files which are not in the ledger,
+ * then add them to it.
+ *
+ * <p>
+ * The ledger is saved as a tab separated file, {@link #LEDGER_FILE}, in the output directory;
+ * its name starts with an underscore so Spark and Hive do not read it as data. It is saved after
+ * the output, so a failure in between leads to the files being processed again, not lost.
+ *
+ * <p>
+ * A file whose length or etag has changed since it was processed is processed again. An etag is
+ * only compared when both the ledger and the listing have one.
+ */
+public final class ProcessedFileLedger {
+
+  /**
+   * Name of the ledger in the output directory: {@value}.
+   */
+  public static final String LEDGER_FILE = "_processed_files.tsv";
+
+  private static final String HEADER = "# path\tlength\tetag";
+
+  private final Path path;
+
+  /**
+   * Processed files by path.
+   */
+  private final Map<String, Entry> entries = new HashMap<>();
+
+  private ProcessedFileLedger(final Path path) {
+    this.path = path;
+  }
+
+  /**
+   * Load the ledger of an output directory; it is empty if it has not yet been saved.
+   *
+   * @param fs filesystem of the output
+   * @param dest output directory
+   * @return the ledger
+   * @throws IOException failure to read the ledger, or a malformed entry
+   */
+  public static ProcessedFileLedger load(final FileSystem fs, final Path dest) throws IOException {
+    final ProcessedFileLedger ledger = new ProcessedFileLedger(new Path(dest, LEDGER_FILE));
+    final FSDataInputStream in;
+    try {
+      in = fs.open(ledger.path);
+    } catch (FileNotFoundException e) {
+      return ledger;
+    }
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      String line;
+      int lineNumber = 0;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        final String[] fields = line.split("\t", -1);
+        if (fields.length != 3) {
+          throw new IOException(String.format("%s: malformed entry at line %d: %s", ledger.path,
+              lineNumber, line));
+        }
+        try {
+          ledger.entries.put(fields[0], new Entry(Long.parseLong(fields[1]), fields[2]));
+        } catch (NumberFormatException e) {
+          throw new IOException(String.format("%s: malformed length at line %d: %s",
+              ledger.path, lineNumber, line), e);
+        }
+      }
+    }
+    return ledger;
+  }
+
+  /**
+   * Has a file been processed?
+   *
+   * @param status status of the file
+   * @return true if the ledger has the file with the same length and etag
+   */
+  public boolean isProcessed(final FileStatus status) {
+    final Entry entry = entries.get(key(status));
+    if (entry == null || entry.length != status.getLen()) {
+      return false;
+    }
+    final String etag = etag(status);
+    return entry.etag.isEmpty() || etag.isEmpty() || entry.etag.equals(etag);
+  }
+
+  /**
+   * Add processed files, replacing any earlier entries for their paths.
+   *
+   * @param processed status of the files
+   */
+  public void addAll(final Collection<FileStatus> processed) {
+    for (FileStatus status : processed) {
+      entries.put(key(status), new Entry(status.getLen(), etag(status)));
+    }
+  }
+
+  /**
+   * Save the ledger, overwriting the previous one.
+   * A failure to close the file, which is when an object store uploads it, is raised.
+   *
+   * @param fs filesystem of the output
+   * @throws IOException failure to write
+   */
+  public void save(final FileSystem fs) throws IOException {
+    try (Writer out = new BufferedWriter(new OutputStreamWriter(
+        fs.createFile(path).overwrite(true).recursive().build(), StandardCharsets.UTF_8))) {
+      out.write(HEADER + "\n");
+      for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+        out.write(entry.getKey() + "\t" + entry.getValue().length + "\t"
+            + entry.getValue().etag + "\n");
+      }
+    }
+  }
+
+  /**
+   * Number of files in the ledger.
+   *
+   * @return a count
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * Key of a file: its URI, in which tabs and other characters are escaped.
+   *
+   * @param status status of the file
+   * @return the key
+   */
+  private static String key(final FileStatus status) {
+    return status.getPath().toUri().toString();
+  }
+
+  /**
+   * Get the etag of a file, if the filesystem provides one.
+   *
+   * @param status status of the file
+   * @return the etag or ""
+   */
+  private static String etag(final FileStatus status) {
+    if (status instanceof EtagSource) {
+      final String etag = ((EtagSource) status).getEtag();
+      return etag != null ? etag : "";
+    }
+    return "";
+  }
+
+  /**
+   * Length and etag of a processed file.
+   */
+  private static final class Entry {
+
+    private final long length;
+
+    private final String etag;
+
+    private Entry(final long length, final String etag) {
+      this.length = length;
+      this.etag = etag;
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Input stream which reads its source in a thread of its own, up to a fixed number of buffers
+ * ahead of the reader. Reading and decompressing a compressed log file then overlaps with parsing
+ * it.
+ *
+ * <p>
+ * The source is only used by the read-ahead thread, and is closed once that thread has finished,
+ * so a decompressor is never closed or returned to its pool while in use. Not thread safe.
+ */
+final class ReadAheadInputStream extends InputStream {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ReadAheadInputStream.class);
+
+  /**
+   * Marks the end of the source.
+   */
+  private static final Chunk END = new Chunk(new byte[0], -1);
+
+  private final InputStream source;
+
+  /**
+   * Empty buffers for the read-ahead thread.
+   */
+  private final BlockingQueue<byte[]> free;
+
+  /**
+   * Buffers which have been read, in order, then {@link #END}.
+   */
+  private final BlockingQueue<Chunk> filled;
+
+  private final Thread readAhead;
+
+  /**
+   * Failure of the read-ahead thread.
+   */
+  private volatile IOException failure;
+
+  private volatile boolean closed;
+
+  private Chunk current;
+
+  private int position;
+
+  /**
+   * Create the stream and start reading ahead.
+   *
+   * @param source source stream; closed when this stream is closed
+   * @param bufferSize size of each buffer
+   * @param buffers number of buffers
+   */
+  ReadAheadInputStream(final InputStream source, final int bufferSize, final int buffers) {
+    this.source = source;
+    free = new ArrayBlockingQueue<>(buffers);
+    filled = new ArrayBlockingQueue<>(buffers + 1);
+    for (int i = 0; i < buffers; i++) {
+      free.add(new byte[bufferSize]);
+    }
+    readAhead = new Thread(this::readAhead, "audit-log-read-ahead");
+    readAhead.setDaemon(true);
+    readAhead.start();
+  }
+
+  /**
+   * Fill buffers from the source until its end, a failure or the stream is closed.
+   */
+  private void readAhead() {
+    try {
+      while (!closed) {
+        final byte[] buffer = free.take();
+        int length = 0;
+        int bytesRead = 0;
+        while (length < buffer.length
+            && (bytesRead = source.read(buffer, length, buffer.length - length)) >= 0) {
+          length += bytesRead;
+        }
+        if (length > 0) {
+          filled.put(new Chunk(buffer, length));
+        }
+        if (bytesRead < 0) {
+          break;
+        }
+      }
+    } catch (InterruptedException e) {
+      // closed
+    } catch (IOException e) {
+      failure = e;
+    } catch (RuntimeException e) {
+      failure = new IOException(e);
+    } finally {
+      // there is always room for the end marker
+      filled.offer(END);
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    final byte[] b = new byte[1];
+    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws IOException {
+    if (closed) {
+      throw new IOException("Stream is closed");
+    }
+    if (len == 0) {
+      return 0;
+    }
+    if (current != END && (current == null || position == current.length)) {
+      if (current != null) {
+        free.offer(current.buffer);
+      }
+      try {
+        current = filled.take();
+      } catch (InterruptedException e) {
+        throw (IOException) new InterruptedIOException("Interrupted reading ahead").initCause(e);
+      }
+      position = 0;
+    }
+    if (current == END) {
+      if (failure != null) {
+        throw failure;
+      }
+      return -1;
+    }
+    final int n = Math.min(len, current.length - position);
+    System.arraycopy(current.buffer, position, b, off, n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return current != null && current != END ? current.length - position : 0;
+  }
+
+  /**
+   * Stop the read-ahead thread, wait for it to finish, then close the source.
+   *
+   * @throws IOException failure to close the source
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    readAhead.interrupt();
+    try {
+      readAhead.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.debug("Interrupted waiting for the read-ahead thread; closing the source", e);
+    }
+    free.clear();
+    filled.clear();
+    source.close();
+  }
+
+  /**
+   * A buffer and the length of the data in it.
+   */
+  private static final class Chunk {
+
+    private final byte[] buffer;
+
+    private final int length;
+
+    private Chunk(final byte[] buffer, final int length) {
+      this.buffer = buffer;
+      this.length = length;
+    }
+  }
+}
@@ -0,0 +1,489 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import static org.apache.hadoop.fs.store.audit.AuditLogProcessor.EPOCH_START;
+import static org.apache.hadoop.fs.store.audit.AuditLogProcessor.FAILED_TO_PARSE_LONG;
+import static org.apache.hadoop.fs.store.audit.AuditLogProcessor.parseToInstant;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Single pass tokenizer of S3 server log entries, which fills in an {@link AvroS3LogEntryRecord}
+ * from the bytes of a line. It replaces the regular expression and the maps of
+ * {@link AuditLogProcessor#parseAuditLog(String)},
+ * {@link AuditLogProcessor#buildLogRecord(java.util.Map)} and
+ * {@link AuditLogProcessor#parseAuditHeader(String)}, and produces the same values: the fields
+ * of {@code S3LogParser.LOG_ENTRY_PATTERN}, trimmed; "-" as null for the numeric fields and
+ * {@link AuditLogProcessor#FAILED_TO_PARSE_LONG} for values which are not numbers.
+ *
+ * <p>
+ * Allocations are reduced by reusing the strings of the low cardinality fields, such as the
+ * bucket and the verb, when they are the same as in the previous line, and by memoising the
+ * parsing of the timestamp; this has a resolution of one second, so consecutive entries usually
+ * share it.
+ *
+ * <p>
+ * Instances are not thread safe.
+ */
+final class S3LogTokenizer {
+
+  private static final byte SPACE = ' ';
+
+  private static final byte QUOTE = '"';
+
+  // low cardinality fields whose strings are reused
+  private static final int OWNER = 0;
+
+  private static final int BUCKET = 1;
+
+  private static final int REMOTEIP = 2;
+
+  private static final int REQUESTER = 3;
+
+  private static final int VERB = 4;
+
+  private static final int HTTP = 5;
+
+  private static final int AWSERRORCODE = 6;
+
+  private static final int USERAGENT = 7;
+
+  private static final int VERSION = 8;
+
+  private static final int SIGV = 9;
+
+  private static final int CYPHER = 10;
+
+  private static final int AUTH = 11;
+
+  private static final int ENDPOINT = 12;
+
+  private static final int TLS = 13;
+
+  private static final int TAIL = 14;
+
+  private static final int CACHED_FIELDS = 15;
+
+  /**
+   * Bytes of the last value of each cached field.
+   */
+  private final byte[][] lastBytes = new byte[CACHED_FIELDS][];
+
+  /**
+   * Last value of each cached field.
+   */
+  private final String[] lastValues = new String[CACHED_FIELDS];
+
+  private byte[] lastTimestamp = new byte[0];
+
+  private String lastTstamp = "";
+
+  private Instant lastEvent = EPOCH_START;
+
+  private long timestampsParsed;
+
+  // state of the line being parsed
+
+  private byte[] bytes;
+
+  private int limit;
+
+  private int pos;
+
+  private int tokenStart;
+
+  private int tokenEnd;
+
+  /**
+   * Parse a log entry into a record. Every field of the record is set, so a record may be reused
+   * once the previous values have been consumed; its audit map is then cleared and reused.
+   *
+   * @param line log entry
+   * @param record record to fill in
+   * @return true if the entry was parsed; false if it is not a log entry, in which case the record
+   * is partially filled in.
+   */
+  boolean parse(final Text line, final AvroS3LogEntryRecord record) {
+    bytes = line.getBytes();
+    limit = line.getLength();
+    pos = 0;
+
+    if (!simple()) {
+      return false;
+    }
+    record.setOwner(cached(OWNER));
+    if (!simple()) {
+      return false;
+    }
+    record.setBucket(cached(BUCKET));
+    if (!timestamp(record)) {
+      return false;
+    }
+    if (!simple()) {
+      return false;
+    }
+    record.setRemoteip(cached(REMOTEIP));
+    if (!simple()) {
+      return false;
+    }
+    record.setRequester(cached(REQUESTER));
+    if (!simple()) {
+      return false;
+    }
+    record.setRequestid(string());
+    if (!simple()) {
+      return false;
+    }
+    record.setVerb(cached(VERB));
+    if (!simple()) {
+      return false;
+    }
+    record.setKey(string());
+    if (!quoted()) {
+      return false;
+    }
+    record.setRequesturi(string());
+    if (!simple() || !isStatus()) {
+      return false;
+    }
+    record.setHttp(cached(HTTP));
+    if (!simple()) {
+      return false;
+    }
+    record.setAwserrorcode(cached(AWSERRORCODE));
+    if (!simple()) {
+      return false;
+    }
+    record.setBytessent(longValue());
+    if (!simple()) {
+      return false;
+    }
+    record.setObjectsize(longValue());
+    if (!simple()) {
+      return false;
+    }
+    record.setTotaltime(longValue());
+    if (!simple()) {
+      return false;
+    }
+    record.setTurnaroundtime(longValue());
+    if (!quoted()) {
+      return false;
+    }
+    record.setReferrer(string());
+    parseReferrer(record);
+    if (!quoted()) {
+      return false;
+    }
+    record.setUseragent(cached(USERAGENT));
+    if (!simple()) {
+      return false;
+    }
+    record.setVersion(cached(VERSION));
+    if (!simple()) {
+      return false;
+    }
+    record.setHostid(string());
+    if (!simple()) {
+      return false;
+    }
+    record.setSigv(cached(SIGV));
+    if (!simple()) {
+      return false;
+    }
+    record.setCypher(cached(CYPHER));
+    if (!simple()) {
+      return false;
+    }
+    record.setAuth(cached(AUTH));
+    if (!simple()) {
+      return false;
+    }
+    record.setEndpoint(cached(ENDPOINT));
+
+    // the TLS version ends at the next space or the end of the line; anything after it is the tail
+    int i = pos;
+    while (i < limit && bytes[i] != SPACE) {
+      i++;
+    }
+    token(pos, i);
+    record.setTls(cached(TLS));
+    token(i, limit);
+    record.setTail(cached(TAIL));
+    return true;
+  }
+
+  /**
+   * Number of timestamps parsed rather than reused.
+   *
+   * @return a count
+   */
+  long getTimestampsParsed() {
+    return timestampsParsed;
+  }
+
+  /**
+   * Set the current token to a range, trimmed as {@link String#trim()} does.
+   *
+   * @param start start of the range
+   * @param end end of the range, exclusive
+   */
+  private void token(final int start, final int end) {
+    int s = start;
+    int e = end;
+    while (s < e && (bytes[s] & 0xff) <= SPACE) {
+      s++;
+    }
+    while (e > s && (bytes[e - 1] & 0xff) <= SPACE) {
+      e--;
+    }
+    tokenStart = s;
+    tokenEnd = e;
+  }
+
+  /**
+   * A field without spaces, followed by a space.
+   *
+   * @return true if the field was found
+   */
+  private boolean simple() {
+    int i = pos;
+    while (i < limit && bytes[i] != SPACE) {
+      i++;
+    }
+    if (i == limit) {
+      return false;
+    }
+    token(pos, i);
+    pos = i + 1;
+    return true;
+  }
+
+  /**
+   * "-" or a string in double quotes, which are included in the value, followed by a space.
+   *
+   * @return true if the field was found
+   */
+  private boolean quoted() {
+    if (pos >= limit) {
+      return false;
+    }
+    int end;
+    if (bytes[pos] == '-') {
+      end = pos + 1;
+    } else if (bytes[pos] == QUOTE) {
+      end = pos + 1;
+      while (end < limit && bytes[end] != QUOTE) {
+        end++;
+      }
+      if (end == limit) {
+        return false;
+      }
+      end++;
+    } else {
+      return false;
+    }
+    if (end >= limit || bytes[end] != SPACE) {
+      return false;
+    }
+    token(pos, end);
+    pos = end + 1;
+    return true;
+  }
+
+  /**
+   * Is the current token "-" or a number, as an HTTP status must be?
+   *
+   * @return true if the token is a valid status
+   */
+  private boolean isStatus() {
+    if (tokenEnd - tokenStart == 1 && bytes[tokenStart] == '-') {
+      return true;
+    }
+    for (int i = tokenStart; i < tokenEnd; i++) {
+      if (bytes[i] < '0' || bytes[i] > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The timestamp in square brackets, followed by a space. The timestamp itself contains a space.
+   *
+   * @param record record to update
+   * @return true if the field was found
+   */
+  private boolean timestamp(final AvroS3LogEntryRecord record) {
+    if (pos >= limit || bytes[pos] != '[') {
+      return false;
+    }
+    int close = pos + 1;
+    while (close + 1 < limit && !(bytes[close] == ']' && bytes[close + 1] == SPACE)) {
+      close++;
+    }
+    if (close + 1 >= limit) {
+      return false;
+    }
+    final int start = pos + 1;
+    final int length = close - start;
+    pos = close + 2;
+    if (!matches(lastTimestamp, start, length)) {
+      lastTimestamp = new byte[length];
+      System.arraycopy(bytes, start, lastTimestamp, 0, length);
+      lastTstamp = new String(lastTimestamp, StandardCharsets.UTF_8);
+      timestampsParsed++;
+      try {
+        lastEvent = parseToInstant(lastTstamp).orElse(EPOCH_START);
+      } catch (DateTimeParseException e) {
+        lastEvent = EPOCH_START;
+      }
+    }
+    record.setTstamp(lastTstamp);
+    record.setEvent(lastEvent);
+    return true;
+  }
+
+  /**
+   * Do the bytes of a range of the line match an array?
+   *
+   * @param array array
+   * @param start start of the range
+   * @param length length of the range
+   * @return true if they are the same
+   */
+  private boolean matches(final byte[] array, final int start, final int length) {
+    if (array == null || array.length != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (array[i] != bytes[start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The current token as a string.
+   *
+   * @return a new string
+   */
+  private String string() {
+    return string(tokenStart, tokenEnd);
+  }
+
+  private String string(final int start, final int end) {
+    return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * The current token as a string, reusing the previous value of the field if it is the same.
+   *
+   * @param field index of the field
+   * @return the value
+   */
+  private String cached(final int field) {
+    final int length = tokenEnd - tokenStart;
+    if (!matches(lastBytes[field], tokenStart, length)) {
+      final byte[] copy = new byte[length];
+      System.arraycopy(bytes, tokenStart, copy, 0, length);
+      lastBytes[field] = copy;
+      lastValues[field] = new String(copy, StandardCharsets.UTF_8);
+    }
+    return lastValues[field];
+  }
+
+  /**
+   * The current token as a long.
+   *
+   * @return null for "-", {@link AuditLogProcessor#FAILED_TO_PARSE_LONG} if it is not a number.
+   */
+  private Long longValue() {
+    final int length = tokenEnd - tokenStart;
+    if (length == 1 && bytes[tokenStart] == '-') {
+      return null;
+    }
+    if (length > 0 && length < 19) {
+      long value = 0;
+      int i = tokenStart;
+      while (i < tokenEnd && bytes[i] >= '0' && bytes[i] <= '9') {
+        value = value * 10 + (bytes[i] - '0');
+        i++;
+      }
+      if (i == tokenEnd) {
+        return value;
+      }
+    }
+    // signs, long values and invalid values
+    try {
+      return Long.parseLong(string());
+    } catch (NumberFormatException e) {
+      return FAILED_TO_PARSE_LONG;
+    }
+  }
+
+  /**
+   * Parse the audit parameters of the referrer into the audit map of the record; the query
+   * string of the URL is split into its key-value pairs.
+   *
+   * @param record record to update
+   */
+  private void parseReferrer(final AvroS3LogEntryRecord record) {
+    Map<CharSequence, CharSequence> audit = record.getAudit();
+    if (audit == null) {
+      audit = new HashMap<>();
+      record.setAudit(audit);
+    } else {
+      audit.clear();
+    }
+    // the token includes the quotes
+    int question = tokenStart;
+    while (question < tokenEnd && bytes[question] != '?') {
+      question++;
+    }
+    if (question >= tokenEnd - 1) {
+      // "-", no '?' or nothing after it
+      return;
+    }
+    // the closing quote is not part of the query string
+    final int end = tokenEnd - 1;
+    int start = question + 1;
+    while (start < end) {
+      int equals = start;
+      while (equals < end && bytes[equals] != '=') {
+        equals++;
+      }
+      if (equals == end) {
+        break;
+      }
+      int amp = equals;
+      while (amp < end && bytes[amp] != '&') {
+        amp++;
+      }
+      audit.put(string(start, equals), string(equals + 1, amp));
+      start = amp + 1;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import java.io.IOException;
+import javax.annotation.Nullable;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+
+/**
+ * Output to a single Avro file; the records of all partitions are written to it. The file may
+ * be indexed as it is written; see {@link AuditBlockIndex}.
+ */
+final class SingleAvroOutput implements AuditOutput {
+
+  private final DataFileWriter<AvroS3LogEntryRecord> writer;
+
+  private final FSDataOutputStream out;
+
+  @Nullable
+  private final FileSystem fs;
+
+  @Nullable
+  private final Path indexed;
+
+  /**
+   * Index of the blocks written; null if the file is not indexed.
+   */
+  @Nullable
+  private final AuditBlockIndex.Builder index;
+
+  /**
+   * Create the output.
+   *
+   * @param writer writer, not yet created
+   * @param out stream to write to; closed when the output is closed
+   * @throws IOException failure to write the header
+   */
+  SingleAvroOutput(final DataFileWriter<AvroS3LogEntryRecord> writer,
+      final FSDataOutputStream out) throws IOException {
+    this(writer, out, null, null);
+  }
+
+  /**
+   * Create the output, saving the index of the file when it is closed. Records must be added
+   * with {@link #append(String, AvroS3LogEntryRecord)} to be indexed.
+   *
+   * @param writer writer, not yet created
+   * @param out stream to write to; closed when the output is closed
+   * @param fs filesystem of the file; null if it is not indexed
+   * @param indexed path of the file; null if it is not indexed
+   * @throws IOException failure to write the header
+   */
+  SingleAvroOutput(final DataFileWriter<AvroS3LogEntryRecord> writer,
+      final FSDataOutputStream out, @Nullable final FileSystem fs,
+      @Nullable final Path indexed) throws IOException {
+    this.writer = writer.create(AvroS3LogEntryRecord.getClassSchema(), out);
+    this.out = out;
+    this.fs = fs;
+    this.indexed = indexed;
+    // the writer flushes every block it writes, so a block has ended when the stream moves
+    this.index = indexed != null ? new AuditBlockIndex.Builder(out.getPos()) : null;
+  }
+
+  @Override
+  public DataFileWriter<AvroS3LogEntryRecord> writer(final String partition) {
+    return writer;
+  }
+
+  @Override
+  public void append(final String partition, final AvroS3LogEntryRecord record)
+      throws IOException {
+    writer.append(record);
+    if (index != null) {
+      index.add(record);
+      index.blockEnded(out.getPos());
+    }
+  }
+
+  @Override
+  public int getFilesWritten() {
+    return 1;
+  }
+
+  /**
+   * Close the file; the records merged so far are kept, but not indexed.
+   */
+  @Override
+  public void abort() {
+    IOUtils.cleanupWithLogger(null, writer);
+  }
+
+  @Override
+  public void close() throws IOException {
+    writer.flush();
+    final long length = out.getPos();
+    writer.close();
+    if (index != null) {
+      index.build(length).save(fs, indexed);
+    }
+  }
+}
@@ -19,40 +19,51 @@ package org.apache.hadoop.fs.store.commands;
 
 import static java.util.Optional.empty;
 import static java.util.Optional.of;
+import static org.apache.hadoop.fs.statistics.IOStatisticsLogging.ioStatisticsToPrettyString;
+import static org.apache.hadoop.fs.statistics.IOStatisticsSupport.retrieveIOStatistics;
+import static org.apache.hadoop.fs.statistics.IOStatisticsSupport.snapshotIOStatistics;
 import static org.apache.hadoop.fs.store.CommonParameters.BLOCK;
 import static org.apache.hadoop.fs.store.CommonParameters.CSVFILE;
 import static org.apache.hadoop.fs.store.CommonParameters.FLUSH;
 import static org.apache.hadoop.fs.store.CommonParameters.HFLUSH;
 import static org.apache.hadoop.fs.store.CommonParameters.STANDARD_OPTS;
-import static org.apache.hadoop.fs.store.StoreUtils.prettyIOStatistics;
+import static org.apache.hadoop.fs.store.StoreUtils.await;
+import static org.apache.hadoop.fs.store.commands.BandwidthStream.megabytesPerSecond;
 import static org.apache.hadoop.service.launcher.LauncherExitCodes.EXIT_COMMAND_ARGUMENT_ERROR;
+import static org.apache.hadoop.service.launcher.LauncherExitCodes.EXIT_SERVICE_UNAVAILABLE;
 
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.security.MessageDigest;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.StorageUnit;
-import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.FutureDataInputStreamBuilder;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.fs.store.MinMeanMax;
+import org.apache.hadoop.fs.statistics.IOStatistics;
+import org.apache.hadoop.fs.statistics.IOStatisticsSnapshot;
+import org.apache.hadoop.fs.store.LatencyHistogram;
 import org.apache.hadoop.fs.store.StoreDurationInfo;
 import org.apache.hadoop.fs.store.StoreEntryPoint;
 import org.apache.hadoop.fs.store.StoreUtils;
 import org.apache.hadoop.fs.store.logging.IOStatisticsIntegration;
 import org.apache.hadoop.fs.tools.csv.CsvWriterWithCRC;
-import org.apache.hadoop.util.Progressable;
 import org.apache.hadoop.util.ShutdownHookManager;
 import org.apache.hadoop.util.ToolRunner;
 import org.slf4j.Logger;
@@ -68,18 +79,51 @@ public class Bandwidth extends StoreEntryPoint {
   public static final String KEEP = "keep";
   public static final String RENAME = "rename";
   public static final String POLICY = "policy";
+  public static final String READ = "read";
+  public static final String RANGE_SIZE = "rangesize";
+  public static final String RANGES = "ranges";
+  public static final String STREAMS = "streams";
+  public static final String MAX_STREAMS = "maxstreams";
+  public static final String BUFFERS = "buffers";
+  public static final String SWEEP = "sweep";
+  public static final String RESULTS = "results";
+  public static final String DURATION = "duration";
+  public static final String INTERVAL = "interval";
+  public static final String JSON = "json";
+  public static final String MONITOR = "monitor";
 
   public static final String USAGE = "Usage: bandwidth [options] size <path>\n" + STANDARD_OPTS
       + optusage(BLOCK, "size", "block size in megabytes")
+      + optusage(BUFFERS, "count", "number of distinct random blocks of data to upload in turn")
       + optusage(CSVFILE, "file", "CSV file to log operation details")
+      + optusage(DURATION, "duration",
+          "soak test: write and read continuously for this long, e.g. 2h")
       + optusage(FLUSH, "flush the output after writing each block")
       + optusage(HFLUSH, "hflush() the output after writing each block")
+      + optusage(INTERVAL, "duration", "soak test: interval between samples; default 60s")
+      + optusage(JSON, "file", "JSON file to save a report of the test to")
       + optusage(KEEP, "do not delete the file")
+      + optusage(MONITOR, "interval",
+          "sample the upload stream's IOStatistics at this interval and print a timeline")
+      + optusage(MAX_STREAMS, "count",
+          "double the number of streams up to this value until throughput stops increasing")
       + optusage(RENAME, "rename file to suffix .renamed")
+      + optusage(RESULTS, "file",
+          "sweep or soak test: file for the results; CSV unless the name ends in .json")
       + optusage(POLICY, "policy", "read policy for file (whole-file, sequential, random...)."
-          + " use \"none\" to use whatever is set for the store");
-
-  private static final int BUFFER_SIZE = 32 * 1024;
+          + " use \"none\" to use whatever is set for the store")
+      + optusage(READ, "mechanisms",
+          "comma separated list of read mechanisms to use in the download: "
+              + "readfully, byte, buffer, bytebufferreadable, bytebufferpositionedreadable, vectorio")
+      + optusage(RANGE_SIZE, "size", "vectorio: size of each range in KB")
+      + optusage(RANGES, "count", "vectorio: maximum number of ranges in each readVectored() call;"
+          + " 0 for all ranges in a block")
+      + optusage(STREAMS, "count", "number of files to write and read in parallel")
+      + optusage(SWEEP, "spec", "run every combination of the listed options, e.g."
+          + " \"block=1,8;policy=sequential,random;streams=1,4\"."
+          + " Options: block, buffers, policy, read, streams");
+
+  static final int BUFFER_SIZE = 32 * 1024;
 
   public static final int UPLOAD_BUFFER_SIZE_MB = 1;
 
@@ -93,81 +137,237 @@ public class Bandwidth extends StoreEntryPoint {
 
   public static final String DEFAULT_READ_POLICY = "whole-file, sequential";
 
-  public static final String DIGEST_ALGORITHM = "SHA-256";
+  /**
+   * Default number of distinct random blocks uploaded: {@value}.
+   */
+  public static final int DEFAULT_BUFFERS = 4;
 
   public static final String NONE = "none";
 
+  public static final String DEFAULT_READ_MECHANISM = "readfully";
+
+  public static final int DEFAULT_RANGE_SIZE_KB = 1024;
+
+  /**
+   * A stream sweep stops when the throughput increases by less than this fraction: {@value}.
+   */
+  public static final double SWEEP_MINIMUM_GAIN = 0.10;
+
+  /**
+   * Default interval between the samples of a soak test: {@value} seconds.
+   */
+  public static final int DEFAULT_INTERVAL_SECONDS = 60;
+
+  /**
+   * A soak test stream stops after this many consecutive failures: {@value}.
+   */
+  public static final int SOAK_MAX_CONSECUTIVE_FAILURES = 5;
+
+  /**
+   * Exit code of a soak test in which sustained degradation was detected: {@value}.
+   */
+  public static final int EXIT_SOAK_DEGRADED = EXIT_SERVICE_UNAVAILABLE;
+
+  /**
+   * Block latency percentiles in the results of a parameter sweep.
+   */
+  private static final double[] SWEEP_PERCENTILES = {50, 90, 99, 99.9};
+
+  /**
+   * Columns of the results of a parameter sweep.
+   */
+  private static final String[] SWEEP_COLUMNS = sweepColumns();
+
+  private FileSystem fs;
+
+  private boolean flush;
+
+  private boolean hflush;
+
+  private boolean keep;
+
+  private String readPolicy;
+
+  private List<ReadMechanism> mechanisms;
+
+  private int rangeSize;
+
+  private int rangesPerCall;
+
+  private long sizeMB;
+
+  private long fileSizeBytes;
+
+  private int blocks;
+
+  /**
+   * Range size requested for vector IO; limited to the block size.
+   */
+  private int requestedRangeSize;
+
+  /**
+   * Ring of buffers of random data; the blocks of a file are each of these in turn.
+   */
+  private byte[][] dataRing;
+
+  /**
+   * CSV writer; null if there is no CSV output.
+   */
+  @Nullable
+  private CsvWriterWithCRC csvWriter;
+
+  /**
+   * Report of the test; null if there is no JSON output.
+   */
+  @Nullable
+  private BandwidthReport report;
+
+  /**
+   * Interval between samples of the upload stream; null if it is not monitored.
+   */
+  @Nullable
+  private Duration monitorInterval;
+
+  /**
+   * Are multiple streams being tested? If so, CSV rows include the stream index.
+   */
+  private boolean multipleStreams;
+
+  /**
+   * Has the shutdown hook to close the filesystem been registered?
+   */
+  private boolean shutdownHookAdded;
+
   public Bandwidth() {
     createCommandFormat(2, 2, FLUSH, HFLUSH, KEEP, RENAME);
-    addValueOptions(BLOCK, CSVFILE, POLICY);
+    addValueOptions(BLOCK, BUFFERS, CSVFILE, DURATION, INTERVAL, JSON, MAX_STREAMS, MONITOR,
+        POLICY, RANGE_SIZE, RANGES, READ, RESULTS, STREAMS, SWEEP);
   }
 
   @Override
   public int run(String[] args) throws Exception {
     List<String> argList = processArgs(args, 1, -1, USAGE);
-    final boolean verbose = isVerbose();
-    final boolean flush = hasOption(FLUSH);
-    final boolean hflush = hasOption(HFLUSH);
-    final boolean keep = hasOption(KEEP);
+    flush = hasOption(FLUSH);
+    hflush = hasOption(HFLUSH);
+    keep = hasOption(KEEP);
     final boolean rename = hasOption(RENAME);
     final String csvFile = getOption(CSVFILE);
-    final String readPolicy = getOption(POLICY, NONE).trim().toLowerCase(Locale.ENGLISH);
+    final String jsonFile = getOption(JSON);
+    readPolicy = getOption(POLICY, NONE).trim().toLowerCase(Locale.ENGLISH);
     int blockSizeMB = getIntOption(BLOCK, UPLOAD_BUFFER_SIZE_MB);
+    try {
+      mechanisms = ReadMechanism.parse(getOption(READ, DEFAULT_READ_MECHANISM));
+    } catch (IllegalArgumentException e) {
+      error("%s", e.getMessage());
+      return EXIT_COMMAND_ARGUMENT_ERROR;
+    }
+    final int rangeSizeKB = getIntOption(RANGE_SIZE, DEFAULT_RANGE_SIZE_KB);
+    rangesPerCall = getIntOption(RANGES, 0);
+    final int streams = getIntOption(STREAMS, 1);
+    final int maxStreams = getIntOption(MAX_STREAMS, 0);
+    final int buffers = getIntOption(BUFFERS, DEFAULT_BUFFERS);
+    final String sweepOption = getOption(SWEEP);
+    final String resultsFile = getOption(RESULTS);
+    SweepSpec sweep = null;
+    if (sweepOption != null) {
+      try {
+        sweep = SweepSpec.parse(sweepOption);
+      } catch (IllegalArgumentException e) {
+        error("%s", e.getMessage());
+        return EXIT_COMMAND_ARGUMENT_ERROR;
+      }
+    }
+    final String durationOption = getOption(DURATION);
+    final Duration soakDuration = durationOption != null
+        ? StoreUtils.parseDurationArgument(durationOption, 0, TimeUnit.SECONDS)
+        : null;
+    final Duration interval = StoreUtils.parseDurationArgument(
+        getOption(INTERVAL, DEFAULT_INTERVAL_SECONDS + "s"), DEFAULT_INTERVAL_SECONDS,
+        TimeUnit.SECONDS);
+    if (soakDuration != null && (soakDuration.isZero() || interval.isZero())) {
+      error("invalid soak test duration or interval");
+      return EXIT_COMMAND_ARGUMENT_ERROR;
+    }
+    final String monitorOption = getOption(MONITOR);
+    monitorInterval = monitorOption != null
+        ? StoreUtils.parseDurationArgumentMillis(monitorOption, 1, TimeUnit.SECONDS)
+        : null;
+    if (monitorInterval != null && monitorInterval.isZero()) {
+      error("invalid upload monitor interval");
+      return EXIT_COMMAND_ARGUMENT_ERROR;
+    }
+    if (soakDuration != null && sweep != null) {
+      error("-%s and -%s cannot be combined", DURATION, SWEEP);
+      return EXIT_COMMAND_ARGUMENT_ERROR;
+    }
+    multipleStreams = streams > 1 || maxStreams > 0 || sweep != null || soakDuration != null;
+    if (monitorInterval != null && multipleStreams) {
+      warn("Ignoring -%s: only the upload of a single stream can be monitored", MONITOR);
+      monitorInterval = null;
+    }
 
     final Configuration conf = createPreconfiguredConfig();
 
-    final PrintStream out = getOut();
     // path on the CLI
     String size = argList.get(0).trim().toLowerCase(Locale.ENGLISH);
     Path uploadPath = new Path(argList.get(1));
 
     heading("Bandwidth test against %s with data size %s", uploadPath, size);
     println("Block size %d MB", blockSizeMB);
-    Path downloadPath =
-        rename ? new Path(uploadPath.getParent(), uploadPath.getName() + ".renamed") : uploadPath;
     if (keep) {
-      println("Retaining file %s", downloadPath);
+      println("Retaining file %s", uploadPath);
     }
     if (csvFile != null) {
       println("Saving statistics as CSV data to %s", csvFile);
     }
+    if (jsonFile != null) {
+      println("Saving a report of the test as JSON to %s", jsonFile);
+    }
 
     if (size.endsWith("p") || size.endsWith("t") || size.endsWith("e")) {
       warn("That's going to take a while");
     }
-    FileSystem fs = uploadPath.getFileSystem(conf);
+    fs = uploadPath.getFileSystem(conf);
     println("Using filesystem %s", fs.getUri());
 
     double uploadSize = StoreUtils.getDataSize(size, StorageUnit.MB);
 
-    long sizeMB = Math.round(uploadSize);
+    sizeMB = Math.round(uploadSize);
     if (sizeMB <= 0) {
       warn("minimum size is 1M");
       sizeMB = 1;
     }
     println("Upload size in Megabytes %,d MB", sizeMB);
-    final long fileSizeBytes = sizeMB * MB_1;
-    final int blockSize = (int) (blockSizeMB * MB_1);
+    fileSizeBytes = sizeMB * MB_1;
+    final int blockSize = blockSizeMB * MB_1;
     if (blockSize <= 0) {
       error("block size MB is invalid", blockSizeMB);
       return EXIT_COMMAND_ARGUMENT_ERROR;
     }
 
+    if (rangeSizeKB <= 0) {
+      error("range size %,d KB is invalid", rangeSizeKB);
+      return EXIT_COMMAND_ARGUMENT_ERROR;
+    }
+    requestedRangeSize = rangeSizeKB * 1024;
+
+    if (streams <= 0 || maxStreams < 0) {
+      error("invalid number of streams");
+      return EXIT_COMMAND_ARGUMENT_ERROR;
+    }
+    if (buffers <= 0) {
+      error("invalid number of buffers %d", buffers);
+      return EXIT_COMMAND_ARGUMENT_ERROR;
+    }
+
     if (fileSizeBytes < blockSize) {
       error("upload size %,d MB smaller than the block size %,d MB", sizeMB, blockSizeMB);
       return EXIT_COMMAND_ARGUMENT_ERROR;
     }
-    int numberOfBuffersToUpload = (int) (sizeMB / blockSizeMB);
-    println("Writing data as %,d blocks each of size %,d bytes", numberOfBuffersToUpload,
-        blockSize);
-
-    MessageDigest uploadDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
-    MessageDigest downloadDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
 
     /*
      * prepare the CSV output if requested
      */
-    CsvWriterWithCRC csvWriter = null;
     Path csvPath = null;
     if (csvFile != null) {
       csvPath = new Path(csvFile);
@@ -179,92 +379,146 @@ public class Bandwidth extends StoreEntryPoint {
       csvWriter.columns("operation", "iteration", "bytes", "total bytes", "duration/millis");
       csvWriter.newline();
     }
+    if (jsonFile != null) {
+      report = new BandwidthReport();
+      report.parameter("path", uploadPath.toString());
+      report.parameter("filesystem", fs.getUri().toString());
+      report.parameter("size bytes", fileSizeBytes);
+      report.parameter("block bytes", blockSize);
+      report.parameter(BUFFERS, buffers);
+      report.parameter(STREAMS, streams);
+      report.parameter(MAX_STREAMS, maxStreams);
+      report.parameter(POLICY, readPolicy);
+      report.parameter(READ, mechanisms.toString());
+      report.parameter(FLUSH, flush);
+      report.parameter(HFLUSH, hflush);
+      report.parameter(RENAME, rename);
+      report.parameter(SWEEP, sweep != null ? sweep.toString() : null);
+      report.parameter(DURATION, soakDuration != null ? soakDuration.toString() : null);
+    }
 
-    // buffer of randomness
-    byte[] dataBuffer = new byte[blockSize];
-    new Random().nextBytes(dataBuffer);
+    int exitCode;
+    try {
+      if (soakDuration != null) {
+        if (rename || maxStreams > 0) {
+          warn("Ignoring -%s and -%s in a soak test", RENAME, MAX_STREAMS);
+        }
+        prepareData(blockSizeMB, buffers);
+        exitCode = executeSoak(uploadPath, streams, soakDuration, interval,
+            resultsFile != null ? new Path(resultsFile) : null, conf);
+      } else if (sweep != null) {
+        if (rename || maxStreams > 0) {
+          warn("Ignoring -%s and -%s in a sweep", RENAME, MAX_STREAMS);
+        }
+        exitCode = executeSweep(uploadPath, sweep, blockSizeMB, buffers, streams,
+            resultsFile != null ? new Path(resultsFile) : null, conf);
+      } else if (multipleStreams) {
+        prepareData(blockSizeMB, buffers);
+        if (rename) {
+          warn("Ignoring -%s when testing multiple streams", RENAME);
+        }
+        exitCode = executeMultipleStreams(uploadPath, streams, maxStreams);
+      } else {
+        prepareData(blockSizeMB, buffers);
+        exitCode = executeSingleStream(uploadPath, rename);
+      }
+    } finally {
+      if (csvWriter != null) {
+        try {
+          csvWriter.flush();
+          csvWriter.close();
+        } catch (IOException e) {
+          errorln("Failed to close CSV write to %s: %s", csvPath, e);
+          LOG.debug("Failed to close CSV writer: %s", e);
+        }
+      }
+    }
+
+    if (csvPath != null) {
+      print("CSV formatted data saved to %s", csvPath);
+    }
 
-    // progress callback counts #of invocations
-    AtomicLong progressCount = new AtomicLong();
-    Progressable progress = progressCount::incrementAndGet;
+    if (report != null) {
+      final Path jsonPath = new Path(jsonFile);
+      // a filesystem without statistics gets an empty snapshot, so the report format is fixed
+      final IOStatistics statistics = retrieveIOStatistics(fs);
+      report.save(jsonPath.getFileSystem(conf), jsonPath, exitCode,
+          statistics != null ? snapshotIOStatistics(statistics) : snapshotIOStatistics());
+      println("Report saved to %s", jsonPath);
+    }
 
-    // total duration tracker.
-    final StoreDurationInfo uploadDurationTracker = new StoreDurationInfo();
+    println();
 
-    /*
-     * open the file. track duration
-     */
-    FSDataOutputStream upload;
-    try (StoreDurationInfo d = new StoreDurationInfo(out, "Opening %s for upload", uploadPath)) {
-      upload = fs.createFile(uploadPath).progress(progress).recursive().bufferSize(BUFFER_SIZE)
-          .overwrite(true).build();
-      d.finished();
-      row(csvWriter, "create-file", 1, 0, 0, d);
+    return exitCode;
+  }
+
+  /**
+   * Generate the data for a block size: a ring of buffers of randomness, so the data is not a
+   * single block repeated.
+   *
+   * @param blockSizeMB block size in MB
+   * @param buffers number of distinct buffers
+   */
+  private void prepareData(final int blockSizeMB, final int buffers) {
+    final int blockSize = blockSizeMB * MB_1;
+    blocks = (int) (sizeMB / blockSizeMB);
+    rangeSize = Math.min(requestedRangeSize, blockSize);
+    println("Writing data as %,d blocks each of size %,d bytes", blocks, blockSize);
+    // release the previous ring before allocating the next
+    dataRing = null;
+    final Random random = new Random();
+    dataRing = new byte[Math.min(buffers, blocks)][blockSize];
+    for (byte[] buffer : dataRing) {
+      random.nextBytes(buffer);
     }
+  }
+
+  /**
+   * Upload then download a single file, printing the progress of every block.
+   *
+   * @param uploadPath path to upload to
+   * @param rename should the file be renamed before the download?
+   * @return the exit code
+   * @throws Exception failure
+   */
+  private int executeSingleStream(final Path uploadPath, final boolean rename) throws Exception {
+    final PrintStream out = getOut();
+    Path downloadPath =
+        rename ? new Path(uploadPath.getParent(), uploadPath.getName() + ".renamed") : uploadPath;
+
     // set up
     if (!keep) {
       // setup cleanup so if the upload is interrupted,
       // filesystem shutdown may delete the file
-      fs.deleteOnExit(uploadPath);
-      if (rename) {
-        fs.deleteOnExit(downloadPath);
-      }
-      ShutdownHookManager.get().addShutdownHook(() -> {
-        try {
-          fs.close();
-        } catch (IOException ignored) {
-
-        }
-      }, PRIORITY);
+      deleteOnExit(uploadPath, downloadPath);
     }
 
+    final BandwidthStream stream = new BandwidthStream(0, fs, uploadPath, dataRing, blocks,
+        flush, hflush, this, out, this::row);
+
     /*
      * now do the upload
      */
-    MinMeanMax blockUploads = new MinMeanMax("block write duration");
-    StoreDurationInfo closeDuration;
-    try {
-      long total = 0;
-      for (int i = 0; i < numberOfBuffersToUpload; i++) {
-        StoreDurationInfo duration = new StoreDurationInfo();
-        print("Write block %,d", i);
-        upload.write(dataBuffer);
-        uploadDigest.update(dataBuffer);
-        if (flush) {
-          upload.flush();
-        }
-        if (hflush) {
-          upload.hflush();
-        }
-        duration.finished();
-        blockUploads.add(duration.value());
-        println(" in %.3f seconds", duration.value() / 1000.0);
-        total += blockSize;
-        row(csvWriter, "upload-block", i + 1, blockSize, total, duration);
-      }
-      println();
-
-      // close and so write all remaining data
-      long progressInUpload = progressCount.get();
-      closeDuration = new StoreDurationInfo(out, "upload stream close()");
-      try {
-        upload.close();
-      } finally {
-        closeDuration.close();
+    final UploadMonitor monitor = monitorInterval != null
+        ? new UploadMonitor(this, monitorInterval.toMillis(),
+            fs.getConf().getInt(UploadMonitor.ACTIVE_BLOCKS, UploadMonitor.DEFAULT_ACTIVE_BLOCKS))
+        : null;
+    final BandwidthStream.Result upload = stream.upload(monitor);
+    if (monitor != null) {
+      monitor.print();
+      if (report != null) {
+        report.section("upload timeline", monitor.getTimeline());
       }
-      row(csvWriter, "close-upload", 1, 0, fileSizeBytes, closeDuration);
-
-      println();
-      // print out progress info
-      long totalProgress = progressCount.get();
-      println("Progress callbacks %d; in close %d", totalProgress,
-          totalProgress - progressInUpload);
-    } finally {
-      printIfVerbose("Upload Stream: %s", prettyIOStatistics(upload));
     }
+    println();
+    // print out progress info
+    println("Progress callbacks %d; in close %d", upload.getProgress(),
+        upload.getProgressInClose());
+    printIfVerbose("Upload Stream: %s", ioStatisticsToPrettyString(upload.getIOStatistics()));
     // upload is done, print some statistics
-    uploadDurationTracker.finished();
-    row(csvWriter, "upload", 1, blockSize, blockSize, uploadDurationTracker);
+    final StoreDurationInfo uploadDurationTracker = upload.getDuration();
+    row(0, "upload", 1, fileSizeBytes, fileSizeBytes, uploadDurationTracker);
+    phase("Upload", 1, fileSizeBytes, uploadDurationTracker.value(), upload.getBlocks());
 
     // end of upload
     printFSInfoInVerbose(fs);
@@ -281,66 +535,29 @@ public class Bandwidth extends StoreEntryPoint {
         fs.rename(uploadPath, downloadPath);
       }
       rd.finished();
-      row(csvWriter, "rename", 1, fileSizeBytes, 0, rd);
+      row(0, "rename", 1, fileSizeBytes, 0, rd);
+      phase("Rename", 1, 0, rd.value(), null);
     }
 
     /*
-     * download
+     * download, once per read mechanism
      */
-    heading("Download %s", downloadPath);
-
-    final StoreDurationInfo downloadDurationTracker = new StoreDurationInfo();
-    final FSDataInputStream download;
-    final StoreDurationInfo openDuration = new StoreDurationInfo(out, "open %s", downloadPath);
-    try {
-      final FutureDataInputStreamBuilder builder = fs.openFile(downloadPath);
+    final List<BandwidthStream.Result> downloads = new ArrayList<>(mechanisms.size());
+    for (ReadMechanism mechanism : mechanisms) {
+      heading("Download %s using read mechanism %s", downloadPath, mechanism);
       if (!NONE.equals(readPolicy)) {
         println("Read policy %s", readPolicy);
-        builder.opt("fs.option.openfile.read.policy", readPolicy);
-      }
-      download =
-          builder.opt("fs.option.openfile.length", Long.toString(fileSizeBytes)).build().get();
-    } finally {
-      openDuration.finished();
-      row(csvWriter, "open-for-download", 1, 0, 0, openDuration);
-    }
-    final MinMeanMax blockDownload = new MinMeanMax("block read duration");
-
-    BlockRead blockRead = new ReadBlockByByte();
-    try {
-      long pos = 0;
-      long total = 0;
-      // now do the download
-      for (int i = 0; i < numberOfBuffersToUpload; i++) {
-        print("Read block %,d", i);
-        StoreDurationInfo duration = new StoreDurationInfo();
-        blockRead.readBlock(download, pos, dataBuffer);
-        downloadDigest.update(dataBuffer);
-
-        pos += blockSize;
-        duration.finished();
-        blockDownload.add(duration.value());
-        println(" in %.3f seconds", duration.value() / 1000.0);
-        total += blockSize;
-        row(csvWriter, "download-block", i + 1, blockSize, total, duration);
       }
-      println();
-      try (StoreDurationInfo d = new StoreDurationInfo(out, "Close download stream")) {
-        download.close();
-      }
-
-      downloadDurationTracker.finished();
-      row(csvWriter, "download", 1, fileSizeBytes, fileSizeBytes, downloadDurationTracker);
-    } finally {
-      printIfVerbose("Download Stream: %s", prettyIOStatistics(download));
-      if (csvWriter != null) {
-        try {
-          csvWriter.flush();
-          csvWriter.close();
-        } catch (IOException e) {
-          errorln("Failed to close CSV write to %s: %s", csvPath, e);
-          LOG.debug("Failed to close CSV writer: %s", e);
-        }
+      final BandwidthStream.Result result = stream.download(downloadPath, readPolicy, mechanism,
+          mechanism.create(rangeSize, rangesPerCall));
+      if (result != null) {
+        println();
+        printIfVerbose("Download Stream: %s",
+            ioStatisticsToPrettyString(result.getIOStatistics()));
+        row(0, result.getOperation(), 1, fileSizeBytes, fileSizeBytes, result.getDuration());
+        phase("Download (" + result.getMechanism() + ")", 1, fileSizeBytes,
+            result.getDuration().value(), result.getBlocks());
+        downloads.add(result);
       }
     }
 
@@ -356,20 +573,20 @@ public class Bandwidth extends StoreEntryPoint {
       }
     }
 
-    final String prettyString = IOStatisticsIntegration.ioStatisticsToPrettyString(fs);
-    if (!prettyString.isEmpty()) {
-      heading("Destination Filesystem IO Statistics");
-      println(prettyString);
-    }
+    printFilesystemIOStatistics();
 
     // now print summaries
+    final LatencyHistogram blockUploads = upload.getBlocks();
     summarize("Upload", uploadDurationTracker, fileSizeBytes,
         "Blocks uploaded (ignoring close() overhead):", blockUploads);
 
     // use close to time for "real" mean block upload time
+    final StoreDurationInfo closeDuration = upload.getCloseDuration();
     println("Close() duration: %s (minute:seconds)", closeDuration.getDurationString());
     println("Mean Upload duration/block including close() overhead %.3f seconds",
-        (blockUploads.sum() + uploadDurationTracker.value()) / blockUploads.samples() / 1000.0);
+        (blockUploads.sum() / 1_000_000 + uploadDurationTracker.value()) / blockUploads.samples()
+            / 1000.0);
+    printVerified("Upload", upload);
 
     // warn on slow close
     final Duration dur = closeDuration.asDuration();
@@ -381,36 +598,639 @@ public class Bandwidth extends StoreEntryPoint {
           "A long delay in close() can cause problems with applications which do not expect delays");
       warn("Consider limiting the number of blocks which can be queued for upload");
       warn("in the filesystem client's output stream");
+      if (monitor == null) {
+        warn("Use -%s to see how the queue of blocks awaiting upload built up", MONITOR);
+      }
     }
 
     renameDurationTracker.ifPresent(t -> summarize("Rename", t, fileSizeBytes, "", null));
-    summarize("Download", downloadDurationTracker, fileSizeBytes, "Blocks downloaded:",
-        blockDownload);
+    for (BandwidthStream.Result result : downloads) {
+      summarize("Download (" + result.getMechanism() + ")", result.getDuration(), fileSizeBytes,
+          "Blocks downloaded:", result.getBlocks());
+      printVerified("Download", result);
+    }
 
+    return verifyChecksums(Collections.singletonList(upload), downloads);
+  }
+
+  /**
+   * Upload and download files in parallel, optionally increasing the number of streams until the
+   * throughput levels off.
+   *
+   * @param basePath base path; each stream appends its index
+   * @param streams initial number of streams
+   * @param maxStreams maximum number of streams in a sweep; 0 for no sweep
+   * @return the exit code
+   * @throws Exception failure
+   */
+  private int executeMultipleStreams(final Path basePath, final int streams, final int maxStreams)
+      throws Exception {
+    final int poolSize = Math.max(streams, maxStreams);
+    final ExecutorService pool = new ThreadPoolExecutor(poolSize, poolSize, 0L,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+    final List<StreamsOutcome> outcomes = new ArrayList<>();
     int exitCode = 0;
+    boolean levelledOff = false;
+    try {
+      StreamsOutcome previous = null;
+      int count = streams;
+      while (true) {
+        final StreamsOutcome outcome = executeStreams(pool, basePath, count);
+        outcomes.add(outcome);
+        if (!outcome.checksumsMatch) {
+          exitCode = -1;
+        }
+        if (count >= maxStreams) {
+          break;
+        }
+        if (previous != null && outcome.gainOver(previous) < SWEEP_MINIMUM_GAIN) {
+          levelledOff = true;
+          break;
+        }
+        previous = outcome;
+        count = Math.min(count * 2, maxStreams);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
 
-    final byte[] uploadHash = uploadDigest.digest();
-    final byte[] downloadHash = downloadDigest.digest();
-    if (!Arrays.equals(uploadHash, downloadHash)) {
-      errorln("Upload hash does not match download hash: data corrupted!");
-      exitCode = -1;
-    } else {
+    printFilesystemIOStatistics();
+
+    if (maxStreams > 0) {
+      heading("Stream sweep");
+      println("%8s %18s %18s", "streams", "upload MB/s", "download MB/s");
+      StreamsOutcome best = outcomes.get(0);
+      for (StreamsOutcome outcome : outcomes) {
+        println("%8d %,18.3f %,18.3f", outcome.streams, outcome.upload.aggregateBandwidth(),
+            outcome.download != null ? outcome.download.aggregateBandwidth() : 0);
+        if (outcome.totalBandwidth() > best.totalBandwidth()) {
+          best = outcome;
+        }
+      }
+      println();
+      if (levelledOff) {
+        println("Throughput increased by less than %.0f%% after doubling the number of streams",
+            SWEEP_MINIMUM_GAIN * 100);
+      }
+      println("Highest throughput with %,d streams", best.streams);
+      println("Use this as a starting point for the size of the filesystem client's"
+          + " thread and HTTP connection pools");
+    }
+    if (exitCode == 0) {
       println("Data checksums match: the data has not been corrupted during the test");
     }
+    return exitCode;
+  }
 
-    if (csvPath != null) {
-      print("CSV formatted data saved to %s", csvPath);
+  /**
+   * Upload then download a file in each of a number of parallel streams.
+   *
+   * @param pool thread pool
+   * @param basePath base path; each stream appends its index
+   * @param count number of streams
+   * @return the outcome
+   * @throws Exception failure
+   */
+  private StreamsOutcome executeStreams(final ExecutorService pool, final Path basePath,
+      final int count) throws Exception {
+    heading("Bandwidth test with %,d parallel streams", count);
+    final List<BandwidthStream> streams = createStreams(basePath, count);
+    final PhaseSummary upload = uploadStreams(pool, streams);
+
+    // download with each mechanism
+    PhaseSummary firstDownload = null;
+    boolean checksumsMatch = true;
+    for (ReadMechanism mechanism : mechanisms) {
+      final PhaseSummary download =
+          downloadStreams(pool, streams, readPolicy, mechanism, upload.results);
+      if (download == null) {
+        continue;
+      }
+      if (firstDownload == null) {
+        firstDownload = download;
+      }
+      checksumsMatch &= download.checksumsMatch;
+    }
+    deleteStreams(streams);
+    return new StreamsOutcome(count, upload, firstDownload, checksumsMatch);
+  }
+
+  /**
+   * Upload then download a file in each of a number of parallel streams, for every combination of
+   * the options of a sweep. Each upload is downloaded with every combination of the read options.
+   *
+   * @param basePath base path; each stream appends its index
+   * @param sweep sweep specification
+   * @param blockSizeMB block size when not in the sweep
+   * @param buffers buffer count when not in the sweep
+   * @param streams stream count when not in the sweep
+   * @param resultsPath nullable path for the results
+   * @param conf configuration
+   * @return the exit code
+   * @throws Exception failure
+   */
+  private int executeSweep(final Path basePath, final SweepSpec sweep, final int blockSizeMB,
+      final int buffers, final int streams, @Nullable final Path resultsPath,
+      final Configuration conf) throws Exception {
+    final List<Integer> blockSizes;
+    final List<Integer> bufferCounts;
+    final List<Integer> streamCounts;
+    final List<String> policies = sweep.values(SweepSpec.POLICY, readPolicy);
+    final List<ReadMechanism> readMechanisms = new ArrayList<>();
+    try {
+      blockSizes = sweep.intValues(SweepSpec.BLOCK, blockSizeMB);
+      bufferCounts = sweep.intValues(SweepSpec.BUFFERS, buffers);
+      streamCounts = sweep.intValues(SweepSpec.STREAMS, streams);
+      for (String m : sweep.values(SweepSpec.READ, null)) {
+        readMechanisms.addAll(m != null ? ReadMechanism.parse(m) : mechanisms);
+      }
+    } catch (IllegalArgumentException e) {
+      error("%s", e.getMessage());
+      return EXIT_COMMAND_ARGUMENT_ERROR;
+    }
+    for (int b : blockSizes) {
+      if (b > sizeMB) {
+        error("upload size %,d MB smaller than the block size %,d MB", sizeMB, b);
+        return EXIT_COMMAND_ARGUMENT_ERROR;
+      }
+    }
+    heading("Sweep %s: %,d combinations", sweep, sweep.combinations());
+
+    final int poolSize = Collections.max(streamCounts);
+    final ExecutorService pool = new ThreadPoolExecutor(poolSize, poolSize, 0L,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+    final SweepResults results =
+        resultsPath != null ? new SweepResults(resultsPath.getFileSystem(conf), resultsPath,
+            SWEEP_COLUMNS) : null;
+    final List<Map<String, Object>> rows = new ArrayList<>();
+    int exitCode = 0;
+    try {
+      for (int blockMB : blockSizes) {
+        for (int bufferCount : bufferCounts) {
+          prepareData(blockMB, bufferCount);
+          for (int count : streamCounts) {
+            heading("Sweep: block=%d;buffers=%d;streams=%d", blockMB, bufferCount, count);
+            final List<BandwidthStream> sweepStreams = createStreams(basePath, count);
+            final PhaseSummary upload = uploadStreams(pool, sweepStreams);
+            for (String policy : policies) {
+              for (ReadMechanism mechanism : readMechanisms) {
+                final PhaseSummary download =
+                    downloadStreams(pool, sweepStreams, policy, mechanism, upload.results);
+                if (download == null) {
+                  continue;
+                }
+                if (!download.checksumsMatch) {
+                  exitCode = -1;
+                }
+                final Map<String, Object> row = new LinkedHashMap<>();
+                row.put(SweepSpec.BLOCK, blockMB);
+                row.put(SweepSpec.BUFFERS, bufferCount);
+                row.put(SweepSpec.STREAMS, count);
+                row.put(SweepSpec.POLICY, policy);
+                row.put(SweepSpec.READ, mechanism.toString());
+                row.put("bytes", upload.bytes);
+                putPhase(row, "upload", upload);
+                putPhase(row, "download", download);
+                row.put("checksums", download.checksumsMatch ? "match" : "mismatch");
+                rows.add(row);
+                if (results != null) {
+                  results.add(row);
+                }
+              }
+            }
+            deleteStreams(sweepStreams);
+          }
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+      if (results != null) {
+        results.close();
+      }
+    }
+
+    printFilesystemIOStatistics();
+
+    heading("Sweep results");
+    println("%6s %8s %8s %-12s %-28s %14s %14s %10s", "block", "buffers", "streams", "policy",
+        "read", "upload MB/s", "download MB/s", "p99 ms");
+    for (Map<String, Object> row : rows) {
+      println("%6s %8s %8s %-12s %-28s %14s %14s %10s", row.get(SweepSpec.BLOCK),
+          row.get(SweepSpec.BUFFERS), row.get(SweepSpec.STREAMS), row.get(SweepSpec.POLICY),
+          row.get(SweepSpec.READ), row.get("upload MB/s"), row.get("download MB/s"),
+          row.get("download p99 ms"));
+    }
+    println();
+    if (results != null) {
+      println("Sweep results saved to %s", results.getPath());
+    }
+    if (exitCode == 0) {
+      println("Data checksums match: the data has not been corrupted during the test");
+    }
+    return exitCode;
+  }
+
+  /**
+   * Add the bandwidth and block latency percentiles of a phase to a sweep row.
+   *
+   * @param row row
+   * @param phase phase prefix
+   * @param summary summary of the phase
+   */
+  private static void putPhase(final Map<String, Object> row, final String phase,
+      final PhaseSummary summary) {
+    row.put(phase + " MB/s", round3(summary.aggregateBandwidth()));
+    for (double p : SWEEP_PERCENTILES) {
+      row.put(String.format(Locale.ENGLISH, "%s p%s ms", phase, percentileName(p)),
+          round3(summary.blocks.percentileMillis(p)));
+    }
+  }
+
+  static double round3(double d) {
+    return Math.round(d * 1000) / 1000.0;
+  }
+
+  static String percentileName(double p) {
+    return p == Math.floor(p) ? Long.toString((long) p) : Double.toString(p);
+  }
+
+  /**
+   * Column names of the sweep results.
+   *
+   * @return the columns
+   */
+  private static String[] sweepColumns() {
+    final List<String> columns = new ArrayList<>(Arrays.asList(SweepSpec.DIMENSIONS));
+    columns.add("bytes");
+    for (String phase : new String[] {"upload", "download"}) {
+      columns.add(phase + " MB/s");
+      for (double p : SWEEP_PERCENTILES) {
+        columns.add(String.format(Locale.ENGLISH, "%s p%s ms", phase, percentileName(p)));
+      }
+    }
+    columns.add("checksums");
+    return columns.toArray(new String[0]);
+  }
+
+  /**
+   * Write and read files continuously in a number of parallel streams for a fixed duration,
+   * sampling throughput, latency and throttling at a fixed interval to detect degradation.
+   * The test fails if the data is corrupted or there is sustained degradation.
+   *
+   * @param basePath base path; each stream appends its index
+   * @param count number of streams
+   * @param duration duration of the test
+   * @param interval interval between samples
+   * @param resultsPath nullable path for the time series
+   * @param conf configuration
+   * @return the exit code
+   * @throws Exception failure
+   */
+  private int executeSoak(final Path basePath, final int count, final Duration duration,
+      final Duration interval, @Nullable final Path resultsPath, final Configuration conf)
+      throws Exception {
+    final ReadMechanism mechanism = mechanisms.get(0);
+    heading("Soak test for %s with %,d streams; samples every %s", duration, count, interval);
+    final SweepResults results = resultsPath != null
+        ? new SweepResults(resultsPath.getFileSystem(conf), resultsPath, SoakMonitor.COLUMNS)
+        : null;
+    final ExecutorService pool = new ThreadPoolExecutor(count, count, 0L,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+    final AtomicLong mismatches = new AtomicLong();
+    final AtomicLong iterations = new AtomicLong();
+    final long deadline = System.currentTimeMillis() + duration.toMillis();
+    final List<BandwidthStream> streams;
+    final SoakMonitor monitor =
+        new SoakMonitor(this, retrieveIOStatistics(fs), results, interval.toMillis());
+    try {
+      streams = createStreams(basePath, count, new BandwidthStream.OperationListener() {
+        @Override
+        public void completed(final int stream, final String operation, final int iteration,
+            final long opBytes, final long totalBytes, final StoreDurationInfo duration)
+            throws IOException {
+          row(stream, operation, iteration, opBytes, totalBytes, duration);
+        }
+
+        @Override
+        public void blockCompleted(final int stream, final boolean write, final long bytes,
+            final long nanos) {
+          monitor.blockCompleted(write, bytes, nanos);
+        }
+      });
+      final List<Future<BandwidthStream.Result>> futures = new ArrayList<>(count);
+      for (BandwidthStream stream : streams) {
+        futures.add(pool.submit(() -> {
+          int failures = 0;
+          while (System.currentTimeMillis() < deadline) {
+            try {
+              final BandwidthStream.Result upload = stream.upload();
+              final BandwidthStream.Result download = stream.download(stream.getPath(),
+                  readPolicy, mechanism, mechanism.create(rangeSize, rangesPerCall));
+              if (download == null) {
+                throw new IOException("Stream does not support read mechanism " + mechanism);
+              }
+              if (upload.getChecksum() != download.getChecksum()) {
+                errorln("Upload hash does not match download hash in stream %d: data corrupted!",
+                    stream.getIndex());
+                mismatches.incrementAndGet();
+              }
+              iterations.incrementAndGet();
+              failures = 0;
+            } catch (IOException e) {
+              monitor.failed();
+              if (++failures >= SOAK_MAX_CONSECUTIVE_FAILURES) {
+                throw e;
+              }
+              warn("Stream %d failed: %s", stream.getIndex(), e);
+              Thread.sleep(1000);
+            }
+          }
+          return null;
+        }));
+      }
+      awaitAll(futures);
+    } finally {
+      pool.shutdownNow();
+      try {
+        monitor.close();
+      } finally {
+        if (results != null) {
+          results.close();
+        }
+      }
+    }
+    deleteStreams(streams);
+    println("Uploads and downloads completed: %,d", iterations.get());
+    if (results != null) {
+      println("Time series saved to %s", results.getPath());
+    }
+    printFilesystemIOStatistics();
+    if (mismatches.get() > 0) {
+      return -1;
+    }
+    println("Data checksums match: the data has not been corrupted during the test");
+    if (monitor.isDegraded()) {
+      errorln("Soak test failed: sustained degradation was detected");
+      return EXIT_SOAK_DEGRADED;
+    }
+    return 0;
+  }
+
+  /**
+   * Create the streams of a test.
+   *
+   * @param basePath base path; each stream appends its index
+   * @param count number of streams
+   * @return the streams
+   * @throws IOException failure to register the paths for deletion
+   */
+  private List<BandwidthStream> createStreams(final Path basePath, final int count)
+      throws IOException {
+    return createStreams(basePath, count, this::row);
+  }
+
+  /**
+   * Create the streams of a test.
+   *
+   * @param basePath base path; each stream appends its index
+   * @param count number of streams
+   * @param listener operation listener
+   * @return the streams
+   * @throws IOException failure to register the paths for deletion
+   */
+  private List<BandwidthStream> createStreams(final Path basePath, final int count,
+      final BandwidthStream.OperationListener listener) throws IOException {
+    final List<BandwidthStream> streams = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      final Path path = new Path(basePath.getParent(), basePath.getName() + "-" + i);
+      if (!keep) {
+        deleteOnExit(path);
+      }
+      streams.add(new BandwidthStream(i, fs, path, dataRing, blocks, flush, hflush, null, null,
+          listener));
+    }
+    return streams;
+  }
+
+  /**
+   * Upload the files of all streams in parallel.
+   *
+   * @param pool thread pool
+   * @param streams streams
+   * @return the summary, with the results in stream order
+   * @throws Exception failure
+   */
+  private PhaseSummary uploadStreams(final ExecutorService pool,
+      final List<BandwidthStream> streams) throws Exception {
+    final StoreDurationInfo uploadDuration = new StoreDurationInfo();
+    final List<Future<BandwidthStream.Result>> uploadFutures = new ArrayList<>(streams.size());
+    for (BandwidthStream stream : streams) {
+      uploadFutures.add(pool.submit(() -> stream.upload()));
+    }
+    final List<BandwidthStream.Result> uploads = awaitAll(uploadFutures);
+    uploadDuration.finished();
+    return reportStreams("Upload", uploads, uploadDuration);
+  }
+
+  /**
+   * Download the files of all streams in parallel and verify the data.
+   *
+   * @param pool thread pool
+   * @param streams streams
+   * @param policy read policy
+   * @param mechanism read mechanism
+   * @param uploads uploads of the streams, to verify the checksums against
+   * @return the summary or null if the mechanism is not supported
+   * @throws Exception failure
+   */
+  @Nullable
+  private PhaseSummary downloadStreams(final ExecutorService pool,
+      final List<BandwidthStream> streams, final String policy, final ReadMechanism mechanism,
+      final List<BandwidthStream.Result> uploads) throws Exception {
+    final StoreDurationInfo downloadDuration = new StoreDurationInfo();
+    final List<Future<BandwidthStream.Result>> downloadFutures = new ArrayList<>(streams.size());
+    for (BandwidthStream stream : streams) {
+      downloadFutures.add(pool.submit(() -> stream.download(stream.getPath(), policy, mechanism,
+          mechanism.create(rangeSize, rangesPerCall))));
+    }
+    final List<BandwidthStream.Result> downloads = awaitAll(downloadFutures);
+    downloadDuration.finished();
+    if (downloads.isEmpty()) {
+      warn("Stream does not support read mechanism %s", mechanism);
+      return null;
+    }
+    final PhaseSummary download = reportStreams(
+        NONE.equals(policy) ? "Download (" + mechanism + ")"
+            : "Download (" + mechanism + ", " + policy + ")",
+        downloads, downloadDuration);
+    download.checksumsMatch = verifyChecksums(uploads, downloads) == 0;
+    return download;
+  }
+
+  /**
+   * Delete the files of the streams unless they are to be kept.
+   *
+   * @param streams streams
+   */
+  private void deleteStreams(final List<BandwidthStream> streams) {
+    if (!keep) {
+      for (BandwidthStream stream : streams) {
+        try {
+          fs.delete(stream.getPath(), false);
+        } catch (IOException e) {
+          warn("Failed to delete uploaded file: %s", stream.getPath(), e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Await the results of all streams.
+   *
+   * @param futures futures
+   * @return the non-null results
+   * @throws Exception failure of any stream
+   */
+  private static List<BandwidthStream.Result> awaitAll(
+      final List<Future<BandwidthStream.Result>> futures) throws Exception {
+    final List<BandwidthStream.Result> results = new ArrayList<>(futures.size());
+    for (Future<BandwidthStream.Result> future : futures) {
+      final BandwidthStream.Result result = await(future);
+      if (result != null) {
+        results.add(result);
+      }
     }
+    return results;
+  }
 
+  /**
+   * Print the results of a phase across all streams.
+   *
+   * @param phase phase name
+   * @param results results of each stream
+   * @param duration duration of the whole phase
+   * @return the summary
+   */
+  private PhaseSummary reportStreams(final String phase, final List<BandwidthStream.Result> results,
+      final StoreDurationInfo duration) {
+    subheading("%s with %,d streams", phase, results.size());
+    final LatencyHistogram streamDurations = new LatencyHistogram("stream duration");
+    final LatencyHistogram blocks = new LatencyHistogram("block duration");
+    final IOStatisticsSnapshot statistics = snapshotIOStatistics();
+    double slowest = Double.MAX_VALUE;
+    double fastest = 0;
+    long bytes = 0;
+    long longestRaw = 0;
+    for (BandwidthStream.Result result : results) {
+      final LatencyHistogram b = result.getBlocks();
+      final double bandwidth = result.bandwidth();
+      println("[%02d] %s: %,.3f MB/s; verified %,.3f MB/s; blocks: p50 %.3f ms, p99 %.3f ms,"
+          + " max %.3f ms", result.getStream(), result.getDuration().getDurationString(),
+          bandwidth, result.verifiedBandwidth(), b.percentileMillis(50), b.percentileMillis(99),
+          b.max() / 1_000_000.0);
+      streamDurations.recordMillis(result.getDuration().value());
+      longestRaw = Math.max(longestRaw, result.getDuration().value());
+      blocks.merge(b);
+      slowest = Math.min(slowest, bandwidth);
+      fastest = Math.max(fastest, bandwidth);
+      bytes += result.getBytes();
+      statistics.aggregate(result.getIOStatistics());
+    }
+    final PhaseSummary summary = new PhaseSummary(bytes, duration.value(), blocks, results);
+    phase(phase, results.size(), bytes, duration.value(), blocks);
+    println();
+    println("%s of %,d bytes in %s", phase, bytes, duration.getDurationString());
+    println("Aggregate bandwidth %,.3f MB/s; %,.3f Mbit/s", summary.aggregateBandwidth(),
+        summary.aggregateBandwidth() * 8);
+    println("Aggregate raw bandwidth, excluding checksum completion %,.3f MB/s",
+        megabytesPerSecond(bytes, longestRaw));
+    println("Per-stream bandwidth: slowest %,.3f MB/s; fastest %,.3f MB/s; spread %,.3f MB/s",
+        slowest, fastest, fastest - slowest);
+    println("Stream durations: %s", streamDurations.summary());
+    println("Blocks across all streams: %s", blocks.summary());
+    printIfVerbose("Stream statistics: %s", ioStatisticsToPrettyString(statistics));
+    println();
+    return summary;
+  }
+
+  /**
+   * Print the bandwidth of an operation including the time to checksum its data.
+   *
+   * @param operation operation name
+   * @param result result of the operation
+   */
+  private void printVerified(final String operation, final BandwidthStream.Result result) {
+    println("%s raw bandwidth %,.3f MB/s; verified bandwidth %,.3f MB/s"
+        + " (checksum completed %s after the IO)", operation, result.bandwidth(),
+        result.verifiedBandwidth(), StoreDurationInfo.humanTime(
+            result.getVerifiedDuration().value() - result.getDuration().value()));
     println();
+  }
 
+  /**
+   * Verify the checksums of downloads against the uploads of the same streams.
+   *
+   * @param uploads uploads, in stream order
+   * @param downloads downloads
+   * @return the exit code
+   */
+  private int verifyChecksums(final List<BandwidthStream.Result> uploads,
+      final List<BandwidthStream.Result> downloads) {
+    int exitCode = 0;
+    for (BandwidthStream.Result result : downloads) {
+      if (uploads.get(result.getStream()).getChecksum() != result.getChecksum()) {
+        errorln("Upload hash does not match download hash in stream %d with %s: data corrupted!",
+            result.getStream(), result.getOperation());
+        exitCode = -1;
+      }
+    }
+    if (exitCode == 0 && !multipleStreams) {
+      println("Data checksums match: the data has not been corrupted during the test");
+    }
     return exitCode;
   }
 
   /**
-   * write a row to the CSV file.
-   * 
-   * @param writer file to write to
+   * Print the IOStatistics of the filesystem.
+   */
+  private void printFilesystemIOStatistics() {
+    final String prettyString = IOStatisticsIntegration.ioStatisticsToPrettyString(fs);
+    if (!prettyString.isEmpty()) {
+      heading("Destination Filesystem IO Statistics");
+      println(prettyString);
+    }
+  }
+
+  /**
+   * Delete the paths on exit, so if the upload is interrupted, filesystem shutdown may delete the
+   * files.
+   *
+   * @param paths paths to delete
+   * @throws IOException failure
+   */
+  private void deleteOnExit(Path... paths) throws IOException {
+    for (Path path : paths) {
+      fs.deleteOnExit(path);
+    }
+    if (shutdownHookAdded) {
+      return;
+    }
+    shutdownHookAdded = true;
+    final FileSystem filesystem = fs;
+    ShutdownHookManager.get().addShutdownHook(() -> {
+      try {
+        filesystem.close();
+      } catch (IOException ignored) {
+
+      }
+    }, PRIORITY);
+  }
+
+  /**
+   * write a row to the CSV file. When there are multiple streams, the operation is prefixed by the
+   * stream index.
+   *
+   * @param stream stream index
    * @param a action
    * @param iteration iteration for repeated operations
    * @param opBytes bytes processed in operation
@@ -418,18 +1238,36 @@ public class Bandwidth extends StoreEntryPoint {
    * @param dur duration
    * @throws IOException write failure
    */
-  private static void row(@Nullable final CsvWriterWithCRC writer, final String a,
-      final int iteration, final long opBytes, final long totalBytes, final StoreDurationInfo dur)
-      throws IOException {
-    if (writer != null) {
-      writer.column(a).columnL(iteration).columnL(opBytes).columnL(totalBytes).columnL(dur.value())
-          .newline();
+  private synchronized void row(final int stream, final String a, final int iteration,
+      final long opBytes, final long totalBytes, final StoreDurationInfo dur) throws IOException {
+    if (csvWriter != null) {
+      csvWriter.column(multipleStreams ? String.format("stream-%d %s", stream, a) : a)
+          .columnL(iteration).columnL(opBytes).columnL(totalBytes).columnL(dur.value()).newline();
+    }
+    if (report != null) {
+      report.completed(stream, a, iteration, opBytes, totalBytes, dur);
+    }
+  }
+
+  /**
+   * Add a phase to the report, if there is one.
+   *
+   * @param name phase name
+   * @param streams number of streams
+   * @param bytes bytes across all streams
+   * @param durationMillis duration of the whole phase
+   * @param blocks nullable latencies of the blocks of all streams
+   */
+  private void phase(final String name, final int streams, final long bytes,
+      final long durationMillis, @Nullable final LatencyHistogram blocks) {
+    if (report != null) {
+      report.phase(name, streams, bytes, durationMillis, blocks);
     }
   }
 
   /**
    * Execute the command, return the result or throw an exception, as appropriate.
-   * 
+   *
    * @param args argument varags.
    * @return return code
    * @throws Exception failure
@@ -438,49 +1276,79 @@ public class Bandwidth extends StoreEntryPoint {
     return ToolRunner.run(new Bandwidth(), args);
   }
 
+  /**
+   * Aggregate values of a phase across all streams.
+   */
+  private static final class PhaseSummary {
+
+    private final long bytes;
 
-  private interface BlockRead {
-    void readBlock(FSDataInputStream download, long pos, byte[] dataBuffer) throws IOException;
-  }
+    private final long durationMillis;
 
-  private static final class ReadBlockFully implements BlockRead {
+    /**
+     * Block latencies across all streams.
+     */
+    private final LatencyHistogram blocks;
 
-    @Override
-    public void readBlock(final FSDataInputStream download, final long pos, final byte[] dataBuffer)
-        throws IOException {
-      download.readFully(pos, dataBuffer);
+    /**
+     * Results of the streams.
+     */
+    private final List<BandwidthStream.Result> results;
+
+    /**
+     * Did the checksums of a download match those of the upload?
+     */
+    private boolean checksumsMatch = true;
+
+    private PhaseSummary(final long bytes, final long durationMillis,
+        final LatencyHistogram blocks, final List<BandwidthStream.Result> results) {
+      this.bytes = bytes;
+      this.durationMillis = durationMillis;
+      this.blocks = blocks;
+      this.results = results;
     }
-  }
 
-  private static final class ReadBlockByByte implements BlockRead {
-
-    @Override
-    public void readBlock(final FSDataInputStream download, final long pos, final byte[] dataBuffer)
-        throws IOException {
-      download.seek(pos);
-      int remaining = dataBuffer.length;
-      int index = 0;
-      while (remaining > 0) {
-        final int read = download.read();
-        if (read == -1) {
-          throw new EOFException("EOF exception reading block at offset " + index);
-        }
-        dataBuffer[index++] = (byte) read;
-        remaining--;
-      }
-      download.readFully(pos, dataBuffer);
+    private double aggregateBandwidth() {
+      return megabytesPerSecond(bytes, durationMillis);
     }
   }
 
-  private enum ReadMechanism {
-    Readfully("readfully"), Byteread("byte"), Buffer("buffer"), ByteBufferReadable(
-        "bytebufferreadable"), ByteBufferPositionedReadable(
-            "bytebufferpositionedreadable"), VectorIO("vectorio");
+  /**
+   * Outcome of a test with a number of streams.
+   */
+  private static final class StreamsOutcome {
+
+    private final int streams;
+
+    private final PhaseSummary upload;
+
+    @Nullable
+    private final PhaseSummary download;
 
-    String value;
+    private final boolean checksumsMatch;
 
-    ReadMechanism(String value) {
-      this.value = value;
+    private StreamsOutcome(final int streams, final PhaseSummary upload,
+        @Nullable final PhaseSummary download, final boolean checksumsMatch) {
+      this.streams = streams;
+      this.upload = upload;
+      this.download = download;
+      this.checksumsMatch = checksumsMatch;
+    }
+
+    private double totalBandwidth() {
+      return upload.aggregateBandwidth()
+          + (download != null ? download.aggregateBandwidth() : 0);
+    }
+
+    /**
+     * Relative gain in the combined upload and download bandwidth over a previous outcome.
+     *
+     * @param previous previous outcome
+     * @return the gain as a fraction.
+     */
+    private double gainOver(StreamsOutcome previous) {
+      final double before = previous.totalBandwidth();
+      return before > 0 ? (totalBandwidth() - before) / before : 1;
     }
   }
 }
@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.commands;
+
+import static org.apache.hadoop.fs.store.commands.Bandwidth.percentileName;
+import static org.apache.hadoop.fs.store.commands.Bandwidth.round3;
+import static org.apache.hadoop.fs.store.commands.BandwidthStream.megabytesPerSecond;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.statistics.IOStatisticsSnapshot;
+import org.apache.hadoop.fs.store.LatencyHistogram;
+import org.apache.hadoop.fs.store.StoreDurationInfo;
+import org.apache.hadoop.util.JsonSerialization;
+
+/**
+ * Machine-readable report of a bandwidth test, saved as JSON so that the results of many runs can
+ * be collected and compared.
+ *
+ * <p>
+ * The report contains the test parameters; every operation of the streams (create, block writes,
+ * close, rename, open, block reads), each with its count, bytes, total duration and latency
+ * percentiles; the aggregate bandwidth of each phase; the checksum verdict and the IOStatistics of
+ * the filesystem.
+ *
+ * <p>
+ * Operations are aggregated across streams by name. Their latencies are those of the
+ * {@link StoreDurationInfo} passed to the operation listener, so have millisecond resolution.
+ */
+final class BandwidthReport {
+
+  /**
+   * Version of the report format: {@value}.
+   */
+  static final int VERSION = 1;
+
+  /**
+   * Latency percentiles of every operation.
+   */
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+  /**
+   * Aggregate values of one operation.
+   */
+  private static final class Operation {
+
+    private long count;
+
+    private long bytes;
+
+    private long millis;
+
+    private final LatencyHistogram latencies;
+
+    private Operation(final String name) {
+      latencies = new LatencyHistogram(name);
+    }
+  }
+
+  private final Map<String, Object> parameters = new LinkedHashMap<>();
+
+  private final Map<String, Operation> operations = new LinkedHashMap<>();
+
+  private final List<Map<String, Object>> phases = new ArrayList<>();
+
+  private final Map<String, Object> sections = new LinkedHashMap<>();
+
+  private final String started = Instant.now().toString();
+
+  /**
+   * Add a test parameter.
+   *
+   * @param name name
+   * @param value value
+   */
+  synchronized void parameter(final String name, final Object value) {
+    parameters.put(name, value);
+  }
+
+  /**
+   * Operation listener: add an operation of a stream to the aggregate of all operations of the
+   * same name.
+   *
+   * @param stream stream index
+   * @param operation operation name
+   * @param iteration iteration for repeated operations
+   * @param opBytes bytes processed in operation
+   * @param totalBytes ongoing byte count
+   * @param duration duration
+   */
+  synchronized void completed(final int stream, final String operation, final int iteration,
+      final long opBytes, final long totalBytes, final StoreDurationInfo duration) {
+    final Operation op = operations.computeIfAbsent(operation, Operation::new);
+    op.count++;
+    op.bytes += opBytes;
+    op.millis += duration.value();
+    op.latencies.recordMillis(duration.value());
+  }
+
+  /**
+   * Add a phase: the upload, rename or download of the files of all streams.
+   *
+   * @param name phase name
+   * @param streams number of streams
+   * @param bytes bytes across all streams
+   * @param durationMillis duration of the whole phase
+   * @param blocks nullable latencies of the blocks of all streams
+   */
+  synchronized void phase(final String name, final int streams, final long bytes,
+      final long durationMillis, @Nullable final LatencyHistogram blocks) {
+    final Map<String, Object> phase = new LinkedHashMap<>();
+    phase.put("phase", name);
+    phase.put("streams", streams);
+    phase.put("bytes", bytes);
+    phase.put("duration millis", durationMillis);
+    phase.put("MB/s", round3(megabytesPerSecond(bytes, durationMillis)));
+    if (blocks != null) {
+      phase.put("blocks", latencies(blocks));
+    }
+    phases.add(phase);
+  }
+
+  /**
+   * Add a section of details of part of the test, such as the timeline of an upload.
+   *
+   * @param name section name
+   * @param value value; must be serializable as JSON
+   */
+  synchronized void section(final String name, final Object value) {
+    sections.put(name, value);
+  }
+
+  /**
+   * Latency statistics of a histogram in milliseconds.
+   *
+   * @param histogram histogram
+   * @return map of statistic to value
+   */
+  private static Map<String, Object> latencies(final LatencyHistogram histogram) {
+    final Map<String, Object> map = new LinkedHashMap<>();
+    map.put("samples", histogram.samples());
+    map.put("min ms", round3(histogram.min() / 1_000_000.0));
+    map.put("mean ms", round3(histogram.mean() / 1_000_000.0));
+    for (double p : PERCENTILES) {
+      map.put(String.format(Locale.ENGLISH, "p%s ms", percentileName(p)),
+          round3(histogram.percentileMillis(p)));
+    }
+    map.put("max ms", round3(histogram.max() / 1_000_000.0));
+    return map;
+  }
+
+  /**
+   * Save the report.
+   *
+   * @param fs filesystem of the report
+   * @param path path of the report
+   * @param exitCode exit code of the test; only a checksum mismatch fails a completed test
+   * @param ioStatistics IOStatistics of the filesystem under test
+   * @throws IOException failure to write
+   */
+  synchronized void save(final FileSystem fs, final Path path, final int exitCode,
+      final IOStatisticsSnapshot ioStatistics) throws IOException {
+    final Map<String, Object> report = new LinkedHashMap<>();
+    report.put("version", VERSION);
+    report.put("started", started);
+    report.put("finished", Instant.now().toString());
+    report.put("parameters", parameters);
+    final List<Map<String, Object>> ops = new ArrayList<>(operations.size());
+    for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+      final Operation op = entry.getValue();
+      final Map<String, Object> map = new LinkedHashMap<>();
+      map.put("operation", entry.getKey());
+      map.put("count", op.count);
+      map.put("bytes", op.bytes);
+      map.put("duration millis", op.millis);
+      map.put("latency", latencies(op.latencies));
+      ops.add(map);
+    }
+    report.put("operations", ops);
+    report.put("phases", phases);
+    report.putAll(sections);
+    report.put("checksums", exitCode == 0 ? "match" : "mismatch");
+    report.put("exit code", exitCode);
+    report.put("iostatistics", ioStatistics);
+    try (Writer writer = new OutputStreamWriter(
+        fs.createFile(path).recursive().overwrite(true).build(), StandardCharsets.UTF_8)) {
+      writer.write(JsonSerialization.writer().writeValueAsString(report));
+      writer.write("\n");
+    }
+  }
+}
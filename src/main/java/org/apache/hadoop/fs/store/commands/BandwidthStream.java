@@ -0,0 +1,496 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.commands;
+
+import static org.apache.hadoop.fs.statistics.IOStatisticsSupport.retrieveIOStatistics;
+import static org.apache.hadoop.fs.statistics.IOStatisticsSupport.snapshotIOStatistics;
+import static org.apache.hadoop.fs.store.commands.Bandwidth.BUFFER_SIZE;
+import static org.apache.hadoop.util.functional.FutureIO.awaitFuture;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FutureDataInputStreamBuilder;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.statistics.IOStatisticsSnapshot;
+import org.apache.hadoop.fs.store.LatencyHistogram;
+import org.apache.hadoop.fs.store.StoreDurationInfo;
+import org.apache.hadoop.fs.store.diag.Printout;
+import org.apache.hadoop.util.Progressable;
+
+/**
+ * A single stream of the bandwidth test: the upload of a file in blocks, and the download of it
+ * with a chosen read mechanism.
+ *
+ * <p>
+ * When a printout is supplied, the progress of every block is printed; this is only useful when
+ * there is a single stream.
+ *
+ * <p>
+ * The data uploaded is taken from a ring of distinct random buffers, block <i>i</i> of stream
+ * <i>s</i> being buffer <i>(s + i) mod n</i>, so consecutive blocks differ. The buffers are only
+ * read, so are shared across streams. Data is checksummed in a {@link ChecksumPipeline} rather than
+ * in the thread doing the IO; the <i>verified</i> duration of an operation includes the wait for
+ * that checksum to complete.
+ */
+final class BandwidthStream {
+
+  /**
+   * Callback on every operation, for CSV logging.
+   */
+  @FunctionalInterface
+  interface OperationListener {
+
+    /**
+     * An operation has completed.
+     *
+     * @param stream stream index
+     * @param operation operation name
+     * @param iteration iteration for repeated operations
+     * @param opBytes bytes processed in operation
+     * @param totalBytes ongoing byte count
+     * @param duration duration
+     * @throws IOException failure
+     */
+    void completed(int stream, String operation, int iteration, long opBytes, long totalBytes,
+        StoreDurationInfo duration) throws IOException;
+
+    /**
+     * A block has been written or read; called before {@link #completed} with the duration in
+     * nanoseconds, rather than milliseconds.
+     *
+     * @param stream stream index
+     * @param write true for a write, false for a read
+     * @param bytes bytes written or read
+     * @param nanos duration in nanoseconds
+     */
+    default void blockCompleted(int stream, boolean write, long bytes, long nanos) {
+    }
+  }
+
+  private final int index;
+
+  private final FileSystem fs;
+
+  private final Path path;
+
+  private final byte[][] ring;
+
+  private final int blockSize;
+
+  private final int blocks;
+
+  private final boolean flush;
+
+  private final boolean hflush;
+
+  @Nullable
+  private final Printout printout;
+
+  @Nullable
+  private final PrintStream out;
+
+  private final OperationListener listener;
+
+  /**
+   * Number of buffers a download can read into while earlier blocks are checksummed: {@value}.
+   */
+  static final int READ_BUFFERS = 3;
+
+  /**
+   * Create a stream.
+   *
+   * @param index stream index
+   * @param fs filesystem
+   * @param path path of the file to write and read
+   * @param ring ring of buffers to upload; their length is the block size
+   * @param blocks number of blocks
+   * @param flush flush after each block
+   * @param hflush hflush after each block
+   * @param printout nullable printout for progress messages
+   * @param out nullable stream for the durations of operations
+   * @param listener operation listener
+   */
+  BandwidthStream(final int index, final FileSystem fs, final Path path, final byte[][] ring,
+      final int blocks, final boolean flush, final boolean hflush,
+      @Nullable final Printout printout, @Nullable final PrintStream out,
+      final OperationListener listener) {
+    this.index = index;
+    this.fs = fs;
+    this.path = path;
+    this.ring = ring;
+    this.blockSize = ring[0].length;
+    this.blocks = blocks;
+    this.flush = flush;
+    this.hflush = hflush;
+    this.printout = printout;
+    this.out = out;
+    this.listener = listener;
+  }
+
+  int getIndex() {
+    return index;
+  }
+
+  Path getPath() {
+    return path;
+  }
+
+  long getFileSize() {
+    return (long) blocks * blockSize;
+  }
+
+  /**
+   * Create the checksum pipeline for an operation.
+   *
+   * @param buffers number of buffers to read into
+   * @return a new pipeline
+   */
+  private ChecksumPipeline newPipeline(final int buffers) {
+    return new ChecksumPipeline("bandwidth-checksum-" + index, blockSize, buffers);
+  }
+
+  /**
+   * Upload the file.
+   *
+   * @return the result
+   * @throws IOException IO failure
+   */
+  Result upload() throws IOException {
+    return upload(null);
+  }
+
+  /**
+   * Upload the file, optionally monitoring the output stream.
+   *
+   * @param monitor nullable monitor of the upload
+   * @return the result
+   * @throws IOException IO failure
+   */
+  Result upload(@Nullable final UploadMonitor monitor) throws IOException {
+    // progress callback counts #of invocations
+    final AtomicLong progressCount = new AtomicLong();
+    final Progressable progress = progressCount::incrementAndGet;
+
+    final StoreDurationInfo uploadDuration = new StoreDurationInfo();
+    final StoreDurationInfo verifiedDuration = new StoreDurationInfo();
+    FSDataOutputStream upload;
+    try (StoreDurationInfo d = new StoreDurationInfo(out, "Opening %s for upload", path)) {
+      upload = fs.createFile(path).progress(progress).recursive().bufferSize(BUFFER_SIZE)
+          .overwrite(true).build();
+      d.finished();
+      listener.completed(index, "create-file", 1, 0, 0, d);
+    }
+    final LatencyHistogram blockUploads = new LatencyHistogram("block write duration");
+    final StoreDurationInfo closeDuration;
+    final long progressInUpload;
+    final long checksum;
+    if (monitor != null) {
+      monitor.start(retrieveIOStatistics(upload));
+    }
+    try (ChecksumPipeline pipeline = newPipeline(0)) {
+      try {
+        long total = 0;
+        for (int i = 0; i < blocks; i++) {
+          final byte[] data = ring[(index + i) % ring.length];
+          StoreDurationInfo duration = new StoreDurationInfo();
+          final long started = System.nanoTime();
+          if (monitor != null) {
+            monitor.writeStarted();
+          }
+          upload.write(data);
+          if (flush) {
+            upload.flush();
+          }
+          if (hflush) {
+            upload.hflush();
+          }
+          final long nanos = System.nanoTime() - started;
+          blockUploads.record(nanos);
+          listener.blockCompleted(index, true, data.length, nanos);
+          if (monitor != null) {
+            monitor.writeFinished(data.length);
+          }
+          duration.finished();
+          pipeline.submit(data, false);
+          if (printout != null) {
+            printout.println("Write block %,d in %.3f seconds", i, duration.value() / 1000.0);
+          }
+          total += blockSize;
+          listener.completed(index, "upload-block", i + 1, blockSize, total, duration);
+        }
+
+        // close and so write all remaining data
+        progressInUpload = progressCount.get();
+        if (monitor != null) {
+          monitor.closeStarted();
+        }
+        closeDuration = new StoreDurationInfo(out, "upload stream close()");
+        try {
+          upload.close();
+        } finally {
+          closeDuration.close();
+        }
+        listener.completed(index, "close-upload", 1, 0, getFileSize(), closeDuration);
+      } finally {
+        // close() is a no-op if the stream is already closed
+        upload.close();
+        if (monitor != null) {
+          monitor.finish();
+        }
+      }
+      uploadDuration.finished();
+      checksum = pipeline.finish();
+      verifiedDuration.finished();
+    }
+    final long totalProgress = progressCount.get();
+    return new Result(index, "upload", null, getFileSize(), uploadDuration, verifiedDuration,
+        blockUploads, checksum, snapshotIOStatistics(retrieveIOStatistics(upload)), closeDuration,
+        totalProgress, totalProgress - progressInUpload);
+  }
+
+  /**
+   * Download the file with a specific read mechanism.
+   *
+   * @param source path to read; may differ from the upload path after a rename
+   * @param readPolicy read policy or {@link Bandwidth#NONE}
+   * @param mechanism read mechanism
+   * @param blockRead block reader
+   * @return the result or null if the mechanism is not supported by the stream
+   * @throws IOException IO failure
+   */
+  @Nullable
+  Result download(final Path source, final String readPolicy, final ReadMechanism mechanism,
+      final ReadMechanism.BlockRead blockRead) throws IOException {
+    final long fileSize = getFileSize();
+
+    final StoreDurationInfo downloadDuration = new StoreDurationInfo();
+    final StoreDurationInfo verifiedDuration = new StoreDurationInfo();
+    final FSDataInputStream download;
+    final StoreDurationInfo openDuration = new StoreDurationInfo(out, "open %s", source);
+    try {
+      final FutureDataInputStreamBuilder builder = fs.openFile(source);
+      if (!Bandwidth.NONE.equals(readPolicy)) {
+        builder.opt("fs.option.openfile.read.policy", readPolicy);
+      }
+      download = awaitFuture(
+          builder.opt("fs.option.openfile.length", Long.toString(fileSize)).build());
+    } finally {
+      openDuration.finished();
+      listener.completed(index, "open-for-download", 1, 0, 0, openDuration);
+    }
+    try {
+      final String capability = mechanism.getCapability();
+      if (capability != null && !download.hasCapability(capability)) {
+        if (printout != null) {
+          printout.warn("Stream does not support read mechanism %s: %s", mechanism,
+              download.getWrappedStream().getClass().getName());
+        }
+        return null;
+      }
+      final LatencyHistogram blockDownloads = new LatencyHistogram("block read duration");
+      final long checksum;
+      try (ChecksumPipeline pipeline = newPipeline(READ_BUFFERS)) {
+        long pos = 0;
+        for (int i = 0; i < blocks; i++) {
+          final byte[] buffer = pipeline.acquire();
+          StoreDurationInfo duration = new StoreDurationInfo();
+          final long started = System.nanoTime();
+          blockRead.readBlock(download, pos, buffer);
+          final long nanos = System.nanoTime() - started;
+          blockDownloads.record(nanos);
+          listener.blockCompleted(index, false, blockSize, nanos);
+          duration.finished();
+          pipeline.submit(buffer, true);
+          pos += blockSize;
+          if (printout != null) {
+            printout.println("Read block %,d in %.3f seconds", i, duration.value() / 1000.0);
+          }
+          listener.completed(index, "download-block (" + mechanism + ")", i + 1, blockSize, pos,
+              duration);
+        }
+        try (StoreDurationInfo d = new StoreDurationInfo(out, "Close download stream")) {
+          download.close();
+        }
+        downloadDuration.finished();
+        checksum = pipeline.finish();
+        verifiedDuration.finished();
+      }
+      return new Result(index, "download (" + mechanism + ")", mechanism, fileSize,
+          downloadDuration, verifiedDuration, blockDownloads, checksum,
+          snapshotIOStatistics(retrieveIOStatistics(download)), null, 0, 0);
+    } finally {
+      download.close();
+    }
+  }
+
+  /**
+   * Outcome of an upload or download.
+   */
+  static final class Result {
+
+    private final int stream;
+
+    private final String operation;
+
+    @Nullable
+    private final ReadMechanism mechanism;
+
+    private final long bytes;
+
+    private final StoreDurationInfo duration;
+
+    private final StoreDurationInfo verifiedDuration;
+
+    private final LatencyHistogram blocks;
+
+    private final long checksum;
+
+    private final IOStatisticsSnapshot ioStatistics;
+
+    @Nullable
+    private final StoreDurationInfo closeDuration;
+
+    private final long progress;
+
+    private final long progressInClose;
+
+    private Result(final int stream, final String operation,
+        @Nullable final ReadMechanism mechanism, final long bytes,
+        final StoreDurationInfo duration, final StoreDurationInfo verifiedDuration,
+        final LatencyHistogram blocks, final long checksum,
+        final IOStatisticsSnapshot ioStatistics, @Nullable final StoreDurationInfo closeDuration,
+        final long progress, final long progressInClose) {
+      this.stream = stream;
+      this.operation = operation;
+      this.mechanism = mechanism;
+      this.bytes = bytes;
+      this.duration = duration;
+      this.verifiedDuration = verifiedDuration;
+      this.blocks = blocks;
+      this.checksum = checksum;
+      this.ioStatistics = ioStatistics;
+      this.closeDuration = closeDuration;
+      this.progress = progress;
+      this.progressInClose = progressInClose;
+    }
+
+    int getStream() {
+      return stream;
+    }
+
+    String getOperation() {
+      return operation;
+    }
+
+    /**
+     * Read mechanism of a download.
+     *
+     * @return the mechanism, or null for an upload
+     */
+    @Nullable
+    ReadMechanism getMechanism() {
+      return mechanism;
+    }
+
+    long getBytes() {
+      return bytes;
+    }
+
+    StoreDurationInfo getDuration() {
+      return duration;
+    }
+
+    /**
+     * Duration until the checksum of all the data was calculated.
+     *
+     * @return the duration; never less than {@link #getDuration()}
+     */
+    StoreDurationInfo getVerifiedDuration() {
+      return verifiedDuration;
+    }
+
+    LatencyHistogram getBlocks() {
+      return blocks;
+    }
+
+    /**
+     * CRC32C checksum of the data.
+     *
+     * @return the checksum
+     */
+    long getChecksum() {
+      return checksum;
+    }
+
+    IOStatisticsSnapshot getIOStatistics() {
+      return ioStatistics;
+    }
+
+    /**
+     * Duration of the close() of an upload.
+     *
+     * @return the duration or null for a download.
+     */
+    @Nullable
+    StoreDurationInfo getCloseDuration() {
+      return closeDuration;
+    }
+
+    long getProgress() {
+      return progress;
+    }
+
+    long getProgressInClose() {
+      return progressInClose;
+    }
+
+    /**
+     * Bandwidth of this stream.
+     *
+     * @return the bandwidth in MB/s
+     */
+    double bandwidth() {
+      return megabytesPerSecond(bytes, duration.value());
+    }
+
+    /**
+     * Bandwidth of this stream including the wait for the data to be checksummed.
+     *
+     * @return the bandwidth in MB/s
+     */
+    double verifiedBandwidth() {
+      return megabytesPerSecond(bytes, verifiedDuration.value());
+    }
+  }
+
+  /**
+   * Calculate a bandwidth.
+   *
+   * @param bytes bytes transferred
+   * @param millis duration in milliseconds
+   * @return MB/s
+   */
+  static double megabytesPerSecond(long bytes, long millis) {
+    return bytes * 1000.0 / (Math.max(millis, 1) * (1024.0 * 1024));
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.commands;
+
+import static org.apache.hadoop.util.functional.FutureIO.awaitFuture;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Checksum;
+import org.apache.hadoop.util.DataChecksum;
+
+/**
+ * Checksum data in a thread of its own, so the thread writing or reading a stream only has to
+ * hand off each block.
+ *
+ * <p>
+ * Uploads submit their (immutable) source buffers. Downloads take a buffer from a small pool with
+ * {@link #acquire()}, read into it, and submit it to be returned to the pool once checksummed; a
+ * reader can so run ahead of the checksum by the size of the pool.
+ *
+ * <p>
+ * The checksum is CRC32C, which {@link DataChecksum} implements with the hardware accelerated JDK
+ * class on Java 9+.
+ */
+final class ChecksumPipeline implements Closeable {
+
+  /**
+   * Block of data to checksum; a null buffer marks the end of the data.
+   */
+  private static final class Block {
+
+    private final byte[] data;
+
+    private final boolean recycle;
+
+    private Block(final byte[] data, final boolean recycle) {
+      this.data = data;
+      this.recycle = recycle;
+    }
+  }
+
+  private static final Block END = new Block(null, false);
+
+  private final Checksum checksum =
+      DataChecksum.newDataChecksum(DataChecksum.Type.CRC32C, Bandwidth.BUFFER_SIZE);
+
+  private final BlockingQueue<Block> work = new LinkedBlockingQueue<>();
+
+  private final BlockingQueue<byte[]> free;
+
+  private final ExecutorService executor;
+
+  private final Future<Long> result;
+
+  /**
+   * Create the pipeline and start its thread.
+   *
+   * @param name thread name
+   * @param bufferSize size of the pooled buffers
+   * @param buffers number of pooled buffers; 0 if the data is never read into pooled buffers
+   */
+  ChecksumPipeline(final String name, final int bufferSize, final int buffers) {
+    free = new ArrayBlockingQueue<>(Math.max(buffers, 1));
+    for (int i = 0; i < buffers; i++) {
+      free.add(new byte[bufferSize]);
+    }
+    executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+        r -> {
+          Thread t = new Thread(r, name);
+          t.setDaemon(true);
+          return t;
+        });
+    result = executor.submit(this::process);
+  }
+
+  /**
+   * Checksum blocks until the end marker is reached.
+   *
+   * @return the checksum value
+   * @throws InterruptedException interrupted
+   */
+  private long process() throws InterruptedException {
+    while (true) {
+      final Block block = work.take();
+      if (block.data == null) {
+        return checksum.getValue();
+      }
+      checksum.update(block.data, 0, block.data.length);
+      if (block.recycle) {
+        free.put(block.data);
+      }
+    }
+  }
+
+  /**
+   * Take a buffer from the pool, blocking until one has been checksummed.
+   *
+   * @return a buffer
+   * @throws InterruptedIOException interrupted
+   */
+  byte[] acquire() throws InterruptedIOException {
+    try {
+      return free.take();
+    } catch (InterruptedException e) {
+      throw (InterruptedIOException) new InterruptedIOException(e.toString()).initCause(e);
+    }
+  }
+
+  /**
+   * Queue a block to be checksummed. It must not be modified until it is checksummed.
+   *
+   * @param data data
+   * @param recycle return the buffer to the pool afterwards?
+   */
+  void submit(final byte[] data, final boolean recycle) {
+    work.add(new Block(data, recycle));
+  }
+
+  /**
+   * Wait for all submitted blocks to be checksummed.
+   *
+   * @return the checksum value
+   * @throws IOException failure or interruption
+   */
+  long finish() throws IOException {
+    work.add(END);
+    return awaitFuture(result);
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.commands;
+
+import java.io.File;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Samples heap, direct memory and the size of local buffer directories, to find their peaks while
+ * an operation runs. Peaks are relative to the values when the sampler was created.
+ *
+ * <p>
+ * The heap value is the used heap, which includes garbage not yet collected; a garbage collection
+ * is requested before the baseline is taken.
+ */
+final class MemorySampler implements AutoCloseable {
+
+  private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+  @Nullable
+  private final BufferPoolMXBean directPool;
+
+  private final List<File> directories;
+
+  private final ScheduledExecutorService sampler;
+
+  private final long heapBaseline;
+
+  private final long directBaseline;
+
+  private final long diskBaseline;
+
+  private long heapPeak;
+
+  private long directPeak;
+
+  private long diskPeak;
+
+  /**
+   * Take the baseline and start sampling.
+   *
+   * @param directories local directories whose file sizes are to be sampled
+   * @param intervalMillis sample interval
+   */
+  MemorySampler(final List<File> directories, final long intervalMillis) {
+    this.directories = directories;
+    BufferPoolMXBean direct = null;
+    for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+      if ("direct".equals(pool.getName())) {
+        direct = pool;
+      }
+    }
+    directPool = direct;
+    System.gc();
+    heapBaseline = heap();
+    directBaseline = direct();
+    diskBaseline = disk();
+    heapPeak = heapBaseline;
+    directPeak = directBaseline;
+    diskPeak = diskBaseline;
+    sampler = new ScheduledThreadPoolExecutor(1, r -> {
+      Thread t = new Thread(r, "memory-sampler");
+      t.setDaemon(true);
+      return t;
+    });
+    sampler.scheduleAtFixedRate(this::sample, 0, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private long heap() {
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+
+  private long direct() {
+    return directPool != null ? directPool.getMemoryUsed() : 0;
+  }
+
+  /**
+   * Total size of the files under the directories.
+   *
+   * @return the size in bytes
+   */
+  private long disk() {
+    long size = 0;
+    final Deque<File> pending = new ArrayDeque<>(directories);
+    while (!pending.isEmpty()) {
+      final File[] files = pending.pop().listFiles();
+      if (files == null) {
+        continue;
+      }
+      for (File file : files) {
+        if (file.isDirectory()) {
+          pending.push(file);
+        } else {
+          // a file may be deleted between listing and probing; its length is then 0
+          size += file.length();
+        }
+      }
+    }
+    return size;
+  }
+
+  private synchronized void sample() {
+    heapPeak = Math.max(heapPeak, heap());
+    directPeak = Math.max(directPeak, direct());
+    diskPeak = Math.max(diskPeak, disk());
+  }
+
+  /**
+   * Peak heap use above the baseline.
+   *
+   * @return bytes
+   */
+  synchronized long getHeapPeak() {
+    return heapPeak - heapBaseline;
+  }
+
+  /**
+   * Peak direct buffer memory above the baseline.
+   *
+   * @return bytes
+   */
+  synchronized long getDirectPeak() {
+    return directPeak - directBaseline;
+  }
+
+  /**
+   * Peak size of the files in the directories above the baseline.
+   *
+   * @return bytes
+   */
+  synchronized long getDiskPeak() {
+    return diskPeak - diskBaseline;
+  }
+
+  /**
+   * Stop sampling after a final sample.
+   */
+  @Override
+  public void close() {
+    sampler.shutdownNow();
+    sample();
+  }
+}
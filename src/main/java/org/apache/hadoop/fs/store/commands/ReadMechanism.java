@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.commands;
+
+import static org.apache.hadoop.util.functional.FutureIO.awaitFuture;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileRange;
+import org.apache.hadoop.fs.StreamCapabilities;
+
+/**
+ * The read mechanisms which the bandwidth test can use to read a block of a file.
+ */
+enum ReadMechanism {
+  Readfully("readfully", null),
+  Byteread("byte", null),
+  Buffer("buffer", null),
+  ByteBufferReadable("bytebufferreadable", StreamCapabilities.READBYTEBUFFER),
+  ByteBufferPositionedReadable("bytebufferpositionedreadable",
+      StreamCapabilities.PREADBYTEBUFFER),
+  VectorIO("vectorio", null);
+
+  private final String value;
+
+  /**
+   * Stream capability which must be present; null for none.
+   */
+  private final String capability;
+
+  ReadMechanism(String value, String capability) {
+    this.value = value;
+    this.capability = capability;
+  }
+
+  /**
+   * Stream capability which must be present.
+   *
+   * @return a capability or null
+   */
+  String getCapability() {
+    return capability;
+  }
+
+  /**
+   * Create the block reader.
+   *
+   * @param rangeSize vector IO range size
+   * @param rangesPerCall vector IO ranges per call
+   * @return a block reader
+   */
+  BlockRead create(int rangeSize, int rangesPerCall) {
+    switch (this) {
+      case Byteread:
+        return new ReadBlockByByte();
+      case Buffer:
+        return new ReadBlockIntoBuffer();
+      case ByteBufferReadable:
+        return new ReadBlockByteBufferReadable();
+      case ByteBufferPositionedReadable:
+        return new ReadBlockByteBufferPositionedReadable();
+      case VectorIO:
+        return new ReadBlockVectored(rangeSize, rangesPerCall);
+      case Readfully:
+      default:
+        return new ReadBlockFully();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return value;
+  }
+
+  /**
+   * Parse a comma separated list of mechanisms.
+   *
+   * @param list list
+   * @return the mechanisms in order
+   * @throws IllegalArgumentException unknown mechanism
+   */
+  static List<ReadMechanism> parse(String list) {
+    List<ReadMechanism> mechanisms = new ArrayList<>();
+    for (String name : list.split(",")) {
+      final String n = name.trim().toLowerCase(Locale.ENGLISH);
+      if (n.isEmpty()) {
+        continue;
+      }
+      ReadMechanism mechanism = null;
+      for (ReadMechanism m : values()) {
+        if (m.value.equals(n)) {
+          mechanism = m;
+        }
+      }
+      if (mechanism == null) {
+        throw new IllegalArgumentException("Unknown read mechanism: " + name);
+      }
+      mechanisms.add(mechanism);
+    }
+    if (mechanisms.isEmpty()) {
+      throw new IllegalArgumentException("No read mechanism in \"" + list + "\"");
+    }
+    return mechanisms;
+  }
+
+  /**
+   * Read a block of data at a given position into a buffer.
+   */
+  interface BlockRead {
+    void readBlock(FSDataInputStream download, long pos, byte[] dataBuffer) throws IOException;
+  }
+
+  /**
+   * PositionedReadable.readFully().
+   */
+  private static final class ReadBlockFully implements BlockRead {
+
+    @Override
+    public void readBlock(final FSDataInputStream download, final long pos, final byte[] dataBuffer)
+        throws IOException {
+      download.readFully(pos, dataBuffer);
+    }
+  }
+
+  /**
+   * Seek then read() a byte at a time.
+   */
+  private static final class ReadBlockByByte implements BlockRead {
+
+    @Override
+    public void readBlock(final FSDataInputStream download, final long pos, final byte[] dataBuffer)
+        throws IOException {
+      download.seek(pos);
+      int remaining = dataBuffer.length;
+      int index = 0;
+      while (remaining > 0) {
+        final int read = download.read();
+        if (read == -1) {
+          throw new EOFException("EOF exception reading block at offset " + (pos + index));
+        }
+        dataBuffer[index++] = (byte) read;
+        remaining--;
+      }
+    }
+  }
+
+  /**
+   * Seek then read(byte[], offset, len) until the buffer is full, so handling short reads.
+   */
+  private static final class ReadBlockIntoBuffer implements BlockRead {
+
+    @Override
+    public void readBlock(final FSDataInputStream download, final long pos, final byte[] dataBuffer)
+        throws IOException {
+      download.seek(pos);
+      int index = 0;
+      while (index < dataBuffer.length) {
+        final int read = download.read(dataBuffer, index, dataBuffer.length - index);
+        if (read < 0) {
+          throw new EOFException("EOF exception reading block at offset " + (pos + index));
+        }
+        index += read;
+      }
+    }
+  }
+
+  /**
+   * Seek then ByteBufferReadable.read() until the buffer is full.
+   */
+  private static final class ReadBlockByteBufferReadable implements BlockRead {
+
+    @Override
+    public void readBlock(final FSDataInputStream download, final long pos, final byte[] dataBuffer)
+        throws IOException {
+      download.seek(pos);
+      final ByteBuffer buffer = ByteBuffer.wrap(dataBuffer);
+      while (buffer.hasRemaining()) {
+        if (download.read(buffer) < 0) {
+          throw new EOFException(
+              "EOF exception reading block at offset " + (pos + buffer.position()));
+        }
+      }
+    }
+  }
+
+  /**
+   * ByteBufferPositionedReadable.readFully().
+   */
+  private static final class ReadBlockByteBufferPositionedReadable implements BlockRead {
+
+    @Override
+    public void readBlock(final FSDataInputStream download, final long pos, final byte[] dataBuffer)
+        throws IOException {
+      download.readFully(pos, ByteBuffer.wrap(dataBuffer));
+    }
+  }
+
+  /**
+   * Vector IO: the block is split into ranges which are read in one or more readVectored() calls;
+   * each call is awaited before the next is issued.
+   */
+  private static final class ReadBlockVectored implements BlockRead {
+
+    private final int rangeSize;
+
+    private final int rangesPerCall;
+
+    private ReadBlockVectored(final int rangeSize, final int rangesPerCall) {
+      this.rangeSize = rangeSize;
+      this.rangesPerCall = rangesPerCall;
+    }
+
+    @Override
+    public void readBlock(final FSDataInputStream download, final long pos, final byte[] dataBuffer)
+        throws IOException {
+      int offset = 0;
+      while (offset < dataBuffer.length) {
+        final List<FileRange> ranges = new ArrayList<>();
+        while (offset < dataBuffer.length && (rangesPerCall <= 0 || ranges.size() < rangesPerCall)) {
+          final int len = Math.min(rangeSize, dataBuffer.length - offset);
+          ranges.add(FileRange.createFileRange(pos + offset, len));
+          offset += len;
+        }
+        download.readVectored(ranges, ByteBuffer::allocate);
+        for (FileRange range : ranges) {
+          final ByteBuffer data = awaitFuture(range.getData());
+          data.get(dataBuffer, (int) (range.getOffset() - pos), range.getLength());
+        }
+      }
+    }
+  }
+}
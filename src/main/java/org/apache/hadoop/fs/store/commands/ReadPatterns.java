@@ -0,0 +1,609 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.commands;
+
+import static org.apache.hadoop.fs.Options.OpenFileOptions.FS_OPTION_OPENFILE_LENGTH;
+import static org.apache.hadoop.fs.Options.OpenFileOptions.FS_OPTION_OPENFILE_READ_POLICY;
+import static org.apache.hadoop.fs.statistics.IOStatisticsLogging.ioStatisticsToPrettyString;
+import static org.apache.hadoop.fs.statistics.IOStatisticsSupport.retrieveIOStatistics;
+import static org.apache.hadoop.fs.statistics.IOStatisticsSupport.snapshotIOStatistics;
+import static org.apache.hadoop.fs.statistics.StoreStatisticNames.ACTION_HTTP_GET_REQUEST;
+import static org.apache.hadoop.fs.statistics.StreamStatisticNames.STREAM_READ_BYTES_DISCARDED_ABORT;
+import static org.apache.hadoop.fs.statistics.StreamStatisticNames.STREAM_READ_BYTES_DISCARDED_CLOSE;
+import static org.apache.hadoop.fs.statistics.StreamStatisticNames.STREAM_READ_SEEK_BYTES_DISCARDED;
+import static org.apache.hadoop.fs.statistics.StreamStatisticNames.STREAM_READ_VECTORED_READ_BYTES_DISCARDED;
+import static org.apache.hadoop.fs.store.CommonParameters.CSVFILE;
+import static org.apache.hadoop.fs.store.CommonParameters.STANDARD_OPTS;
+import static org.apache.hadoop.service.launcher.LauncherExitCodes.EXIT_COMMAND_ARGUMENT_ERROR;
+import static org.apache.hadoop.util.functional.FutureIO.awaitFuture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import javax.annotation.Nullable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.StorageUnit;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileRange;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.statistics.IOStatisticsSnapshot;
+import org.apache.hadoop.fs.store.LatencyHistogram;
+import org.apache.hadoop.fs.store.StoreDurationInfo;
+import org.apache.hadoop.fs.store.StoreEntryPoint;
+import org.apache.hadoop.fs.store.StoreUtils;
+import org.apache.hadoop.fs.store.diag.S3ADiagnosticsInfo;
+import org.apache.hadoop.fs.tools.csv.SimpleCsvWriter;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Replay the access patterns of columnar, random, sequential and vectored IO against a file, once
+ * for each read policy and, optionally, each S3A input stream type, and report the latency
+ * distribution of the reads, the effective throughput and the GET requests and bytes discarded by
+ * the stream.
+ */
+public class ReadPatterns extends StoreEntryPoint {
+
+  public static final String SIZE = "size";
+  public static final String KEEP = "keep";
+  public static final String PATTERN = "pattern";
+  public static final String POLICY = "policy";
+  public static final String READ_SIZE = "readsize";
+  public static final String READS = "reads";
+  public static final String STRIDE = "stride";
+  public static final String FOOTER = "footer";
+  public static final String SEED = "seed";
+  public static final String STREAM_TYPE = "streamtype";
+
+  /**
+   * Footer then column chunks, as a Parquet or ORC reader does: {@value}.
+   */
+  public static final String PATTERN_COLUMNS = "columns";
+
+  /**
+   * Uniform random reads: {@value}.
+   */
+  public static final String PATTERN_RANDOM = "random";
+
+  /**
+   * Reads at a fixed distance from each other: {@value}.
+   */
+  public static final String PATTERN_STRIDED = "strided";
+
+  /**
+   * The whole file, read in order through the stream: {@value}.
+   */
+  public static final String PATTERN_SEQUENTIAL = "sequential";
+
+  /**
+   * Random ranges which do not overlap, read in a single {@code readVectored()} call: {@value}.
+   */
+  public static final String PATTERN_VECTORED = "vectored";
+
+  public static final String ALL_PATTERNS = PATTERN_COLUMNS + "," + PATTERN_RANDOM + ","
+      + PATTERN_STRIDED + "," + PATTERN_SEQUENTIAL + "," + PATTERN_VECTORED;
+
+  public static final String DEFAULT_PATTERNS = ALL_PATTERNS;
+
+  /**
+   * Label of the stream type when it is not set on the command line: {@value}.
+   */
+  public static final String DEFAULT_STREAM_TYPE = "default";
+
+  /**
+   * Counters of the bytes read but then discarded by a stream.
+   */
+  private static final String[] DISCARDED_BYTES = {STREAM_READ_BYTES_DISCARDED_ABORT,
+      STREAM_READ_BYTES_DISCARDED_CLOSE, STREAM_READ_SEEK_BYTES_DISCARDED,
+      STREAM_READ_VECTORED_READ_BYTES_DISCARDED};
+
+  public static final String DEFAULT_POLICIES = "random,vector,sequential,whole-file";
+
+  public static final int DEFAULT_READ_SIZE_KB = 64;
+
+  public static final int DEFAULT_READS = 32;
+
+  public static final int DEFAULT_FOOTER_KB = 64;
+
+  /**
+   * Length of the tail of a Parquet file: footer length and magic number.
+   */
+  public static final int TAIL_LENGTH = 8;
+
+  public static final String USAGE = "Usage: readpatterns [options] <path>\n" + STANDARD_OPTS
+      + optusage(CSVFILE, "file", "CSV file to log the latency of every read")
+      + optusage(FOOTER, "size", "columns: footer size in KB")
+      + optusage(KEEP, "do not delete the file created with -" + SIZE)
+      + optusage(PATTERN, "patterns", "comma separated list of access patterns: "
+          + ALL_PATTERNS + "; default: " + DEFAULT_PATTERNS)
+      + optusage(POLICY, "policies", "comma separated list of read policies; default: "
+          + DEFAULT_POLICIES)
+      + optusage(READ_SIZE, "size", "size of each read in KB")
+      + optusage(READS, "count", "number of reads in each pattern")
+      + optusage(SEED, "seed", "random number seed")
+      + optusage(SIZE, "size", "create a test file of this size (e.g. 128m) first")
+      + optusage(STREAM_TYPE, "types", "s3a: comma separated list of input stream types to"
+          + " compare: classic, prefetching, analytics")
+      + optusage(STRIDE, "size", "strided: distance between the start of each read in KB;"
+          + " default: spread the reads across the file");
+
+  private static final int WRITE_BLOCK_SIZE = 1024 * 1024;
+
+  public ReadPatterns() {
+    createCommandFormat(1, 1, KEEP);
+    addValueOptions(CSVFILE, FOOTER, PATTERN, POLICY, READ_SIZE, READS, SEED, SIZE, STREAM_TYPE,
+        STRIDE);
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    List<String> argList = processArgs(args, 1, 1, USAGE);
+    final Configuration conf = createPreconfiguredConfig();
+    final Path path = new Path(argList.get(0));
+    final FileSystem fs = path.getFileSystem(conf);
+    final String size = getOption(SIZE);
+    final boolean keep = hasOption(KEEP);
+    final List<String> patterns = split(getOption(PATTERN, DEFAULT_PATTERNS));
+    final List<String> policies = split(getOption(POLICY, DEFAULT_POLICIES));
+    final String streamTypeOption = getOption(STREAM_TYPE);
+    final List<String> streamTypes = streamTypeOption != null
+        ? split(streamTypeOption)
+        : Collections.singletonList(DEFAULT_STREAM_TYPE);
+    final int readSize = getIntOption(READ_SIZE, DEFAULT_READ_SIZE_KB) * 1024;
+    final int reads = getIntOption(READS, DEFAULT_READS);
+    final int footerSize = getIntOption(FOOTER, DEFAULT_FOOTER_KB) * 1024;
+    final long stride = getLongOption(STRIDE, 0) * 1024;
+    final long seed = getLongOption(SEED, System.currentTimeMillis());
+    final String csvFile = getOption(CSVFILE);
+
+    if (readSize <= 0 || reads <= 0 || footerSize <= 0 || stride < 0) {
+      error("Invalid read size, count, footer or stride");
+      return EXIT_COMMAND_ARGUMENT_ERROR;
+    }
+    for (String pattern : patterns) {
+      if (!split(ALL_PATTERNS).contains(pattern)) {
+        error("Unknown access pattern %s", pattern);
+        return EXIT_COMMAND_ARGUMENT_ERROR;
+      }
+    }
+
+    heading("Read patterns against %s", path);
+    boolean created = false;
+    if (size != null) {
+      final long length = Math.round(StoreUtils.getDataSize(size, StorageUnit.BYTES));
+      createTestFile(fs, path, length);
+      created = true;
+    }
+    try {
+      final FileStatus status = fs.getFileStatus(path);
+      final long length = status.getLen();
+      if (length < footerSize + TAIL_LENGTH || length < readSize) {
+        error("File %s of length %,d is too short for the footer and reads", path, length);
+        return EXIT_COMMAND_ARGUMENT_ERROR;
+      }
+      println("File length %,d bytes; read size %,d bytes; reads per pattern %,d; seed %d",
+          length, readSize, reads, seed);
+
+      // the ranges of every pattern are generated once, so every stream type and policy replays
+      // the same reads
+      final Random random = new Random(seed);
+      final List<List<FileRange>> ranges = new ArrayList<>(patterns.size());
+      for (String pattern : patterns) {
+        ranges.add(ranges(pattern, random, length, readSize, reads, footerSize, stride));
+      }
+
+      SimpleCsvWriter csv = null;
+      Path csvPath = null;
+      if (csvFile != null) {
+        csvPath = new Path(csvFile);
+        csv = new SimpleCsvWriter(
+            csvPath.getFileSystem(conf).createFile(csvPath).recursive().overwrite(true).build(),
+            ",", "\n", true, true);
+        csv.columns("stream", "policy", "pattern", "read", "offset", "length", "latency/nanos");
+        csv.newline();
+      }
+      final List<PatternResult> results = new ArrayList<>();
+      try {
+        for (String streamType : streamTypes) {
+          // a filesystem instance of its own for each stream type
+          final FileSystem streamFs;
+          if (DEFAULT_STREAM_TYPE.equals(streamType)) {
+            streamFs = fs;
+          } else {
+            heading("Input stream type %s", streamType);
+            final Configuration streamConf = new Configuration(conf);
+            streamConf.set(S3ADiagnosticsInfo.INPUT_STREAM_TYPE, streamType);
+            try {
+              streamFs = FileSystem.newInstance(path.toUri(), streamConf);
+            } catch (IOException | RuntimeException e) {
+              // such as a stream type whose library is not on the classpath
+              warn("Cannot create a filesystem with stream type %s: %s", streamType, e);
+              continue;
+            }
+          }
+          try {
+            for (String policy : policies) {
+              heading("Read policy %s", policy);
+              for (int i = 0; i < patterns.size(); i++) {
+                final PatternResult result = replay(streamFs, status, streamType, policy,
+                    patterns.get(i), ranges.get(i), csv);
+                results.add(result);
+                printResult(result);
+              }
+            }
+          } finally {
+            if (streamFs != fs) {
+              streamFs.close();
+            }
+          }
+        }
+      } finally {
+        if (csv != null) {
+          csv.close();
+        }
+      }
+
+      heading("Summary");
+      println("%-12s %-12s %-12s %12s %12s %12s %8s %14s", "stream", "policy", "pattern", "MB/s",
+          "p50 ms", "p99 ms", "GETs", "discarded");
+      for (PatternResult r : results) {
+        println("%-12s %-12s %-12s %,12.3f %,12.3f %,12.3f %8s %14s", r.streamType, r.policy,
+            r.pattern, r.bandwidth(), r.latencies.percentileMillis(50),
+            r.latencies.percentileMillis(99),
+            r.getRequests < 0 ? "-" : Long.toString(r.getRequests),
+            r.discardedBytes < 0 ? "-" : String.format("%,d", r.discardedBytes));
+      }
+      println();
+      if (csvPath != null) {
+        println("Read latencies saved to %s", csvPath);
+      }
+    } finally {
+      if (created && !keep) {
+        fs.delete(path, false);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Print the result of a pattern.
+   *
+   * @param result result
+   */
+  private void printResult(final PatternResult result) {
+    println("%s: %,d reads of %,d bytes in %s; %,.3f MB/s; GET requests: %s;"
+            + " bytes discarded: %s", result.pattern, result.latencies.samples(), result.bytes,
+        StoreDurationInfo.humanTime(result.durationNanos / 1_000_000), result.bandwidth(),
+        result.getRequests < 0 ? "-" : result.getRequests,
+        result.discardedBytes < 0 ? "-" : String.format("%,d", result.discardedBytes));
+    println("  stream: %s; open: %.3f ms; latency (ms): min %.3f, p50 %.3f, p90 %.3f, p99 %.3f,"
+            + " max %.3f", result.streamClass, millis(result.openNanos),
+        millis(result.latencies.min()), result.latencies.percentileMillis(50),
+        result.latencies.percentileMillis(90), result.latencies.percentileMillis(99),
+        millis(result.latencies.max()));
+    printIfVerbose("  Stream statistics: %s", ioStatisticsToPrettyString(result.ioStatistics));
+  }
+
+  /**
+   * Create a test file of random data.
+   *
+   * @param fs filesystem
+   * @param path path
+   * @param length length of the file
+   * @throws IOException failure
+   */
+  private void createTestFile(final FileSystem fs, final Path path, final long length)
+      throws IOException {
+    final byte[] data = new byte[WRITE_BLOCK_SIZE];
+    new Random().nextBytes(data);
+    try (StoreDurationInfo d =
+        new StoreDurationInfo(getOut(), "Create %s of size %,d", path, length);
+        FSDataOutputStream out =
+            fs.createFile(path).recursive().overwrite(true).bufferSize(Bandwidth.BUFFER_SIZE)
+                .build()) {
+      long remaining = length;
+      while (remaining > 0) {
+        final int len = (int) Math.min(remaining, data.length);
+        out.write(data, 0, len);
+        remaining -= len;
+      }
+    }
+  }
+
+  /**
+   * Generate the ranges of an access pattern.
+   *
+   * @param pattern pattern name
+   * @param random random number source
+   * @param length file length
+   * @param readSize size of each read
+   * @param reads number of reads
+   * @param footerSize columns: footer size
+   * @param stride strided: distance between reads; 0 for an even spread
+   * @return the ranges in the order they are to be read.
+   */
+  static List<FileRange> ranges(final String pattern, final Random random, final long length,
+      final int readSize, final int reads, final int footerSize, final long stride) {
+    final List<FileRange> ranges = new ArrayList<>(reads + 2);
+    switch (pattern) {
+      case PATTERN_COLUMNS: {
+        // tail with the footer length, the footer, then column chunks of each row group in order
+        final long footerStart = length - TAIL_LENGTH - footerSize;
+        ranges.add(FileRange.createFileRange(length - TAIL_LENGTH, TAIL_LENGTH));
+        ranges.add(FileRange.createFileRange(footerStart, footerSize));
+        ranges.addAll(spread(random, footerStart, readSize, reads));
+        break;
+      }
+      case PATTERN_VECTORED:
+        ranges.addAll(spread(random, length, readSize, reads));
+        break;
+      case PATTERN_SEQUENTIAL:
+        for (long offset = 0; offset < length; offset += readSize) {
+          ranges.add(FileRange.createFileRange(offset, (int) Math.min(readSize, length - offset)));
+        }
+        break;
+      case PATTERN_RANDOM:
+        for (int i = 0; i < reads; i++) {
+          ranges.add(FileRange.createFileRange(nextLong(random, length - readSize + 1), readSize));
+        }
+        break;
+      case PATTERN_STRIDED: {
+        final long step = stride > 0 ? stride : Math.max(readSize, (length - readSize) / reads);
+        for (long offset = 0; ranges.size() < reads && offset + readSize <= length;
+            offset += step) {
+          ranges.add(FileRange.createFileRange(offset, readSize));
+        }
+        break;
+      }
+      default:
+        throw new IllegalArgumentException("Unknown access pattern " + pattern);
+    }
+    return ranges;
+  }
+
+  /**
+   * Ranges which do not overlap, one at a random offset in each of a number of equal slices of
+   * the start of a file.
+   *
+   * @param random random number source
+   * @param end end of the ranges
+   * @param readSize size of each range
+   * @param reads number of ranges
+   * @return the ranges in ascending order
+   */
+  private static List<FileRange> spread(final Random random, final long end, final int readSize,
+      final int reads) {
+    final long slice = end / reads;
+    final List<FileRange> ranges = new ArrayList<>(reads);
+    for (int i = 0; i < reads; i++) {
+      final int len = (int) Math.min(readSize, slice);
+      if (len > 0) {
+        final long slack = slice - len;
+        final long offset = i * slice + (slack > 0 ? nextLong(random, slack) : 0);
+        ranges.add(FileRange.createFileRange(offset, len));
+      }
+    }
+    ranges.sort(Comparator.comparingLong(FileRange::getOffset));
+    return ranges;
+  }
+
+  /**
+   * Random long in the range 0..bound-1.
+   *
+   * @param random random source
+   * @param bound upper bound, exclusive
+   * @return a value
+   */
+  private static long nextLong(Random random, long bound) {
+    return bound <= 1 ? 0 : (random.nextLong() & Long.MAX_VALUE) % bound;
+  }
+
+  /**
+   * Open the file with a read policy and replay the reads of a pattern.
+   * Sequential reads are made through the stream; vectored reads are a single
+   * {@code readVectored()} call, the latency of each range being the time from that call until
+   * the range is read, awaiting the ranges in order; all other reads are positioned.
+   *
+   * @param fs filesystem
+   * @param status file status
+   * @param streamType input stream type
+   * @param policy read policy
+   * @param pattern pattern name
+   * @param ranges ranges to read
+   * @param csv nullable CSV writer
+   * @return the result
+   * @throws IOException failure
+   */
+  private PatternResult replay(final FileSystem fs, final FileStatus status,
+      final String streamType, final String policy, final String pattern,
+      final List<FileRange> ranges, @Nullable final SimpleCsvWriter csv) throws IOException {
+    final LatencyHistogram latencies = new LatencyHistogram(pattern);
+    long bytes = 0;
+    final long started = System.nanoTime();
+    final FSDataInputStream in;
+    in = awaitFuture(fs.openFile(status.getPath()).withFileStatus(status)
+        .opt(FS_OPTION_OPENFILE_READ_POLICY, policy)
+        .opt(FS_OPTION_OPENFILE_LENGTH, Long.toString(status.getLen())).build());
+    final long openNanos = System.nanoTime() - started;
+    final String streamClass = in.getWrappedStream().getClass().getSimpleName();
+    try {
+      // the ranges of a vectored read are copied, as the read attaches its results to them
+      final List<FileRange> vectored = new ArrayList<>();
+      final long vectorStart = System.nanoTime();
+      if (PATTERN_VECTORED.equals(pattern)) {
+        for (FileRange range : ranges) {
+          vectored.add(FileRange.createFileRange(range.getOffset(), range.getLength()));
+        }
+        in.readVectored(vectored, ByteBuffer::allocate);
+      }
+      byte[] buffer = new byte[0];
+      for (int i = 0; i < ranges.size(); i++) {
+        final FileRange range = ranges.get(i);
+        if (buffer.length < range.getLength()) {
+          buffer = new byte[range.getLength()];
+        }
+        final long start = System.nanoTime();
+        final long latency;
+        switch (pattern) {
+          case PATTERN_VECTORED:
+            awaitFuture(vectored.get(i).getData());
+            latency = System.nanoTime() - vectorStart;
+            break;
+          case PATTERN_SEQUENTIAL:
+            in.readFully(buffer, 0, range.getLength());
+            latency = System.nanoTime() - start;
+            break;
+          default:
+            in.readFully(range.getOffset(), buffer, 0, range.getLength());
+            latency = System.nanoTime() - start;
+        }
+        latencies.record(latency);
+        bytes += range.getLength();
+        if (csv != null) {
+          csv.columns(streamType, policy, pattern);
+          csv.columnL(i).columnL(range.getOffset()).columnL(range.getLength())
+              .columnL(latency).newline();
+        }
+      }
+    } finally {
+      in.close();
+    }
+    final long durationNanos = System.nanoTime() - started;
+    final IOStatisticsSnapshot ioStatistics = snapshotIOStatistics(retrieveIOStatistics(in));
+    final Long gets = ioStatistics.counters().get(ACTION_HTTP_GET_REQUEST);
+    return new PatternResult(streamType, streamClass, policy, pattern, latencies, bytes,
+        openNanos, durationNanos, gets != null ? gets : -1, discardedBytes(ioStatistics),
+        ioStatistics);
+  }
+
+  /**
+   * Sum the counters of bytes read but discarded by a stream.
+   *
+   * @param ioStatistics stream statistics
+   * @return the bytes discarded or -1 if the stream does not publish any of the counters
+   */
+  private static long discardedBytes(final IOStatisticsSnapshot ioStatistics) {
+    long discarded = -1;
+    for (String counter : DISCARDED_BYTES) {
+      final Long value = ioStatistics.counters().get(counter);
+      if (value != null) {
+        discarded = Math.max(discarded, 0) + value;
+      }
+    }
+    return discarded;
+  }
+
+  /**
+   * Split a comma separated list into trimmed lower case values.
+   *
+   * @param list list
+   * @return the values
+   */
+  static List<String> split(String list) {
+    final List<String> values = new ArrayList<>();
+    for (String s : list.split(",")) {
+      final String v = s.trim().toLowerCase(Locale.ENGLISH);
+      if (!v.isEmpty()) {
+        values.add(v);
+      }
+    }
+    return values;
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1_000_000.0;
+  }
+
+  /**
+   * Execute the command, return the result or throw an exception, as appropriate.
+   *
+   * @param args argument varags.
+   * @return return code
+   * @throws Exception failure
+   */
+  public static int exec(String... args) throws Exception {
+    return ToolRunner.run(new ReadPatterns(), args);
+  }
+
+  /**
+   * Results of replaying a pattern with one policy.
+   */
+  private static final class PatternResult {
+
+    private final String streamType;
+
+    /**
+     * Class of the stream wrapped by the FSDataInputStream.
+     */
+    private final String streamClass;
+
+    private final String policy;
+
+    private final String pattern;
+
+    /**
+     * Latency of the reads.
+     */
+    private final LatencyHistogram latencies;
+
+    private final long bytes;
+
+    private final long openNanos;
+
+    private final long durationNanos;
+
+    private final long getRequests;
+
+    private final long discardedBytes;
+
+    private final IOStatisticsSnapshot ioStatistics;
+
+    private PatternResult(final String streamType, final String streamClass,
+        final String policy, final String pattern, final LatencyHistogram latencies, final long bytes,
+        final long openNanos, final long durationNanos, final long getRequests,
+        final long discardedBytes, final IOStatisticsSnapshot ioStatistics) {
+      this.streamType = streamType;
+      this.streamClass = streamClass;
+      this.policy = policy;
+      this.pattern = pattern;
+      this.latencies = latencies;
+      this.bytes = bytes;
+      this.openNanos = openNanos;
+      this.durationNanos = durationNanos;
+      this.getRequests = getRequests;
+      this.discardedBytes = discardedBytes;
+      this.ioStatistics = ioStatistics;
+    }
+
+    /**
+     * Effective bandwidth, including the time to open the file.
+     *
+     * @return MB/s
+     */
+    private double bandwidth() {
+      return BandwidthStream.megabytesPerSecond(bytes, Math.max(durationNanos / 1_000_000, 1));
+    }
+  }
+}
@@ -0,0 +1,356 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.commands;
+
+import static org.apache.hadoop.fs.statistics.IOStatisticsSupport.snapshotIOStatistics;
+import static org.apache.hadoop.fs.store.commands.BandwidthStream.megabytesPerSecond;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.annotation.Nullable;
+import org.apache.hadoop.fs.statistics.IOStatistics;
+import org.apache.hadoop.fs.store.LatencyHistogram;
+import org.apache.hadoop.fs.store.diag.Printout;
+
+/**
+ * Collects the block writes and reads of a soak test into fixed time windows, and at the end of
+ * every window prints and saves a sample: throughput, block latency percentiles, errors and the
+ * change in the throttling and retry counters of the filesystem.
+ *
+ * <p>
+ * A window is <i>degraded</i> if its throughput is below {@link #DEGRADED_FRACTION} of the peak
+ * throughput of any earlier window; {@link #SUSTAINED_WINDOWS} consecutive degraded windows are
+ * reported as sustained degradation.
+ */
+final class SoakMonitor implements Closeable {
+
+  /**
+   * Fraction of the peak throughput below which a window is degraded: {@value}.
+   */
+  static final double DEGRADED_FRACTION = 0.5;
+
+  /**
+   * Number of consecutive degraded windows which are reported as sustained degradation: {@value}.
+   */
+  static final int SUSTAINED_WINDOWS = 3;
+
+  /**
+   * Columns of the time series.
+   */
+  static final String[] COLUMNS = {"time", "elapsed/seconds", "write MB/s", "read MB/s",
+      "write p50 ms", "write p90 ms", "write p99 ms", "read p50 ms", "read p90 ms", "read p99 ms",
+      "errors", "throttled", "retries", "degraded"};
+
+  /**
+   * Accumulated values of one window.
+   */
+  private static final class Window {
+
+    private final long started = System.currentTimeMillis();
+
+    private final LongAdder written = new LongAdder();
+
+    private final LongAdder read = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LatencyHistogram writes = new LatencyHistogram("write");
+
+    private final LatencyHistogram reads = new LatencyHistogram("read");
+  }
+
+  private final Printout printout;
+
+  @Nullable
+  private final IOStatistics filesystemStatistics;
+
+  @Nullable
+  private final SweepResults output;
+
+  private final long intervalMillis;
+
+  private final long started = System.currentTimeMillis();
+
+  /**
+   * Guards the current window: blocks are recorded under the read lock, so that they are not
+   * lost in a window which has already been reported, and the window is ended under the write
+   * lock.
+   */
+  private final ReadWriteLock windowLock = new ReentrantReadWriteLock();
+
+  private Window window = new Window();
+
+  private final ScheduledExecutorService sampler;
+
+  private Map<String, Long> lastCounters;
+
+  private double peak;
+
+  private int consecutiveDegraded;
+
+  private int samples;
+
+  private int degradedWindows;
+
+  private long throttled;
+
+  private long retries;
+
+  private long errors;
+
+  private final List<String> degradations = new ArrayList<>();
+
+  /**
+   * Create the monitor and start sampling.
+   *
+   * @param printout printout
+   * @param filesystemStatistics nullable statistics of the filesystem
+   * @param output nullable output for the time series
+   * @param intervalMillis window interval
+   */
+  SoakMonitor(final Printout printout, @Nullable final IOStatistics filesystemStatistics,
+      @Nullable final SweepResults output, final long intervalMillis) {
+    this.printout = printout;
+    this.filesystemStatistics = filesystemStatistics;
+    this.output = output;
+    this.intervalMillis = intervalMillis;
+    lastCounters = counters();
+    printout.println("%-24s %10s %10s %10s %10s %6s %9s %7s", "time", "write MB/s", "read MB/s",
+        "write p99", "read p99", "errors", "throttled", "retries");
+    sampler = new ScheduledThreadPoolExecutor(1, r -> {
+      Thread t = new Thread(r, "bandwidth-soak-sampler");
+      t.setDaemon(true);
+      return t;
+    });
+    sampler.scheduleAtFixedRate(this::sampleQuietly, intervalMillis, intervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Record a block write or read.
+   *
+   * @param write true for a write, false for a read
+   * @param bytes bytes written or read
+   * @param nanos duration in nanoseconds
+   */
+  void blockCompleted(final boolean write, final long bytes, final long nanos) {
+    windowLock.readLock().lock();
+    try {
+      if (write) {
+        window.written.add(bytes);
+        window.writes.record(nanos);
+      } else {
+        window.read.add(bytes);
+        window.reads.record(nanos);
+      }
+    } finally {
+      windowLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Record a failure of an upload or download.
+   */
+  void failed() {
+    windowLock.readLock().lock();
+    try {
+      window.errors.increment();
+    } finally {
+      windowLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Get the throttling and retry counters of the filesystem.
+   *
+   * @return map of counter name to value; empty if there are no statistics
+   */
+  private Map<String, Long> counters() {
+    if (filesystemStatistics == null) {
+      return Collections.emptyMap();
+    }
+    final Map<String, Long> counters = new LinkedHashMap<>();
+    snapshotIOStatistics(filesystemStatistics).counters().forEach((k, v) -> {
+      final String key = k.toLowerCase(Locale.ENGLISH);
+      if (key.contains("throttl") || key.contains("retr")) {
+        counters.put(k, v);
+      }
+    });
+    return counters;
+  }
+
+  /**
+   * Sum the increase in the counters whose names contain a string.
+   *
+   * @param now current counters
+   * @param match substring to match
+   * @return the increase
+   */
+  private long delta(final Map<String, Long> now, final String match) {
+    long delta = 0;
+    for (Map.Entry<String, Long> entry : now.entrySet()) {
+      final String key = entry.getKey().toLowerCase(Locale.ENGLISH);
+      if (key.contains(match) && !key.endsWith(".failures")) {
+        delta += entry.getValue() - lastCounters.getOrDefault(entry.getKey(), 0L);
+      }
+    }
+    return delta;
+  }
+
+  private void sampleQuietly() {
+    try {
+      sample();
+    } catch (IOException | RuntimeException e) {
+      printout.warn("Failed to record sample: %s", e);
+    }
+  }
+
+  /**
+   * End the current window and report it.
+   *
+   * @throws IOException failure to save the sample
+   */
+  private synchronized void sample() throws IOException {
+    sample(0);
+  }
+
+  /**
+   * End the current window and report it, unless it is shorter than a minimum duration.
+   *
+   * @param minimumMillis minimum duration of the window
+   * @throws IOException failure to save the sample
+   */
+  private synchronized void sample(final long minimumMillis) throws IOException {
+    final long now = System.currentTimeMillis();
+    final Window w;
+    windowLock.writeLock().lock();
+    try {
+      w = window;
+      window = new Window();
+    } finally {
+      windowLock.writeLock().unlock();
+    }
+    final long millis = now - w.started;
+    if (millis <= 0 || millis < minimumMillis) {
+      return;
+    }
+    final Map<String, Long> counters = counters();
+    final long windowThrottled = delta(counters, "throttl");
+    final long windowRetries = delta(counters, "retr");
+    lastCounters = counters;
+    final long windowErrors = w.errors.sum();
+    final double writeRate = megabytesPerSecond(w.written.sum(), millis);
+    final double readRate = megabytesPerSecond(w.read.sum(), millis);
+    final double throughput = writeRate + readRate;
+
+    // degradation relative to the peak of earlier windows
+    final boolean degraded = samples > 0 && throughput < peak * DEGRADED_FRACTION;
+    peak = Math.max(peak, throughput);
+    samples++;
+    throttled += windowThrottled;
+    retries += windowRetries;
+    errors += windowErrors;
+    if (degraded) {
+      degradedWindows++;
+      consecutiveDegraded++;
+      if (consecutiveDegraded == SUSTAINED_WINDOWS) {
+        final Instant since = Instant.ofEpochMilli(now - SUSTAINED_WINDOWS * intervalMillis);
+        final String message = String.format(Locale.ENGLISH,
+            "Sustained degradation since %s: %.3f MB/s against a peak of %.3f MB/s;"
+                + " throttled %d, retries %d in the last window",
+            since, throughput, peak, windowThrottled, windowRetries);
+        degradations.add(message);
+        printout.warn("%s", message);
+      }
+    } else {
+      consecutiveDegraded = 0;
+    }
+
+    final Instant time = Instant.ofEpochMilli(now);
+    printout.println("%-24s %,10.3f %,10.3f %10.3f %10.3f %6d %9d %7d%s", time, writeRate,
+        readRate, w.writes.percentileMillis(99), w.reads.percentileMillis(99), windowErrors,
+        windowThrottled, windowRetries, degraded ? " degraded" : "");
+    if (output != null) {
+      final Map<String, Object> row = new LinkedHashMap<>();
+      row.put("time", time.toString());
+      row.put("elapsed/seconds", (now - started) / 1000);
+      row.put("write MB/s", round3(writeRate));
+      row.put("read MB/s", round3(readRate));
+      row.put("write p50 ms", round3(w.writes.percentileMillis(50)));
+      row.put("write p90 ms", round3(w.writes.percentileMillis(90)));
+      row.put("write p99 ms", round3(w.writes.percentileMillis(99)));
+      row.put("read p50 ms", round3(w.reads.percentileMillis(50)));
+      row.put("read p90 ms", round3(w.reads.percentileMillis(90)));
+      row.put("read p99 ms", round3(w.reads.percentileMillis(99)));
+      row.put("errors", windowErrors);
+      row.put("throttled", windowThrottled);
+      row.put("retries", windowRetries);
+      row.put("degraded", degraded ? 1 : 0);
+      output.add(row);
+    }
+  }
+
+  private static double round3(double d) {
+    return Math.round(d * 1000) / 1000.0;
+  }
+
+  /**
+   * Did any window show sustained degradation?
+   *
+   * @return true if degradation was detected
+   */
+  boolean isDegraded() {
+    return !degradations.isEmpty();
+  }
+
+  /**
+   * Stop sampling, report the final window and print a summary.
+   *
+   * @throws IOException failure to save the sample
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    sampler.shutdownNow();
+    // a short final window would give a misleading throughput, so is dropped
+    sample(intervalMillis / 2);
+    printout.heading("Soak test summary");
+    printout.println("Windows: %,d; degraded windows: %,d; peak throughput %,.3f MB/s", samples,
+        degradedWindows, peak);
+    printout.println("Errors: %,d; throttled: %,d; retries: %,d", errors, throttled, retries);
+    if (degradations.isEmpty()) {
+      printout.println("No sustained degradation detected");
+    } else {
+      for (String degradation : degradations) {
+        printout.warn("%s", degradation);
+      }
+    }
+  }
+}
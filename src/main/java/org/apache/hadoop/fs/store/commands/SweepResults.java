@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.commands;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.tools.csv.SimpleCsvWriter;
+import org.apache.hadoop.util.JsonSerialization;
+
+/**
+ * Results of a parameter sweep or soak test: one row per combination or time window, written as
+ * CSV or, if the filename ends in {@code .json}, a JSON array of objects.
+ *
+ * <p>
+ * CSV rows are written and flushed as they are added. Only where the destination filesystem
+ * supports flush, such as the local filesystem or HDFS, do the rows of a run which fails part way
+ * through survive; an object store such as S3A, or ABFS without flush enabled, saves nothing
+ * until {@link #close()}. JSON is written on {@link #close()}.
+ */
+final class SweepResults implements Closeable {
+
+  private final Path path;
+
+  private final Writer writer;
+
+  private final boolean json;
+
+  private final String[] columns;
+
+  private final List<Map<String, Object>> rows = new ArrayList<>();
+
+  private SimpleCsvWriter csv;
+
+  /**
+   * Create the output file.
+   *
+   * @param fs filesystem
+   * @param path path of the file
+   * @param columns column names, in order
+   * @throws IOException failure to create the file
+   */
+  SweepResults(final FileSystem fs, final Path path, final String... columns) throws IOException {
+    this.path = path;
+    this.columns = columns.clone();
+    json = path.getName().endsWith(".json");
+    writer = new BufferedWriter(new OutputStreamWriter(
+        fs.createFile(path).recursive().overwrite(true).build(), StandardCharsets.UTF_8));
+    if (!json) {
+      csv = new SimpleCsvWriter(writer, ",", "\n", true, true);
+      csv.columns((Object[]) this.columns);
+      csv.newline();
+    }
+  }
+
+  Path getPath() {
+    return path;
+  }
+
+  /**
+   * Add a row.
+   *
+   * @param row map of column to value; missing columns are empty
+   * @throws IOException failure to write
+   */
+  void add(final Map<String, Object> row) throws IOException {
+    if (json) {
+      rows.add(row);
+    } else {
+      for (String column : columns) {
+        final Object value = row.get(column);
+        csv.column(value != null ? value : "");
+      }
+      csv.newline();
+      csv.flush();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (json) {
+      try {
+        writer.write(JsonSerialization.writer().writeValueAsString(rows));
+        writer.write("\n");
+      } finally {
+        writer.close();
+      }
+    } else {
+      csv.close();
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.commands;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Specification of a bandwidth parameter sweep, such as
+ * {@code block=1,8,32;policy=sequential,random;streams=1,4,16}.
+ *
+ * <p>
+ * Each dimension has a list of values; the sweep is the Cartesian product of them all. Dimensions
+ * which are not in the specification take the single value set on the command line.
+ */
+final class SweepSpec {
+
+  /**
+   * Block size in MB.
+   */
+  static final String BLOCK = "block";
+
+  /**
+   * Number of distinct random buffers.
+   */
+  static final String BUFFERS = "buffers";
+
+  /**
+   * Read policy.
+   */
+  static final String POLICY = "policy";
+
+  /**
+   * Read mechanism.
+   */
+  static final String READ = "read";
+
+  /**
+   * Number of parallel streams.
+   */
+  static final String STREAMS = "streams";
+
+  /**
+   * All dimensions, in the order in which they are iterated: the upload options first, so an
+   * upload is reused for all the read options.
+   */
+  static final String[] DIMENSIONS = {BLOCK, BUFFERS, STREAMS, POLICY, READ};
+
+  private final Map<String, List<String>> dimensions;
+
+  private SweepSpec(final Map<String, List<String>> dimensions) {
+    this.dimensions = dimensions;
+  }
+
+  /**
+   * Parse a specification.
+   *
+   * @param spec specification string
+   * @return the parsed specification
+   * @throws IllegalArgumentException if the specification is invalid
+   */
+  static SweepSpec parse(final String spec) {
+    final Map<String, List<String>> dimensions = new LinkedHashMap<>();
+    for (String entry : spec.split(";")) {
+      final String e = entry.trim();
+      if (e.isEmpty()) {
+        continue;
+      }
+      final int eq = e.indexOf('=');
+      if (eq <= 0) {
+        throw new IllegalArgumentException("Invalid sweep entry \"" + e + "\": expected name=values");
+      }
+      final String name = e.substring(0, eq).trim().toLowerCase(Locale.ENGLISH);
+      boolean known = false;
+      for (String d : DIMENSIONS) {
+        known |= d.equals(name);
+      }
+      if (!known) {
+        throw new IllegalArgumentException("Unknown sweep dimension \"" + name + "\"; valid: "
+            + String.join(", ", DIMENSIONS));
+      }
+      if (dimensions.containsKey(name)) {
+        throw new IllegalArgumentException("Duplicate sweep dimension \"" + name + "\"");
+      }
+      final List<String> values = new ArrayList<>();
+      for (String v : e.substring(eq + 1).split(",")) {
+        final String value = v.trim().toLowerCase(Locale.ENGLISH);
+        if (!value.isEmpty()) {
+          values.add(value);
+        }
+      }
+      if (values.isEmpty()) {
+        throw new IllegalArgumentException("No values for sweep dimension \"" + name + "\"");
+      }
+      dimensions.put(name, values);
+    }
+    if (dimensions.isEmpty()) {
+      throw new IllegalArgumentException("Empty sweep specification");
+    }
+    return new SweepSpec(dimensions);
+  }
+
+  /**
+   * Get the values of a dimension.
+   *
+   * @param name dimension
+   * @param defval value if the dimension is not in the specification
+   * @return the values
+   */
+  List<String> values(final String name, final String defval) {
+    return dimensions.getOrDefault(name, Collections.singletonList(defval));
+  }
+
+  /**
+   * Get the integer values of a dimension.
+   *
+   * @param name dimension
+   * @param defval value if the dimension is not in the specification
+   * @return the values
+   * @throws IllegalArgumentException if a value is not a positive integer
+   */
+  List<Integer> intValues(final String name, final int defval) {
+    final List<Integer> values = new ArrayList<>();
+    for (String v : values(name, Integer.toString(defval))) {
+      final int i;
+      try {
+        i = Integer.parseInt(v);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid value for " + name + ": " + v);
+      }
+      if (i <= 0) {
+        throw new IllegalArgumentException("Invalid value for " + name + ": " + v);
+      }
+      values.add(i);
+    }
+    return values;
+  }
+
+  /**
+   * Number of combinations in the sweep.
+   *
+   * @return the product of the number of values of all dimensions
+   */
+  int combinations() {
+    int n = 1;
+    for (List<String> values : dimensions.values()) {
+      n *= values.size();
+    }
+    return n;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, List<String>> entry : dimensions.entrySet()) {
+      if (sb.length() > 0) {
+        sb.append(';');
+      }
+      sb.append(entry.getKey()).append('=').append(String.join(",", entry.getValue()));
+    }
+    return sb.toString();
+  }
+}
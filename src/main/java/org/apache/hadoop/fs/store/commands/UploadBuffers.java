@@ -0,0 +1,302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.commands;
+
+import static org.apache.hadoop.fs.store.CommonParameters.BLOCK;
+import static org.apache.hadoop.fs.store.CommonParameters.STANDARD_OPTS;
+import static org.apache.hadoop.fs.store.StoreUtils.await;
+import static org.apache.hadoop.fs.store.commands.Bandwidth.round3;
+import static org.apache.hadoop.fs.store.commands.BandwidthStream.megabytesPerSecond;
+import static org.apache.hadoop.fs.store.commands.ReadPatterns.split;
+import static org.apache.hadoop.service.launcher.LauncherExitCodes.EXIT_COMMAND_ARGUMENT_ERROR;
+import static org.apache.hadoop.service.launcher.LauncherExitCodes.EXIT_SUCCESS;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.StorageUnit;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.store.StoreDurationInfo;
+import org.apache.hadoop.fs.store.StoreEntryPoint;
+import org.apache.hadoop.fs.store.StoreUtils;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Upload benchmark of the S3A block output stream: every combination of buffer type, multipart
+ * block size and active block count, reporting throughput, close() latency and the peak heap,
+ * direct memory and local disk used for buffering.
+ *
+ * <p>
+ * Each combination uploads the same data through the upload phase of {@link Bandwidth}, using a
+ * filesystem instance of its own created with the options of the combination.
+ */
+public class UploadBuffers extends StoreEntryPoint {
+
+  public static final String ACTIVE = "active";
+  public static final String BUFFER = "buffer";
+  public static final String KEEP = "keep";
+  public static final String MULTIPART = "multipart";
+  public static final String RESULTS = "results";
+  public static final String STREAMS = "streams";
+
+  /**
+   * Buffer type of the S3A output stream: {@value}.
+   */
+  public static final String FAST_UPLOAD_BUFFER = "fs.s3a.fast.upload.buffer";
+
+  /**
+   * Multipart block size: {@value}.
+   */
+  public static final String MULTIPART_SIZE = "fs.s3a.multipart.size";
+
+  /**
+   * Local directories for disk buffering: {@value}.
+   */
+  public static final String BUFFER_DIR = "fs.s3a.buffer.dir";
+
+  public static final String DEFAULT_BUFFERS = "disk,array,bytebuffer";
+
+  public static final String DEFAULT_MULTIPART = "64m";
+
+  public static final String DEFAULT_ACTIVE = "4";
+
+  /**
+   * Interval between memory and disk samples in milliseconds: {@value}.
+   */
+  public static final int SAMPLE_INTERVAL_MILLIS = 50;
+
+  /**
+   * Columns of the results.
+   */
+  static final String[] COLUMNS = {BUFFER, MULTIPART, ACTIVE, STREAMS, "bytes", "MB/s",
+      "close mean ms", "close max ms", "heap peak MB", "direct peak MB", "disk peak MB"};
+
+  public static final String USAGE = "Usage: uploadbuffers [options] size <path>\n"
+      + STANDARD_OPTS
+      + optusage(ACTIVE, "counts",
+          "comma separated list of values of " + UploadMonitor.ACTIVE_BLOCKS + "; default: "
+              + DEFAULT_ACTIVE)
+      + optusage(BLOCK, "size", "size of each write in megabytes")
+      + optusage(BUFFER, "types",
+          "comma separated list of values of " + FAST_UPLOAD_BUFFER + "; default: "
+              + DEFAULT_BUFFERS)
+      + optusage(KEEP, "do not delete the files")
+      + optusage(MULTIPART, "sizes",
+          "comma separated list of values of " + MULTIPART_SIZE + "; default: "
+              + DEFAULT_MULTIPART)
+      + optusage(RESULTS, "file", "file for the results; CSV unless the name ends in .json")
+      + optusage(STREAMS, "count", "number of files to upload in parallel");
+
+  public UploadBuffers() {
+    createCommandFormat(2, 2, KEEP);
+    addValueOptions(ACTIVE, BLOCK, BUFFER, MULTIPART, RESULTS, STREAMS);
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    List<String> argList = processArgs(args, 2, 2, USAGE);
+    final List<String> buffers = split(getOption(BUFFER, DEFAULT_BUFFERS));
+    final List<String> multipartSizes = split(getOption(MULTIPART, DEFAULT_MULTIPART));
+    final List<String> activeBlocks = split(getOption(ACTIVE, DEFAULT_ACTIVE));
+    final int streams = getIntOption(STREAMS, 1);
+    final int blockSizeMB = getIntOption(BLOCK, Bandwidth.UPLOAD_BUFFER_SIZE_MB);
+    final boolean keep = hasOption(KEEP);
+    final String resultsFile = getOption(RESULTS);
+    final long sizeMB = Math.round(StoreUtils.getDataSize(argList.get(0), StorageUnit.MB));
+    final Path basePath = new Path(argList.get(1));
+
+    if (streams <= 0 || blockSizeMB <= 0 || sizeMB < blockSizeMB) {
+      error("Invalid number of streams, block size or upload size");
+      return EXIT_COMMAND_ARGUMENT_ERROR;
+    }
+    for (String active : activeBlocks) {
+      try {
+        if (Integer.parseInt(active) <= 0) {
+          throw new NumberFormatException(active);
+        }
+      } catch (NumberFormatException e) {
+        error("Invalid active block count %s", active);
+        return EXIT_COMMAND_ARGUMENT_ERROR;
+      }
+    }
+
+    final Configuration conf = createPreconfiguredConfig();
+    final int blockSize = blockSizeMB * MB_1;
+    final int blocks = (int) (sizeMB / blockSizeMB);
+    final long fileSize = (long) blocks * blockSize;
+    heading("Upload buffer benchmark against %s: %,d streams each writing %,d blocks of %,d MB",
+        basePath, streams, blocks, blockSizeMB);
+    println("Combinations: %,d", buffers.size() * multipartSizes.size() * activeBlocks.size());
+    final String scheme = basePath.getFileSystem(conf).getUri().getScheme();
+    if (!"s3a".equals(scheme)) {
+      warn("The options of this benchmark are those of s3a; %s ignores them", scheme);
+    }
+
+    // the same ring of random data for every combination
+    final byte[][] ring = new byte[Math.min(Bandwidth.DEFAULT_BUFFERS, blocks)][blockSize];
+    final Random random = new Random();
+    for (byte[] buffer : ring) {
+      random.nextBytes(buffer);
+    }
+
+    final ExecutorService pool = new ThreadPoolExecutor(streams, streams, 0L,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+    final SweepResults results = resultsFile != null
+        ? new SweepResults(new Path(resultsFile).getFileSystem(conf), new Path(resultsFile),
+            COLUMNS)
+        : null;
+    final List<Map<String, Object>> rows = new ArrayList<>();
+    try {
+      for (String buffer : buffers) {
+        for (String multipart : multipartSizes) {
+          for (String active : activeBlocks) {
+            heading("%s=%s; %s=%s; %s=%s", FAST_UPLOAD_BUFFER, buffer, MULTIPART_SIZE,
+                multipart, UploadMonitor.ACTIVE_BLOCKS, active);
+            final Configuration c = new Configuration(conf);
+            c.set(FAST_UPLOAD_BUFFER, buffer);
+            c.set(MULTIPART_SIZE, multipart);
+            c.set(UploadMonitor.ACTIVE_BLOCKS, active);
+            final Map<String, Object> row = new LinkedHashMap<>();
+            row.put(BUFFER, buffer);
+            row.put(MULTIPART, multipart);
+            row.put(ACTIVE, Integer.parseInt(active));
+            row.put(STREAMS, streams);
+            row.put("bytes", fileSize * streams);
+            upload(pool, c, basePath, ring, blocks, streams, keep, row);
+            rows.add(row);
+            if (results != null) {
+              results.add(row);
+            }
+          }
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+      if (results != null) {
+        results.close();
+      }
+    }
+
+    heading("Results");
+    println("%-12s %10s %7s %12s %14s %14s %14s %14s %14s", BUFFER, MULTIPART, ACTIVE, "MB/s",
+        "close mean ms", "close max ms", "heap peak MB", "direct peak MB", "disk peak MB");
+    for (Map<String, Object> row : rows) {
+      println("%-12s %10s %7s %12s %14s %14s %14s %14s %14s", row.get(BUFFER),
+          row.get(MULTIPART), row.get(ACTIVE), row.get("MB/s"), row.get("close mean ms"),
+          row.get("close max ms"), row.get("heap peak MB"), row.get("direct peak MB"),
+          row.get("disk peak MB"));
+    }
+    println();
+    if (results != null) {
+      println("Results saved to %s", results.getPath());
+    }
+    return EXIT_SUCCESS;
+  }
+
+  /**
+   * Upload a file in each stream through a new filesystem instance, sampling memory and disk use.
+   *
+   * @param pool thread pool
+   * @param conf configuration with the options of the combination
+   * @param basePath base path; each stream appends its index
+   * @param ring ring of random data
+   * @param blocks number of blocks per file
+   * @param streams number of streams
+   * @param keep keep the files?
+   * @param row row to add the results to
+   * @throws Exception failure
+   */
+  private void upload(final ExecutorService pool, final Configuration conf, final Path basePath,
+      final byte[][] ring, final int blocks, final int streams, final boolean keep,
+      final Map<String, Object> row) throws Exception {
+    final List<File> bufferDirs = new ArrayList<>();
+    for (String dir : conf.getTrimmedStrings(BUFFER_DIR,
+        conf.get("hadoop.tmp.dir") + "/s3a")) {
+      bufferDirs.add(new File(dir));
+    }
+    try (FileSystem fs = FileSystem.newInstance(basePath.toUri(), conf)) {
+      final List<BandwidthStream> uploads = new ArrayList<>(streams);
+      for (int i = 0; i < streams; i++) {
+        final Path path = new Path(basePath.getParent(), basePath.getName() + "-" + i);
+        uploads.add(new BandwidthStream(i, fs, path, ring, blocks, false, false, null, null,
+            (s, op, iteration, opBytes, total, d) -> { }));
+      }
+      final List<Future<BandwidthStream.Result>> futures = new ArrayList<>(streams);
+      final StoreDurationInfo duration;
+      final MemorySampler sampler;
+      long closeTotal = 0;
+      long closeMax = 0;
+      try {
+        sampler = new MemorySampler(bufferDirs, SAMPLE_INTERVAL_MILLIS);
+        duration = new StoreDurationInfo();
+        try {
+          for (BandwidthStream stream : uploads) {
+            futures.add(pool.submit(() -> stream.upload()));
+          }
+          for (Future<BandwidthStream.Result> future : futures) {
+            final long close = await(future).getCloseDuration().value();
+            closeTotal += close;
+            closeMax = Math.max(closeMax, close);
+          }
+          duration.finished();
+        } finally {
+          sampler.close();
+        }
+      } finally {
+        if (!keep) {
+          for (BandwidthStream stream : uploads) {
+            fs.delete(stream.getPath(), false);
+          }
+        }
+      }
+      final double bandwidth = megabytesPerSecond((Long) row.get("bytes"), duration.value());
+      row.put("MB/s", round3(bandwidth));
+      row.put("close mean ms", round3((double) closeTotal / streams));
+      row.put("close max ms", closeMax);
+      row.put("heap peak MB", round3(sampler.getHeapPeak() / (double) MB_1));
+      row.put("direct peak MB", round3(sampler.getDirectPeak() / (double) MB_1));
+      row.put("disk peak MB", round3(sampler.getDiskPeak() / (double) MB_1));
+      println("Uploaded %,d bytes in %s: %,.3f MB/s; close() mean %s ms, max %,d ms",
+          row.get("bytes"), duration.getDurationString(), bandwidth, row.get("close mean ms"),
+          closeMax);
+      println("Peak use above the baseline: heap %s MB; direct memory %s MB; local disk %s MB",
+          row.get("heap peak MB"), row.get("direct peak MB"), row.get("disk peak MB"));
+    }
+  }
+
+  /**
+   * Execute the command, return the result or throw an exception, as appropriate.
+   *
+   * @param args argument varags.
+   * @return return code
+   * @throws Exception failure
+   */
+  public static int exec(String... args) throws Exception {
+    return ToolRunner.run(new UploadBuffers(), args);
+  }
+}
@@ -0,0 +1,295 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.commands;
+
+import static org.apache.hadoop.fs.statistics.IOStatisticsSupport.snapshotIOStatistics;
+import static org.apache.hadoop.fs.statistics.StoreStatisticNames.ACTION_EXECUTOR_ACQUIRED;
+import static org.apache.hadoop.fs.statistics.StoreStatisticNames.MULTIPART_UPLOAD_PART_PUT;
+import static org.apache.hadoop.fs.statistics.StoreStatisticNames.SUFFIX_MEAN;
+import static org.apache.hadoop.fs.statistics.StreamStatisticNames.STREAM_WRITE_BLOCK_UPLOADS_ACTIVE;
+import static org.apache.hadoop.fs.statistics.StreamStatisticNames.STREAM_WRITE_BLOCK_UPLOADS_BYTES_PENDING;
+import static org.apache.hadoop.fs.statistics.StreamStatisticNames.STREAM_WRITE_BLOCK_UPLOADS_PENDING;
+import static org.apache.hadoop.fs.store.commands.Bandwidth.round3;
+import static org.apache.hadoop.fs.store.commands.BandwidthStream.megabytesPerSecond;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+import org.apache.hadoop.fs.statistics.IOStatistics;
+import org.apache.hadoop.fs.statistics.IOStatisticsSnapshot;
+import org.apache.hadoop.fs.statistics.MeanStatistic;
+import org.apache.hadoop.fs.store.diag.Printout;
+
+/**
+ * Samples the IOStatistics of an output stream during an upload, to build a timeline of how the
+ * queue of blocks awaiting upload builds up.
+ *
+ * <p>
+ * The S3A block output stream writes each block to a buffer and queues it for upload; only a
+ * limited number of blocks ({@link #ACTIVE_BLOCKS}) may be queued or uploading at a time. Once
+ * that limit is reached, {@code write()} blocks until an upload completes: the stream has switched
+ * from asynchronous to blocking writes, and the application is now limited by the upload
+ * bandwidth. If the limit is never reached, the data still queued when the stream is closed is
+ * uploaded in {@code close()}.
+ *
+ * <p>
+ * For streams without the block upload gauges, only the application side of the timeline is
+ * available: the bytes written and the longest {@code write()} call.
+ */
+final class UploadMonitor {
+
+  /**
+   * Option for the maximum number of blocks of an S3A stream queued or uploading: {@value}.
+   */
+  static final String ACTIVE_BLOCKS = "fs.s3a.fast.upload.active.blocks";
+
+  /**
+   * Default value of {@link #ACTIVE_BLOCKS}: {@value}.
+   */
+  static final int DEFAULT_ACTIVE_BLOCKS = 4;
+
+  /**
+   * Columns of the timeline.
+   */
+  static final String[] COLUMNS = {"elapsed ms", "phase", "written bytes", "write MB/s",
+      "longest write ms", "active blocks", "queued blocks", "pending bytes", "part upload ms",
+      "executor wait ms", "blocking"};
+
+  private final Printout printout;
+
+  private final long intervalMillis;
+
+  private final int activeBlocks;
+
+  private final LongAdder written = new LongAdder();
+
+  private final LongAccumulator longestWrite = new LongAccumulator(Math::max, 0);
+
+  private final List<Map<String, Object>> timeline =
+      Collections.synchronizedList(new ArrayList<>());
+
+  private ScheduledExecutorService sampler;
+
+  @Nullable
+  private IOStatistics statistics;
+
+  private IOStatisticsSnapshot last = snapshotIOStatistics();
+
+  private long started;
+
+  private long lastSample;
+
+  private long lastWritten;
+
+  /**
+   * Start time of the write() call in progress, or 0.
+   */
+  private volatile long writeStarted;
+
+  private volatile String phase = "write";
+
+  /**
+   * Elapsed time of the first sample in which the writer was blocked, or -1.
+   */
+  private long blockedAt = -1;
+
+  private long writtenWhenBlocked;
+
+  /**
+   * Create the monitor.
+   *
+   * @param printout printout
+   * @param intervalMillis sample interval
+   * @param activeBlocks maximum number of blocks queued or uploading
+   */
+  UploadMonitor(final Printout printout, final long intervalMillis, final int activeBlocks) {
+    this.printout = printout;
+    this.intervalMillis = intervalMillis;
+    this.activeBlocks = activeBlocks;
+  }
+
+  /**
+   * Start sampling an output stream.
+   *
+   * @param streamStatistics nullable statistics of the stream; these must be live, not a
+   * snapshot.
+   */
+  synchronized void start(@Nullable final IOStatistics streamStatistics) {
+    statistics = streamStatistics;
+    started = System.currentTimeMillis();
+    lastSample = started;
+    sampler = new ScheduledThreadPoolExecutor(1, r -> {
+      Thread t = new Thread(r, "bandwidth-upload-monitor");
+      t.setDaemon(true);
+      return t;
+    });
+    sampler.scheduleAtFixedRate(this::sample, intervalMillis, intervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * A write() call is starting.
+   */
+  void writeStarted() {
+    writeStarted = System.nanoTime();
+  }
+
+  /**
+   * A write() call has finished.
+   *
+   * @param bytes bytes written
+   */
+  void writeFinished(final long bytes) {
+    longestWrite.accumulate(System.nanoTime() - writeStarted);
+    writeStarted = 0;
+    written.add(bytes);
+  }
+
+  /**
+   * The stream is being closed: the remaining samples are of the upload of the queued data.
+   */
+  void closeStarted() {
+    phase = "close";
+  }
+
+  /**
+   * Stop sampling after a final sample.
+   */
+  synchronized void finish() {
+    if (sampler != null) {
+      sampler.shutdownNow();
+      sample();
+    }
+  }
+
+  private static long gauge(final IOStatisticsSnapshot snapshot, final String name) {
+    return snapshot.gauges().getOrDefault(name, 0L);
+  }
+
+  private static MeanStatistic mean(final IOStatisticsSnapshot snapshot, final String name) {
+    final MeanStatistic mean = snapshot.meanStatistics().get(name + SUFFIX_MEAN);
+    return mean != null ? mean : new MeanStatistic();
+  }
+
+  /**
+   * Take a sample.
+   */
+  private synchronized void sample() {
+    final long now = System.currentTimeMillis();
+    final long elapsed = now - started;
+    final long total = written.sum();
+    final long bytes = total - lastWritten;
+    final long inProgress = writeStarted;
+    long longest = longestWrite.getThenReset();
+    if (inProgress != 0) {
+      // a write still blocked at the end of the window
+      longest = Math.max(longest, System.nanoTime() - inProgress);
+    }
+    final Map<String, Object> row = new LinkedHashMap<>();
+    row.put("elapsed ms", elapsed);
+    row.put("phase", phase);
+    row.put("written bytes", total);
+    row.put("write MB/s", round3(megabytesPerSecond(bytes, now - lastSample)));
+    row.put("longest write ms", round3(longest / 1_000_000.0));
+    final IOStatisticsSnapshot snapshot =
+        statistics != null ? snapshotIOStatistics(statistics) : null;
+    if (snapshot != null
+        && snapshot.gauges().containsKey(STREAM_WRITE_BLOCK_UPLOADS_ACTIVE)) {
+      final long active = gauge(snapshot, STREAM_WRITE_BLOCK_UPLOADS_ACTIVE);
+      final long queued = gauge(snapshot, STREAM_WRITE_BLOCK_UPLOADS_PENDING);
+      final MeanStatistic parts = mean(snapshot, MULTIPART_UPLOAD_PART_PUT);
+      final MeanStatistic lastParts = mean(last, MULTIPART_UPLOAD_PART_PUT);
+      final long partSamples = parts.getSamples() - lastParts.getSamples();
+      final boolean blocking = "write".equals(phase) && active + queued >= activeBlocks;
+      row.put("active blocks", active);
+      row.put("queued blocks", queued);
+      row.put("pending bytes", gauge(snapshot, STREAM_WRITE_BLOCK_UPLOADS_BYTES_PENDING));
+      row.put("part upload ms", partSamples > 0
+          ? round3((parts.getSum() - lastParts.getSum()) / (double) partSamples)
+          : null);
+      row.put("executor wait ms", mean(snapshot, ACTION_EXECUTOR_ACQUIRED).getSum()
+          - mean(last, ACTION_EXECUTOR_ACQUIRED).getSum());
+      row.put("blocking", blocking ? 1 : 0);
+      if (blocking && blockedAt < 0) {
+        blockedAt = elapsed;
+        writtenWhenBlocked = total;
+      }
+      last = snapshot;
+    }
+    timeline.add(row);
+    lastSample = now;
+    lastWritten = total;
+  }
+
+  /**
+   * Get the timeline.
+   *
+   * @return the samples, in order
+   */
+  List<Map<String, Object>> getTimeline() {
+    synchronized (timeline) {
+      return new ArrayList<>(timeline);
+    }
+  }
+
+  /**
+   * Print the timeline and when the writes started to block.
+   */
+  synchronized void print() {
+    printout.heading("Upload timeline");
+    printout.println("%10s %-6s %16s %10s %12s %7s %7s %16s %10s %10s", "elapsed ms", "phase",
+        "written", "write MB/s", "longest ms", "active", "queued", "pending bytes", "part ms",
+        "wait ms");
+    boolean queueStatistics = false;
+    for (Map<String, Object> row : getTimeline()) {
+      queueStatistics |= row.containsKey("active blocks");
+      printout.println("%10s %-6s %,16d %10s %12s %7s %7s %16s %10s %10s%s",
+          row.get("elapsed ms"), row.get("phase"), row.get("written bytes"),
+          row.get("write MB/s"), row.get("longest write ms"), value(row, "active blocks"),
+          value(row, "queued blocks"), value(row, "pending bytes"), value(row, "part upload ms"),
+          value(row, "executor wait ms"),
+          Integer.valueOf(1).equals(row.get("blocking")) ? " blocking" : "");
+    }
+    printout.println();
+    if (!queueStatistics) {
+      printout.println("The output stream does not publish the statistics of its upload queue");
+    } else if (blockedAt >= 0) {
+      printout.println("Writes started to block after %,d ms and %,d bytes: %d blocks were"
+              + " queued or uploading; the upload bandwidth then limited the writer",
+          blockedAt, writtenWhenBlocked, activeBlocks);
+      printout.println("Increase %s to queue more blocks, at the cost of more buffer space",
+          ACTIVE_BLOCKS);
+    } else {
+      printout.println("Writes never blocked: fewer than %d blocks were queued or uploading",
+          activeBlocks);
+    }
+  }
+
+  private static Object value(final Map<String, Object> row, final String column) {
+    final Object value = row.get(column);
+    return value != null ? value : "-";
+  }
+}
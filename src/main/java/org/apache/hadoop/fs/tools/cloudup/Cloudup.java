@@ -17,12 +17,16 @@
  */
 package org.apache.hadoop.fs.tools.cloudup;
 
+import static org.apache.hadoop.fs.statistics.IOStatisticsLogging.ioStatisticsToPrettyString;
+import static org.apache.hadoop.fs.statistics.IOStatisticsSupport.retrieveIOStatistics;
+import static org.apache.hadoop.fs.statistics.IOStatisticsSupport.snapshotIOStatistics;
 import static org.apache.hadoop.fs.store.CommonParameters.BLOCK;
 import static org.apache.hadoop.fs.store.CommonParameters.CSVFILE;
 import static org.apache.hadoop.fs.store.CommonParameters.DEBUG;
 import static org.apache.hadoop.fs.store.CommonParameters.FLUSH;
 import static org.apache.hadoop.fs.store.CommonParameters.HFLUSH;
 import static org.apache.hadoop.fs.store.CommonParameters.IGNORE;
+import static org.apache.hadoop.fs.store.CommonParameters.IOSTATISTICS;
 import static org.apache.hadoop.fs.store.CommonParameters.LARGEST;
 import static org.apache.hadoop.fs.store.CommonParameters.OVERWRITE;
 import static org.apache.hadoop.fs.store.CommonParameters.STANDARD_OPTS;
@@ -32,6 +36,7 @@ import static org.apache.hadoop.fs.store.StoreUtils.await;
 import static org.apache.hadoop.fs.store.StoreUtils.isParentOf;
 
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URI;
@@ -64,9 +69,11 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathIOException;
 import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.fs.StorageStatistics;
+import org.apache.hadoop.fs.statistics.IOStatisticsSnapshot;
 import org.apache.hadoop.fs.store.StoreDurationInfo;
 import org.apache.hadoop.fs.store.StoreEntryPoint;
 import org.apache.hadoop.fs.store.logging.IOStatisticsIntegration;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Preconditions;
 import org.apache.hadoop.util.Progressable;
 import org.apache.hadoop.util.ToolRunner;
@@ -101,15 +108,23 @@ public class Cloudup extends StoreEntryPoint {
 
   private long blockSize = DEFAULT_BLOCK_SIZE;
 
+  /**
+   * Read the files to copy from a list rather than a treewalk of the source: {@value}.
+   */
+  public static final String FROM_LIST = "from-list";
+
   /**
    * Usage string: {@value}.
    */
   public static final String USAGE = "Usage: cloudup [options] <source> <dest>\n" + STANDARD_OPTS
       + optusage(BLOCK, "size", "block size in megabytes")
-      // + optusage(CSVFILE, "file", "CSV file to log operation details")
+      + optusage(CSVFILE, "file", "CSV file to log operation details")
       + optusage(FLUSH, "flush the output after writing each block")
+      + optusage(FROM_LIST, "file",
+          "file listing the source files to " + COPY_LC + " as path[,size[,modtime]]")
       + optusage(HFLUSH, "hflush() the output after writing each block")
       + optusage(IGNORE, "ignore errors")
+      + optusage(IOSTATISTICS, "file", "save the aggregate stream IOStatistics as JSON")
       + optusage(LARGEST, "largest", "number of large files to " + COPY_LC + " first")
       + optusage(OVERWRITE, "overwrite files")
       + optusage(THREADS, "threads", "number of worker threads")
@@ -198,9 +213,25 @@ public class Cloudup extends StoreEntryPoint {
    */
   private boolean hflush;
 
+  /**
+   * Number of source files whose status had to be retrieved because the source list did not
+   * include their size.
+   */
+  private final AtomicLong sourceProbes = new AtomicLong();
+
+  /**
+   * IOStatistics of all input and output streams, aggregated as each file is closed.
+   */
+  private final IOStatisticsSnapshot streamStatistics = snapshotIOStatistics();
+
+  /**
+   * Log of operations; null if not enabled.
+   */
+  private volatile OperationLog operationLog;
+
   public Cloudup() {
     createCommandFormat(2, 2, DEBUG, FLUSH, HFLUSH, IGNORE, OVERWRITE, UPDATE);
-    addValueOptions(BLOCK, CSVFILE, LARGEST, THREADS);
+    addValueOptions(BLOCK, CSVFILE, FROM_LIST, IOSTATISTICS, LARGEST, THREADS);
   }
 
   /**
@@ -214,6 +245,8 @@ public class Cloudup extends StoreEntryPoint {
 
   @Override
   public synchronized void close() throws IOException {
+    IOUtils.cleanupWithLogger(LOG, operationLog);
+    operationLog = null;
     if (workers != null) {
       workers.shutdown();
       workers = null;
@@ -242,10 +275,9 @@ public class Cloudup extends StoreEntryPoint {
     destFS = dest.getFileSystem(conf);
     destPath = destFS.makeQualified(dest);
 
+    final String sourceList = getOption(FROM_LIST);
     final String csvFile = getOption(CSVFILE);
-    if (csvFile != null) {
-      warn("CSV file logging is not yet implemented");
-    }
+    final String iostatisticsFile = getOption(IOSTATISTICS);
     final int largest = getIntOption(LARGEST, DEFAULT_LARGEST);
     final int threads = getIntOption(THREADS, DEFAULT_THREADS);
     blockSize = getIntOption(BLOCK, DEFAULT_BLOCK_SIZE) * (1024 * 1024);
@@ -277,26 +309,46 @@ public class Cloudup extends StoreEntryPoint {
           "Destination path %s is under source path %s", d, s);
     }
 
+    if (csvFile != null) {
+      final Path csvPath = new Path(csvFile);
+      operationLog = new OperationLog(csvPath.getFileSystem(conf), csvPath);
+      println("Logging operations to %s", operationLog.getPath());
+    }
+
     // worker pool
     workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
         new LinkedBlockingQueue<>());
 
     final StoreDurationInfo preparationDuration = new StoreDurationInfo();
-    // list the files
-    Future<List<UploadEntry>> listFilesOperation = workers.submit(buildUploads());
+    List<UploadEntry> uploadList;
+    if (sourceList == null) {
+      // list the files
+      Future<List<UploadEntry>> listFilesOperation = workers.submit(buildUploads());
 
-    // prepare the destination
+      // prepare the destination
+      final Future<String> prepareDestResult = workers.submit(prepareDest());
+      String info = await(prepareDestResult);
+      debug("Destination prepared: {}", info);
 
-    final Future<String> prepareDestResult = workers.submit(prepareDest());
-    String info = await(prepareDestResult);
-    debug("Destination prepared: {}", info);
+      uploadList = await(listFilesOperation);
+    } else {
+      // prepare the destination
+      final Future<String> prepareDestResult = workers.submit(prepareDest());
 
-    List<UploadEntry> uploadList = await(listFilesOperation);
+      // the list is read in this thread, so that any probes of files
+      // can be queued in the worker pool without risk of deadlock.
+      uploadList = createUploadListFromFile(new Path(sourceList), conf);
+      String info = await(prepareDestResult);
+      debug("Destination prepared: {}", info);
+    }
     final int uploadCount = uploadList.size();
     int uploaded = 0;
 
     preparationDuration.finished();
     println("Files to " + COPY_LC + " = %,d; preparation  = %s", uploadCount, preparationDuration);
+    if (sourceList != null) {
+      println("Source files probed for their status: %,d", sourceProbes.get());
+    }
 
     // full upload operation
     final StoreDurationInfo uploadDuration = new StoreDurationInfo();
@@ -372,11 +424,27 @@ public class Cloudup extends StoreEntryPoint {
     uploadDuration.finished();
     uploadTimer.end();
 
+    if (operationLog != null) {
+      // all operations have completed, so all rows are queued
+      final OperationLog log = operationLog;
+      operationLog = null;
+      log.close();
+      println("Operation log saved to %s", log.getPath());
+    }
+
     if (isVerbose()) {
       dumpStats(sourceFS, "Source statistics");
       if (!sourceFS.equals(destFS)) {
         dumpStats(destFS, "Dest statistics");
       }
+      println();
+      println("Stream statistics: %s", ioStatisticsToPrettyString(streamStatistics));
+    }
+    if (iostatisticsFile != null) {
+      final Path statsPath = new Path(iostatisticsFile);
+      IOStatisticsSnapshot.serializer().save(statsPath.getFileSystem(conf), statsPath,
+          streamStatistics, true);
+      println("Stream IOStatistics saved to %s", statsPath);
     }
 
     // run through the outcomes and process errors
@@ -502,10 +570,7 @@ public class Cloudup extends StoreEntryPoint {
     RemoteIterator<LocatedFileStatus> ri = sourceFS.listFiles(sourcePath, true);
     try {
       while (ri.hasNext()) {
-        LocatedFileStatus status = ri.next();
-        UploadEntry entry = new UploadEntry(status);
-        entry.setDest(getFinalPath(status.getPath()));
-        uploads.add(entry);
+        uploads.add(createUploadEntry(ri.next()));
       }
     } finally {
       if (ri instanceof Closeable) {
@@ -518,6 +583,89 @@ public class Cloudup extends StoreEntryPoint {
     return uploads;
   }
 
+  /**
+   * Build the upload list from a source list file. The file is streamed; entries with a size are
+   * added directly, while those without one, or without a modification time when updating, have
+   * their status retrieved in the worker pool.
+   *
+   * @param listFile file listing the source files
+   * @param conf configuration
+   * @return list of uploads
+   * @throws IOException failure to read the list or to probe a source file
+   * @throws InterruptedException interrupted while waiting for probes to complete
+   */
+  private List<UploadEntry> createUploadListFromFile(final Path listFile, final Configuration conf)
+      throws IOException, InterruptedException {
+    println("Reading list of source files from %s", listFile);
+    final FileSystem listFS = listFile.getFileSystem(conf);
+    final long sourceBlockSize = sourceFS.getDefaultBlockSize(sourcePath);
+    final List<UploadEntry> uploads = new ArrayList<>();
+    final List<Future<FileStatus>> probes = new ArrayList<>();
+    final long entries = SourceList.read(listFS, listFile, sourcePath, entry -> {
+      final Path path = sourceFS.makeQualified(entry.getPath());
+      // -update compares the modification times, so one which is not listed must be probed
+      if (entry.hasSize() && (entry.hasModificationTime() || !update)) {
+        final FileStatus status = new FileStatus(entry.getSize(), false, 1, sourceBlockSize,
+            Math.max(entry.getModificationTime(), 0), path);
+        final UploadEntry upload = createUploadEntry(status);
+        upload.setSizeListed(true);
+        uploads.add(upload);
+      } else {
+        probes.add(workers.submit(() -> probeSourceFile(path)));
+      }
+    });
+    for (Future<FileStatus> probe : probes) {
+      final FileStatus status = await(probe);
+      if (status != null) {
+        uploads.add(createUploadEntry(status));
+      }
+    }
+    if (verbose) {
+      println("Read %,d entries from %s", entries, listFile);
+    }
+    return uploads;
+  }
+
+  /**
+   * Get the status of a source file which was listed without a size.
+   *
+   * @param path path to probe
+   * @return the status or null if the file was missing or a directory and failures are ignored
+   * @throws IOException failure
+   */
+  private FileStatus probeSourceFile(final Path path) throws IOException {
+    sourceProbes.incrementAndGet();
+    try {
+      final FileStatus status = sourceFS.getFileStatus(path);
+      if (status.isFile()) {
+        return status;
+      }
+      if (!ignoreFailures) {
+        throw new PathIOException(path.toString(), "Source is a directory");
+      }
+      println("Skipping listed source directory %s", path);
+    } catch (FileNotFoundException e) {
+      if (!ignoreFailures) {
+        throw e;
+      }
+      println("Skipping missing source file %s", path);
+    }
+    return null;
+  }
+
+  /**
+   * Create an upload entry for a source file.
+   *
+   * @param status source file status
+   * @return an entry
+   * @throws IOException if the destination path cannot be determined
+   */
+  private UploadEntry createUploadEntry(final FileStatus status) throws IOException {
+    UploadEntry entry = new UploadEntry(status);
+    entry.setDest(getFinalPath(status.getPath()));
+    return entry;
+  }
+
   /**
    * Upload one entry.
    * 
@@ -538,6 +686,7 @@ public class Cloudup extends StoreEntryPoint {
       return Outcome.notExecuted(upload);
     }
     upload.setId(operationIndex.incrementAndGet());
+    upload.setThreadName(threadId);
     upload.setStartTime(now());
     final Path source = upload.getSource();
     final Path dest = destFS.makeQualified(upload.getDest());
@@ -553,6 +702,7 @@ public class Cloudup extends StoreEntryPoint {
       println("[%s] [%04d] %s %s to %s  (size: %,d bytes) in %ss", threadId, upload.getId(),
           outcome, source, dest, upload.getSize(),
           StoreDurationInfo.humanTime(upload.getDuration()));
+      logOperation(upload);
       return Outcome.succeeded(upload);
     } catch (Exception e) {
       upload.setState(UploadEntry.State.failed);
@@ -562,13 +712,27 @@ public class Cloudup extends StoreEntryPoint {
           source, dest, e);
       LOG.debug(COPY_CAPS + " {} to {} failed", source, dest, e);
       noteException(e);
+      logOperation(upload);
       return Outcome.failed(upload, e);
     }
   }
 
   /**
-   * Upload one file; uses readFully, fails if the stream is shorter than expected, and logs close
-   * time.
+   * Log a completed operation if the operation log is enabled.
+   *
+   * @param upload the upload
+   */
+  private void logOperation(final UploadEntry upload) {
+    final OperationLog log = operationLog;
+    if (log != null) {
+      log.log(upload);
+    }
+  }
+
+  /**
+   * Upload one file; uses readFully, fails if the stream is shorter or longer than expected, and
+   * logs close time. A size read from a source list is not passed to the source filesystem when
+   * the file is opened, as it may be out of date: the stream is read to its actual end.
    * 
    * @param upload upload entry
    * @param dest test path
@@ -616,15 +780,29 @@ public class Cloudup extends StoreEntryPoint {
 
     final FutureDataInputStreamBuilder input =
         sourceFS.openFile(source).opt("fs.option.openfile.read.policy", "whole-file, sequential")
-            .opt("fs.s3a.experimental.fadvise", "sequential")
-            .opt("fs.option.openfile.length", Long.toString(sourceStatus.getLen()))
-            .withFileStatus(sourceStatus);
+            .opt("fs.s3a.experimental.fadvise", "sequential");
+    if (!upload.isSizeListed()) {
+      input.opt("fs.option.openfile.length", Long.toString(sourceStatus.getLen()))
+          .withFileStatus(sourceStatus);
+    }
 
-    try (FSDataInputStream in = await(input.build()); FSDataOutputStream out = output.build()) {
+    final long started = now();
+    FSDataInputStream in = null;
+    FSDataOutputStream out = null;
+    try {
+      in = await(input.build());
+      out = output.build();
+      final long opened = now();
+      upload.setOpenDuration(opened - started);
       byte[] buffer = new byte[bufferSize];
       while (remaining > 0) {
         int len = (int) Math.min(bufferSize, remaining);
-        in.readFully(buffer, 0, len);
+        try {
+          in.readFully(buffer, 0, len);
+        } catch (EOFException e) {
+          throw new PathIOException(source.toString(),
+              "Source is shorter than its expected size of " + upload.getSize(), e);
+        }
         out.write(buffer, 0, len);
         if (flush) {
           out.flush();
@@ -638,7 +816,13 @@ public class Cloudup extends StoreEntryPoint {
           print(".");
         }
       }
+      if (in.read() >= 0) {
+        throw new PathIOException(source.toString(),
+            "Source is longer than its expected size of " + upload.getSize());
+      }
 
+      final long copied = now();
+      upload.setCopyDuration(copied - opened);
       try (StoreDurationInfo d =
           new StoreDurationInfo(LOG, isVerbose(), "[%04d] close reader (%s)", id, source)) {
         in.close();
@@ -648,10 +832,20 @@ public class Cloudup extends StoreEntryPoint {
         out.flush();
         out.close();
       }
+      upload.setCloseDuration(now() - copied);
       if (verbose) {
         println("[%04d] In: %s", id, in);
         println("[%04d] Out: %s", id, out);
       }
+    } finally {
+      IOUtils.cleanupWithLogger(LOG, in, out);
+      // the statistics of failed copies are aggregated too
+      if (in != null) {
+        streamStatistics.aggregate(retrieveIOStatistics(in));
+      }
+      if (out != null) {
+        streamStatistics.aggregate(retrieveIOStatistics(out));
+      }
     }
 
     return UploadEntry.State.succeeded;
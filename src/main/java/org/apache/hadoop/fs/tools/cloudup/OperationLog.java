@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.tools.csv.SimpleCsvWriter;
+
+/**
+ * CSV log of every file operation, one row per file.
+ *
+ * <p>
+ * Rows are built in the worker thread which executed the operation, then handed off to a single
+ * writer thread, so workers never block on the (buffered) output stream. A failure to write is
+ * recorded and rethrown in {@link #close()}; later rows are discarded.
+ */
+final class OperationLog implements Closeable {
+
+  /**
+   * Column headers.
+   */
+  static final String[] HEADERS = {"id", "thread", "source", "dest", "size", "open/millis",
+      "copy/millis", "close/millis", "duration/millis", "outcome", "retries", "exception"};
+
+  private final Path path;
+
+  private final SimpleCsvWriter writer;
+
+  /**
+   * Single thread executor to write the rows in order.
+   */
+  private final ExecutorService executor;
+
+  private final AtomicReference<IOException> failure = new AtomicReference<>();
+
+  /**
+   * Create the file and write the header.
+   *
+   * @param fs filesystem
+   * @param path path to create
+   * @throws IOException failure to create the file
+   */
+  OperationLog(final FileSystem fs, final Path path) throws IOException {
+    this.path = path;
+    writer = new SimpleCsvWriter(
+        new BufferedWriter(new OutputStreamWriter(
+            fs.createFile(path).recursive().overwrite(true).build(), StandardCharsets.UTF_8)),
+        ",", "\n", true, true);
+    writer.columns((Object[]) HEADERS);
+    writer.newline();
+    executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+        r -> {
+          Thread t = new Thread(r, "cloudup-csv");
+          t.setDaemon(true);
+          return t;
+        });
+  }
+
+  Path getPath() {
+    return path;
+  }
+
+  /**
+   * Queue a row for a completed operation.
+   *
+   * @param upload the upload
+   */
+  void log(final UploadEntry upload) {
+    final Exception ex = upload.getException();
+    final Object[] row = {upload.getId(), upload.getThreadName(), upload.getSource(),
+        upload.getDest(), upload.getSize(), upload.getOpenDuration(), upload.getCopyDuration(),
+        upload.getCloseDuration(), upload.getDuration(), upload.getState(),
+        // copies are not retried: failures are reported instead
+        0,
+        ex != null ? ex.toString().replace('"', '\'').replace('\n', ' ') : ""};
+    executor.submit(() -> {
+      if (failure.get() != null) {
+        return;
+      }
+      try {
+        writer.columns(row);
+        writer.newline();
+      } catch (IOException e) {
+        failure.compareAndSet(null, e);
+      }
+    });
+  }
+
+  /**
+   * Write all queued rows then close the file.
+   *
+   * @throws IOException failure to write or close the file.
+   */
+  @Override
+  public void close() throws IOException {
+    executor.shutdown();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    writer.close();
+    final IOException e = failure.get();
+    if (e != null) {
+      throw e;
+    }
+  }
+}
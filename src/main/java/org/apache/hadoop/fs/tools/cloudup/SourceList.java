@@ -0,0 +1,293 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.tools.cloudup;
+
+import static org.apache.hadoop.fs.Options.OpenFileOptions.FS_OPTION_OPENFILE_READ_POLICY;
+import static org.apache.hadoop.fs.Options.OpenFileOptions.FS_OPTION_OPENFILE_READ_POLICY_SEQUENTIAL;
+import static org.apache.hadoop.fs.store.StoreUtils.await;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathIOException;
+
+/**
+ * A list of source files to copy, read from a text/CSV file instead of a treewalk.
+ *
+ * <p>
+ * Each line is {@code path[,size[,modtime]]}; tabs may be used instead of commas. Paths may be
+ * quoted; relative paths are resolved against the source directory. The size and modification time
+ * are optional; a size of "-" or an empty column means "unknown", which will require a HEAD of the
+ * file. Modification times are either milliseconds since the epoch or ISO-8601 instants, such as
+ * the last modified dates of an S3 inventory; an inventory report itself, which starts with the
+ * bucket, must be converted to this format. Blank lines and lines starting with # are skipped,
+ * as is a first line whose size column is not a number, that being a CSV header.
+ */
+final class SourceList {
+
+  /**
+   * Value for an unknown size or modification time: {@value}.
+   */
+  static final long UNKNOWN = -1;
+
+  private SourceList() {}
+
+  /**
+   * Callback for each entry read.
+   */
+  @FunctionalInterface
+  interface EntryProcessor {
+
+    /**
+     * Process an entry.
+     *
+     * @param entry the entry
+     * @throws IOException failure
+     */
+    void process(Entry entry) throws IOException;
+  }
+
+  /**
+   * Stream through a list file, invoking the processor on every entry. The file is read line by
+   * line; it is never loaded into memory.
+   *
+   * @param fs filesystem of the list
+   * @param listFile list file
+   * @param base base path for relative entries
+   * @param processor entry processor
+   * @return number of entries read
+   * @throws IOException failure to read or parse the file
+   */
+  static long read(final FileSystem fs, final Path listFile, final Path base,
+      final EntryProcessor processor) throws IOException, InterruptedException {
+    long entries = 0;
+    int lineNumber = 0;
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        await(fs.openFile(listFile)
+            .opt(FS_OPTION_OPENFILE_READ_POLICY, FS_OPTION_OPENFILE_READ_POLICY_SEQUENTIAL)
+            .build()),
+        StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        final Entry entry;
+        try {
+          entry = parseLine(base, line, lineNumber == 1);
+        } catch (IllegalArgumentException e) {
+          throw new PathIOException(listFile.toString(),
+              "line " + lineNumber + ": " + e.getMessage());
+        }
+        if (entry != null) {
+          entries++;
+          processor.process(entry);
+        }
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Parse a line.
+   *
+   * @param base base path for relative entries
+   * @param line line to parse
+   * @param firstLine is this the first line, and so possibly a header?
+   * @return the entry or null if the line was blank, a comment or a header
+   * @throws IllegalArgumentException if the line cannot be parsed
+   */
+  static Entry parseLine(final Path base, final String line, final boolean firstLine) {
+    final String trimmed = line.trim();
+    if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+      return null;
+    }
+    final List<String> fields = split(trimmed);
+    final String name = fields.get(0);
+    if (name.isEmpty()) {
+      throw new IllegalArgumentException("no path in \"" + line + "\"");
+    }
+    long size = UNKNOWN;
+    if (fields.size() > 1) {
+      try {
+        size = parseSize(fields.get(1));
+      } catch (NumberFormatException e) {
+        if (firstLine) {
+          // CSV header
+          return null;
+        }
+        throw new IllegalArgumentException("invalid size in \"" + line + "\"", e);
+      }
+    }
+    long modtime = UNKNOWN;
+    if (fields.size() > 2) {
+      modtime = parseModtime(fields.get(2), line);
+    }
+    final Path path = new Path(name);
+    return new Entry(path.isAbsolute() || path.toUri().getScheme() != null ? path
+        : new Path(base, path), size, modtime);
+  }
+
+  /**
+   * Split a line into fields on commas or tabs, stripping quotes from quoted fields. There is no
+   * support for escaped quotes.
+   *
+   * @param line line
+   * @return the trimmed fields
+   */
+  static List<String> split(final String line) {
+    List<String> fields = new ArrayList<>(3);
+    final int len = line.length();
+    int start = 0;
+    while (start <= len) {
+      int end;
+      String field;
+      if (start < len && line.charAt(start) == '"') {
+        int close = line.indexOf('"', start + 1);
+        if (close < 0) {
+          throw new IllegalArgumentException("unterminated quote in \"" + line + "\"");
+        }
+        field = line.substring(start + 1, close);
+        end = nextSeparator(line, close + 1);
+      } else {
+        end = nextSeparator(line, start);
+        field = line.substring(start, end).trim();
+      }
+      fields.add(field);
+      start = end + 1;
+    }
+    return fields;
+  }
+
+  /**
+   * Find the next separator.
+   *
+   * @param line line
+   * @param from start position
+   * @return the index of the next separator or the line length
+   */
+  private static int nextSeparator(final String line, final int from) {
+    for (int i = from; i < line.length(); i++) {
+      final char c = line.charAt(i);
+      if (c == ',' || c == '\t') {
+        return i;
+      }
+    }
+    return line.length();
+  }
+
+  /**
+   * Parse a size column.
+   *
+   * @param field field
+   * @return the size or {@link #UNKNOWN}
+   * @throws NumberFormatException not a valid size
+   */
+  private static long parseSize(final String field) {
+    if (field.isEmpty() || "-".equals(field)) {
+      return UNKNOWN;
+    }
+    final long size = Long.parseLong(field);
+    if (size < 0) {
+      throw new NumberFormatException("negative size " + field);
+    }
+    return size;
+  }
+
+  /**
+   * Parse a modification time: either millis or an ISO-8601 instant.
+   *
+   * @param field field
+   * @param line line for error messages
+   * @return the time in millis or {@link #UNKNOWN}
+   */
+  private static long parseModtime(final String field, final String line) {
+    if (field.isEmpty() || "-".equals(field)) {
+      return UNKNOWN;
+    }
+    try {
+      return Long.parseLong(field);
+    } catch (NumberFormatException e) {
+      try {
+        return Instant.parse(field.toUpperCase(Locale.ROOT)).toEpochMilli();
+      } catch (DateTimeParseException dte) {
+        throw new IllegalArgumentException("invalid modification time in \"" + line + "\"", dte);
+      }
+    }
+  }
+
+  /**
+   * An entry in the list.
+   */
+  static final class Entry {
+
+    private final Path path;
+
+    private final long size;
+
+    private final long modificationTime;
+
+    Entry(final Path path, final long size, final long modificationTime) {
+      this.path = path;
+      this.size = size;
+      this.modificationTime = modificationTime;
+    }
+
+    Path getPath() {
+      return path;
+    }
+
+    long getSize() {
+      return size;
+    }
+
+    long getModificationTime() {
+      return modificationTime;
+    }
+
+    /**
+     * Is the modification time known?
+     *
+     * @return true if the modification time was in the list.
+     */
+    boolean hasModificationTime() {
+      return modificationTime != UNKNOWN;
+    }
+
+    /**
+     * Is the size known? If not, the file must be probed.
+     *
+     * @return true if the size was in the list.
+     */
+    boolean hasSize() {
+      return size != UNKNOWN;
+    }
+
+    @Override
+    public String toString() {
+      return "Entry{" + "path=" + path + ", size=" + size + ", modificationTime="
+          + modificationTime + '}';
+    }
+  }
+}
@@ -46,6 +46,11 @@ final class UploadEntry implements Serializable, Comparable<UploadEntry> {
   /** Size in bytes. */
   private long size;
 
+  /**
+   * Was the size read from a source list, rather than from the source store?
+   */
+  private boolean sizeListed;
+
   /**
    * Destination path. Need not be qualified for dest FS, but must be absolute.
    */
@@ -61,6 +66,26 @@ final class UploadEntry implements Serializable, Comparable<UploadEntry> {
    */
   private long endTime;
 
+  /**
+   * Name of the thread which executed the operation.
+   */
+  private String threadName;
+
+  /**
+   * Time to open the source and create the destination: millis.
+   */
+  private long openDuration;
+
+  /**
+   * Time to copy the data: millis.
+   */
+  private long copyDuration;
+
+  /**
+   * Time to close the streams: millis.
+   */
+  private long closeDuration;
+
   /**
    * Exception, only non-null if {@code state == failed}.
    */
@@ -146,6 +171,19 @@ final class UploadEntry implements Serializable, Comparable<UploadEntry> {
     return sourceStatus;
   }
 
+  /**
+   * Was the size read from a source list? If so, it may be out of date.
+   *
+   * @return true if the size came from a list
+   */
+  boolean isSizeListed() {
+    return sizeListed;
+  }
+
+  void setSizeListed(final boolean sizeListed) {
+    this.sizeListed = sizeListed;
+  }
+
   public long getStartTime() {
     return startTime;
   }
@@ -162,6 +200,38 @@ final class UploadEntry implements Serializable, Comparable<UploadEntry> {
     this.endTime = endTime;
   }
 
+  public String getThreadName() {
+    return threadName;
+  }
+
+  public void setThreadName(String threadName) {
+    this.threadName = threadName;
+  }
+
+  public long getOpenDuration() {
+    return openDuration;
+  }
+
+  public void setOpenDuration(long openDuration) {
+    this.openDuration = openDuration;
+  }
+
+  public long getCopyDuration() {
+    return copyDuration;
+  }
+
+  public void setCopyDuration(long copyDuration) {
+    this.copyDuration = copyDuration;
+  }
+
+  public long getCloseDuration() {
+    return closeDuration;
+  }
+
+  public void setCloseDuration(long closeDuration) {
+    this.closeDuration = closeDuration;
+  }
+
   public Exception getException() {
     return exception;
   }
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+public class TestLatencyHistogram {
+
+  @Test
+  public void testEmpty() {
+    final LatencyHistogram h = new LatencyHistogram("empty");
+    assertThat(h.samples()).isZero();
+    assertThat(h.min()).isZero();
+    assertThat(h.max()).isZero();
+    assertThat(h.mean()).isZero();
+    assertThat(h.percentile(99)).isZero();
+  }
+
+  /**
+   * Every value maps to a bucket whose bounds contain it, and the buckets are contiguous.
+   */
+  @Test
+  public void testBucketBounds() {
+    long[] values = {0, 1, 31, 32, 33, 63, 64, 65, 1000, 123_456_789L, 1L << 40,
+        Long.MAX_VALUE};
+    for (long v : values) {
+      final int index = LatencyHistogram.indexOf(v);
+      assertThat(v).as("value in bucket %d", index)
+          .isBetween(LatencyHistogram.lowerBound(index), LatencyHistogram.upperBound(index));
+    }
+    for (int i = 1; i < LatencyHistogram.indexOf(Long.MAX_VALUE); i++) {
+      assertThat(LatencyHistogram.lowerBound(i)).as("lower bound of bucket %d", i)
+          .isEqualTo(LatencyHistogram.upperBound(i - 1) + 1);
+    }
+  }
+
+  /**
+   * Percentiles of 1..10000 microseconds are within the bucket error.
+   */
+  @Test
+  public void testPercentiles() {
+    final LatencyHistogram h = new LatencyHistogram("uniform");
+    for (int i = 1; i <= 10_000; i++) {
+      h.record(i * 1000L);
+    }
+    assertThat(h.samples()).isEqualTo(10_000);
+    assertThat(h.min()).isEqualTo(1000);
+    assertThat(h.max()).isEqualTo(10_000_000);
+    assertThat(h.mean()).isCloseTo(5_000_500.0, within(0.1));
+    final double error = 1.0 / LatencyHistogram.SUB_BUCKETS;
+    assertThat((double) h.percentile(50)).isCloseTo(5_000_000, within(5_000_000 * error));
+    assertThat((double) h.percentile(99)).isCloseTo(9_900_000, within(9_900_000 * error));
+    assertThat((double) h.percentile(99.9)).isCloseTo(9_990_000, within(9_990_000 * error));
+    assertThat(h.percentile(100)).isEqualTo(h.max());
+    assertThat(h.percentile(0)).isEqualTo(h.min());
+    assertThat(h.percentileMillis(50)).isCloseTo(5.0, within(5.0 * error));
+  }
+
+  @Test
+  public void testMerge() {
+    final LatencyHistogram low = new LatencyHistogram("low");
+    final LatencyHistogram high = new LatencyHistogram("high");
+    for (int i = 0; i < 100; i++) {
+      low.record(1_000);
+      high.record(1_000_000);
+    }
+    final LatencyHistogram merged = new LatencyHistogram("merged").merge(low).merge(high);
+    assertThat(merged.samples()).isEqualTo(200);
+    assertThat(merged.sum()).isEqualTo(low.sum() + high.sum());
+    assertThat(merged.min()).isEqualTo(1_000);
+    assertThat(merged.max()).isEqualTo(1_000_000);
+    assertThat(merged.percentile(50)).isEqualTo(1_000);
+    assertThat(merged.percentile(51)).isEqualTo(1_000_000);
+  }
+
+  @Test
+  public void testConcurrentRecording() throws Exception {
+    final LatencyHistogram h = new LatencyHistogram("concurrent");
+    final int threads = 16;
+    final int perThread = 10_000;
+    final ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        futures.add(pool.submit(() -> {
+          for (int i = 1; i <= perThread; i++) {
+            h.record(i);
+          }
+        }));
+      }
+      for (Future<?> f : futures) {
+        f.get();
+      }
+    } finally {
+      pool.shutdown();
+    }
+    assertThat(h.samples()).isEqualTo((long) threads * perThread);
+    assertThat(h.sum()).isEqualTo((long) threads * perThread * (perThread + 1) / 2);
+    assertThat(h.min()).isEqualTo(1);
+    assertThat(h.max()).isEqualTo(perThread);
+  }
+}
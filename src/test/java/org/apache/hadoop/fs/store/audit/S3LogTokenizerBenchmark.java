@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import static org.apache.hadoop.fs.store.audit.TestAuditLogProcessor.SAMPLE_LOG_ENTRY_1;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compare parsing S3 log entries with the regular expression and maps of
+ * {@link AuditLogProcessor} against the {@link S3LogTokenizer}.
+ * <p>
+ * The entries have a new timestamp every ten lines, as a busy bucket would have.
+ * <p>
+ * Not a unit test; run it after {@code mvn test-compile} with
+ * {@code java -cp <test classpath> org.apache.hadoop.fs.store.audit.S3LogTokenizerBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class S3LogTokenizerBenchmark {
+
+  private static final int LINES = 1000;
+
+  private final AuditLogProcessor processor = new AuditLogProcessor(new Configuration(), 1);
+
+  private final S3LogTokenizer tokenizer = new S3LogTokenizer();
+
+  private final AvroS3LogEntryRecord record = new AvroS3LogEntryRecord();
+
+  private final Text[] lines = new Text[LINES];
+
+  private int next;
+
+  @Setup
+  public void setup() {
+    final String entry = SAMPLE_LOG_ENTRY_1.trim();
+    for (int i = 0; i < LINES; i++) {
+      final int second = i / 10;
+      lines[i] = new Text(entry
+          .replace("11:26:06", String.format(Locale.ENGLISH, "11:%02d:%02d", second / 60,
+              second % 60))
+          .replace("M7ZB7C4RTKXJKTM9", "REQUEST" + i));
+    }
+  }
+
+  private Text nextLine() {
+    final Text line = lines[next];
+    next = (next + 1) % LINES;
+    return line;
+  }
+
+  @Benchmark
+  public AvroS3LogEntryRecord regex() {
+    return processor.buildLogRecord(processor.parseAuditLog(nextLine().toString()));
+  }
+
+  @Benchmark
+  public AvroS3LogEntryRecord tokenizer() {
+    tokenizer.parse(nextLine(), record);
+    return record;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(S3LogTokenizerBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import static org.apache.hadoop.fs.store.audit.AuditTimeRange.parseTime;
+import static org.apache.hadoop.fs.store.audit.TestAuditLogProcessor.SAMPLE_LOG_ENTRY_1;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests on {@link AuditBlockIndex} and {@link AuditRecordFilter}.
+ */
+public class TestAuditBlockIndex {
+
+  @Rule
+  public TemporaryFolder tempdir = new TemporaryFolder();
+
+  private final S3LogTokenizer tokenizer = new S3LogTokenizer();
+
+  /**
+   * Build a record from the sample entry with a different time, verb and principal.
+   *
+   * @param time time in the log format, such as {@code 13/May/2021:11:26:06}
+   * @param verb verb
+   * @param principal principal
+   * @return the record
+   */
+  private AvroS3LogEntryRecord record(String time, String verb, String principal) {
+    String line = SAMPLE_LOG_ENTRY_1.trim()
+        .replace("13/May/2021:11:26:06", time)
+        .replace(" REST.PUT.OBJECT ", " " + verb + " ")
+        .replace("&pr=alice", "&pr=" + principal);
+    AvroS3LogEntryRecord record = new AvroS3LogEntryRecord();
+    assertThat(tokenizer.parse(new Text(line), record)).describedAs("parsing %s", line).isTrue();
+    return record;
+  }
+
+  private AuditBlockIndex buildIndex() {
+    AuditBlockIndex.Builder builder = new AuditBlockIndex.Builder(100);
+    builder.add(record("13/May/2021:11:26:06", "REST.PUT.OBJECT", "alice"));
+    builder.blockEnded(100);
+    builder.add(record("13/May/2021:11:20:00", "REST.GET.OBJECT", "alice"));
+    builder.blockEnded(300);
+    builder.add(record("13/May/2021:12:30:00", "REST.DELETE.OBJECT", "bob,me%25"));
+    return builder.build(450);
+  }
+
+  /**
+   * A block ends when the position of the output moves; it has the records added since the last.
+   */
+  @Test
+  public void testBuilder() {
+    AuditBlockIndex index = buildIndex();
+    assertThat(index.getFileLength()).describedAs("file length").isEqualTo(450);
+    assertThat(index.getBlocks()).describedAs("blocks")
+        .extracting(AuditBlockIndex.Block::getPosition).containsExactly(100L, 300L);
+    AuditBlockIndex.Block first = index.getBlocks().get(0);
+    assertThat(first.getRecords()).describedAs("records").isEqualTo(2);
+    assertThat(first.getFirst()).describedAs("first").isEqualTo(parseTime("2021-05-13T11:20:00"));
+    assertThat(first.getLast()).describedAs("last").isEqualTo(parseTime("2021-05-13T11:26:06"));
+    assertThat(first.getVerbs()).describedAs("verbs")
+        .containsExactly("REST.GET.OBJECT", "REST.PUT.OBJECT");
+    assertThat(first.getBuckets()).describedAs("buckets").containsExactly("bucket-london");
+    assertThat(first.getPrincipals()).describedAs("principals").containsExactly("alice");
+    assertThat(index.getBlocks().get(1).getPrincipals()).describedAs("principals")
+        .containsExactly("bob,me%25");
+  }
+
+  /**
+   * A block with more values than the index keeps is indexed as having any.
+   */
+  @Test
+  public void testTooManyValues() {
+    AuditBlockIndex.Builder builder = new AuditBlockIndex.Builder(0);
+    for (int i = 0; i <= AuditBlockIndex.MAX_VALUES; i++) {
+      builder.add(record("13/May/2021:11:26:06", "REST.PUT.OBJECT", "user-" + i));
+    }
+    AuditBlockIndex.Block block = builder.build(1000).getBlocks().get(0);
+    assertThat(block.getPrincipals()).describedAs("principals").isNull();
+    assertThat(block.getVerbs()).describedAs("verbs").containsExactly("REST.PUT.OBJECT");
+    assertThat(new AuditRecordFilter().withPrincipal("anyone").mayMatch(block))
+        .describedAs("any principal").isTrue();
+  }
+
+  @Test
+  public void testSaveAndLoad() throws IOException {
+    Path avroFile = new Path(new Path(tempdir.newFolder().toURI()), "audit.avro");
+    FileSystem fs = avroFile.getFileSystem(new Configuration());
+    assertThat(AuditBlockIndex.load(fs, avroFile)).describedAs("nothing saved").isNull();
+
+    AuditBlockIndex index = buildIndex();
+    index.save(fs, avroFile);
+    assertThat(AuditBlockIndex.indexPath(avroFile).getName()).isEqualTo("_audit.avro.index");
+    AuditBlockIndex loaded = AuditBlockIndex.load(fs, avroFile);
+    assertThat(loaded.getFileLength()).describedAs("file length").isEqualTo(450);
+    assertThat(loaded.getBlocks()).describedAs("blocks").hasSize(2);
+    for (int i = 0; i < 2; i++) {
+      AuditBlockIndex.Block block = index.getBlocks().get(i);
+      assertThat(loaded.getBlocks().get(i)).describedAs("block %d", i)
+          .usingRecursiveComparison().isEqualTo(block);
+    }
+  }
+
+  @Test
+  public void testFilterBlocks() {
+    AuditBlockIndex index = buildIndex();
+    AuditBlockIndex.Block first = index.getBlocks().get(0);
+    AuditBlockIndex.Block second = index.getBlocks().get(1);
+    AuditRecordFilter range = new AuditRecordFilter().withRange(new AuditTimeRange(
+        parseTime("2021-05-13T12:00"), parseTime("2021-05-13T13:00"), Duration.ofHours(1)));
+    assertThat(range.mayMatch(first)).describedAs("first block in %s", range).isFalse();
+    assertThat(range.mayMatch(second)).describedAs("second block in %s", range).isTrue();
+
+    AuditRecordFilter verbs = new AuditRecordFilter().withVerbs("REST.HEAD.OBJECT,REST.GET.OBJECT");
+    assertThat(verbs.mayMatch(first)).describedAs("verbs").isTrue();
+    assertThat(verbs.mayMatch(second)).describedAs("verbs").isFalse();
+    assertThat(new AuditRecordFilter().withPrincipal("bob,me%25").mayMatch(first))
+        .describedAs("principal").isFalse();
+    assertThat(new AuditRecordFilter().withBucket("bucket-paris").mayMatch(second))
+        .describedAs("bucket").isFalse();
+    assertThat(new AuditRecordFilter().withStatus("5").mayMatch(second))
+        .describedAs("status is not indexed").isTrue();
+  }
+
+  /**
+   * The audit information of records read from avro files has {@link Utf8} keys.
+   */
+  @Test
+  public void testFilterRecords() {
+    AvroS3LogEntryRecord record = record("13/May/2021:11:26:06", "REST.PUT.OBJECT", "alice");
+    AuditRecordFilter filter = new AuditRecordFilter()
+        .withVerbs("REST.PUT.OBJECT")
+        .withBucket("bucket-london")
+        .withKeyPrefix("fork-0001/test/")
+        .withPrincipal("alice")
+        .withStatus("2");
+    assertThat(filter.matches(record)).describedAs("%s", filter).isTrue();
+    Map<CharSequence, CharSequence> audit = new HashMap<>();
+    record.getAudit().forEach((k, v) -> audit.put(new Utf8(k.toString()), new Utf8(v.toString())));
+    record.setAudit(audit);
+    assertThat(filter.matches(record)).describedAs("%s with Utf8 keys", filter).isTrue();
+    assertThat(new AuditRecordFilter().withPrincipal("bob").matches(record))
+        .describedAs("other principal").isFalse();
+    assertThat(new AuditRecordFilter().withKeyPrefix("fork-0002/").matches(record))
+        .describedAs("other prefix").isFalse();
+    assertThat(new AuditRecordFilter().withStatus("503").matches(record))
+        .describedAs("other status").isFalse();
+  }
+}
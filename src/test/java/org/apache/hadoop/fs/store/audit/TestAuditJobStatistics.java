@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import static org.apache.hadoop.fs.store.audit.TestAuditLogProcessor.SAMPLE_LOG_ENTRY_1;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import org.apache.hadoop.fs.tools.csv.SimpleCsvWriter;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+/**
+ * Unit tests on {@link AuditJobStatistics}.
+ */
+public class TestAuditJobStatistics {
+
+  private final S3LogTokenizer tokenizer = new S3LogTokenizer();
+
+  /**
+   * Build a record from the sample entry with different audit information, total time and status.
+   *
+   * @param job job ID or null
+   * @param task task attempt ID or null
+   * @param span span ID
+   * @param op S3A operation
+   * @param totalTime total time
+   * @param status HTTP status
+   * @return the record
+   */
+  private AvroS3LogEntryRecord record(String job, String task, String span, String op,
+      String totalTime, String status) {
+    return parse(line(job, task, span, op, totalTime, status));
+  }
+
+  /**
+   * Build a log line from the sample entry; see {@link #record}.
+   */
+  private static String line(String job, String task, String span, String op,
+      String totalTime, String status) {
+    return SAMPLE_LOG_ENTRY_1.trim()
+        .replace(" 200 - - 794 55 17 ", " " + status + " - 1000 794 " + totalTime + " 17 ")
+        .replace("?op=op_create", "?op=" + op)
+        .replace("&id=e8ede3c7-8506-4a43-8268-fe8fcbb510a4-00000278", "&id=" + span)
+        .replace("&pr=alice", "&pr=alice"
+            + (job != null ? "&ji=" + job : "")
+            + (task != null ? "&ta=" + task : ""));
+  }
+
+  private AvroS3LogEntryRecord parse(String line) {
+    AvroS3LogEntryRecord record = new AvroS3LogEntryRecord();
+    assertThat(tokenizer.parse(new Text(line), record)).describedAs("parsing %s", line).isTrue();
+    return record;
+  }
+
+  @Test
+  public void testJobsAndTasks() throws IOException {
+    AuditJobStatistics statistics = new AuditJobStatistics(2, 100);
+    statistics.processed(record("job-1", "task-1", "s1", "op_open", "100", "200"));
+    statistics.processed(record("job-1", "task-1", "s1", "op_open", "50", "200"));
+    statistics.processed(record("job-1", "task-2", "s2", "op_open", "120", "503"));
+    statistics.processed(record("job-1", null, "s3", "op_rename", "300", "200"));
+    statistics.processed(record("job-2", "task-3", "s4", "op_create", "10", "404"));
+    statistics.processed(record(null, null, "s5", "op_delete", "5", "200"));
+    statistics.processed(parse(SAMPLE_LOG_ENTRY_1.trim()
+        .replaceAll("\"https://audit[^\"]*\"", "\"-\"")));
+
+    assertThat(statistics.getUnattributed()).describedAs("unattributed").isEqualTo(1);
+    assertThat(statistics.ranking()).extracting(AuditJobStatistics.Job::getKey)
+        .describedAs("ranking").containsExactly("job-1", "job-2");
+
+    AuditJobStatistics.Job job = statistics.getJob("job-1");
+    assertThat(job.getRequests()).describedAs("requests").isEqualTo(4);
+    assertThat(job.getErrors()).describedAs("errors").isEqualTo(1);
+    assertThat(job.getThrottled()).describedAs("throttled").isEqualTo(1);
+    assertThat(job.getTasks()).describedAs("tasks").isEqualTo(2);
+    assertThat(job.getSpans()).describedAs("spans").isEqualTo(3);
+    assertThat(job.getStoreTime()).describedAs("store time").isEqualTo(570);
+    // slowest task (150ms) plus the job committer's rename
+    assertThat(job.criticalPath()).describedAs("critical path").isEqualTo(450);
+    assertThat(job.getOperation("op_open")).describedAs("op_open").containsExactly(3, 270);
+    assertThat(job.timeline(2)).extracting(AuditJobStatistics.Span::getOperation)
+        .describedAs("timeline").containsExactlyInAnyOrder("op_rename", "op_open");
+    assertThat(job.timeline(1).get(0).getTime()).describedAs("slowest span").isEqualTo(300);
+
+    assertThat(statistics.getJob(AuditJobStatistics.PROCESS_PREFIX
+        + "2eac5a04-2153-48db-896a-09bc9a2fd132"))
+        .describedAs("process without a job").isNotNull();
+    assertThat(statistics.getJob("job-2").getErrors()).describedAs("errors of job-2")
+        .isEqualTo(1);
+
+    ByteArrayOutputStream report = new ByteArrayOutputStream();
+    statistics.report(new PrintStream(report, true, "UTF-8"));
+    assertThat(report.toString("UTF-8")).describedAs("report")
+        .contains("job-1", "op_rename fork-0001/test/testParseBrokenCSVFile",
+            "slowest task task-1");
+
+    ByteArrayOutputStream csvData = new ByteArrayOutputStream();
+    try (SimpleCsvWriter csv = new SimpleCsvWriter(csvData, ",", "\n", true, true)) {
+      statistics.writeCsv(csv);
+    }
+    String[] rows = new String(csvData.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    // header and three jobs
+    assertThat(rows).describedAs("CSV rows").hasSize(4);
+    assertThat(rows[1]).describedAs("job-1")
+        .startsWith("\"job-1\",\"alice\",4,1,1,2,3,570,450,\"2021-05-13T11:26:06Z\"");
+  }
+
+  /**
+   * A span runs from the start of its earliest request to the end of its latest, whatever the
+   * order in which its records are read.
+   */
+  @Test
+  public void testSpanRecordsOutOfOrder() {
+    AuditJobStatistics statistics = new AuditJobStatistics(2, 100);
+    statistics.processed(record("job-1", null, "s1", "op_open", "100", "200"));
+    statistics.processed(parse(line("job-1", null, "s1", "op_open", "50", "200")
+        .replace("[13/May/2021:11:26:06 +0000]", "[13/May/2021:11:26:01 +0000]")));
+    statistics.processed(parse(line("job-1", null, "s1", "op_open", "20", "200")
+        .replace("[13/May/2021:11:26:06 +0000]", "[13/May/2021:11:26:03 +0000]")));
+    AuditJobStatistics.Span span = statistics.getJob("job-1").timeline(10).get(0);
+    assertThat(span.getRequests()).describedAs("requests").isEqualTo(3);
+    assertThat(span.getFirst()).describedAs("first")
+        .isEqualTo(Instant.parse("2021-05-13T11:26:01Z"));
+    assertThat(span.getLast()).describedAs("last")
+        .isEqualTo(Instant.parse("2021-05-13T11:26:06.100Z"));
+  }
+
+  /**
+   * Jobs and spans are bounded; the jobs with least store time are folded into one.
+   */
+  @Test
+  public void testJobsBounded() {
+    AuditJobStatistics statistics = new AuditJobStatistics(3, 3);
+    for (int i = 0; i < 100; i++) {
+      statistics.processed(record("job-" + i, null, "span-" + i, "op_open",
+          Integer.toString(i), "200"));
+      statistics.processed(record("job-99", null, "span-99-" + i, "op_open", "1", "200"));
+    }
+    assertThat(statistics.ranking()).extracting(AuditJobStatistics.Job::getKey)
+        .describedAs("ranking").containsExactly(AuditStatistics.OTHER, "job-99", "job-98");
+    AuditJobStatistics.Job job = statistics.getJob("job-99");
+    assertThat(job.getSpans()).describedAs("spans").isEqualTo(101);
+    assertThat(job.timeline(10)).describedAs("spans kept").hasSizeLessThanOrEqualTo(6);
+  }
+
+  /**
+   * Task attempts are bounded as spans are, keeping the slowest, but all are counted; the jobs
+   * folded into one add their requests by verb and operation to it.
+   */
+  @Test
+  public void testTasksBoundedAndJobsFolded() {
+    AuditJobStatistics statistics = new AuditJobStatistics(1, 2);
+    for (int i = 0; i < 100; i++) {
+      statistics.processed(record("job-1", "task-" + i, "span-" + i, "op_open",
+          Integer.toString(i), "200"));
+    }
+    AuditJobStatistics.Job job = statistics.getJob("job-1");
+    assertThat(job.getTasks()).describedAs("tasks").isEqualTo(100);
+    assertThat(job.criticalPath()).describedAs("critical path").isEqualTo(99);
+
+    for (int i = 2; i <= 6; i++) {
+      statistics.processed(record("job-" + i, "task-" + i, "span-" + i, "op_create", "1",
+          "200"));
+    }
+    AuditJobStatistics.Job other = statistics.getJob(AuditStatistics.OTHER);
+    assertThat(other).describedAs("folded jobs").isNotNull();
+    assertThat(other.getRequests()).describedAs("requests of %s", AuditStatistics.OTHER)
+        .isPositive();
+    assertThat(other.getVerb("REST.PUT.OBJECT")).describedAs("verbs of %s", AuditStatistics.OTHER)
+        .containsExactly(other.getRequests(), other.getStoreTime());
+    assertThat(other.getOperation("op_create"))
+        .describedAs("operations of %s", AuditStatistics.OTHER)
+        .containsExactly(other.getRequests(), other.getStoreTime());
+    assertThat(other.getTasks()).describedAs("tasks of %s", AuditStatistics.OTHER)
+        .isEqualTo(other.getRequests());
+  }
+}
@@ -22,13 +22,32 @@ import static org.apache.hadoop.fs.audit.AuditConstants.PARAM_PRINCIPAL;
 import static org.apache.hadoop.fs.store.audit.AuditLogProcessor.parseAuditHeader;
 import static org.apache.hadoop.fs.store.audit.AuditLogProcessor.parseToInstant;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.withinPercentage;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
@@ -247,6 +266,388 @@ public class TestAuditLogProcessor {
         .describedAs("log files parsed by %s", auditLogProcessor).isEqualTo(2);
   }
 
+  /**
+   * Parse many copies of the sample logs with different numbers of threads: the output must be the
+   * same, in the order of the listing.
+   */
+  @Test
+  public void testParallelMergeMatchesSerial() throws IOException {
+    File logs = tempdir.newFolder("logs");
+    File source = new File(
+        this.getClass().getClassLoader().getResource("TestAuditLogs/sampleLog1").getFile());
+    for (int i = 0; i < 10; i++) {
+      try (FileWriter fw = new FileWriter(new File(logs, String.format("log-%02d", i)))) {
+        fw.write(new String(Files.readAllBytes(source.toPath()), StandardCharsets.UTF_8));
+        // a distinct final record per file to verify the ordering
+        fw.write("\n" + SAMPLE_LOG_ENTRY_1.replace("M7ZB7C4RTKXJKTM9", "request-" + i));
+      }
+    }
+    Path logsPath = new Path(logs.toURI());
+    Path serialPath = new Path(tempdir.newFile("serial.avro").toURI());
+    Path parallelPath = new Path(tempdir.newFile("parallel.avro").toURI());
+    new AuditLogProcessor(new Configuration(), 1, 1).mergeAndParseAuditLogFiles(logsPath,
+        serialPath, true, AuditLogProcessor.PROCESS_ALL);
+    AuditLogProcessor parallel = new AuditLogProcessor(new Configuration(), 1, 4);
+    parallel.mergeAndParseAuditLogFiles(logsPath, parallelPath, true,
+        AuditLogProcessor.PROCESS_ALL);
+    assertThat(parallel.getLogFilesParsed()).describedAs("files parsed by %s", parallel)
+        .isEqualTo(10);
+    assertThat(parallel.getLogRecordsProcessed()).describedAs("records parsed by %s", parallel)
+        .isEqualTo(10 * 37);
+    List<String> serialRecords = readRecords(serialPath);
+    assertThat(readRecords(parallelPath)).describedAs("records merged by %s", parallel)
+        .hasSize(10 * 37).containsExactlyElementsOf(serialRecords);
+  }
+
+  /**
+   * The records of source files smaller than a block share the blocks of the output, rather than
+   * each file ending a block; the blocks of larger files are copied.
+   */
+  @Test
+  public void testSmallFilesShareBlocks() throws IOException {
+    File logs = tempdir.newFolder("logs");
+    for (int i = 0; i < 10; i++) {
+      try (FileWriter fw = new FileWriter(new File(logs, String.format("log-%02d", i)))) {
+        fw.write(SAMPLE_LOG_ENTRY_1.replace("M7ZB7C4RTKXJKTM9", "request-" + i));
+      }
+    }
+    Path logsPath = new Path(logs.toURI());
+    Path destPath = tempAvroPath();
+    AuditLogProcessor processor = new AuditLogProcessor(new Configuration(), 1, 4);
+    processor.setCodec(CodecFactory.deflateCodec(9));
+    processor.mergeAndParseAuditLogFiles(logsPath, destPath, true,
+        AuditLogProcessor.PROCESS_ALL);
+    assertThat(processor.getLogRecordsProcessed()).describedAs("records parsed by %s", processor)
+        .isEqualTo(10);
+    assertThat(countBlocks(destPath)).describedAs("blocks of %s", destPath).isEqualTo(1);
+
+    // every record fills a block, so the blocks of each file are copied
+    processor.setSyncInterval(32);
+    processor.mergeAndParseAuditLogFiles(logsPath, destPath, true,
+        AuditLogProcessor.PROCESS_ALL);
+    assertThat(processor.getReferrerHeadersParsed())
+        .describedAs("referrer headers parsed by %s", processor).isEqualTo(10);
+    assertThat(countBlocks(destPath)).describedAs("blocks of %s", destPath).isEqualTo(10);
+    String records = readRecords(destPath).toString();
+    for (int i = 0; i < 10; i++) {
+      assertThat(records).describedAs("records of %s", destPath).contains("request-" + i);
+    }
+  }
+
+  /**
+   * The processing callback is invoked on every record in order and can stop processing part way
+   * through a file.
+   */
+  @Test
+  public void testProcessedCallbackStopsEarly() throws IOException {
+    Path auditDirPath =
+        new Path(this.getClass().getClassLoader().getResource("TestAuditLogs").toString());
+    Path destPath = tempAvroPath();
+    AuditLogProcessor processor = new AuditLogProcessor(new Configuration(), 1, 2);
+    AtomicInteger seen = new AtomicInteger();
+    long records = processor.mergeAndParseAuditLogFiles(auditDirPath, destPath, true,
+        record -> seen.incrementAndGet() < 40);
+    assertThat(records).describedAs("records processed by %s", processor).isEqualTo(40);
+    assertThat(seen.get()).describedAs("callbacks").isEqualTo(40);
+    assertThat(processor.getLogFilesParsed()).describedAs("files merged by %s", processor)
+        .isEqualTo(2);
+    assertThat(readRecords(destPath)).describedAs("records saved").hasSize(40);
+  }
+
+  /**
+   * Partition the output by hour and bucket, with compression.
+   */
+  @Test
+  public void testPartitionedOutput() throws IOException {
+    try (FileWriter fw = new FileWriter(new File(sampleDir, "log-1"))) {
+      fw.write(SAMPLE_LOG_ENTRY_1);
+      fw.write(SAMPLE_LOG_ENTRY_2);
+      fw.write(SAMPLE_LOG_ENTRY_1);
+    }
+    File dest = new File(tempdir.getRoot(), "partitioned");
+    AuditLogProcessor processor = new AuditLogProcessor(new Configuration(), 1, 2);
+    processor.setPartitioned(true, true);
+    processor.setCodec(CodecFactory.deflateCodec(6));
+    processor.mergeAndParseAuditLogFiles(new Path(sampleDir.toURI()), new Path(dest.toURI()),
+        false, AuditLogProcessor.PROCESS_ALL);
+    assertThat(processor.getFilesWritten()).describedAs("partitions written by %s", processor)
+        .isEqualTo(2);
+    Path first = new Path(new File(dest,
+        "date=2021-05-13/hour=11/bucket=bucket-london/" + PartitionedAvroOutput.PART_FILE)
+        .toURI());
+    Path second = new Path(new File(dest,
+        "date=2024-05-13/hour=11/bucket=bucket-london1/" + PartitionedAvroOutput.PART_FILE)
+        .toURI());
+    assertThat(readRecords(first)).describedAs("records in %s", first).hasSize(2);
+    assertThat(readRecords(second)).describedAs("records in %s", second).hasSize(1);
+  }
+
+  /**
+   * Overwriting a partitioned output replaces it: partitions of the earlier output which have no
+   * records in the new one are deleted.
+   */
+  @Test
+  public void testPartitionedOutputOverwrite() throws IOException {
+    File log = new File(sampleDir, "log-1");
+    try (FileWriter fw = new FileWriter(log)) {
+      fw.write(SAMPLE_LOG_ENTRY_1);
+      fw.write(SAMPLE_LOG_ENTRY_2);
+    }
+    File dest = new File(tempdir.getRoot(), "partitioned");
+    File first = new File(dest,
+        "date=2021-05-13/hour=11/bucket=bucket-london/" + PartitionedAvroOutput.PART_FILE);
+    File second = new File(dest,
+        "date=2024-05-13/hour=11/bucket=bucket-london1/" + PartitionedAvroOutput.PART_FILE);
+    AuditLogProcessor processor = new AuditLogProcessor(new Configuration(), 1, 2);
+    processor.setPartitioned(true, true);
+    processor.mergeAndParseAuditLogFiles(new Path(sampleDir.toURI()), new Path(dest.toURI()),
+        false, AuditLogProcessor.PROCESS_ALL);
+    assertThat(second).describedAs("partition of the first run").exists();
+
+    try (FileWriter fw = new FileWriter(log)) {
+      fw.write(SAMPLE_LOG_ENTRY_1);
+    }
+    processor = new AuditLogProcessor(new Configuration(), 1, 2);
+    processor.setPartitioned(true, true);
+    processor.mergeAndParseAuditLogFiles(new Path(sampleDir.toURI()), new Path(dest.toURI()),
+        true, AuditLogProcessor.PROCESS_ALL);
+    assertThat(readRecords(new Path(first.toURI()))).describedAs("records in %s", first)
+        .hasSize(1);
+    assertThat(second).describedAs("partition of the first run only").doesNotExist();
+  }
+
+  /**
+   * More partitions than can be open at a time: the records of a partition written after its
+   * staging file was closed keep the codec level of the output. With deflate level 0 nothing is
+   * compressed, so every partition file is longer than its encoded records.
+   */
+  @Test
+  public void testPartitionedOutputLevelAfterReopening() throws IOException {
+    final int partitions = PartitionedAvroOutput.MAX_OPEN_PARTITIONS + 8;
+    final int logFiles = 3;
+    final int entries = 20;
+    for (int f = 0; f < logFiles; f++) {
+      try (FileWriter fw = new FileWriter(new File(sampleDir, "log-" + f))) {
+        for (int p = 0; p < partitions; p++) {
+          String entry = SAMPLE_LOG_ENTRY_1.replace("13/May/2021:11",
+              String.format("%02d/May/2021:%02d", 13 + p / 24, p % 24));
+          for (int i = 0; i < entries; i++) {
+            fw.write(entry);
+          }
+        }
+      }
+    }
+    File dest = new File(tempdir.getRoot(), "reopened");
+    AuditLogProcessor processor = new AuditLogProcessor(new Configuration(), 1, 2);
+    processor.setPartitioned(true, false);
+    processor.setCodec(CodecFactory.deflateCodec(0));
+    processor.mergeAndParseAuditLogFiles(new Path(sampleDir.toURI()), new Path(dest.toURI()),
+        false, AuditLogProcessor.PROCESS_ALL);
+    assertThat(processor.getFilesWritten()).describedAs("partitions written by %s", processor)
+        .isEqualTo(partitions);
+    SpecificDatumWriter<AvroS3LogEntryRecord> datumWriter =
+        new SpecificDatumWriter<>(AvroS3LogEntryRecord.class);
+    for (int p = 0; p < partitions; p++) {
+      File file = new File(dest, String.format("date=2021-05-%02d/hour=%02d/%s",
+          13 + p / 24, p % 24, PartitionedAvroOutput.PART_FILE));
+      ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+      BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(encoded, null);
+      int records = 0;
+      try (DataFileReader<AvroS3LogEntryRecord> reader = new DataFileReader<>(file,
+          new SpecificDatumReader<>(AvroS3LogEntryRecord.class))) {
+        for (AvroS3LogEntryRecord record : reader) {
+          datumWriter.write(record, encoder);
+          records++;
+        }
+      }
+      assertThat(records).describedAs("records in %s", file).isEqualTo(logFiles * entries);
+      assertThat(file.length()).describedAs("length of %s", file)
+          .isGreaterThan(encoded.size());
+    }
+  }
+
+  /**
+   * Compressed log files are decompressed by the codec of their extension; their records are the
+   * same as those of the plain files.
+   */
+  @Test
+  public void testCompressedInput() throws IOException {
+    File source = new File(
+        this.getClass().getClassLoader().getResource("TestAuditLogs/sampleLog1").getFile());
+    byte[] text = Files.readAllBytes(source.toPath());
+    File plain = tempdir.newFolder("plain");
+    File compressed = tempdir.newFolder("compressed");
+    Files.write(new File(plain, "log-1").toPath(), text);
+    try (OutputStream out = new GZIPOutputStream(
+        new FileOutputStream(new File(compressed, "log-1.gz")))) {
+      out.write(text);
+    }
+    Path plainPath = new Path(tempdir.newFile("plain.avro").toURI());
+    Path compressedPath = new Path(tempdir.newFile("compressed.avro").toURI());
+    new AuditLogProcessor(new Configuration(), 1, 2).mergeAndParseAuditLogFiles(
+        new Path(plain.toURI()), plainPath, true, AuditLogProcessor.PROCESS_ALL);
+    AuditLogProcessor processor = new AuditLogProcessor(new Configuration(), 1, 2);
+    processor.mergeAndParseAuditLogFiles(new Path(compressed.toURI()), compressedPath, true,
+        AuditLogProcessor.PROCESS_ALL);
+    assertThat(processor.getLogRecordsProcessed()).describedAs("records parsed by %s", processor)
+        .isEqualTo(36);
+    assertThat(readRecords(compressedPath)).describedAs("records of the compressed file")
+        .containsExactlyElementsOf(readRecords(plainPath));
+  }
+
+  /**
+   * Sample the lines, files or a reservoir of copies of the sample logs: the records are a
+   * subsequence of all the records, and the scale estimates the number of records.
+   */
+  @Test
+  public void testSampling() throws IOException {
+    File logs = tempdir.newFolder("logs");
+    File source = new File(
+        this.getClass().getClassLoader().getResource("TestAuditLogs/sampleLog1").getFile());
+    List<String> lines = Files.readAllLines(source.toPath(), StandardCharsets.UTF_8);
+    for (int i = 0; i < 20; i++) {
+      try (FileWriter fw = new FileWriter(new File(logs, String.format("log-%02d", i)))) {
+        // a distinct request ID per line
+        for (int j = 0; j < lines.size(); j++) {
+          fw.write(lines.get(j).replace("M7ZB7C4RTKXJKTM9", "request-" + i + "-" + j) + "\n");
+        }
+      }
+    }
+    Path logsPath = new Path(logs.toURI());
+    Path allPath = new Path(tempdir.newFile("all.avro").toURI());
+    new AuditLogProcessor(new Configuration(), 1, 2).mergeAndParseAuditLogFiles(logsPath,
+        allPath, true, AuditLogProcessor.PROCESS_ALL);
+    List<String> all = readRecords(allPath);
+    assertThat(all).describedAs("all records").hasSize(20 * 36);
+
+    // the constructor samples one line in n of every file
+    AuditLogProcessor processor = new AuditLogProcessor(new Configuration(), 4, 2);
+    Path linesPath = new Path(tempdir.newFile("lines.avro").toURI());
+    processor.mergeAndParseAuditLogFiles(logsPath, linesPath, true,
+        AuditLogProcessor.PROCESS_ALL);
+    assertThat(processor.getLogRecordsProcessed()).describedAs("records sampled by %s", processor)
+        .isEqualTo(20 * 9);
+    assertThat(processor.getSampleScale()).describedAs("scale").isEqualTo(4.0);
+    assertThat(all).describedAs("all records").containsSubsequence(readRecords(linesPath));
+
+    processor.setSampling(AuditSampling.reservoir(50));
+    Path reservoirPath = new Path(tempdir.newFile("reservoir.avro").toURI());
+    processor.mergeAndParseAuditLogFiles(logsPath, reservoirPath, true,
+        AuditLogProcessor.PROCESS_ALL);
+    assertThat(processor.getLinesRead()).describedAs("lines read").isEqualTo(20 * 36);
+    assertThat(processor.getSampleScale()).describedAs("scale").isEqualTo(20 * 36 / 50.0);
+    List<String> reservoir = readRecords(reservoirPath);
+    assertThat(reservoir).describedAs("reservoir").hasSize(50);
+    assertThat(all).describedAs("all records").containsSubsequence(reservoir);
+    List<String> again = new ArrayList<>();
+    processor.parseAuditLogFiles(logsPath, record -> again.add(record.getRequestid().toString()));
+    assertThat(again).describedAs("request IDs of the reservoir sampled again")
+        .hasSize(50)
+        .allSatisfy(id -> assertThat(reservoir).anyMatch(r -> r.contains("\"" + id + "\"")));
+
+    processor.setSampling(AuditSampling.files(2));
+    processor.parseAuditLogFiles(logsPath, AuditLogProcessor.PROCESS_ALL);
+    long sampled = processor.getLogFilesParsed();
+    assertThat(sampled).describedAs("files sampled by %s", processor).isBetween(1L, 19L);
+    assertThat(processor.getLogRecordsProcessed()).describedAs("records of the files sampled")
+        .isEqualTo(36 * sampled);
+    assertThat(processor.getSampleScale() * processor.getLogRecordsProcessed())
+        .describedAs("estimated records").isCloseTo(20.0 * 36, withinPercentage(1));
+  }
+
+  /**
+   * Files whose names show that they are outside the time range are skipped; records are only
+   * filtered in files at the ends of the range or without a timestamp in their names.
+   */
+  @Test
+  public void testTimeRange() throws IOException {
+    File logs = tempdir.newFolder("logs");
+    File source = new File(
+        this.getClass().getClassLoader().getResource("TestAuditLogs/sampleLog1").getFile());
+    String text = new String(Files.readAllBytes(source.toPath()), StandardCharsets.UTF_8);
+    // file name and hour of its records
+    String[][] files = {
+        {"log-2021-05-13-11-30-00-AAAA", "11"},
+        {"log-2021-05-13-13-30-00-BBBB", "13"},
+        {"log-2021-05-13-15-30-00-CCCC", "15"},
+        {"log-2021-05-13-14-30-00-DDDD", "13"},
+        {"log-2021-05-13-14-45-00-EEEE", "14"},
+        {"unknown", "12"}};
+    for (String[] file : files) {
+      try (FileWriter fw = new FileWriter(new File(logs, file[0]))) {
+        fw.write(text.replace("13/May/2021:11:", "13/May/2021:" + file[1] + ":"));
+      }
+    }
+    AuditLogProcessor processor = new AuditLogProcessor(new Configuration(), 1, 2);
+    processor.setTimeRange(new AuditTimeRange(AuditTimeRange.parseTime("2021-05-13T12:00"),
+        AuditTimeRange.parseTime("2021-05-13T14:00"), Duration.ofHours(1)));
+    List<AvroS3LogEntryRecord> records = new ArrayList<>();
+    processor.parseAuditLogFiles(new Path(logs.toURI()), records::add);
+    assertThat(processor.getLogFilesOutOfRange()).describedAs("files skipped by %s", processor)
+        .isEqualTo(2);
+    assertThat(processor.getLogFilesParsed()).describedAs("files parsed by %s", processor)
+        .isEqualTo(4);
+    assertThat(processor.getRecordsOutOfRange()).describedAs("records filtered by %s", processor)
+        .isEqualTo(36);
+    assertThat(records).describedAs("records in the range").hasSize(3 * 36)
+        .extracting(r -> r.getEvent().toString())
+        .allMatch(t -> t.startsWith("2021-05-13T12:") || t.startsWith("2021-05-13T13:"));
+  }
+
+  @Test
+  public void testParseSampling() {
+    assertThat(AuditSampling.parse("10")).describedAs("lines")
+        .extracting(AuditSampling::getMode, AuditSampling::getSize)
+        .containsExactly(AuditSampling.Mode.LINES, 10);
+    assertThat(AuditSampling.parse("files: 5")).describedAs("files")
+        .extracting(AuditSampling::getMode, AuditSampling::getSize)
+        .containsExactly(AuditSampling.Mode.FILES, 5);
+    assertThat(AuditSampling.parse("reservoir:1000").getMode()).describedAs("reservoir")
+        .isEqualTo(AuditSampling.Mode.RESERVOIR);
+    assertThat(AuditSampling.parse("lines:1").isSampling()).describedAs("one in one lines")
+        .isFalse();
+    Assertions.assertThatThrownBy(() -> AuditSampling.parse("hours:2"))
+        .isInstanceOf(IllegalArgumentException.class);
+    Assertions.assertThatThrownBy(() -> AuditSampling.parse("reservoir:0"))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  /**
+   * Read the records of an avro file.
+   *
+   * @param path path of the file
+   * @return the string values of the records
+   */
+  private static List<String> readRecords(Path path) throws IOException {
+    List<String> records = new ArrayList<>();
+    try (DataFileReader<AvroS3LogEntryRecord> reader = new DataFileReader<>(
+        new File(path.toUri()), new SpecificDatumReader<>(AvroS3LogEntryRecord.class))) {
+      for (AvroS3LogEntryRecord record : reader) {
+        records.add(record.toString());
+      }
+    }
+    return records;
+  }
+
+  /**
+   * Count the blocks of an avro file.
+   *
+   * @param path path of the file
+   * @return the number of blocks with records
+   */
+  private static int countBlocks(Path path) throws IOException {
+    Set<Long> blocks = new HashSet<>();
+    try (DataFileReader<AvroS3LogEntryRecord> reader = new DataFileReader<>(
+        new File(path.toUri()), new SpecificDatumReader<>(AvroS3LogEntryRecord.class))) {
+      while (reader.hasNext()) {
+        // the position of the block of the next record, which moves on once a block is read
+        blocks.add(reader.previousSync());
+        reader.next();
+      }
+    }
+    return blocks.size();
+  }
+
   private Path tempAvroPath() throws IOException {
     File destFile = tempdir.newFile(getMethodName() + ".avro");
     return new Path(destFile.toURI());
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import static org.apache.hadoop.fs.store.audit.TestAuditLogProcessor.SAMPLE_LOG_ENTRY_1;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.tools.csv.SimpleCsvWriter;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+/**
+ * Unit tests on {@link AuditStatistics}.
+ */
+public class TestAuditStatistics {
+
+  private final S3LogTokenizer tokenizer = new S3LogTokenizer();
+
+  /**
+   * Build a record from the sample entry with a different key, total time and status.
+   *
+   * @param key object key
+   * @param totalTime total time
+   * @param status HTTP status
+   * @return the record
+   */
+  private AvroS3LogEntryRecord record(String key, String totalTime, String status) {
+    String line = SAMPLE_LOG_ENTRY_1.trim()
+        .replace(" fork-0001/test/testParseBrokenCSVFile ", " " + key + " ")
+        .replace(" 200 - - 794 55 17 ", " " + status + " - 1000 794 " + totalTime + " 17 ")
+        .replace("&pr=alice", "&pr=alice&ji=job-" + key.charAt(0));
+    AvroS3LogEntryRecord record = new AvroS3LogEntryRecord();
+    assertThat(tokenizer.parse(new Text(line), record)).describedAs("parsing %s", line).isTrue();
+    return record;
+  }
+
+  @Test
+  public void testAggregation() throws IOException {
+    AuditStatistics statistics = new AuditStatistics(2, 100);
+    statistics.processed(record("a/1", "10", "200"));
+    statistics.processed(record("a/2", "30", "200"));
+    statistics.processed(record("b/c/1", "500", "503"));
+    statistics.processed(record("b/c/2", "-", "200"));
+
+    assertThat(statistics.getRequests()).describedAs("requests").isEqualTo(4);
+    assertThat(statistics.getErrors()).describedAs("errors").isEqualTo(1);
+    assertThat(statistics.getBytes()).describedAs("bytes").isEqualTo(4000);
+    assertThat(statistics.getTotalTime().samples()).describedAs("total time samples")
+        .isEqualTo(3);
+    assertThat(statistics.getTotalTime().max()).describedAs("max total time")
+        .isEqualTo(500_000_000L);
+
+    List<Map.Entry<String, AuditStatistics.Stats>> prefixes = statistics.ranking("prefix");
+    assertThat(prefixes).extracting(Map.Entry::getKey).describedAs("prefixes")
+        .containsExactly("b/c/", "a/");
+    assertThat(prefixes.get(1).getValue().getTotalTime()).describedAs("time of a/")
+        .isEqualTo(40);
+    assertThat(statistics.ranking("status")).extracting(Map.Entry::getKey)
+        .describedAs("statuses").containsExactly("200", "503");
+    assertThat(statistics.ranking("job")).extracting(Map.Entry::getKey).describedAs("jobs")
+        .containsExactly("job-b", "job-a");
+    assertThat(statistics.slowest()).extracting(AuditStatistics.SlowRequest::getTotalTime)
+        .describedAs("slowest").containsExactly(500L, 30L);
+
+    ByteArrayOutputStream report = new ByteArrayOutputStream();
+    statistics.report(new PrintStream(report, true, "UTF-8"));
+    assertThat(report.toString("UTF-8")).describedAs("report").contains("REST.PUT.OBJECT", "b/c/",
+        "job-a");
+
+    ByteArrayOutputStream csvData = new ByteArrayOutputStream();
+    try (SimpleCsvWriter csv = new SimpleCsvWriter(csvData, ",", "\n", true, true)) {
+      statistics.writeCsv(csv);
+    }
+    String[] rows = new String(csvData.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    // header, totals, verb, 2 statuses, requester, 2 prefixes, 2 jobs, 2 slowest
+    assertThat(rows).describedAs("CSV rows").hasSize(12);
+    assertThat(rows[1]).describedAs("totals")
+        .startsWith("\"all\",\"\",4,1,4000,540,\"180.000\",500,");
+  }
+
+  /**
+   * The counts of a sample are scaled in the report and CSV file; the times per request are not.
+   */
+  @Test
+  public void testScaled() throws IOException {
+    AuditStatistics statistics = new AuditStatistics(2, 100);
+    statistics.processed(record("a/1", "10", "200"));
+    statistics.processed(record("a/2", "30", "503"));
+    statistics.setScale(10);
+
+    ByteArrayOutputStream report = new ByteArrayOutputStream();
+    statistics.report(new PrintStream(report, true, "UTF-8"));
+    assertThat(report.toString("UTF-8")).describedAs("report")
+        .contains("Estimated from a sample of 2 requests", "Requests: 20; errors: 10;");
+
+    ByteArrayOutputStream csvData = new ByteArrayOutputStream();
+    try (SimpleCsvWriter csv = new SimpleCsvWriter(csvData, ",", "\n", true, true)) {
+      statistics.writeCsv(csv);
+    }
+    String[] rows = new String(csvData.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    assertThat(rows[1]).describedAs("totals")
+        .startsWith("\"all\",\"\",20,10,20000,400,\"20.000\",30,")
+        .endsWith("\"scaled by 10.000\"");
+    assertThat(rows[rows.length - 1]).describedAs("slowest request")
+        .startsWith("\"slowest\",\"M7ZB7C4RTKXJKTM9\",1,0,0,10,");
+  }
+
+  /**
+   * Groups keep a bounded number of keys; the others are folded into one entry.
+   */
+  @Test
+  public void testKeysBounded() {
+    AuditStatistics statistics = new AuditStatistics(3, 3);
+    for (int i = 0; i < 100; i++) {
+      statistics.processed(record("dir" + i + "/file", Integer.toString(i), "200"));
+    }
+    List<Map.Entry<String, AuditStatistics.Stats>> prefixes = statistics.ranking("prefix");
+    assertThat(prefixes).extracting(Map.Entry::getKey).describedAs("prefixes")
+        .containsExactly(AuditStatistics.OTHER, "dir99/", "dir98/");
+    assertThat(prefixes.get(0).getValue().getRequests())
+        .describedAs("requests folded into %s", AuditStatistics.OTHER)
+        .isGreaterThan(90);
+  }
+
+  @Test
+  public void testPrefixOf() {
+    assertThat(AuditStatistics.prefixOf("a/b/c")).isEqualTo("a/b/");
+    assertThat(AuditStatistics.prefixOf("a/b/")).isEqualTo("a/");
+    assertThat(AuditStatistics.prefixOf("file")).isEqualTo("/");
+    assertThat(AuditStatistics.prefixOf("-")).isNull();
+    assertThat(AuditStatistics.prefixOf(null)).isNull();
+  }
+
+  /**
+   * Parse the sample logs into the statistics without an Avro file.
+   */
+  @Test
+  public void testParseSampleLogs() throws IOException {
+    Path logs = new Path(this.getClass().getClassLoader().getResource("TestAuditLogs").toString());
+    AuditStatistics statistics = new AuditStatistics();
+    AuditLogProcessor processor = new AuditLogProcessor(new Configuration(), 0, 2);
+    assertThat(processor.parseAuditLogFiles(logs, statistics)).describedAs("records parsed")
+        .isEqualTo(36 + 36);
+    assertThat(statistics.getRequests()).describedAs("requests").isEqualTo(36 + 36);
+    assertThat(statistics.getTotalTime().percentileMillis(50)).describedAs("median total time")
+        .isEqualTo(55.0);
+    assertThat(statistics.ranking("verb")).extracting(Map.Entry::getKey).describedAs("verbs")
+        .containsExactly("REST.PUT.OBJECT");
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import static org.apache.hadoop.fs.store.audit.AuditTimeRange.parseTime;
+import static org.apache.hadoop.fs.store.audit.AuditTimeRange.timestampOfLogFile;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.util.functional.RemoteIterators;
+import org.junit.Test;
+
+/**
+ * Unit tests on {@link AuditTimeRange}.
+ */
+public class TestAuditTimeRange {
+
+  private static final Instant DELIVERED = Instant.parse("2026-01-02T14:32:17Z");
+
+  @Test
+  public void testTimestampOfLogFile() {
+    assertThat(timestampOfLogFile(
+        new Path("s3a://logs/london/log-2026-01-02-14-32-17-E552136FFD8BB1DE")))
+        .describedAs("simple format").isEqualTo(DELIVERED);
+    assertThat(timestampOfLogFile(new Path("s3a://logs/123456789012/eu-west-2/london/2026/01/02/"
+        + "2026-01-02-14-32-17-E552136FFD8BB1DE")))
+        .describedAs("partitioned format").isEqualTo(DELIVERED);
+    assertThat(timestampOfLogFile(new Path("file:///tmp/logs/sampleLog1")))
+        .describedAs("no timestamp").isNull();
+    assertThat(timestampOfLogFile(new Path("file:///tmp/logs/log-2026-13-02-14-32-17-E55")))
+        .describedAs("invalid month").isNull();
+  }
+
+  @Test
+  public void testParseTime() {
+    assertThat(parseTime("2026-01-02T14:32:17Z")).isEqualTo(DELIVERED);
+    assertThat(parseTime("2026-01-02T14:32:17")).isEqualTo(DELIVERED);
+    assertThat(parseTime("2026-01-02")).isEqualTo(Instant.parse("2026-01-02T00:00:00Z"));
+    assertThatThrownBy(() -> parseTime("yesterday"))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThat(AuditTimeRange.fromOptions(null, null, "2h")).describedAs("no range").isNull();
+    assertThatThrownBy(() -> AuditTimeRange.fromOptions("2026-01-02", "2026-01-01", null))
+        .describedAs("empty range").isInstanceOf(IllegalArgumentException.class);
+  }
+
+  /**
+   * A file may have records up to the delivery lag before its delivery time.
+   */
+  @Test
+  public void testFilesInRange() {
+    AuditTimeRange range = new AuditTimeRange(parseTime("2026-01-02T12:00"),
+        parseTime("2026-01-02T14:00"), Duration.ofHours(1));
+    assertThat(range.mayContain(parseTime("2026-01-02T11:59"))).describedAs("before").isFalse();
+    assertThat(range.mayContain(parseTime("2026-01-02T12:30"))).describedAs("start").isTrue();
+    assertThat(range.containsAll(parseTime("2026-01-02T12:30"))).describedAs("start").isFalse();
+    assertThat(range.containsAll(parseTime("2026-01-02T13:30"))).describedAs("within").isTrue();
+    assertThat(range.mayContain(parseTime("2026-01-02T14:59"))).describedAs("end").isTrue();
+    assertThat(range.containsAll(parseTime("2026-01-02T14:59"))).describedAs("end").isFalse();
+    assertThat(range.mayContain(parseTime("2026-01-02T15:00"))).describedAs("after").isFalse();
+    assertThat(range.mayContain(null)).describedAs("unknown").isTrue();
+    assertThat(range.containsAll(null)).describedAs("unknown").isFalse();
+    assertThat(range.contains(parseTime("2026-01-02T14:00"))).describedAs("end").isFalse();
+    assertThat(new AuditTimeRange(null, null, Duration.ofHours(1)).containsAll(DELIVERED))
+        .describedAs("unbounded").isTrue();
+  }
+
+  /**
+   * In the partitioned format only the date directories of the days on which files with records
+   * in the range may have been delivered are listed; a flat directory is listed in full.
+   */
+  @Test
+  public void testListDateDirectories() throws IOException {
+    File root = Files.createTempDirectory("logs").toFile();
+    for (String day : new String[]{"2025/12/31", "2026/01/01", "2026/01/02", "2026/01/03",
+        "2026/02/01"}) {
+      File dir = new File(root, day);
+      assertThat(dir.mkdirs()).describedAs("mkdirs %s", dir).isTrue();
+      assertThat(new File(dir, day.replace('/', '-') + "-12-00-00-E552136FFD8BB1DE")
+          .createNewFile()).describedAs("create in %s", dir).isTrue();
+    }
+    Path logs = new Path(root.toURI());
+    ListingFileSystem fs = new ListingFileSystem(root);
+    AuditTimeRange range = new AuditTimeRange(parseTime("2026-01-02T23:30"),
+        parseTime("2026-01-03T00:30"), Duration.ofHours(1));
+    List<String> files = new ArrayList<>();
+    RemoteIterators.foreach(range.listLogFiles(fs, logs), s -> files.add(s.getPath().getName()));
+    assertThat(files).describedAs("files listed")
+        .containsExactly("2026-01-02-12-00-00-E552136FFD8BB1DE",
+            "2026-01-03-12-00-00-E552136FFD8BB1DE");
+    assertThat(fs.listed).describedAs("directories listed")
+        .containsExactlyInAnyOrder("", "/2026", "/2026/01", "/2026/01/02", "/2026/01/03");
+
+    assertThat(range.dateDirectories(fs, new Path(logs, "2026/01/02")))
+        .describedAs("not partitioned").isNull();
+  }
+
+  /**
+   * A local filesystem which records the directories listed, relative to a root.
+   */
+  private static final class ListingFileSystem extends RawLocalFileSystem {
+
+    private final String root;
+
+    private final List<String> listed = new ArrayList<>();
+
+    private ListingFileSystem(File root) throws IOException {
+      this.root = new Path(root.toURI()).toUri().getPath();
+      initialize(URI.create("file:///"), new Configuration());
+    }
+
+    @Override
+    public FileStatus[] listStatus(Path f) throws IOException {
+      listed.add(StringUtils.removeEnd(f.toUri().getPath(), "/").substring(
+          StringUtils.removeEnd(root, "/").length()));
+      return super.listStatus(f);
+    }
+  }
+}
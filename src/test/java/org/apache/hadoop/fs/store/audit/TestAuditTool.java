@@ -20,10 +20,15 @@ package org.apache.hadoop.fs.store.audit;
 import static org.apache.hadoop.fs.s3a.audit.S3LogParser.BUCKET_GROUP;
 import static org.apache.hadoop.fs.s3a.audit.S3LogParser.REMOTEIP_GROUP;
 import static org.apache.hadoop.fs.store.audit.TestAuditLogProcessor.SAMPLE_LOG_ENTRY_1;
+import static org.apache.hadoop.fs.store.audit.TestAuditLogProcessor.SAMPLE_LOG_ENTRY_2;
+import static org.apache.hadoop.service.launcher.LauncherExitCodes.EXIT_COMMAND_ARGUMENT_ERROR;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import org.apache.avro.file.DataFileReader;
 import org.apache.avro.io.DatumReader;
 import org.apache.avro.specific.SpecificDatumReader;
@@ -103,4 +108,176 @@ public class TestAuditTool {
           .extracting(Object::toString).isEqualTo("109.157.171.174");
     }
   }
+
+  /**
+   * Incremental runs add segments of the new and changed files to the output directory, and
+   * record them in its ledger.
+   */
+  @Test
+  public void testIncrementalRun() throws Exception {
+    File sampleDir = Files.createTempDirectory("sampleDir").toFile();
+    File first = new File(sampleDir, "log-1");
+    try (FileWriter fw = new FileWriter(first)) {
+      fw.write(SAMPLE_LOG_ENTRY_1);
+    }
+    File destDir = new File(Files.createTempDirectory("sampleDestDir").toFile(), "output");
+    Path logsPath = new Path(sampleDir.toURI());
+    Path destPath = new Path(destDir.toURI());
+    String[] args = {"-incremental", logsPath.toString(), destPath.toString()};
+
+    Assertions.assertThat(ToolRunner.run(new Configuration(), new AuditTool(), args))
+        .describedAs("first run").isEqualTo(0);
+    Assertions.assertThat(countSegmentRecords(destPath)).describedAs("records").containsExactly(1);
+
+    // a new file and a longer first file
+    try (FileWriter fw = new FileWriter(new File(sampleDir, "log-2"))) {
+      fw.write(SAMPLE_LOG_ENTRY_2);
+    }
+    try (FileWriter fw = new FileWriter(first, true)) {
+      fw.write(SAMPLE_LOG_ENTRY_1);
+    }
+    Assertions.assertThat(ToolRunner.run(new Configuration(), new AuditTool(), args))
+        .describedAs("second run").isEqualTo(0);
+    Assertions.assertThat(countSegmentRecords(destPath)).describedAs("records")
+        .containsExactly(1, 3);
+
+    // nothing new: no segment is added
+    Assertions.assertThat(ToolRunner.run(new Configuration(), new AuditTool(), args))
+        .describedAs("third run").isEqualTo(0);
+    Assertions.assertThat(countSegmentRecords(destPath)).describedAs("records")
+        .containsExactly(1, 3);
+
+    FileSystem fs = destPath.getFileSystem(conf);
+    ProcessedFileLedger ledger = ProcessedFileLedger.load(fs, destPath);
+    Assertions.assertThat(ledger.size()).describedAs("files in %s", ledger.getPath())
+        .isEqualTo(2);
+    Assertions.assertThat(ledger.isProcessed(fs.getFileStatus(new Path(first.toURI()))))
+        .describedAs("%s is processed", first).isTrue();
+  }
+
+  /**
+   * With deduplication, the request IDs of earlier runs are saved beside the ledger, so records
+   * delivered again in later files are dropped.
+   */
+  @Test
+  public void testIncrementalDeduplication() throws Exception {
+    File sampleDir = Files.createTempDirectory("sampleDir").toFile();
+    try (FileWriter fw = new FileWriter(new File(sampleDir, "log-1"))) {
+      fw.write(SAMPLE_LOG_ENTRY_1);
+    }
+    File destDir = new File(Files.createTempDirectory("sampleDestDir").toFile(), "output");
+    Path logsPath = new Path(sampleDir.toURI());
+    Path destPath = new Path(destDir.toURI());
+    String[] args = {"-incremental", "-dedup", "-dedupmemory", "1M", logsPath.toString(),
+        destPath.toString()};
+
+    Assertions.assertThat(ToolRunner.run(new Configuration(), new AuditTool(), args))
+        .describedAs("first run").isEqualTo(0);
+    Assertions.assertThat(new File(destDir, DuplicateRecordFilter.FILTER_FILE))
+        .describedAs("saved filter").exists();
+
+    // the first record delivered again, and a new one
+    try (FileWriter fw = new FileWriter(new File(sampleDir, "log-2"))) {
+      fw.write(SAMPLE_LOG_ENTRY_1);
+      fw.write(SAMPLE_LOG_ENTRY_1.replace("M7ZB7C4RTKXJKTM9", "NEWREQUEST000001"));
+    }
+    Assertions.assertThat(ToolRunner.run(new Configuration(), new AuditTool(), args))
+        .describedAs("second run").isEqualTo(0);
+    Assertions.assertThat(countSegmentRecords(destPath)).describedAs("records")
+        .containsExactly(1, 1);
+  }
+
+  /**
+   * An indexed output is queried by auditquery, which only reads its matching blocks.
+   */
+  @Test
+  public void testIndexedQuery() throws Exception {
+    File sampleDir = Files.createTempDirectory("sampleDir").toFile();
+    try (FileWriter fw = new FileWriter(new File(sampleDir, "log-1"))) {
+      fw.write(SAMPLE_LOG_ENTRY_1);
+      fw.write(SAMPLE_LOG_ENTRY_1.replace("M7ZB7C4RTKXJKTM9", "NEWREQUEST000001")
+          .replace("&pr=alice", "&pr=bob"));
+    }
+    File destDir = Files.createTempDirectory("sampleDestDir").toFile();
+    Path logsPath = new Path(sampleDir.toURI());
+    Path destPath = new Path(new File(destDir, "indexed.avro").toURI());
+    Assertions.assertThat(ToolRunner.run(new Configuration(), new AuditTool(),
+            new String[]{"-index", logsPath.toString(), destPath.toString()}))
+        .describedAs("indexed run").isEqualTo(0);
+    AuditBlockIndex index = AuditBlockIndex.load(destPath.getFileSystem(conf), destPath);
+    Assertions.assertThat(index).describedAs("index of %s", destPath).isNotNull();
+    Assertions.assertThat(index.getBlocks()).describedAs("blocks")
+        .extracting(AuditBlockIndex.Block::getRecords).containsExactly(2L);
+
+    File csv = new File(destDir, "bob.csv");
+    Assertions.assertThat(ToolRunner.run(new Configuration(), new AuditQuery(),
+            new String[]{"-principal", "bob", "-csv", csv.toURI().toString(),
+                destPath.toString()}))
+        .describedAs("query of bob").isEqualTo(0);
+    Assertions.assertThat(Files.readAllLines(csv.toPath())).describedAs("saved records")
+        .hasSize(2)
+        .last().asString().contains("NEWREQUEST000001");
+    Assertions.assertThat(ToolRunner.run(new Configuration(), new AuditQuery(),
+            new String[]{"-principal", "carol", destPath.toString()}))
+        .describedAs("query of carol").isNotEqualTo(0);
+  }
+
+  /**
+   * Neither sampling nor a time range can be combined with incremental processing, as the ledger
+   * would list files of which only some records had been processed.
+   */
+  @Test
+  public void testIncrementalRejectsPartialProcessing() throws Exception {
+    File sampleDir = Files.createTempDirectory("sampleDir").toFile();
+    File destDir = new File(Files.createTempDirectory("sampleDestDir").toFile(), "output");
+    String logs = new Path(sampleDir.toURI()).toString();
+    String dest = new Path(destDir.toURI()).toString();
+    Assertions.assertThat(ToolRunner.run(new Configuration(), new AuditTool(),
+            new String[]{"-incremental", "-from", "2026-01-02", logs, dest}))
+        .describedAs("incremental run with a time range")
+        .isEqualTo(EXIT_COMMAND_ARGUMENT_ERROR);
+    Assertions.assertThat(ToolRunner.run(new Configuration(), new AuditTool(),
+            new String[]{"-incremental", "-sample", "files:10", logs, dest}))
+        .describedAs("incremental run with sampling")
+        .isEqualTo(EXIT_COMMAND_ARGUMENT_ERROR);
+    Assertions.assertThat(destDir).describedAs("output").doesNotExist();
+  }
+
+  @Test
+  public void testCodecOption() {
+    Assertions.assertThat(AuditTool.newCodec(null)).hasToString("null");
+    Assertions.assertThat(AuditTool.newCodec("snappy")).hasToString("snappy");
+    Assertions.assertThat(AuditTool.newCodec("deflate:9")).hasToString("deflate-9");
+    Assertions.assertThat(AuditTool.newCodec("xz:3")).hasToString("xz-3");
+    Assertions.assertThat(AuditTool.newCodec("zstd:12")).hasToString("zstandard[12]");
+    for (String codec : new String[]{"lz4", "deflate:10", "deflate:x", "snappy:1"}) {
+      Assertions.assertThatThrownBy(() -> AuditTool.newCodec(codec)).describedAs(codec)
+          .isInstanceOf(IllegalArgumentException.class);
+    }
+  }
+
+  /**
+   * Count the records of each segment of an output directory.
+   *
+   * @param destPath output directory
+   * @return the number of records in each segment, in the order of their names
+   */
+  private static List<Integer> countSegmentRecords(Path destPath) throws Exception {
+    File[] segments = new File(destPath.toUri()).listFiles((dir, name) -> name.endsWith(".avro"));
+    Assertions.assertThat(segments).describedAs("segments in %s", destPath).isNotNull();
+    Arrays.sort(segments);
+    List<Integer> counts = new ArrayList<>();
+    for (File segment : segments) {
+      int count = 0;
+      try (DataFileReader<AvroS3LogEntryRecord> reader = new DataFileReader<>(segment,
+          new SpecificDatumReader<>(AvroS3LogEntryRecord.class))) {
+        while (reader.hasNext()) {
+          reader.next();
+          count++;
+        }
+      }
+      counts.add(count);
+    }
+    return counts;
+  }
 }
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests on {@link DuplicateRecordFilter}.
+ */
+public class TestDuplicateRecordFilter {
+
+  @Rule
+  public TemporaryFolder tempdir = new TemporaryFolder();
+
+  @Test
+  public void testDuplicates() {
+    DuplicateRecordFilter filter = new DuplicateRecordFilter(1024 * 1024, 1e-4);
+    assertThat(filter.isDuplicate("M7ZB7C4RTKXJKTM9", "host-1")).describedAs("first").isFalse();
+    assertThat(filter.isDuplicate("M7ZB7C4RTKXJKTM9", "host-1")).describedAs("again").isTrue();
+    assertThat(filter.isDuplicate("M7ZB7C4RTKXJKTM9", "host-2")).describedAs("other host")
+        .isFalse();
+    assertThat(filter.isDuplicate("M7ZB7C4RTKXJKTM", "9host-1")).describedAs("split differently")
+        .isFalse();
+    assertThat(filter.isDuplicate("-", "host-1")).describedAs("no request ID").isFalse();
+    assertThat(filter.isDuplicate("-", "host-1")).describedAs("no request ID again").isFalse();
+    assertThat(filter.size()).describedAs("request IDs held by %s", filter).isEqualTo(3);
+  }
+
+  /**
+   * Memory is fixed: the oldest generation is cleared when the newest is full, and the records of
+   * the other generations are still detected, with the false positive rate bounded throughout.
+   */
+  @Test
+  public void testGenerations() {
+    DuplicateRecordFilter filter = new DuplicateRecordFilter(1024 * 1024, 1e-3);
+    long capacity = filter.getCapacity();
+    long records = capacity * DuplicateRecordFilter.GENERATIONS * 2;
+    // false positives are not added, so they are not expected to be found again
+    Set<Long> falsePositives = new HashSet<>();
+    for (long i = 0; i < records; i++) {
+      if (filter.isDuplicate("request-" + i, "host")) {
+        falsePositives.add(i);
+      }
+    }
+    assertThat((double) falsePositives.size() / records)
+        .describedAs("false positive rate of %s", filter).isLessThan(1e-3);
+    assertThat(filter.size()).describedAs("request IDs held by %s", filter)
+        .isLessThanOrEqualTo(capacity * DuplicateRecordFilter.GENERATIONS);
+    for (long i = records - capacity * (DuplicateRecordFilter.GENERATIONS - 1); i < records; i++) {
+      if (!falsePositives.contains(i)) {
+        assertThat(filter.isDuplicate("request-" + i, "host")).describedAs("request %d", i)
+            .isTrue();
+      }
+    }
+  }
+
+  @Test
+  public void testSaveAndLoad() throws IOException {
+    Path dest = new Path(tempdir.newFolder().toURI());
+    FileSystem fs = dest.getFileSystem(new Configuration());
+    assertThat(DuplicateRecordFilter.load(fs, dest)).describedAs("nothing saved").isNull();
+
+    DuplicateRecordFilter filter = new DuplicateRecordFilter(1024 * 1024, 1e-4);
+    for (int i = 0; i < 1000; i++) {
+      filter.isDuplicate("request-" + i, "host");
+    }
+    filter.save(fs, dest);
+    DuplicateRecordFilter loaded = DuplicateRecordFilter.load(fs, dest);
+    assertThat(loaded.size()).describedAs("request IDs held by %s", loaded).isEqualTo(1000);
+    assertThat(loaded.getCapacity()).describedAs("capacity").isEqualTo(filter.getCapacity());
+    assertThat(loaded.isDuplicate("request-999", "host")).describedAs("saved").isTrue();
+    assertThat(loaded.isDuplicate("request-1000", "host")).describedAs("new").isFalse();
+  }
+}
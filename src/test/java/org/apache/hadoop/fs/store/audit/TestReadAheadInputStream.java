@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+/**
+ * Unit tests on {@link ReadAheadInputStream}.
+ */
+public class TestReadAheadInputStream {
+
+  private static byte[] data(int length) {
+    byte[] data = new byte[length];
+    new Random(length).nextBytes(data);
+    return data;
+  }
+
+  private static byte[] readAll(InputStream in, int readSize) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[readSize];
+    int n;
+    while ((n = in.read(buffer, 0, buffer.length)) >= 0) {
+      out.write(buffer, 0, n);
+    }
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testReadsAllData() throws IOException {
+    for (int length : new int[]{0, 1, 1000, 4096, 100_000}) {
+      byte[] data = data(length);
+      try (InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(data), 1024, 3)) {
+        assertThat(readAll(in, 700)).describedAs("data of length %d", length).isEqualTo(data);
+        assertThat(in.read()).describedAs("read after the end").isEqualTo(-1);
+      }
+    }
+  }
+
+  @Test
+  public void testSingleByteReads() throws IOException {
+    byte[] data = data(3000);
+    try (InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(data), 1024, 2)) {
+      for (int i = 0; i < data.length; i++) {
+        assertThat(in.read()).describedAs("byte %d", i).isEqualTo(data[i] & 0xff);
+      }
+      assertThat(in.read()).describedAs("read at the end").isEqualTo(-1);
+    }
+  }
+
+  /**
+   * A failure of the source is raised once the data read before it has been consumed.
+   */
+  @Test
+  public void testSourceFailure() throws IOException {
+    InputStream failing = new ByteArrayInputStream(data(2048)) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        int n = super.read(b, off, len);
+        if (n < 0) {
+          throw new IllegalStateException("simulated failure");
+        }
+        return n;
+      }
+    };
+    try (InputStream in = new ReadAheadInputStream(failing, 1024, 4)) {
+      byte[] buffer = new byte[1024];
+      assertThat(in.read(buffer, 0, 1024)).describedAs("first read").isEqualTo(1024);
+      assertThat(in.read(buffer, 0, 1024)).describedAs("second read").isEqualTo(1024);
+      assertThatThrownBy(() -> in.read(buffer, 0, 1024)).isInstanceOf(IOException.class)
+          .hasRootCauseMessage("simulated failure");
+    }
+  }
+
+  /**
+   * Closing the stream before the end stops the read-ahead thread and closes the source.
+   */
+  @Test
+  public void testCloseBeforeEnd() throws IOException {
+    AtomicBoolean closed = new AtomicBoolean();
+    InputStream source = new ByteArrayInputStream(data(100_000)) {
+      @Override
+      public void close() {
+        closed.set(true);
+      }
+    };
+    InputStream in = new ReadAheadInputStream(source, 1024, 2);
+    assertThat(in.read()).describedAs("first byte").isNotNegative();
+    in.close();
+    assertThat(closed.get()).describedAs("source closed").isTrue();
+    assertThatThrownBy(in::read).isInstanceOf(IOException.class);
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.audit;
+
+import static org.apache.hadoop.fs.store.audit.AuditLogProcessor.EPOCH_START;
+import static org.apache.hadoop.fs.store.audit.AuditLogProcessor.FAILED_TO_PARSE_LONG;
+import static org.apache.hadoop.fs.store.audit.TestAuditLogProcessor.SAMPLE_LOG_ENTRY_1;
+import static org.apache.hadoop.fs.store.audit.TestAuditLogProcessor.SAMPLE_LOG_ENTRY_2;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+/**
+ * Unit tests on {@link S3LogTokenizer}: its records must match those of the regular expression
+ * path of {@link AuditLogProcessor}.
+ */
+public class TestS3LogTokenizer {
+
+  private final AuditLogProcessor auditLogProcessor = new AuditLogProcessor(new Configuration(), 1);
+
+  private final S3LogTokenizer tokenizer = new S3LogTokenizer();
+
+  /**
+   * Load the lines of the sample logs.
+   *
+   * @return the lines
+   */
+  private List<String> sampleLogLines() throws IOException {
+    List<String> lines = new ArrayList<>();
+    for (String name : new String[]{"sampleLog1", "sampleLog2"}) {
+      File file = new File(
+          this.getClass().getClassLoader().getResource("TestAuditLogs/" + name).getFile());
+      lines.addAll(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+    }
+    return lines;
+  }
+
+  /**
+   * Parse a line through the regular expression path.
+   *
+   * @param line log entry
+   * @return the record
+   */
+  private AvroS3LogEntryRecord regexRecord(String line) {
+    Map<String, String> map = auditLogProcessor.parseAuditLog(line);
+    assertThat(map).describedAs("regex parsing of %s", line).isNotEmpty();
+    return auditLogProcessor.buildLogRecord(map);
+  }
+
+  /**
+   * Parse a line with the tokenizer into a record.
+   *
+   * @param line log entry
+   * @param record record to fill in
+   * @return the record
+   */
+  private AvroS3LogEntryRecord tokenize(String line, AvroS3LogEntryRecord record) {
+    assertThat(tokenizer.parse(new Text(line), record)).describedAs("tokenizing %s", line)
+        .isTrue();
+    return record;
+  }
+
+  /**
+   * Assert that the tokenizer and the regular expression path build the same record from every
+   * line, reusing the tokenizer's record.
+   *
+   * @param lines log entries
+   */
+  private void assertSameRecords(List<String> lines) {
+    AvroS3LogEntryRecord record = new AvroS3LogEntryRecord();
+    for (String line : lines) {
+      AvroS3LogEntryRecord expected = regexRecord(line);
+      tokenize(line, record);
+      assertThat(record.toString()).describedAs("record of %s", line)
+          .isEqualTo(expected.toString());
+      assertThat(record).describedAs("record of %s", line).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void testSampleLogs() throws IOException {
+    List<String> lines = sampleLogLines();
+    assertThat(lines).hasSize(36 + 36);
+    assertSameRecords(lines);
+  }
+
+  @Test
+  public void testSampleEntries() {
+    List<String> lines = new ArrayList<>();
+    lines.add(SAMPLE_LOG_ENTRY_1.trim());
+    lines.add(SAMPLE_LOG_ENTRY_2.trim());
+    assertSameRecords(lines);
+  }
+
+  /**
+   * Variations of the fields: numbers, errors, missing referrer and user agent, extra fields at
+   * the end of the line, odd audit parameters.
+   */
+  @Test
+  public void testFieldVariants() {
+    String base = SAMPLE_LOG_ENTRY_1.trim();
+    List<String> lines = new ArrayList<>();
+    lines.add(base.replace(" 794 55 17 ", " - abc 17 -5 "));
+    lines.add(base + " - Yes");
+    lines.add(base.replace(" 200 - - ", " 404 NoSuchKey 230 "));
+    lines.add(base.replaceAll("\"https://[^\"]*\"", "\"https://audit.example.org/?\""));
+    lines.add(base.replaceAll("\"https://[^\"]*\"", "-"));
+    lines.add(base.replaceAll("\"Hadoop[^\"]*\"", "-"));
+    lines.add(base.replace("&pr=alice", "&pr=al=ice&&x"));
+    lines.add(base.replace("13/May/2021:11:26:06", "14/Mai/2021:11:26:07"));
+    assertSameRecords(lines);
+
+    AvroS3LogEntryRecord record = tokenize(lines.get(0), new AvroS3LogEntryRecord());
+    assertThat(record.getBytessent()).describedAs("bytes sent").isNull();
+    assertThat(record.getObjectsize()).describedAs("object size").isEqualTo(FAILED_TO_PARSE_LONG);
+    assertThat(record.getTurnaroundtime()).describedAs("turnaround time").isEqualTo(-5L);
+    assertThat(tokenize(lines.get(1), record).getTail()).describedAs("tail").hasToString("- Yes");
+    assertThat(tokenize(lines.get(4), record).getAudit()).describedAs("audit").isEmpty();
+    assertThat(tokenize(lines.get(7), record).getEvent()).describedAs("event")
+        .isEqualTo(EPOCH_START);
+  }
+
+  @Test
+  public void testNotLogEntries() {
+    AvroS3LogEntryRecord record = new AvroS3LogEntryRecord();
+    for (String line : new String[]{"", "not a log entry",
+        SAMPLE_LOG_ENTRY_1.replace(" 200 ", " OK "),
+        SAMPLE_LOG_ENTRY_1.substring(0, SAMPLE_LOG_ENTRY_1.indexOf(" \"PUT"))}) {
+      assertThat(auditLogProcessor.parseAuditLog(line)).describedAs("regex parsing of %s", line)
+          .isEmpty();
+      assertThat(tokenizer.parse(new Text(line), record)).describedAs("tokenizing %s", line)
+          .isFalse();
+    }
+  }
+
+  /**
+   * Timestamps are only parsed when they change.
+   */
+  @Test
+  public void testTimestampMemoised() throws IOException {
+    List<String> lines = sampleLogLines();
+    AvroS3LogEntryRecord record = new AvroS3LogEntryRecord();
+    for (String line : lines) {
+      tokenize(line, record);
+    }
+    assertThat(tokenizer.getTimestampsParsed()).describedAs("timestamps parsed").isEqualTo(1);
+    tokenize(SAMPLE_LOG_ENTRY_2.trim(), record);
+    assertThat(tokenizer.getTimestampsParsed()).describedAs("timestamps parsed").isEqualTo(2);
+  }
+}
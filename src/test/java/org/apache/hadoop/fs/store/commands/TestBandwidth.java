@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.commands;
+
+import static org.apache.hadoop.service.launcher.LauncherExitCodes.EXIT_COMMAND_ARGUMENT_ERROR;
+import static org.apache.hadoop.tools.store.StoreTestUtils.captureSuccess;
+import static org.apache.hadoop.tools.store.StoreTestUtils.expectOutcome;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Run {@link Bandwidth} against the local filesystem.
+ */
+public class TestBandwidth {
+
+  @Rule
+  public TemporaryFolder tempdir = new TemporaryFolder();
+
+  private String testFile() {
+    return new File(tempdir.getRoot(), "bandwidth").toURI().toString();
+  }
+
+  /**
+   * Every read mechanism supported by the local FS must return the uploaded data.
+   */
+  @Test
+  public void testReadMechanisms() throws Exception {
+    final String captured = captureSuccess(new Bandwidth(), "-" + Bandwidth.READ,
+        "readfully,byte,buffer,vectorio", "-" + Bandwidth.RANGE_SIZE, "64", "-" + Bandwidth.RANGES,
+        "3", "2M", testFile());
+    assertThat(captured).as("captured stdout").contains("Download (readfully) Summary")
+        .contains("Download (byte) Summary").contains("Download (buffer) Summary")
+        .contains("Download (vectorio) Summary").contains("Data checksums match");
+  }
+
+  /**
+   * Upload a single repeated buffer; the raw and verified bandwidth are both reported.
+   */
+  @Test
+  public void testSingleBuffer() throws Exception {
+    final String captured = captureSuccess(new Bandwidth(), "-" + Bandwidth.BUFFERS, "1", "2M",
+        testFile());
+    assertThat(captured).as("captured stdout").contains("Upload raw bandwidth")
+        .contains("Download raw bandwidth").contains("verified bandwidth")
+        .contains("Data checksums match");
+  }
+
+  /**
+   * Sweep from two to four parallel streams.
+   */
+  @Test
+  public void testStreamSweep() throws Exception {
+    final String captured = captureSuccess(new Bandwidth(), "-" + Bandwidth.STREAMS, "2",
+        "-" + Bandwidth.MAX_STREAMS, "4", "2M", testFile());
+    assertThat(captured).as("captured stdout").contains("Upload with 2 streams")
+        .contains("Download (readfully) with 2 streams").contains("Stream sweep")
+        .contains("Data checksums match");
+    assertThat(tempdir.getRoot().list()).as("files left after the test").isEmpty();
+  }
+
+  /**
+   * Sweep block sizes and stream counts, saving the results as CSV.
+   */
+  @Test
+  public void testParameterSweep() throws Exception {
+    final File results = new File(tempdir.getRoot(), "sweep.csv");
+    final String captured = captureSuccess(new Bandwidth(), "-" + Bandwidth.SWEEP,
+        "block=1,2;streams=1,2", "-" + Bandwidth.RESULTS, results.toURI().toString(), "2M",
+        testFile());
+    assertThat(captured).as("captured stdout").contains("Sweep block=1,2;streams=1,2")
+        .contains("Sweep results").contains("Data checksums match");
+    final List<String> lines = Files.readAllLines(results.toPath());
+    assertThat(lines).as("sweep results").hasSize(5);
+    assertThat(lines.get(0)).startsWith("\"block\",\"buffers\",\"streams\",\"policy\",\"read\"");
+    assertThat(lines.subList(1, lines.size())).allMatch(l -> l.endsWith("\"match\""));
+  }
+
+  /**
+   * Save a JSON report of a test with a rename.
+   */
+  @Test
+  public void testJsonReport() throws Exception {
+    final File report = new File(tempdir.getRoot(), "report.json");
+    final String captured = captureSuccess(new Bandwidth(), "-" + Bandwidth.JSON,
+        report.toURI().toString(), "-" + Bandwidth.RENAME, "2M", testFile());
+    assertThat(captured).as("captured stdout").contains("Report saved to");
+    final String json = new String(Files.readAllBytes(report.toPath()), StandardCharsets.UTF_8);
+    assertThat(json).as("report")
+        .contains("\"operation\" : \"create-file\"")
+        .contains("\"operation\" : \"upload-block\"")
+        .contains("\"operation\" : \"close-upload\"")
+        .contains("\"operation\" : \"rename\"")
+        .contains("\"operation\" : \"open-for-download\"")
+        .contains("\"operation\" : \"download-block (readfully)\"")
+        .contains("\"phase\" : \"Download (readfully)\"")
+        .contains("\"p99 ms\"")
+        .contains("\"checksums\" : \"match\"")
+        .contains("\"iostatistics\"");
+  }
+
+  /**
+   * Monitor the upload; the local filesystem has no upload queue, so only the writes are sampled.
+   */
+  @Test
+  public void testUploadMonitor() throws Exception {
+    final String captured = captureSuccess(new Bandwidth(), "-" + Bandwidth.MONITOR, "10ms",
+        "4M", testFile());
+    assertThat(captured).as("captured stdout").contains("Upload timeline")
+        .contains("does not publish the statistics of its upload queue")
+        .contains("Data checksums match");
+  }
+
+  /**
+   * A short soak test, sampled every second.
+   */
+  @Test
+  public void testSoak() throws Exception {
+    final File results = new File(tempdir.getRoot(), "soak.csv");
+    final String captured = captureSuccess(new Bandwidth(), "-" + Bandwidth.DURATION, "3s",
+        "-" + Bandwidth.INTERVAL, "1s", "-" + Bandwidth.RESULTS, results.toURI().toString(), "1M",
+        testFile());
+    assertThat(captured).as("captured stdout").contains("Soak test summary")
+        .contains("Data checksums match");
+    final List<String> lines = Files.readAllLines(results.toPath());
+    assertThat(lines).as("time series").hasSizeGreaterThanOrEqualTo(3);
+    assertThat(lines.get(0)).startsWith("\"time\",\"elapsed/seconds\"");
+    assertThat(tempdir.getRoot().list()).as("files left after the test")
+        .containsExactly("soak.csv");
+  }
+
+  @Test
+  public void testInvalidSweep() throws Exception {
+    expectOutcome(EXIT_COMMAND_ARGUMENT_ERROR, new Bandwidth(), "-" + Bandwidth.SWEEP,
+        "blocks=1,2", "1M", testFile());
+  }
+
+  @Test
+  public void testUnknownReadMechanism() throws Exception {
+    expectOutcome(EXIT_COMMAND_ARGUMENT_ERROR, new Bandwidth(), "-" + Bandwidth.READ, "mmap", "1M",
+        testFile());
+  }
+}
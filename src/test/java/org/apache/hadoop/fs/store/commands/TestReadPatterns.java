@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.commands;
+
+import static org.apache.hadoop.service.launcher.LauncherExitCodes.EXIT_COMMAND_ARGUMENT_ERROR;
+import static org.apache.hadoop.tools.store.StoreTestUtils.captureSuccess;
+import static org.apache.hadoop.tools.store.StoreTestUtils.expectOutcome;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import org.apache.hadoop.fs.FileRange;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Run {@link ReadPatterns} against the local filesystem.
+ */
+public class TestReadPatterns {
+
+  @Rule
+  public TemporaryFolder tempdir = new TemporaryFolder();
+
+  private String testFile(String name) {
+    return new File(tempdir.getRoot(), name).toURI().toString();
+  }
+
+  @Test
+  public void testAllPatterns() throws Exception {
+    final File csv = new File(tempdir.getRoot(), "latency.csv");
+    final String captured = captureSuccess(new ReadPatterns(), "-" + ReadPatterns.SIZE, "2M",
+        "-" + ReadPatterns.READS, "8", "-" + ReadPatterns.POLICY, "random,sequential",
+        "-csv", csv.toURI().toString(), testFile("patterns"));
+    assertThat(captured).as("captured stdout").contains("Read policy random")
+        .contains("Read policy sequential").contains("columns: 10 reads")
+        .contains("random: 8 reads").contains("strided: 8 reads").contains("Summary");
+    // header + 2 policies * (10 + 8 + 8) reads
+    final List<String> lines = Files.readAllLines(csv.toPath());
+    assertThat(lines).as("CSV lines").hasSize(1 + 2 * 26);
+    assertThat(tempdir.getRoot().list()).as("files left after the test")
+        .containsExactly("latency.csv");
+  }
+
+  /**
+   * The columnar pattern reads the tail, the footer then column chunks in ascending order.
+   */
+  @Test
+  public void testColumnRanges() throws Throwable {
+    final long length = 1024 * 1024;
+    final List<FileRange> ranges = ReadPatterns.ranges(ReadPatterns.PATTERN_COLUMNS,
+        new Random(0), length, 4096, 16, 8192, 0);
+    assertThat(ranges).hasSize(18);
+    assertThat(ranges.get(0).getOffset()).isEqualTo(length - ReadPatterns.TAIL_LENGTH);
+    assertThat(ranges.get(1).getLength()).isEqualTo(8192);
+    long last = -1;
+    for (FileRange range : ranges.subList(2, ranges.size())) {
+      assertThat(range.getOffset()).as("offset of %s", range).isGreaterThan(last)
+          .isLessThan(length - ReadPatterns.TAIL_LENGTH - 8192);
+      last = range.getOffset();
+    }
+  }
+
+  /**
+   * Sequential and vectored reads with two stream types; the local filesystem ignores the stream
+   * type, but a filesystem instance is created for each.
+   */
+  @Test
+  public void testStreamTypes() throws Exception {
+    final String captured = captureSuccess(new ReadPatterns(), "-" + ReadPatterns.SIZE, "1M",
+        "-" + ReadPatterns.READS, "4", "-" + ReadPatterns.POLICY, "random",
+        "-" + ReadPatterns.PATTERN, "sequential,vectored", "-" + ReadPatterns.STREAM_TYPE,
+        "classic,prefetching", testFile("streamtypes"));
+    assertThat(captured).as("captured stdout").contains("Input stream type classic")
+        .contains("Input stream type prefetching").contains("sequential: 16 reads")
+        .contains("vectored: 4 reads").contains("bytes discarded");
+  }
+
+  /**
+   * Sequential reads cover the whole file; vectored ranges are in order and do not overlap.
+   */
+  @Test
+  public void testSequentialAndVectoredRanges() throws Throwable {
+    final long length = 1024 * 1024 + 100;
+    final List<FileRange> sequential = ReadPatterns.ranges(ReadPatterns.PATTERN_SEQUENTIAL,
+        new Random(0), length, 65536, 4, 8192, 0);
+    assertThat(sequential).hasSize(17);
+    assertThat(sequential.get(16).getLength()).isEqualTo(100);
+    final List<FileRange> vectored = ReadPatterns.ranges(ReadPatterns.PATTERN_VECTORED,
+        new Random(0), length, 4096, 16, 8192, 0);
+    assertThat(vectored).hasSize(16);
+    long end = 0;
+    for (FileRange range : vectored) {
+      assertThat(range.getOffset()).as("offset of %s", range).isGreaterThanOrEqualTo(end);
+      end = range.getOffset() + range.getLength();
+    }
+    assertThat(end).isLessThanOrEqualTo(length);
+  }
+
+  @Test
+  public void testUnknownPattern() throws Exception {
+    expectOutcome(EXIT_COMMAND_ARGUMENT_ERROR, new ReadPatterns(), "-" + ReadPatterns.PATTERN,
+        "col", "-" + ReadPatterns.SIZE, "1M", testFile("unknown"));
+  }
+}
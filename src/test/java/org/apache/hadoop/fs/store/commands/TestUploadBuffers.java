@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.store.commands;
+
+import static org.apache.hadoop.service.launcher.LauncherExitCodes.EXIT_COMMAND_ARGUMENT_ERROR;
+import static org.apache.hadoop.tools.store.StoreTestUtils.captureSuccess;
+import static org.apache.hadoop.tools.store.StoreTestUtils.expectOutcome;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Run {@link UploadBuffers} against the local filesystem, which ignores the s3a options but
+ * exercises the sweep and the measurements.
+ */
+public class TestUploadBuffers {
+
+  @Rule
+  public TemporaryFolder tempdir = new TemporaryFolder();
+
+  @Test
+  public void testUploadBuffers() throws Exception {
+    final File results = new File(tempdir.getRoot(), "buffers.csv");
+    final String captured = captureSuccess(new UploadBuffers(), "-" + UploadBuffers.BUFFER,
+        "disk,array", "-" + UploadBuffers.ACTIVE, "1,2", "-" + UploadBuffers.STREAMS, "2",
+        "-" + UploadBuffers.RESULTS, results.toURI().toString(), "2M",
+        new File(tempdir.getRoot(), "upload").toURI().toString());
+    assertThat(captured).as("captured stdout").contains("Combinations: 4")
+        .contains("Peak use above the baseline").contains("Results");
+    final List<String> lines = Files.readAllLines(results.toPath());
+    assertThat(lines).as("results").hasSize(5);
+    assertThat(lines.get(0)).startsWith("\"buffer\",\"multipart\",\"active\",\"streams\"");
+    assertThat(tempdir.getRoot().list()).as("files left after the test")
+        .containsExactly("buffers.csv");
+  }
+
+  @Test
+  public void testInvalidActiveBlocks() throws Exception {
+    expectOutcome(EXIT_COMMAND_ARGUMENT_ERROR, new UploadBuffers(), "-" + UploadBuffers.ACTIVE,
+        "0", "1M", new File(tempdir.getRoot(), "upload").toURI().toString());
+  }
+}
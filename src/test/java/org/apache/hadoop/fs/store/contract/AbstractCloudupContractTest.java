@@ -17,6 +17,11 @@
  */
 package org.apache.hadoop.fs.store.contract;
 
+import static org.apache.hadoop.fs.statistics.IOStatisticAssertions.verifyStatisticCounterValue;
+import static org.apache.hadoop.fs.statistics.IOStatisticsLogging.ioStatisticsToPrettyString;
+import static org.apache.hadoop.fs.statistics.StreamStatisticNames.STREAM_WRITE_BYTES;
+import static org.apache.hadoop.fs.store.CommonParameters.CSVFILE;
+import static org.apache.hadoop.fs.store.CommonParameters.IOSTATISTICS;
 import static org.apache.hadoop.fs.store.CommonParameters.LARGEST;
 import static org.apache.hadoop.fs.store.CommonParameters.THREADS;
 import static org.apache.hadoop.service.launcher.LauncherExitCodes.EXIT_USAGE;
@@ -29,6 +34,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import org.apache.commons.io.FileUtils;
@@ -36,9 +42,11 @@ import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathIOException;
 import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.fs.contract.AbstractFSContractTestBase;
 import org.apache.hadoop.fs.contract.ContractTestUtils;
+import org.apache.hadoop.fs.statistics.IOStatisticsSnapshot;
 import org.apache.hadoop.fs.tools.cloudup.Cloudup;
 import org.apache.hadoop.tools.store.StoreTestUtils;
 import org.apache.hadoop.util.ExitUtil;
@@ -170,6 +178,93 @@ public abstract class AbstractCloudupContractTest extends AbstractFSContractTest
     Assertions.assertThat(entries).hasSize(expected);
   }
 
+  /**
+   * Drive the copy from a list file. One entry has its size, one must be probed; a file in the
+   * source directory which is not in the list must not be copied.
+   */
+  @Test
+  public void testCloudupFromList() throws Throwable {
+    File srcDir = tempdir.newFolder("cloudup-list");
+    FileUtils.write(new File(srcDir, "sized.txt"), "sized", StandardCharsets.UTF_8);
+    FileUtils.write(new File(srcDir, "unsized.txt"), "unsized", StandardCharsets.UTF_8);
+    FileUtils.write(new File(srcDir, "unlisted.txt"), "unlisted", StandardCharsets.UTF_8);
+    File listFile = tempdir.newFile("cloudup-list.csv");
+    FileUtils.write(listFile, "path,size,modtime\n"
+        + "sized.txt,5,2024-01-01T00:00:00Z\n"
+        + "# comment\n"
+        + "unsized.txt\n", StandardCharsets.UTF_8);
+
+    Path destPath = path("list");
+    getFileSystem().delete(destPath, true);
+
+    expectSuccess(new Cloudup(), "-" + Cloudup.FROM_LIST, listFile.toURI().toString(),
+        srcDir.toURI().toString(), destPath.toUri().toString());
+
+    final FileSystem fs = getFileSystem();
+    ContractTestUtils.assertFileHasLength(fs, new Path(destPath, "sized.txt"), 5);
+    ContractTestUtils.assertFileHasLength(fs, new Path(destPath, "unsized.txt"), 7);
+    assertPathDoesNotExist("unlisted file", new Path(destPath, "unlisted.txt"));
+  }
+
+  /**
+   * A size in the list is not trusted: a file longer or shorter than listed fails to copy.
+   */
+  @Test
+  public void testCloudupFromListWrongSize() throws Throwable {
+    File srcDir = tempdir.newFolder("cloudup-list-size");
+    FileUtils.write(new File(srcDir, "longer.txt"), "longer", StandardCharsets.UTF_8);
+    FileUtils.write(new File(srcDir, "shorter.txt"), "short", StandardCharsets.UTF_8);
+    File listFile = tempdir.newFile("cloudup-list-size.csv");
+    Path destPath = path("list-size");
+
+    FileUtils.write(listFile, "longer.txt,3\n", StandardCharsets.UTF_8);
+    intercept(PathIOException.class, "longer than", () -> StoreTestUtils.exec(new Cloudup(),
+        "-" + Cloudup.FROM_LIST, listFile.toURI().toString(), srcDir.toURI().toString(),
+        destPath.toUri().toString()));
+
+    FileUtils.write(listFile, "shorter.txt,50\n", StandardCharsets.UTF_8);
+    intercept(PathIOException.class, "shorter than", () -> StoreTestUtils.exec(new Cloudup(),
+        "-" + Cloudup.FROM_LIST, listFile.toURI().toString(), srcDir.toURI().toString(),
+        destPath.toUri().toString()));
+  }
+
+  /**
+   * Log the operations to a CSV file and save the stream statistics.
+   */
+  @Test
+  public void testCloudupOperationLog() throws Throwable {
+    int expected = createTestFiles(sourceDir, 8);
+    File csvFile = new File(tempdir.newFolder("cloudup-logs"), "operations.csv");
+    File statsFile = new File(csvFile.getParentFile(), "iostatistics.json");
+    final long bytes = FileUtils.sizeOfDirectory(sourceDir);
+    Path destPath = methodPath();
+
+    expectSuccess(new Cloudup(), "-" + THREADS, "2", "-" + CSVFILE, csvFile.toURI().toString(),
+        "-" + IOSTATISTICS, statsFile.toURI().toString(), sourceDir.toURI().toString(),
+        destPath.toString());
+
+    List<String> rows = FileUtils.readLines(csvFile, StandardCharsets.UTF_8);
+    Assertions.assertThat(rows).describedAs("rows in %s", csvFile).hasSize(expected + 1);
+    Assertions.assertThat(rows.get(0)).startsWith("\"id\",\"thread\"");
+    Assertions.assertThat(rows.subList(1, rows.size()))
+        .allSatisfy(row -> Assertions.assertThat(row).contains("\"succeeded\""));
+    IOStatisticsSnapshot stats = IOStatisticsSnapshot.serializer()
+        .load(FileSystem.getLocal(getContract().getConf()), new Path(statsFile.toURI()));
+    LOG.info("Stream statistics {}", ioStatisticsToPrettyString(stats));
+    if (hasOutputStreamStatistics()) {
+      verifyStatisticCounterValue(stats, STREAM_WRITE_BYTES, bytes);
+    }
+  }
+
+  /**
+   * Do the output streams of the destination filesystem have IOStatistics?
+   *
+   * @return true if the bytes written are counted
+   */
+  protected boolean hasOutputStreamStatistics() {
+    return true;
+  }
+
   @Test
   public void testNoArgs() throws Throwable {
     // no args == failure
@@ -48,4 +48,12 @@ public class TestHdfsCloudupContract extends AbstractCloudupContractTest {
   protected AbstractFSContract createContract(Configuration conf) {
     return new HDFSContract(conf);
   }
+
+  /**
+   * HDFS output streams have no IOStatistics.
+   */
+  @Override
+  protected boolean hasOutputStreamStatistics() {
+    return false;
+  }
 }